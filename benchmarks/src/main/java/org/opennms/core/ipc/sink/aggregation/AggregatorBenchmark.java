@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.ipc.sink.aggregation;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.ipc.sink.api.AggregationPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the throughput of the {@link Aggregator} when many producers
+ * share a small or large number of keys.
+ *
+ * Run with:
+ * <pre>
+ *   mvn -Pbenchmarks -pl benchmarks -am install
+ *   java -jar benchmarks/target/benchmarks.jar AggregatorBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class AggregatorBenchmark {
+
+    @Param({"1", "16", "1024"})
+    public int numKeys;
+
+    @Param({"0", "100"})
+    public int completionIntervalMs;
+
+    private final AtomicLong numDispatched = new AtomicLong();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private AggregatingMessageProducer<Long, long[]> producer;
+
+    @Setup
+    public void setUp() {
+        producer = new AggregatingMessageProducer<Long, long[]>("benchmark", new AggregationPolicy<Long, long[]>() {
+            @Override
+            public int getCompletionSize() {
+                return 100;
+            }
+
+            @Override
+            public int getCompletionIntervalMs() {
+                return completionIntervalMs;
+            }
+
+            @Override
+            public Object key(Long message) {
+                return message % numKeys;
+            }
+
+            @Override
+            public long[] aggregate(long[] oldBucket, Long newMessage) {
+                final long[] bucket = oldBucket != null ? oldBucket : new long[1];
+                bucket[0] += newMessage;
+                return bucket;
+            }
+        }) {
+            @Override
+            public void dispatch(long[] message) {
+                numDispatched.incrementAndGet();
+            }
+        };
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        producer.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void aggregate1Producer() {
+        producer.send(sequence.incrementAndGet());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void aggregate4Producers() {
+        producer.send(sequence.incrementAndGet());
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void aggregate16Producers() {
+        producer.send(sequence.incrementAndGet());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(AggregatorBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
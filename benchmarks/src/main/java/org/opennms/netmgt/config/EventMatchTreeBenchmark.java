@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.config;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.netmgt.xml.eventconf.Event;
+import org.opennms.netmgt.xml.eventconf.EventMatchTree;
+import org.opennms.netmgt.xml.eventconf.Events;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * Compares the time taken to find the event definitions for events that
+ * don't match by UEI using the {@link EventMatchTree} and the
+ * {@link org.opennms.netmgt.xml.eventconf.EventMatchers} evaluated by
+ * {@link Events#findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event)}.
+ *
+ * Run with:
+ * <pre>
+ *   mvn -Pbenchmarks -pl benchmarks -am install
+ *   java -jar benchmarks/target/benchmarks.jar EventMatchTreeBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EventMatchTreeBenchmark {
+
+    private Events m_events;
+
+    private EventMatchTree m_tree;
+
+    private org.opennms.netmgt.xml.event.Event[] m_matchingEvents;
+
+    @Setup
+    public void setUp() throws Exception {
+        final DefaultEventConfDao eventConfDao = new DefaultEventConfDao();
+        eventConfDao.setConfigResource(new FileSystemResource(ConfigurationTestUtils.getFileForConfigFile("eventconf.xml")));
+        eventConfDao.afterPropertiesSet();
+
+        m_events = eventConfDao.getRootEvents();
+        m_tree = EventMatchTree.build(m_events);
+        final List<org.opennms.netmgt.xml.event.Event> matchingEvents = EventMatchTreeTest.createMatchingEvents(eventConfDao);
+        m_matchingEvents = matchingEvents.toArray(new org.opennms.netmgt.xml.event.Event[matchingEvents.size()]);
+    }
+
+    @Benchmark
+    public void eventMatchers(Blackhole bh) {
+        for (final org.opennms.netmgt.xml.event.Event e : m_matchingEvents) {
+            final Event eventConf = m_events.findFirstMatchingEvent(e);
+            bh.consume(eventConf);
+        }
+    }
+
+    @Benchmark
+    public void eventMatchTree(Blackhole bh) {
+        for (final org.opennms.netmgt.xml.event.Event e : m_matchingEvents) {
+            final Event eventConf = m_tree.findFirstMatchingEvent(e);
+            bh.consume(eventConf);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(EventMatchTreeBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
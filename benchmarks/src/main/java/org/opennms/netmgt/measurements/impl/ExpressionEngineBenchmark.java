@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.measurements.api.ExpressionEngine;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.opennms.netmgt.measurements.model.Source;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Compares the cost of applying the expressions used in {@link JEXLExpressionEngineTest}
+ * to a typical graph's worth of rows with the {@link JEXLExpressionEngine} and the
+ * {@link ColumnarExpressionEngine}.
+ *
+ * Run with:
+ * <pre>
+ *   mvn -Pbenchmarks -pl benchmarks -am install
+ *   java -jar benchmarks/target/benchmarks.jar ExpressionEngineBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ExpressionEngineBenchmark {
+
+    private static final int NUM_ROWS = 1000;
+
+    @Param({"JEXL", "COLUMNAR"})
+    public String engine;
+
+    @Param({
+        "x * 5 + 7",
+        "math:sin(x)",
+        "( ( (A == __inf) || (A == __neg_inf) || (B == __inf) || (B == __neg_inf) || (x == __inf) || (x == __neg_inf) || (x < A) || (x > B) ) ? NaN : x )",
+        "( ( ( A == NaN ) && ( B == NaN ) ) ? NaN : ( ( A == NaN ) ? B : ( ( B == NaN ) ? A : ( A + B ) ) ) )",
+        "speed / 0.62137 * 1 * __diff_time + timestamp / 125.0d"
+    })
+    public String expression;
+
+    private ExpressionEngine m_engine;
+
+    private QueryRequest m_request;
+
+    private long[] m_timestamps;
+
+    private Map<String, double[]> m_columns;
+
+    private Map<String, Object> m_constants;
+
+    @Setup
+    public void setUp() {
+        m_engine = "JEXL".equals(engine) ? new JEXLExpressionEngine() : new ColumnarExpressionEngine();
+
+        m_request = new QueryRequest();
+        m_request.setSources(Lists.newArrayList(new Source("x", "resource", "x", null, false),
+                new Source("A", "resource", "A", null, false), new Source("B", "resource", "B", null, false)));
+        m_request.setExpressions(Lists.newArrayList(new Expression("y", expression, false)));
+
+        // Sprinkle some unknown values between the samples
+        m_timestamps = new long[NUM_ROWS];
+        final double x[] = new double[NUM_ROWS];
+        final double a[] = new double[NUM_ROWS];
+        final double b[] = new double[NUM_ROWS];
+        for (int i = 0; i < NUM_ROWS; i++) {
+            m_timestamps[i] = i * 300000L;
+            x[i] = i % 17 == 0 ? Double.NaN : i;
+            a[i] = i % 13 == 0 ? Double.NaN : i / 2d;
+            b[i] = i % 11 == 0 ? Double.NaN : i * 2d;
+        }
+        m_columns = Maps.newHashMap();
+        m_columns.put("x", x);
+        m_columns.put("A", a);
+        m_columns.put("B", b);
+
+        m_constants = Maps.newHashMap();
+        m_constants.put("speed", 65);
+    }
+
+    @Benchmark
+    public FetchResults applyExpressions() throws ExpressionException {
+        final FetchResults results = new FetchResults(m_timestamps, Maps.newHashMap(m_columns), 300, m_constants);
+        m_engine.applyExpressions(m_request, results);
+        return results;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(ExpressionEngineBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
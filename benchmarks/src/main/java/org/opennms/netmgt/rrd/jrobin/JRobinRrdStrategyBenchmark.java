@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.opennms.netmgt.rrd.RrdAttributeType;
+import org.opennms.netmgt.rrd.RrdDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the cost of persisting a batch of updates to one of many .jrb files with the
+ * default FILE backend, where every batch opens and closes the file, and with the MMAP
+ * backend, where the file stays mapped in the LRU of open files between batches.
+ *
+ * Run with:
+ * <pre>
+ *   mvn -Pbenchmarks -pl benchmarks -am install
+ *   java -jar benchmarks/target/benchmarks.jar JRobinRrdStrategyBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class JRobinRrdStrategyBenchmark {
+
+    private static final int NUM_FILES = 256;
+
+    private static final int STEP = 300;
+
+    @Param({"FILE", "MMAP"})
+    public String backend;
+
+    @Param({"1", "4"})
+    public int updatesPerBatch;
+
+    private JRobinRrdStrategy m_strategy;
+
+    private File m_dir;
+
+    private String[] m_files;
+
+    private long[] m_lastUpdates;
+
+    private int m_next = 0;
+
+    @Setup
+    public void setUp() throws Exception {
+        final Properties props = new Properties();
+        props.setProperty("org.jrobin.core.RrdBackendFactory", backend);
+        props.setProperty("org.opennms.rrd.jrobin.maxOpenFiles", Integer.toString(NUM_FILES));
+        m_strategy = new JRobinRrdStrategy();
+        m_strategy.setConfigurationProperties(props);
+
+        m_dir = Files.createTempDirectory("jrobin-benchmark").toFile();
+        m_files = new String[NUM_FILES];
+        m_lastUpdates = new long[NUM_FILES];
+        final long start = (System.currentTimeMillis() / 1000L) / STEP * STEP;
+        for (int i = 0; i < NUM_FILES; i++) {
+            final RrdDef def = m_strategy.createDefinition("benchmark", m_dir.getAbsolutePath(), "file" + i, STEP,
+                    Collections.singletonList(new RrdDataSource("value", RrdAttributeType.GAUGE, STEP * 2, "U", "U")),
+                    Collections.singletonList("RRA:AVERAGE:0.5:1:8928"));
+            m_strategy.createFile(def);
+            m_files[i] = def.getPath();
+            m_lastUpdates[i] = start;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        final File[] files = m_dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        m_dir.delete();
+    }
+
+    @Benchmark
+    public long updateBatch() throws Exception {
+        final int index = m_next++ % NUM_FILES;
+        final RrdDb rrdDb = m_strategy.openFile(m_files[index]);
+        try {
+            for (int i = 0; i < updatesPerBatch; i++) {
+                m_lastUpdates[index] += STEP;
+                m_strategy.updateFile(rrdDb, "benchmark", m_lastUpdates[index] + ":" + (index + i));
+            }
+        } finally {
+            m_strategy.closeFile(rrdDb);
+        }
+        return m_lastUpdates[index];
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(JRobinRrdStrategyBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import static org.opennms.core.utils.InetAddressUtils.str;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.mock.snmp.MockSnmpAgent;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.snmp4j.mp.MPv3;
+import org.snmp4j.smi.OctetString;
+import org.springframework.core.io.ClassPathResource;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Soaks the {@link Snmp4JStrategy} with bursts of concurrent requests to many agents,
+ * comparing a session per request with the sessions shared by the {@link Snmp4JSessionPool}.
+ *
+ * Run with:
+ * <pre>
+ *   mvn -Pbenchmarks -pl benchmarks -am install
+ *   java -jar benchmarks/target/benchmarks.jar Snmp4JSessionPoolBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+public class Snmp4JSessionPoolBenchmark {
+
+    private static final SnmpObjId[] SYS_NAME = new SnmpObjId[] { SnmpObjId.get(".1.3.6.1.2.1.1.5.0") };
+
+    private static final int NUM_AGENTS = 50;
+
+    @Param({"PER_REQUEST", "SHARED"})
+    public String sessions;
+
+    @Param({"2", "3"})
+    public int version;
+
+    private final List<MockSnmpAgent> m_agents = Lists.newArrayList();
+
+    private final List<SnmpAgentConfig> m_agentConfigs = Lists.newArrayList();
+
+    private Snmp4JSessionPool m_sessionPool;
+
+    private Snmp4JStrategy m_strategy;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        for (int i = 0; i < NUM_AGENTS; i++) {
+            // Every agent needs its own engine ID, like real ones
+            final MockSnmpAgent agent = MockSnmpAgent.createAgentAndRun(new ClassPathResource("snmpTestData1.properties").getURL(),
+                    str(InetAddressUtils.ONE_TWENTY_SEVEN) + "/0", new OctetString(MPv3.createLocalEngineID(new OctetString("agent" + i))));
+            m_agents.add(agent);
+
+            final SnmpAgentConfig config = new SnmpAgentConfig(agent.getInetAddress());
+            config.setPort(agent.getPort());
+            if (version == 3) {
+                // Uses the default SNMPv3 user of the mock agent
+                config.setVersion(SnmpAgentConfig.VERSION3);
+                config.setSecurityLevel(SnmpAgentConfig.AUTH_PRIV);
+                config.setSecurityName("opennmsUser");
+                config.setAuthProtocol("MD5");
+                config.setAuthPassPhrase("0p3nNMSv3");
+                config.setPrivProtocol("DES");
+                config.setPrivPassPhrase("0p3nNMSv3");
+            } else {
+                config.setVersion(SnmpAgentConfig.VERSION2C);
+            }
+            m_agentConfigs.add(config);
+        }
+        m_sessionPool = "SHARED".equals(sessions) ? new Snmp4JSessionPool(Snmp4JSessionPool.DEFAULT_NUM_SESSIONS,
+                Runtime.getRuntime().availableProcessors()) : null;
+        m_strategy = new Snmp4JStrategy(m_sessionPool);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        if (m_sessionPool != null) {
+            m_sessionPool.close();
+        }
+        for (MockSnmpAgent agent : m_agents) {
+            agent.shutDownAndWait();
+        }
+    }
+
+    /**
+     * Sends a request to every agent at once, and waits for all of the responses.
+     */
+    @Benchmark
+    @OperationsPerInvocation(NUM_AGENTS)
+    public void getAsync() throws Exception {
+        final List<CompletableFuture<SnmpValue[]>> futures = Lists.newArrayListWithCapacity(NUM_AGENTS);
+        for (SnmpAgentConfig agentConfig : m_agentConfigs) {
+            futures.add(m_strategy.getAsync(agentConfig, SYS_NAME));
+        }
+        for (CompletableFuture<SnmpValue[]> future : futures) {
+            if (future.get()[0] == null) {
+                throw new IllegalStateException("Request failed.");
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(Snmp4JSessionPoolBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.opennms.netmgt.config.syslogd.Match;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+import org.opennms.netmgt.syslogd.SyslogRuleIndex.UeiRule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the time taken to find the first matching &lt;ueiMatch&gt; rule for a message
+ * by evaluating every rule in order, as {@link ConvertToEvent} used to, and by only
+ * evaluating the candidates found by the {@link SyslogRuleIndex}.
+ *
+ * The rules mimic Cisco style message identifiers, i.e. '%LINK-3-UPDOWN: ...', mixing
+ * substring and regex rules, and half of the messages don't match any rule.
+ *
+ * Run with:
+ * <pre>
+ *   mvn -Pbenchmarks -pl benchmarks -am install
+ *   java -jar benchmarks/target/benchmarks.jar SyslogRuleIndexBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SyslogRuleIndexBenchmark {
+
+    private static final String[] FACILITIES = new String[] { "LINK", "LINEPROTO", "SYS", "SEC", "BGP", "OSPF", "SNMP", "DOT11", "PLATFORM", "ENVMON" };
+
+    private static final int NUM_MESSAGES = 1024;
+
+    @Param({"1000", "10000"})
+    public int numRules;
+
+    private SyslogRuleIndex m_index;
+
+    private List<UeiRule> m_rules;
+
+    private String[] m_messages;
+
+    private int m_next = 0;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        final List<UeiMatch> ueiMatches = new ArrayList<>(numRules);
+        final List<String> identifiers = new ArrayList<>(numRules);
+        for (int i = 0; i < numRules; i++) {
+            final String identifier = String.format("%%%s-%d-EVENT%d", FACILITIES[random.nextInt(FACILITIES.length)], random.nextInt(8), i);
+            identifiers.add(identifier);
+            final Match match = new Match();
+            if (random.nextBoolean()) {
+                match.setType("substr");
+                match.setExpression(identifier + ":");
+            } else {
+                match.setType("regex");
+                match.setExpression("^" + identifier + ": Interface (\\S+), changed state to (\\w+)");
+            }
+            final UeiMatch ueiMatch = new UeiMatch();
+            ueiMatch.setMatch(match);
+            ueiMatch.setUei("uei.opennms.org/vendor/cisco/syslog/" + i);
+            ueiMatches.add(ueiMatch);
+        }
+        m_index = new SyslogRuleIndex(ueiMatches, null);
+        m_rules = m_index.getUeiRules();
+
+        m_messages = new String[NUM_MESSAGES];
+        for (int i = 0; i < NUM_MESSAGES; i++) {
+            final String identifier = random.nextBoolean() ? identifiers.get(random.nextInt(identifiers.size())) : "%UNKNOWN-5-EVENT" + i;
+            m_messages[i] = identifier + ": Interface GigabitEthernet0/" + random.nextInt(48) + ", changed state to " + (random.nextBoolean() ? "up" : "down");
+        }
+    }
+
+    @Benchmark
+    public int linearScan() {
+        final String message = nextMessage();
+        for (UeiRule rule : m_rules) {
+            if (matches(rule, message)) {
+                return rule.getIndex();
+            }
+        }
+        return -1;
+    }
+
+    @Benchmark
+    public int indexedScan() {
+        final String message = nextMessage();
+        final BitSet candidates = m_index.getUeiCandidates(message);
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            final UeiRule rule = m_rules.get(i);
+            if (matches(rule, message)) {
+                return rule.getIndex();
+            }
+        }
+        return -1;
+    }
+
+    private String nextMessage() {
+        return m_messages[m_next++ & (NUM_MESSAGES - 1)];
+    }
+
+    private static boolean matches(UeiRule rule, String message) {
+        if (rule.isSubstring()) {
+            return message.contains(rule.getUeiMatch().getMatch().getExpression());
+        }
+        final Pattern pattern = rule.getPattern();
+        return pattern != null && pattern.matcher(message).find();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(SyslogRuleIndexBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
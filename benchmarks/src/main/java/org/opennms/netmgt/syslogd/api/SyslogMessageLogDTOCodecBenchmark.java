@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.syslogd.api;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.xml.XmlHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the time taken to marshal and unmarshal a {@link SyslogMessageLogDTO}
+ * using the XML format, as done by the {@link org.opennms.netmgt.syslogd.SyslogSinkModule},
+ * and the {@link SyslogMessageLogDTOCodec}.
+ *
+ * Run with:
+ * <pre>
+ *   mvn -Pbenchmarks -pl benchmarks -am install
+ *   java -jar benchmarks/target/benchmarks.jar SyslogMessageLogDTOCodecBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SyslogMessageLogDTOCodecBenchmark {
+
+    @Param({"1", "100"})
+    public int numMessages;
+
+    private XmlHandler<SyslogMessageLogDTO> m_xmlHandler;
+
+    private SyslogMessageLogDTO m_messageLog;
+
+    @Setup
+    public void setUp() {
+        m_xmlHandler = new XmlHandler<>(SyslogMessageLogDTO.class);
+        m_messageLog = SyslogMessageLogDTOCodecTest.createMessageLog(numMessages);
+    }
+
+    @Benchmark
+    public SyslogMessageLogDTO xmlRoundTrip() {
+        return m_xmlHandler.unmarshal(m_xmlHandler.marshal(m_messageLog));
+    }
+
+    @Benchmark
+    public SyslogMessageLogDTO binaryRoundTrip() {
+        return SyslogMessageLogDTOCodec.INSTANCE.decode(ByteBuffer.wrap(SyslogMessageLogDTOCodec.INSTANCE.encode(m_messageLog)));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(SyslogMessageLogDTOCodecBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
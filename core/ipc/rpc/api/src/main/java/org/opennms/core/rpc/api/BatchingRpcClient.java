@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.rpc.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@link RpcClient} that packs the requests issued to the same location within a short
+ * linger window, and sends these in a single exchange using a {@link BatchSender}.
+ *
+ * The responses are matched back to the requests by position, and requests with
+ * a time to live are timed out individually, regardless of when their batch completes.
+ *
+ * Batching is opt-in, see {@link #LINGER_MS_PROPERTY}.
+ */
+public class BatchingRpcClient<S extends RpcRequest, T extends RpcResponse> implements RpcClient<S,T> {
+
+    /**
+     * Number of milliseconds to wait for other requests before sending a batch. Batching
+     * is disabled when this is 0, which is the default.
+     *
+     * Can be set for a given module by appending its id, i.e. <code>org.opennms.core.rpc.batch.lingerMs.SNMP=5</code>.
+     */
+    public static final String LINGER_MS_PROPERTY = "org.opennms.core.rpc.batch.lingerMs";
+
+    /**
+     * Maximum number of requests in a batch, a batch is sent as soon as it is full.
+     */
+    public static final String MAX_BATCH_SIZE_PROPERTY = "org.opennms.core.rpc.batch.maxSize";
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+
+    /**
+     * Sends a batch of requests to a location.
+     */
+    public interface BatchSender<S extends RpcRequest, T extends RpcResponse> {
+        /**
+         * @param location the location of all the requests
+         * @param requests the requests to send
+         * @param timeToLiveMs the time to live of the batch, or <code>null</code> to use the default
+         * @return the responses, in the same order as the requests
+         */
+        CompletableFuture<List<T>> send(String location, List<S> requests, Long timeToLiveMs);
+    }
+
+    private final BatchSender<S,T> sender;
+
+    private final long lingerMs;
+
+    private final int maxBatchSize;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final ConcurrentMap<String, Batch> batchesByLocation = new ConcurrentHashMap<>();
+
+    public BatchingRpcClient(BatchSender<S,T> sender, long lingerMs, int maxBatchSize, ScheduledExecutorService scheduler) {
+        this.sender = Objects.requireNonNull(sender);
+        this.scheduler = Objects.requireNonNull(scheduler);
+        if (lingerMs <= 0) {
+            throw new IllegalArgumentException("Linger must be > 0, got " + lingerMs);
+        }
+        this.lingerMs = lingerMs;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    /**
+     * @return the linger for the given module, or 0 if its requests should not be batched
+     */
+    public static long getLingerMs(RpcModule<?,?> module) {
+        return Long.getLong(LINGER_MS_PROPERTY + "." + module.getId(), Long.getLong(LINGER_MS_PROPERTY, 0L));
+    }
+
+    public static int getMaxBatchSize() {
+        return Integer.getInteger(MAX_BATCH_SIZE_PROPERTY, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    @Override
+    public CompletableFuture<T> execute(S request) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final Long ttl = request.getTimeToLiveMs();
+        if (ttl != null && ttl > 0) {
+            final ScheduledFuture<?> timeout = scheduler.schedule(() -> {
+                future.completeExceptionally(new RequestTimedOutException(
+                        new TimeoutException("No response received within " + ttl + "ms.")));
+            }, ttl, TimeUnit.MILLISECONDS);
+            future.whenComplete((res, ex) -> timeout.cancel(false));
+        }
+
+        final List<Batch> full = new ArrayList<>(1);
+        batchesByLocation.compute(request.getLocation(), (location, batch) -> {
+            if (batch == null) {
+                batch = new Batch(location);
+                final Batch lingering = batch;
+                scheduler.schedule(() -> flush(lingering), lingerMs, TimeUnit.MILLISECONDS);
+            }
+            batch.add(request, future);
+            if (batch.size() >= maxBatchSize) {
+                // Send it now, the next request will start a new batch
+                full.add(batch);
+                return null;
+            }
+            return batch;
+        });
+        if (!full.isEmpty()) {
+            send(full.get(0));
+        }
+        return future;
+    }
+
+    private void flush(Batch batch) {
+        // The batch may have already been sent if it filled up
+        if (batchesByLocation.remove(batch.location, batch)) {
+            send(batch);
+        }
+    }
+
+    private void send(Batch batch) {
+        final CompletableFuture<List<T>> responses;
+        try {
+            responses = sender.send(batch.location, batch.requests, batch.getTimeToLiveMs());
+        } catch (Throwable t) {
+            batch.fail(t);
+            return;
+        }
+        responses.whenComplete((res, ex) -> {
+            if (ex != null) {
+                batch.fail(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+            } else if (res == null || res.size() != batch.size()) {
+                batch.fail(new IllegalStateException(String.format("Expected %d responses, but got %s.",
+                        batch.size(), res != null ? res.size() : null)));
+            } else {
+                batch.complete(res);
+            }
+        });
+    }
+
+    private class Batch {
+        private final String location;
+        private final List<S> requests = new ArrayList<>();
+        private final List<CompletableFuture<T>> futures = new ArrayList<>();
+
+        private Batch(String location) {
+            this.location = location;
+        }
+
+        private void add(S request, CompletableFuture<T> future) {
+            requests.add(request);
+            futures.add(future);
+        }
+
+        private int size() {
+            return requests.size();
+        }
+
+        /**
+         * The batch lives as long as its longest lived request.
+         */
+        private Long getTimeToLiveMs() {
+            Long max = null;
+            for (S request : requests) {
+                final Long ttl = request.getTimeToLiveMs();
+                if (ttl == null) {
+                    // Use the default
+                    return null;
+                }
+                max = max == null ? ttl : Math.max(max, ttl);
+            }
+            return max;
+        }
+
+        private void complete(List<T> responses) {
+            for (int i = 0; i < responses.size(); i++) {
+                final T response = responses.get(i);
+                if (response.getErrorMessage() != null) {
+                    futures.get(i).completeExceptionally(new RemoteExecutionException(response.getErrorMessage()));
+                } else {
+                    futures.get(i).complete(response);
+                }
+            }
+        }
+
+        private void fail(Throwable t) {
+            for (CompletableFuture<T> future : futures) {
+                future.completeExceptionally(t);
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.rpc.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs several marshaled requests, or responses, into a single string.
+ *
+ * The envelope starts with {@link #PREFIX}, followed by every payload
+ * preceded by its length and a colon, i.e. <code>rpc-batch/1\n5:hello3:foo</code>.
+ */
+public final class RpcBatchEnvelope {
+
+    public static final String PREFIX = "rpc-batch/1\n";
+
+    private static final char LENGTH_SEPARATOR = ':';
+
+    private RpcBatchEnvelope() {}
+
+    public static String encode(List<String> payloads) {
+        int length = PREFIX.length();
+        for (String payload : payloads) {
+            length += payload.length() + 11;
+        }
+        final StringBuilder sb = new StringBuilder(length);
+        sb.append(PREFIX);
+        for (String payload : payloads) {
+            sb.append(payload.length()).append(LENGTH_SEPARATOR).append(payload);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the given string is not a valid envelope
+     */
+    public static List<String> decode(String envelope) {
+        if (envelope == null || !envelope.startsWith(PREFIX)) {
+            throw new IllegalArgumentException("Not a batch envelope.");
+        }
+        final List<String> payloads = new ArrayList<>();
+        int offset = PREFIX.length();
+        while (offset < envelope.length()) {
+            final int separator = envelope.indexOf(LENGTH_SEPARATOR, offset);
+            if (separator < 0) {
+                throw new IllegalArgumentException("Truncated batch envelope at offset " + offset);
+            }
+            final int length;
+            try {
+                length = Integer.parseInt(envelope.substring(offset, separator));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid payload length at offset " + offset, e);
+            }
+            final int end = separator + 1 + length;
+            if (length < 0 || end > envelope.length()) {
+                throw new IllegalArgumentException("Truncated batch envelope at offset " + offset);
+            }
+            payloads.add(envelope.substring(separator + 1, end));
+            offset = end;
+        }
+        return payloads;
+    }
+
+    public static boolean isEnvelope(String body) {
+        return body != null && body.startsWith(PREFIX);
+    }
+}
@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.rpc.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchingRpcClientTest {
+
+    private ScheduledExecutorService scheduler;
+
+    private final List<List<EchoRequest>> batches = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void canEncodeAndDecodeEnvelopes() {
+        final List<String> payloads = Arrays.asList("", "a", "1:2:3", "<xml>\n</xml>", "rpc-batch/1\n");
+        final String envelope = RpcBatchEnvelope.encode(payloads);
+        assertTrue(RpcBatchEnvelope.isEnvelope(envelope));
+        assertEquals(payloads, RpcBatchEnvelope.decode(envelope));
+        assertEquals(Collections.emptyList(), RpcBatchEnvelope.decode(RpcBatchEnvelope.encode(Collections.emptyList())));
+
+        try {
+            RpcBatchEnvelope.decode(RpcBatchEnvelope.PREFIX + "10:short");
+            fail("Truncated envelopes should be rejected.");
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+    }
+
+    @Test(timeout=10000)
+    public void canBatchRequestsByLocation() throws Exception {
+        final BatchingRpcClient<EchoRequest,EchoResponse> client = new BatchingRpcClient<>(this::echo, 100, 100, scheduler);
+
+        final List<CompletableFuture<EchoResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(client.execute(new EchoRequest(i % 2 == 0 ? "A" : "B", "msg" + i, null)));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals("msg" + i, futures.get(i).get().body);
+        }
+        // One batch per location
+        assertEquals(2, batches.size());
+        assertEquals(5, batches.get(0).size());
+        assertEquals(5, batches.get(1).size());
+    }
+
+    @Test(timeout=10000)
+    public void sendsFullBatchesImmediately() throws Exception {
+        final BatchingRpcClient<EchoRequest,EchoResponse> client = new BatchingRpcClient<>(this::echo, TimeUnit.HOURS.toMillis(1), 3, scheduler);
+
+        final List<CompletableFuture<EchoResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            futures.add(client.execute(new EchoRequest("A", "msg" + i, null)));
+        }
+        for (int i = 0; i < 6; i++) {
+            assertEquals("msg" + i, futures.get(i).get().body);
+        }
+        assertEquals(2, batches.size());
+    }
+
+    @Test(timeout=10000)
+    public void canTimeoutRequestsIndividually() throws Exception {
+        final CompletableFuture<List<EchoResponse>> pending = new CompletableFuture<>();
+        final BatchingRpcClient<EchoRequest,EchoResponse> client = new BatchingRpcClient<>((location, requests, ttl) -> {
+            // The batch should live as long as the longest lived request
+            assertEquals(Long.valueOf(60000), ttl);
+            return pending;
+        }, 10, 100, scheduler);
+
+        final CompletableFuture<EchoResponse> shortLived = client.execute(new EchoRequest("A", "short", 50L));
+        final CompletableFuture<EchoResponse> longLived = client.execute(new EchoRequest("A", "long", 60000L));
+
+        try {
+            shortLived.get();
+            fail("Request should have timed out.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RequestTimedOutException);
+        }
+
+        pending.complete(Arrays.asList(new EchoResponse("short", null), new EchoResponse("long", null)));
+        assertEquals("long", longLived.get().body);
+    }
+
+    @Test(timeout=10000)
+    public void canFailRequestsIndividually() throws Exception {
+        final BatchingRpcClient<EchoRequest,EchoResponse> client = new BatchingRpcClient<>((location, requests, ttl) -> {
+            return CompletableFuture.completedFuture(Arrays.asList(new EchoResponse("ok", null), new EchoResponse(null, "boom")));
+        }, 10, 100, scheduler);
+
+        final CompletableFuture<EchoResponse> ok = client.execute(new EchoRequest("A", "ok", null));
+        final CompletableFuture<EchoResponse> failed = client.execute(new EchoRequest("A", "fail", null));
+        assertEquals("ok", ok.get().body);
+        try {
+            failed.get();
+            fail("Request should have failed.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RemoteExecutionException);
+        }
+    }
+
+    @Test(timeout=10000)
+    public void failsAllRequestsWhenTheBatchFails() throws Exception {
+        final BatchingRpcClient<EchoRequest,EchoResponse> client = new BatchingRpcClient<>((location, requests, ttl) -> {
+            final CompletableFuture<List<EchoResponse>> future = new CompletableFuture<>();
+            future.completeExceptionally(new RequestRejectedException(new Exception("no consumer")));
+            return future;
+        }, 10, 100, scheduler);
+
+        final CompletableFuture<EchoResponse> first = client.execute(new EchoRequest("A", "1", null));
+        final CompletableFuture<EchoResponse> second = client.execute(new EchoRequest("A", "2", null));
+        for (CompletableFuture<EchoResponse> future : Arrays.asList(first, second)) {
+            try {
+                future.get();
+                fail("Request should have failed.");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RequestRejectedException);
+            }
+        }
+    }
+
+    private CompletableFuture<List<EchoResponse>> echo(String location, List<EchoRequest> requests, Long ttl) {
+        batches.add(requests);
+        final List<EchoResponse> responses = new ArrayList<>(requests.size());
+        for (EchoRequest request : requests) {
+            assertEquals(location, request.getLocation());
+            responses.add(new EchoResponse(request.body, null));
+        }
+        return CompletableFuture.supplyAsync(() -> responses);
+    }
+
+    private static class EchoRequest implements RpcRequest {
+        private final String location;
+        private final String body;
+        private final Long ttl;
+
+        private EchoRequest(String location, String body, Long ttl) {
+            this.location = location;
+            this.body = body;
+            this.ttl = ttl;
+        }
+
+        @Override
+        public String getLocation() {
+            return location;
+        }
+
+        @Override
+        public Long getTimeToLiveMs() {
+            return ttl;
+        }
+    }
+
+    private static class EchoResponse implements RpcResponse {
+        private final String body;
+        private final String errorMessage;
+
+        private EchoResponse(String body, String errorMessage) {
+            this.body = body;
+            this.errorMessage = errorMessage;
+        }
+
+        @Override
+        public String getErrorMessage() {
+            return errorMessage;
+        }
+    }
+}
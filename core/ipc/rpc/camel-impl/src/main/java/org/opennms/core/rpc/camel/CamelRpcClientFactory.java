@@ -28,8 +28,14 @@
 
 package org.opennms.core.rpc.camel;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.apache.camel.Endpoint;
 import org.apache.camel.EndpointInject;
@@ -40,9 +46,11 @@ import org.apache.camel.component.direct.DirectConsumerNotAvailableException;
 import org.apache.camel.spi.Synchronization;
 import org.opennms.core.logging.Logging;
 import org.opennms.core.logging.Logging.MDCCloseable;
+import org.opennms.core.rpc.api.BatchingRpcClient;
 import org.opennms.core.rpc.api.RemoteExecutionException;
 import org.opennms.core.rpc.api.RequestRejectedException;
 import org.opennms.core.rpc.api.RequestTimedOutException;
+import org.opennms.core.rpc.api.RpcBatchEnvelope;
 import org.opennms.core.rpc.api.RpcClient;
 import org.opennms.core.rpc.api.RpcClientFactory;
 import org.opennms.core.rpc.api.RpcModule;
@@ -63,8 +71,13 @@ public class CamelRpcClientFactory implements RpcClientFactory {
     @EndpointInject(uri = "direct:executeRpc", context = "rpcClient")
     private Endpoint endpoint;
 
+    private final ConcurrentMap<String, BatchingRpcClient<?,?>> batchingClientsByModuleId = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService batchScheduler;
+
     @Override
     public <S extends RpcRequest, T extends RpcResponse> RpcClient<S,T> getClient(RpcModule<S,T> module) {
+        final BatchingRpcClient<S,T> batchingClient = getBatchingClient(module);
         return new RpcClient<S,T>() {
             @Override
             public CompletableFuture<T> execute(S request) {
@@ -72,6 +85,9 @@ public class CamelRpcClientFactory implements RpcClientFactory {
                     // The request is for the current location, invoke it directly
                     return module.execute(request);
                 }
+                if (batchingClient != null) {
+                    return batchingClient.execute(request);
+                }
 
                 // Save the context map and restore it on callback
                 final Map<String, String> clientContextMap = Logging.getCopyOfContextMap();
@@ -99,17 +115,7 @@ public class CamelRpcClientFactory implements RpcClientFactory {
                     @Override
                     public void onFailure(Exchange exchange) {
                         try (MDCCloseable mdc = Logging.withContextMapCloseable(clientContextMap)) {
-                            final ExchangeTimedOutException timeoutException = exchange.getException(ExchangeTimedOutException.class);
-                            final DirectConsumerNotAvailableException directConsumerNotAvailableException = exchange.getException(DirectConsumerNotAvailableException.class);
-                            if (timeoutException != null) {
-                                // Wrap timeout exceptions within a RequestTimedOutException
-                                future.completeExceptionally(new RequestTimedOutException(exchange.getException()));
-                            } else if (directConsumerNotAvailableException != null) {
-                                // Wrap consumer not available exceptions with a RequestRejectedException
-                                future.completeExceptionally(new RequestRejectedException(exchange.getException()));
-                            } else {
-                                future.completeExceptionally(exchange.getException());
-                            }
+                            future.completeExceptionally(getException(exchange));
                         }
                         // Ensure that future log statements on this thread are routed properly
                         Logging.putPrefix(RpcClientFactory.LOG_PREFIX);
@@ -120,7 +126,89 @@ public class CamelRpcClientFactory implements RpcClientFactory {
         };
     }
 
+    @SuppressWarnings("unchecked")
+    private <S extends RpcRequest, T extends RpcResponse> BatchingRpcClient<S,T> getBatchingClient(RpcModule<S,T> module) {
+        final long lingerMs = BatchingRpcClient.getLingerMs(module);
+        if (lingerMs <= 0) {
+            return null;
+        }
+        return (BatchingRpcClient<S,T>)batchingClientsByModuleId.computeIfAbsent(module.getId(),
+                id -> new BatchingRpcClient<S,T>((loc, requests, ttl) -> sendBatch(module, loc, requests, ttl),
+                        lingerMs, BatchingRpcClient.getMaxBatchSize(), getBatchScheduler()));
+    }
+
+    private synchronized ScheduledExecutorService getBatchScheduler() {
+        if (batchScheduler == null) {
+            batchScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "rpc-batch-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return batchScheduler;
+    }
+
+    private <S extends RpcRequest, T extends RpcResponse> CompletableFuture<List<T>> sendBatch(RpcModule<S,T> module, String location, List<S> requests, Long ttl) {
+        // Save the context map and restore it on callback
+        final Map<String, String> clientContextMap = Logging.getCopyOfContextMap();
+
+        final CompletableFuture<List<T>> future = new CompletableFuture<>();
+        template.asyncCallbackSendBody(endpoint, new CamelRpcBatchRequest<>(module, location, requests, ttl), new Synchronization() {
+            @Override
+            public void onComplete(Exchange exchange) {
+                try (MDCCloseable mdc = Logging.withContextMapCloseable(clientContextMap)) {
+                    final List<String> payloads = RpcBatchEnvelope.decode(exchange.getOut().getBody(String.class));
+                    final List<T> responses = new ArrayList<>(payloads.size());
+                    for (String payload : payloads) {
+                        responses.add(module.unmarshalResponse(payload));
+                    }
+                    future.complete(responses);
+                } catch (Throwable ex) {
+                    LOG.error("Unmarshalling a batch of responses in RPC module {} failed.", module, ex);
+                    future.completeExceptionally(ex);
+                }
+                // Ensure that future log statements on this thread are routed properly
+                Logging.putPrefix(RpcClientFactory.LOG_PREFIX);
+            }
+
+            @Override
+            public void onFailure(Exchange exchange) {
+                try (MDCCloseable mdc = Logging.withContextMapCloseable(clientContextMap)) {
+                    future.completeExceptionally(getException(exchange));
+                }
+                // Ensure that future log statements on this thread are routed properly
+                Logging.putPrefix(RpcClientFactory.LOG_PREFIX);
+            }
+        });
+        return future;
+    }
+
+    private static Throwable getException(Exchange exchange) {
+        final ExchangeTimedOutException timeoutException = exchange.getException(ExchangeTimedOutException.class);
+        final DirectConsumerNotAvailableException directConsumerNotAvailableException = exchange.getException(DirectConsumerNotAvailableException.class);
+        if (timeoutException != null) {
+            // Wrap timeout exceptions within a RequestTimedOutException
+            return new RequestTimedOutException(exchange.getException());
+        } else if (directConsumerNotAvailableException != null) {
+            // Wrap consumer not available exceptions with a RequestRejectedException
+            return new RequestRejectedException(exchange.getException());
+        } else {
+            return exchange.getException();
+        }
+    }
+
     public void setLocation(String location) {
         this.location = location;
     }
+
+    /**
+     * Stops the scheduler used to linger and time out batched requests.
+     */
+    public synchronized void destroy() {
+        batchingClientsByModuleId.clear();
+        if (batchScheduler != null) {
+            batchScheduler.shutdownNow();
+            batchScheduler = null;
+        }
+    }
 }
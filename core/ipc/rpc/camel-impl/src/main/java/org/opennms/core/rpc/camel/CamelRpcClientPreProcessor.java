@@ -28,9 +28,13 @@
 
 package org.opennms.core.rpc.camel;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
 import org.opennms.core.camel.JmsQueueNameFactory;
+import org.opennms.core.rpc.api.RpcBatchEnvelope;
 import org.opennms.core.rpc.api.RpcRequest;
 import org.opennms.core.rpc.api.RpcResponse;
 import org.opennms.core.utils.PropertiesUtils;
@@ -59,6 +63,10 @@ public class CamelRpcClientPreProcessor implements Processor {
 
     @Override
     public void process(Exchange exchange) {
+        if (exchange.getIn().getBody() instanceof CamelRpcBatchRequest) {
+            processBatch(exchange);
+            return;
+        }
         @SuppressWarnings("unchecked")
         final CamelRpcRequest<RpcRequest,RpcResponse> wrapper = exchange.getIn().getBody(CamelRpcRequest.class);
         final JmsQueueNameFactory queueNameFactory = new JmsQueueNameFactory(CamelRpcConstants.JMS_QUEUE_PREFIX,
@@ -68,4 +76,19 @@ public class CamelRpcClientPreProcessor implements Processor {
         final String request = wrapper.getModule().marshalRequest((RpcRequest)wrapper.getRequest());
         exchange.getIn().setBody(request);
     }
+
+    private void processBatch(Exchange exchange) {
+        @SuppressWarnings("unchecked")
+        final CamelRpcBatchRequest<RpcRequest,RpcResponse> wrapper = exchange.getIn().getBody(CamelRpcBatchRequest.class);
+        final JmsQueueNameFactory queueNameFactory = new JmsQueueNameFactory(CamelRpcConstants.JMS_QUEUE_PREFIX,
+                wrapper.getModule().getId(), wrapper.getLocation());
+        exchange.getIn().setHeader(CamelRpcConstants.JMS_QUEUE_NAME_HEADER, queueNameFactory.getName());
+        exchange.getIn().setHeader(CamelRpcConstants.CAMEL_JMS_REQUEST_TIMEOUT_HEADER, wrapper.getTimeToLiveMs() != null ? wrapper.getTimeToLiveMs() : CAMEL_JMS_REQUEST_TIMEOUT);
+        exchange.getIn().setHeader(CamelRpcConstants.RPC_BATCH_HEADER, true);
+        final List<String> requests = new ArrayList<>(wrapper.getRequests().size());
+        for (RpcRequest request : wrapper.getRequests()) {
+            requests.add(wrapper.getModule().marshalRequest(request));
+        }
+        exchange.getIn().setBody(RpcBatchEnvelope.encode(requests));
+    }
 }
@@ -32,4 +32,5 @@ public interface CamelRpcConstants {
     static String JMS_QUEUE_PREFIX = "RPC";
     static String JMS_QUEUE_NAME_HEADER = "JmsQueueName";
     static String CAMEL_JMS_REQUEST_TIMEOUT_HEADER = "CamelJmsRequestTimeout";
+    static String RPC_BATCH_HEADER = "RpcBatch";
 }
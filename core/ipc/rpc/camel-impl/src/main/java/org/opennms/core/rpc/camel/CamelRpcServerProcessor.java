@@ -28,12 +28,15 @@
 
 package org.opennms.core.rpc.camel;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 
 import org.apache.camel.AsyncCallback;
 import org.apache.camel.AsyncProcessor;
 import org.apache.camel.Exchange;
+import org.opennms.core.rpc.api.RpcBatchEnvelope;
 import org.opennms.core.rpc.api.RpcModule;
 import org.opennms.core.rpc.api.RpcRequest;
 import org.opennms.core.rpc.api.RpcResponse;
@@ -43,6 +46,9 @@ import org.slf4j.LoggerFactory;
 /**
  * Executes the {@link RpcRequest}, and asynchronously returns the {@link RpcResponse}.
  *
+ * Batches of requests, flagged with the {@link CamelRpcConstants#RPC_BATCH_HEADER} header,
+ * are executed concurrently and the responses are returned in a single {@link RpcBatchEnvelope}.
+ *
  * @author jwhite
  */
 public class CamelRpcServerProcessor implements AsyncProcessor {
@@ -63,6 +69,9 @@ public class CamelRpcServerProcessor implements AsyncProcessor {
 
     @Override
     public boolean process(Exchange exchange, AsyncCallback callback) {
+        if (Boolean.TRUE.equals(exchange.getIn().getHeader(CamelRpcConstants.RPC_BATCH_HEADER, Boolean.class))) {
+            return processBatch(exchange, callback);
+        }
         final RpcRequest request = module.unmarshalRequest(exchange.getIn().getBody(String.class));
         final CompletableFuture<RpcResponse> future = module.execute(request);
         future.whenComplete((res, ex) -> {
@@ -91,6 +100,45 @@ public class CamelRpcServerProcessor implements AsyncProcessor {
         return false;
     }
 
+    private boolean processBatch(Exchange exchange, AsyncCallback callback) {
+        final List<String> requests = RpcBatchEnvelope.decode(exchange.getIn().getBody(String.class));
+        final List<CompletableFuture<RpcResponse>> futures = new ArrayList<>(requests.size());
+        for (String request : requests) {
+            CompletableFuture<RpcResponse> future;
+            try {
+                future = module.execute(module.unmarshalRequest(request));
+            } catch (Throwable t) {
+                // Fail this request only, and not the whole batch
+                future = new CompletableFuture<>();
+                future.completeExceptionally(t);
+            }
+            futures.add(future.handle((res, ex) -> {
+                if (ex != null) {
+                    LOG.warn("An error occured while executing a call in {}.", module.getId(), ex);
+                    return module.createResponseWithException(ex);
+                }
+                return res;
+            }));
+        }
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).whenComplete((res, ex) -> {
+            try {
+                final List<String> responses = new ArrayList<>(futures.size());
+                for (CompletableFuture<RpcResponse> future : futures) {
+                    responses.add(module.marshalResponse(future.join()));
+                }
+                exchange.getOut().setBody(RpcBatchEnvelope.encode(responses), String.class);
+            } catch (Throwable t) {
+                LOG.error("Marshalling a batch of responses in RPC module {} failed.", module, t);
+                exchange.setException(t);
+                exchange.getOut().setFault(true);
+            } finally {
+                callback.done(false);
+            }
+        });
+        return false;
+    }
+
     @Override
     public String toString() {
         return String.format("%s[module=%s]", super.toString(), module.toString());
@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.rpc.camel;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.EventObject;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.camel.Endpoint;
+import org.apache.camel.ExchangePattern;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.seda.SedaComponent;
+import org.apache.camel.impl.DefaultCamelBeanPostProcessor;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.management.event.ExchangeCompletedEvent;
+import org.apache.camel.support.EventNotifierSupport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.rpc.api.BatchingRpcClient;
+import org.opennms.core.rpc.api.RemoteExecutionException;
+import org.opennms.core.rpc.api.RequestTimedOutException;
+import org.opennms.core.rpc.api.RpcClient;
+import org.opennms.core.rpc.echo.EchoRequest;
+import org.opennms.core.rpc.echo.EchoResponse;
+import org.opennms.core.rpc.echo.EchoRpcModule;
+
+/**
+ * Sends batches of requests through the {@link CamelRpcClientFactory}, the
+ * {@link CamelRpcClientPreProcessor} and the {@link CamelRpcServerProcessor}.
+ *
+ * The JMS based queuing service is replaced with a SEDA component so that
+ * both the client and the server routes can run in the same context.
+ */
+public class CamelRpcBatchTest {
+
+    private static final String LOCAL_LOCATION_NAME = "local";
+
+    private static final String REMOTE_LOCATION_NAME = "remote";
+
+    private static final String LINGER_MS_PROPERTY = BatchingRpcClient.LINGER_MS_PROPERTY + "." + EchoRpcModule.RPC_MODULE_ID;
+
+    private final AtomicInteger serverExchanges = new AtomicInteger();
+
+    private DefaultCamelContext context;
+
+    private CamelRpcClientFactory rpcClientFactory;
+
+    @Before
+    public void setUp() throws Exception {
+        System.setProperty(LINGER_MS_PROPERTY, "250");
+
+        context = new DefaultCamelContext();
+        context.setName("rpcClient");
+        context.addComponent("queuingservice", new SedaComponent() {
+            @Override
+            protected Endpoint createEndpoint(String uri, String remaining, Map<String, Object> parameters) throws Exception {
+                // Only used by the JMS consumers
+                parameters.remove("asyncConsumer");
+                return super.createEndpoint(uri, remaining, parameters);
+            }
+        });
+        context.getManagementStrategy().addEventNotifier(new EventNotifierSupport() {
+            @Override
+            public boolean isEnabled(EventObject event) {
+                return event instanceof ExchangeCompletedEvent;
+            }
+
+            @Override
+            public void notify(EventObject event) {
+                final ExchangeCompletedEvent completed = (ExchangeCompletedEvent)event;
+                if (CamelRpcServerRouteManager.getRouteId(new EchoRpcModule()).equals(completed.getExchange().getFromRouteId())) {
+                    serverExchanges.incrementAndGet();
+                }
+            }
+        });
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                // Same as the route in applicationContext-rpc-client-camel.xml
+                from("direct:executeRpc")
+                    .process(new CamelRpcClientPreProcessor())
+                    .setExchangePattern(ExchangePattern.InOut)
+                    .recipientList(simple("queuingservice:${header.JmsQueueName}"));
+            }
+        });
+        context.start();
+
+        new CamelRpcServerRouteManager(context, new MockMinionIdentity(REMOTE_LOCATION_NAME)).bind(new EchoRpcModule());
+
+        rpcClientFactory = new CamelRpcClientFactory();
+        rpcClientFactory.setLocation(LOCAL_LOCATION_NAME);
+        new DefaultCamelBeanPostProcessor(context).postProcessBeforeInitialization(rpcClientFactory, "camelRpcClientFactory");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.clearProperty(LINGER_MS_PROPERTY);
+        rpcClientFactory.destroy();
+        context.stop();
+    }
+
+    @Test(timeout=60000)
+    public void canExecuteBatchWithFailedAndTimedOutRequests() throws Exception {
+        final RpcClient<EchoRequest,EchoResponse> client = rpcClientFactory.getClient(new EchoRpcModule());
+
+        final EchoRequest ok = new EchoRequest("HELLO!");
+        ok.setLocation(REMOTE_LOCATION_NAME);
+        final EchoRequest oops = new EchoRequest("Oops!");
+        oops.setLocation(REMOTE_LOCATION_NAME);
+        oops.shouldThrow(true);
+        final EchoRequest slow = new EchoRequest("Zzz");
+        slow.setLocation(REMOTE_LOCATION_NAME);
+        slow.setDelay(5000L);
+        slow.setTimeToLiveMs(500L);
+
+        final CompletableFuture<EchoResponse> okFuture = client.execute(ok);
+        final CompletableFuture<EchoResponse> oopsFuture = client.execute(oops);
+        final CompletableFuture<EchoResponse> slowFuture = client.execute(slow);
+
+        // The slow request times out on its own, without waiting for the rest of its batch
+        try {
+            slowFuture.get();
+            fail("Did not get ExecutionException");
+        } catch (ExecutionException e) {
+            assertEquals(RequestTimedOutException.class, e.getCause().getClass());
+        }
+        assertFalse(okFuture.isDone());
+
+        // The other requests complete once the whole batch has been executed
+        assertEquals(new EchoResponse("HELLO!"), okFuture.get());
+        try {
+            oopsFuture.get();
+            fail("Did not get ExecutionException");
+        } catch (ExecutionException e) {
+            assertEquals(RemoteExecutionException.class, e.getCause().getClass());
+            assertThat(e.getCause().getMessage(), containsString("Oops!"));
+        }
+
+        // All of the requests were sent in a single exchange
+        assertEquals(1, serverExchanges.get());
+    }
+
+    @Test(timeout=60000)
+    public void destroyStopsTheBatchScheduler() throws Exception {
+        final RpcClient<EchoRequest,EchoResponse> client = rpcClientFactory.getClient(new EchoRpcModule());
+        final EchoRequest request = new EchoRequest("HELLO!");
+        request.setLocation(REMOTE_LOCATION_NAME);
+        assertEquals(new EchoResponse("HELLO!"), client.execute(request).get());
+        assertTrue(isBatchSchedulerRunning());
+
+        rpcClientFactory.destroy();
+        while (isBatchSchedulerRunning()) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+    }
+
+    private static boolean isBatchSchedulerRunning() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .anyMatch(t -> "rpc-batch-scheduler".equals(t.getName()));
+    }
+}
@@ -0,0 +1,329 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.rpc.kafka;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.opennms.core.camel.JmsQueueNameFactory;
+import org.opennms.core.logging.Logging;
+import org.opennms.core.logging.Logging.MDCCloseable;
+import org.opennms.core.rpc.api.RemoteExecutionException;
+import org.opennms.core.rpc.api.RequestRejectedException;
+import org.opennms.core.rpc.api.RequestTimedOutException;
+import org.opennms.core.rpc.api.RpcClient;
+import org.opennms.core.rpc.api.RpcClientFactory;
+import org.opennms.core.rpc.api.RpcModule;
+import org.opennms.core.rpc.api.RpcRequest;
+import org.opennms.core.rpc.api.RpcResponse;
+import org.opennms.core.utils.SystemInfoUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Sends the requests to the location and module specific request topics,
+ * and correlates the responses read from the module's response topic
+ * by RPC id.
+ */
+public class KafkaRpcClientFactory implements RpcClientFactory, InitializingBean, DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KafkaRpcClientFactory.class);
+
+    private String location;
+
+    private final Properties kafkaConfig = new Properties();
+
+    private int maxBufferSize = KafkaRpcConstants.MAX_BUFFER_SIZE_DEFAULT;
+
+    private long defaultTtl = KafkaRpcConstants.DEFAULT_TTL;
+
+    private KafkaProducer<String,byte[]> producer;
+
+    private final Map<String, ResponseHandler<?,?>> responseHandlersByRpcId = new ConcurrentHashMap<>();
+
+    private final Map<String, KafkaConsumerRunner> consumerRunnersByModuleId = new ConcurrentHashMap<>();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setNameFormat("kafka-rpc-response-consumer-%d")
+            .build());
+
+    private final ScheduledExecutorService timeoutExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("kafka-rpc-timeout-%d")
+            .setDaemon(true)
+            .build());
+
+    private class ResponseHandler<S extends RpcRequest, T extends RpcResponse> {
+        private final String rpcId;
+        private final RpcModule<S,T> module;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private final Map<String, String> clientContextMap = Logging.getCopyOfContextMap();
+        // Only accessed by the module's consumer thread
+        private KafkaRpcMessage.Buffer buffer;
+        private volatile ScheduledFuture<?> timeout;
+
+        private ResponseHandler(String rpcId, RpcModule<S,T> module) {
+            this.rpcId = rpcId;
+            this.module = module;
+        }
+
+        private void handleMessage(KafkaRpcMessage message) {
+            if (buffer == null) {
+                buffer = new KafkaRpcMessage.Buffer(message);
+            }
+            final byte[] payload = buffer.add(message);
+            if (payload == null) {
+                // Wait for the remaining chunks
+                return;
+            }
+            if (!responseHandlersByRpcId.remove(rpcId, this)) {
+                // Already timed out
+                return;
+            }
+            cancelTimeout();
+            try (MDCCloseable mdc = Logging.withContextMapCloseable(clientContextMap)) {
+                final T response = module.unmarshalResponse(new String(payload, StandardCharsets.UTF_8));
+                if (response.getErrorMessage() != null) {
+                    future.completeExceptionally(new RemoteExecutionException(response.getErrorMessage()));
+                } else {
+                    future.complete(response);
+                }
+            } catch (Throwable ex) {
+                LOG.error("Unmarshalling a response in RPC module {} failed.", module, ex);
+                future.completeExceptionally(ex);
+            }
+        }
+
+        private void fail(Throwable t) {
+            if (responseHandlersByRpcId.remove(rpcId, this)) {
+                cancelTimeout();
+                future.completeExceptionally(t);
+            }
+        }
+
+        private void cancelTimeout() {
+            final ScheduledFuture<?> scheduledTimeout = timeout;
+            if (scheduledTimeout != null) {
+                scheduledTimeout.cancel(false);
+            }
+        }
+    }
+
+    private class KafkaConsumerRunner implements Runnable {
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+        private final KafkaConsumer<String, byte[]> consumer;
+        private final String topic;
+
+        private KafkaConsumerRunner(RpcModule<?,?> module) {
+            topic = new JmsQueueNameFactory(KafkaRpcConstants.RPC_RESPONSE_TOPIC_NAME, module.getId()).getName();
+            consumer = new KafkaConsumer<>(kafkaConfig);
+        }
+
+        @Override
+        public void run() {
+            Logging.putPrefix(RpcClientFactory.LOG_PREFIX);
+            try {
+                consumer.subscribe(Arrays.asList(topic));
+                while (!closed.get()) {
+                    final ConsumerRecords<String, byte[]> records = consumer.poll(100);
+                    for (ConsumerRecord<String, byte[]> record : records) {
+                        try {
+                            final KafkaRpcMessage message = KafkaRpcMessage.fromByteArray(record.value());
+                            final ResponseHandler<?,?> handler = responseHandlersByRpcId.get(message.getRpcId());
+                            if (handler == null) {
+                                // The request timed out, or was issued by another client
+                                LOG.debug("Ignoring response for unknown RPC id: {}", message.getRpcId());
+                                continue;
+                            }
+                            handler.handleMessage(message);
+                        } catch (RuntimeException e) {
+                            LOG.warn("Unexpected exception while handling a response on topic {}.", topic, e);
+                        }
+                    }
+                }
+            } catch (WakeupException e) {
+                // Ignore exception if closing
+                if (!closed.get()) {
+                    throw e;
+                }
+            } finally {
+                consumer.close();
+            }
+        }
+
+        // Shutdown hook which can be called from a separate thread
+        public void shutdown() {
+            closed.set(true);
+            consumer.wakeup();
+        }
+    }
+
+    @Override
+    public <S extends RpcRequest, T extends RpcResponse> RpcClient<S,T> getClient(RpcModule<S,T> module) {
+        // Start consuming the responses before the first request is sent
+        consumerRunnersByModuleId.computeIfAbsent(module.getId(), id -> {
+            LOG.info("Starting response consumer for module: {}", module);
+            final KafkaConsumerRunner consumerRunner = new KafkaConsumerRunner(module);
+            executor.execute(consumerRunner);
+            return consumerRunner;
+        });
+
+        return new RpcClient<S,T>() {
+            @Override
+            public CompletableFuture<T> execute(S request) {
+                if (request.getLocation() == null || request.getLocation().equals(location)) {
+                    // The request is for the current location, invoke it directly
+                    return module.execute(request);
+                }
+
+                final String rpcId = UUID.randomUUID().toString();
+                final long ttl = request.getTimeToLiveMs() != null ? request.getTimeToLiveMs() : defaultTtl;
+                final long expirationTime = System.currentTimeMillis() + ttl;
+                final String topic = new JmsQueueNameFactory(KafkaRpcConstants.RPC_REQUEST_TOPIC_NAME, module.getId(), request.getLocation()).getName();
+
+                final ResponseHandler<S,T> handler = new ResponseHandler<>(rpcId, module);
+                responseHandlersByRpcId.put(rpcId, handler);
+                handler.timeout = timeoutExecutor.schedule(() -> {
+                    handler.fail(new RequestTimedOutException(new TimeoutException(
+                            String.format("No response received for %s within %dms.", rpcId, ttl))));
+                }, ttl, TimeUnit.MILLISECONDS);
+
+                try {
+                    final byte[] payload = module.marshalRequest(request).getBytes(StandardCharsets.UTF_8);
+                    // Use the RPC id as key, so that all of the chunks land on the same partition
+                    for (KafkaRpcMessage message : KafkaRpcMessage.chunk(rpcId, expirationTime, payload, maxBufferSize)) {
+                        LOG.trace("execute({}): sending chunk {} of request {}", topic, message.getChunk(), rpcId);
+                        producer.send(new ProducerRecord<>(topic, rpcId, message.toByteArray()), (metadata, ex) -> {
+                            if (ex != null) {
+                                LOG.warn("Failed to send request {} to topic {}.", rpcId, topic, ex);
+                                handler.fail(new RequestRejectedException(ex));
+                            }
+                        });
+                    }
+                } catch (Throwable t) {
+                    handler.fail(t);
+                }
+                return handler.future;
+            }
+        };
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        // Set the defaults
+        kafkaConfig.clear();
+        kafkaConfig.put("group.id", SystemInfoUtils.getInstanceId());
+        // The response topic may only be assigned after the first request was sent,
+        // so read from the start of new partitions instead of skipping those responses
+        kafkaConfig.put("auto.offset.reset", "earliest");
+        kafkaConfig.put("enable.auto.commit", "true");
+        kafkaConfig.put("auto.commit.interval.ms", "1000");
+        kafkaConfig.put("key.serializer", StringSerializer.class.getCanonicalName());
+        kafkaConfig.put("value.serializer", ByteArraySerializer.class.getCanonicalName());
+        kafkaConfig.put("key.deserializer", StringDeserializer.class.getCanonicalName());
+        kafkaConfig.put("value.deserializer", ByteArrayDeserializer.class.getCanonicalName());
+
+        // Find all of the  system properties that start with 'org.opennms.core.ipc.rpc.kafka.'
+        // and add them to the config. See https://kafka.apache.org/0100/documentation.html
+        // for the list of supported properties
+        for (Entry<Object, Object> entry : System.getProperties().entrySet()) {
+            final Object keyAsObject = entry.getKey();
+            if (keyAsObject == null ||  !(keyAsObject instanceof String)) {
+                continue;
+            }
+            final String key = (String)keyAsObject;
+
+            if (key.length() > KafkaRpcConstants.KAFKA_CONFIG_SYS_PROP_PREFIX.length()
+                    && key.startsWith(KafkaRpcConstants.KAFKA_CONFIG_SYS_PROP_PREFIX)) {
+                final String kafkaConfigKey = key.substring(KafkaRpcConstants.KAFKA_CONFIG_SYS_PROP_PREFIX.length());
+                kafkaConfig.put(kafkaConfigKey, entry.getValue());
+            }
+        }
+
+        // Remove our own settings, these are not meant for the Kafka clients
+        final Object maxBufferSizeValue = kafkaConfig.remove(KafkaRpcConstants.MAX_BUFFER_SIZE_PROPERTY);
+        if (maxBufferSizeValue != null) {
+            maxBufferSize = Integer.parseInt(maxBufferSizeValue.toString());
+        }
+        final Object defaultTtlValue = kafkaConfig.remove(KafkaRpcConstants.DEFAULT_TTL_PROPERTY);
+        if (defaultTtlValue != null) {
+            defaultTtl = Long.parseLong(defaultTtlValue.toString());
+        }
+
+        LOG.info("KafkaRpcClientFactory: using {} with a max. buffer size of {} bytes and a default TTL of {}ms.",
+                kafkaConfig, maxBufferSize, defaultTtl);
+        producer = new KafkaProducer<>(kafkaConfig);
+    }
+
+    @Override
+    public void destroy() {
+        for (KafkaConsumerRunner consumerRunner : consumerRunnersByModuleId.values()) {
+            consumerRunner.shutdown();
+        }
+        consumerRunnersByModuleId.clear();
+        executor.shutdown();
+        timeoutExecutor.shutdownNow();
+
+        if (producer != null) {
+            producer.close();
+            producer = null;
+        }
+    }
+
+    public void setLocation(String location) {
+        this.location = location;
+    }
+}
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.rpc.kafka;
+
+public interface KafkaRpcConstants {
+    static final String RPC_REQUEST_TOPIC_NAME = "rpc-request";
+
+    static final String RPC_RESPONSE_TOPIC_NAME = "rpc-response";
+
+    static final String KAFKA_CONFIG_PID = "org.opennms.core.ipc.rpc.kafka";
+
+    static final String KAFKA_CONFIG_SYS_PROP_PREFIX = KAFKA_CONFIG_PID + ".";
+
+    /**
+     * Payloads larger than this are split into several messages, this should be kept
+     * below the broker's <code>message.max.bytes</code>.
+     *
+     * This is not passed on to the Kafka clients.
+     */
+    static final String MAX_BUFFER_SIZE_PROPERTY = "max.buffer.size";
+
+    static final int MAX_BUFFER_SIZE_DEFAULT = 921600;
+
+    /**
+     * Time to live used for requests that do not specify one.
+     *
+     * This is not passed on to the Kafka clients.
+     */
+    static final String DEFAULT_TTL_PROPERTY = "ttl";
+
+    static final long DEFAULT_TTL = 20000L;
+}
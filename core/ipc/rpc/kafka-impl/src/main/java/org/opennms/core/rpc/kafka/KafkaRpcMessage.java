@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.rpc.kafka;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A request or response, or a chunk of one, as it is sent over Kafka.
+ *
+ * Kafka 0.10 does not support headers, so the RPC id used to correlate the
+ * responses, the expiration time and the chunk details are written in front
+ * of the payload.
+ */
+public class KafkaRpcMessage {
+
+    private static final byte VERSION = 1;
+
+    private final String rpcId;
+    private final long expirationTime;
+    private final int chunk;
+    private final int totalChunks;
+    private final byte[] payload;
+
+    public KafkaRpcMessage(String rpcId, long expirationTime, int chunk, int totalChunks, byte[] payload) {
+        this.rpcId = Objects.requireNonNull(rpcId);
+        this.expirationTime = expirationTime;
+        this.chunk = chunk;
+        this.totalChunks = totalChunks;
+        this.payload = Objects.requireNonNull(payload);
+    }
+
+    /**
+     * Splits the payload in chunks of at most maxBufferSize bytes.
+     */
+    public static List<KafkaRpcMessage> chunk(String rpcId, long expirationTime, byte[] payload, int maxBufferSize) {
+        if (payload.length <= maxBufferSize) {
+            return Arrays.asList(new KafkaRpcMessage(rpcId, expirationTime, 0, 1, payload));
+        }
+        final int totalChunks = (payload.length + maxBufferSize - 1) / maxBufferSize;
+        final List<KafkaRpcMessage> messages = new ArrayList<>(totalChunks);
+        for (int i = 0; i < totalChunks; i++) {
+            final int from = i * maxBufferSize;
+            final int to = Math.min(payload.length, from + maxBufferSize);
+            messages.add(new KafkaRpcMessage(rpcId, expirationTime, i, totalChunks, Arrays.copyOfRange(payload, from, to)));
+        }
+        return messages;
+    }
+
+    public String getRpcId() {
+        return rpcId;
+    }
+
+    public long getExpirationTime() {
+        return expirationTime;
+    }
+
+    public boolean isExpired(long now) {
+        return now > expirationTime;
+    }
+
+    public int getChunk() {
+        return chunk;
+    }
+
+    public int getTotalChunks() {
+        return totalChunks;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public byte[] toByteArray() {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(payload.length + rpcId.length() + 32);
+        try (DataOutputStream out = new DataOutputStream(baos)) {
+            out.writeByte(VERSION);
+            out.writeUTF(rpcId);
+            out.writeLong(expirationTime);
+            out.writeInt(chunk);
+            out.writeInt(totalChunks);
+            out.writeInt(payload.length);
+            out.write(payload);
+        } catch (IOException e) {
+            // Should not happen when writing to a byte array
+            throw new IllegalStateException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the bytes do not contain a valid message
+     */
+    public static KafkaRpcMessage fromByteArray(byte[] bytes) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            final byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported message version: " + version);
+            }
+            final String rpcId = in.readUTF();
+            final long expirationTime = in.readLong();
+            final int chunk = in.readInt();
+            final int totalChunks = in.readInt();
+            final int length = in.readInt();
+            if (totalChunks < 1 || chunk < 0 || chunk >= totalChunks || length < 0 || length > in.available()) {
+                throw new IllegalArgumentException(String.format("Invalid message header: chunk=%d, totalChunks=%d, length=%d",
+                        chunk, totalChunks, length));
+            }
+            final byte[] payload = new byte[length];
+            in.readFully(payload);
+            return new KafkaRpcMessage(rpcId, expirationTime, chunk, totalChunks, payload);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Truncated message.", e);
+        }
+    }
+
+    /**
+     * Reassembles the chunks of a single payload, which may be received in any order.
+     */
+    public static class Buffer {
+        private final byte[][] chunks;
+        private final long expirationTime;
+        private int numChunksReceived = 0;
+        private int length = 0;
+
+        public Buffer(KafkaRpcMessage message) {
+            chunks = new byte[message.getTotalChunks()][];
+            expirationTime = message.getExpirationTime();
+        }
+
+        /**
+         * @return the complete payload, or <code>null</code> if chunks are still missing
+         */
+        public byte[] add(KafkaRpcMessage message) {
+            if (message.getTotalChunks() != chunks.length) {
+                throw new IllegalArgumentException(String.format("Expected %d chunks for %s, but got %d.",
+                        chunks.length, message.getRpcId(), message.getTotalChunks()));
+            }
+            if (chunks[message.getChunk()] == null) {
+                chunks[message.getChunk()] = message.getPayload();
+                numChunksReceived++;
+                length += message.getPayload().length;
+            }
+            if (numChunksReceived < chunks.length) {
+                return null;
+            }
+            if (chunks.length == 1) {
+                return chunks[0];
+            }
+            final byte[] payload = new byte[length];
+            int offset = 0;
+            for (byte[] chunk : chunks) {
+                System.arraycopy(chunk, 0, payload, offset, chunk.length);
+                offset += chunk.length;
+            }
+            return payload;
+        }
+
+        public boolean isExpired(long now) {
+            return now > expirationTime;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.rpc.kafka;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.opennms.core.camel.JmsQueueNameFactory;
+import org.opennms.core.logging.Logging;
+import org.opennms.core.logging.Logging.MDCCloseable;
+import org.opennms.core.rpc.api.RpcClientFactory;
+import org.opennms.core.rpc.api.RpcModule;
+import org.opennms.core.rpc.api.RpcRequest;
+import org.opennms.core.rpc.api.RpcResponse;
+import org.opennms.minion.core.api.MinionIdentity;
+import org.osgi.service.cm.ConfigurationAdmin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Consumes the requests sent to this location for all registered {@link RpcModule}
+ * services, and sends the responses back to the module's response topic.
+ *
+ * The Minions at a given location share the same consumer group, so that every
+ * request is executed once.
+ */
+public class KafkaRpcServerManager {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KafkaRpcServerManager.class);
+
+    private final ConfigurationAdmin configAdmin;
+
+    private final MinionIdentity identity;
+
+    private final Properties kafkaConfig = new Properties();
+
+    private int maxBufferSize = KafkaRpcConstants.MAX_BUFFER_SIZE_DEFAULT;
+
+    private KafkaProducer<String,byte[]> producer;
+
+    private final Map<RpcModule<RpcRequest,RpcResponse>, KafkaConsumerRunner> consumerRunnersByModule = new ConcurrentHashMap<>();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setNameFormat("kafka-rpc-request-consumer-%d")
+            .build());
+
+    public KafkaRpcServerManager(ConfigurationAdmin configAdmin, MinionIdentity identity) {
+        this.configAdmin = Objects.requireNonNull(configAdmin);
+        this.identity = Objects.requireNonNull(identity);
+    }
+
+    private class KafkaConsumerRunner implements Runnable {
+        private final RpcModule<RpcRequest,RpcResponse> module;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+        private final KafkaConsumer<String, byte[]> consumer;
+        private final String requestTopic;
+        private final String responseTopic;
+        // Only accessed by the consumer thread
+        private final Map<String, KafkaRpcMessage.Buffer> buffersByRpcId = new HashMap<>();
+
+        private KafkaConsumerRunner(RpcModule<RpcRequest,RpcResponse> module) {
+            this.module = module;
+            requestTopic = new JmsQueueNameFactory(KafkaRpcConstants.RPC_REQUEST_TOPIC_NAME, module.getId(), identity.getLocation()).getName();
+            responseTopic = new JmsQueueNameFactory(KafkaRpcConstants.RPC_RESPONSE_TOPIC_NAME, module.getId()).getName();
+
+            final Properties consumerConfig = new Properties();
+            // Share the requests amongst all of the Minions at this location
+            consumerConfig.put("group.id", requestTopic);
+            consumerConfig.putAll(kafkaConfig);
+            consumer = new KafkaConsumer<>(consumerConfig);
+        }
+
+        @Override
+        public void run() {
+            Logging.putPrefix(RpcClientFactory.LOG_PREFIX);
+            try {
+                consumer.subscribe(Arrays.asList(requestTopic));
+                while (!closed.get()) {
+                    final ConsumerRecords<String, byte[]> records = consumer.poll(100);
+                    for (ConsumerRecord<String, byte[]> record : records) {
+                        try {
+                            handleMessage(KafkaRpcMessage.fromByteArray(record.value()));
+                        } catch (RuntimeException e) {
+                            LOG.warn("Unexpected exception while handling a request on topic {}.", requestTopic, e);
+                        }
+                    }
+                    if (!buffersByRpcId.isEmpty()) {
+                        purgeExpiredBuffers();
+                    }
+                }
+            } catch (WakeupException e) {
+                // Ignore exception if closing
+                if (!closed.get()) {
+                    throw e;
+                }
+            } finally {
+                consumer.close();
+            }
+        }
+
+        private void handleMessage(KafkaRpcMessage message) {
+            final byte[] payload;
+            if (message.getTotalChunks() == 1) {
+                payload = message.getPayload();
+            } else {
+                final KafkaRpcMessage.Buffer buffer = buffersByRpcId.computeIfAbsent(message.getRpcId(), id -> new KafkaRpcMessage.Buffer(message));
+                payload = buffer.add(message);
+                if (payload == null) {
+                    // Wait for the remaining chunks
+                    return;
+                }
+                buffersByRpcId.remove(message.getRpcId());
+            }
+
+            if (message.isExpired(System.currentTimeMillis())) {
+                // Nobody is waiting for this response anymore
+                LOG.debug("Skipping expired request {}.", message.getRpcId());
+                return;
+            }
+
+            CompletableFuture<RpcResponse> future;
+            try {
+                final RpcRequest request = module.unmarshalRequest(new String(payload, StandardCharsets.UTF_8));
+                future = module.execute(request);
+            } catch (Throwable t) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(t);
+            }
+            future.whenComplete((res, ex) -> {
+                final RpcResponse response;
+                if (ex != null) {
+                    // An exception occurred, store the exception in a new response
+                    LOG.warn("An error occured while executing a call in {}.", module.getId(), ex);
+                    response = module.createResponseWithException(ex);
+                } else {
+                    // No exception occurred, use the given response
+                    response = res;
+                }
+                sendResponse(message, response);
+            });
+        }
+
+        private void sendResponse(KafkaRpcMessage request, RpcResponse response) {
+            try (MDCCloseable mdc = Logging.withPrefixCloseable(RpcClientFactory.LOG_PREFIX)) {
+                final byte[] payload = module.marshalResponse(response).getBytes(StandardCharsets.UTF_8);
+                for (KafkaRpcMessage message : KafkaRpcMessage.chunk(request.getRpcId(), request.getExpirationTime(), payload, maxBufferSize)) {
+                    producer.send(new ProducerRecord<>(responseTopic, request.getRpcId(), message.toByteArray()), (metadata, ex) -> {
+                        if (ex != null) {
+                            LOG.warn("Failed to send the response to {} on topic {}.", request.getRpcId(), responseTopic, ex);
+                        }
+                    });
+                }
+            } catch (Throwable t) {
+                LOG.error("Marshalling a response in RPC module {} failed.", module, t);
+            }
+        }
+
+        private void purgeExpiredBuffers() {
+            final long now = System.currentTimeMillis();
+            final Iterator<KafkaRpcMessage.Buffer> it = buffersByRpcId.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().isExpired(now)) {
+                    it.remove();
+                }
+            }
+        }
+
+        // Shutdown hook which can be called from a separate thread
+        public void shutdown() {
+            closed.set(true);
+            consumer.wakeup();
+        }
+    }
+
+    public void init() throws IOException {
+        try (MDCCloseable mdc = Logging.withPrefixCloseable(RpcClientFactory.LOG_PREFIX)) {
+            // Defaults
+            kafkaConfig.clear();
+            // Requests sent before the partitions were assigned would otherwise be skipped,
+            // expired ones are dropped in handleMessage()
+            kafkaConfig.put("auto.offset.reset", "earliest");
+            kafkaConfig.put("enable.auto.commit", "true");
+            kafkaConfig.put("auto.commit.interval.ms", "1000");
+            kafkaConfig.put("key.serializer", StringSerializer.class.getCanonicalName());
+            kafkaConfig.put("value.serializer", ByteArraySerializer.class.getCanonicalName());
+            kafkaConfig.put("key.deserializer", StringDeserializer.class.getCanonicalName());
+            kafkaConfig.put("value.deserializer", ByteArrayDeserializer.class.getCanonicalName());
+
+            // Retrieve all of the properties from org.opennms.core.ipc.rpc.kafka.cfg
+            final Dictionary<String, Object> properties = configAdmin.getConfiguration(KafkaRpcConstants.KAFKA_CONFIG_PID).getProperties();
+            if (properties != null) {
+                final Enumeration<String> keys = properties.keys();
+                while (keys.hasMoreElements()) {
+                    final String key = keys.nextElement();
+                    kafkaConfig.put(key, properties.get(key));
+                }
+            }
+
+            // Remove our own settings, these are not meant for the Kafka clients
+            final Object maxBufferSizeValue = kafkaConfig.remove(KafkaRpcConstants.MAX_BUFFER_SIZE_PROPERTY);
+            if (maxBufferSizeValue != null) {
+                maxBufferSize = Integer.parseInt(maxBufferSizeValue.toString());
+            }
+            kafkaConfig.remove(KafkaRpcConstants.DEFAULT_TTL_PROPERTY);
+
+            LOG.info("KafkaRpcServerManager: initializing the Kafka clients with: {}", kafkaConfig);
+            final ClassLoader currentClassLoader = Thread.currentThread().getContextClassLoader();
+            try {
+                // Class-loader hack for accessing the org.apache.kafka.common.serialization serializers
+                Thread.currentThread().setContextClassLoader(null);
+                producer = new KafkaProducer<>(kafkaConfig);
+            } finally {
+                Thread.currentThread().setContextClassLoader(currentClassLoader);
+            }
+        }
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void bind(RpcModule module) throws Exception {
+        if (module != null) {
+            final RpcModule<RpcRequest,RpcResponse> rpcModule = (RpcModule<RpcRequest,RpcResponse>)module;
+            if (consumerRunnersByModule.containsKey(rpcModule)) {
+                LOG.warn("RpcModule {} ({}) was already registered.", rpcModule.getId(), Integer.toHexString(rpcModule.hashCode()));
+                return;
+            }
+            final KafkaConsumerRunner consumerRunner;
+            final ClassLoader currentClassLoader = Thread.currentThread().getContextClassLoader();
+            try {
+                // Class-loader hack for accessing the org.apache.kafka.common.serialization deserializers
+                Thread.currentThread().setContextClassLoader(null);
+                consumerRunner = new KafkaConsumerRunner(rpcModule);
+            } finally {
+                Thread.currentThread().setContextClassLoader(currentClassLoader);
+            }
+            executor.execute(consumerRunner);
+            consumerRunnersByModule.put(rpcModule, consumerRunner);
+            LOG.info("Registered RpcModule {} ({}) on topic {}", rpcModule.getId(),
+                    Integer.toHexString(rpcModule.hashCode()), consumerRunner.requestTopic);
+        }
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void unbind(RpcModule module) throws Exception {
+        if (module != null) {
+            final RpcModule<RpcRequest,RpcResponse> rpcModule = (RpcModule<RpcRequest,RpcResponse>)module;
+            final KafkaConsumerRunner consumerRunner = consumerRunnersByModule.remove(rpcModule);
+            if (consumerRunner != null) {
+                consumerRunner.shutdown();
+                LOG.info("Deregistered RpcModule {} ({})", rpcModule.getId(), Integer.toHexString(rpcModule.hashCode()));
+            } else {
+                LOG.warn("RpcModule {} ({}) was not registered.", rpcModule.getId(), Integer.toHexString(rpcModule.hashCode()));
+            }
+        }
+    }
+
+    public void destroy() {
+        for (KafkaConsumerRunner consumerRunner : consumerRunnersByModule.values()) {
+            consumerRunner.shutdown();
+        }
+        consumerRunnersByModule.clear();
+        executor.shutdown();
+
+        if (producer != null) {
+            producer.close();
+            producer = null;
+        }
+    }
+}
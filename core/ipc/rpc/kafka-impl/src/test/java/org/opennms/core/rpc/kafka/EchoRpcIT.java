@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.rpc.kafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Hashtable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.opennms.core.rpc.api.RemoteExecutionException;
+import org.opennms.core.rpc.api.RequestTimedOutException;
+import org.opennms.core.rpc.api.RpcClient;
+import org.opennms.core.rpc.echo.EchoRequest;
+import org.opennms.core.rpc.echo.EchoResponse;
+import org.opennms.core.rpc.echo.EchoRpcModule;
+import org.opennms.core.rpc.echo.MyEchoException;
+import org.opennms.core.test.kafka.JUnitKafkaServer;
+import org.opennms.minion.core.api.MinionIdentity;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+import com.google.common.base.Strings;
+
+public class EchoRpcIT {
+
+    private static final String LOCAL_LOCATION = "Default";
+
+    private static final String REMOTE_LOCATION = "remote";
+
+    private static final int MAX_BUFFER_SIZE = 1024;
+
+    @Rule
+    public JUnitKafkaServer kafkaServer = new JUnitKafkaServer();
+
+    private final EchoRpcModule echoRpcModule = new EchoRpcModule();
+
+    private KafkaRpcClientFactory rpcClientFactory;
+
+    private KafkaRpcServerManager rpcServerManager;
+
+    private RpcClient<EchoRequest, EchoResponse> echoClient;
+
+    @Before
+    public void setUp() throws Exception {
+        final Hashtable<String, Object> kafkaConfig = new Hashtable<String, Object>();
+        kafkaConfig.put("bootstrap.servers", kafkaServer.getKafkaConnectString());
+        kafkaConfig.put(KafkaRpcConstants.MAX_BUFFER_SIZE_PROPERTY, Integer.toString(MAX_BUFFER_SIZE));
+        final ConfigurationAdmin configAdmin = mock(ConfigurationAdmin.class, RETURNS_DEEP_STUBS);
+        when(configAdmin.getConfiguration(KafkaRpcConstants.KAFKA_CONFIG_PID).getProperties())
+            .thenReturn(kafkaConfig);
+        final MinionIdentity identity = mock(MinionIdentity.class);
+        when(identity.getLocation()).thenReturn(REMOTE_LOCATION);
+        rpcServerManager = new KafkaRpcServerManager(configAdmin, identity);
+        rpcServerManager.init();
+        rpcServerManager.bind(echoRpcModule);
+
+        for (String key : kafkaConfig.keySet()) {
+            System.setProperty(KafkaRpcConstants.KAFKA_CONFIG_SYS_PROP_PREFIX + key, kafkaConfig.get(key).toString());
+        }
+        rpcClientFactory = new KafkaRpcClientFactory();
+        rpcClientFactory.setLocation(LOCAL_LOCATION);
+        rpcClientFactory.afterPropertiesSet();
+        echoClient = rpcClientFactory.getClient(echoRpcModule);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        rpcServerManager.unbind(echoRpcModule);
+        rpcServerManager.destroy();
+        rpcClientFactory.destroy();
+        System.getProperties().keySet().removeIf(key -> key.toString().startsWith(KafkaRpcConstants.KAFKA_CONFIG_SYS_PROP_PREFIX));
+    }
+
+    @Test(timeout=60000)
+    public void canExecuteRpcViaAnotherLocation() throws Exception {
+        final EchoRequest request = new EchoRequest("Kafka");
+        request.setLocation(REMOTE_LOCATION);
+        assertEquals(new EchoResponse("Kafka"), echoClient.execute(request).get());
+
+        // Subsequent requests should be quick
+        for (int i = 0; i < 10; i++) {
+            final EchoRequest next = new EchoRequest("Kafka" + i);
+            next.setLocation(REMOTE_LOCATION);
+            next.setTimeToLiveMs(TimeUnit.SECONDS.toMillis(10));
+            assertEquals(new EchoResponse("Kafka" + i), echoClient.execute(next).get());
+        }
+    }
+
+    @Test(timeout=60000)
+    public void canExecuteRpcAtTheCurrentLocation() throws Exception {
+        final EchoRequest request = new EchoRequest("Local");
+        request.setLocation(LOCAL_LOCATION);
+        assertEquals(new EchoResponse("Local"), echoClient.execute(request).get());
+    }
+
+    @Test(timeout=60000)
+    public void canChunkLargeRequestsAndResponses() throws Exception {
+        final String message = Strings.repeat("0123456789", 10 * MAX_BUFFER_SIZE);
+        final EchoRequest request = new EchoRequest(message);
+        request.setLocation(REMOTE_LOCATION);
+        assertEquals(new EchoResponse(message), echoClient.execute(request).get());
+    }
+
+    @Test(timeout=60000)
+    public void failsWithRemoteExecutionException() throws Exception {
+        final EchoRequest request = new EchoRequest("Error");
+        request.setLocation(REMOTE_LOCATION);
+        request.shouldThrow(true);
+        try {
+            echoClient.execute(request).get();
+            fail("Request should have failed.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RemoteExecutionException);
+            assertTrue(e.getCause().getMessage().contains(MyEchoException.class.getCanonicalName()));
+        }
+    }
+
+    @Test(timeout=60000)
+    public void timesOutWhenNoMinionIsAvailable() throws Exception {
+        final EchoRequest request = new EchoRequest("Nobody");
+        request.setLocation("nowhere");
+        request.setTimeToLiveMs(1000L);
+        try {
+            echoClient.execute(request).get();
+            fail("Request should have timed out.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RequestTimedOutException);
+        }
+    }
+}
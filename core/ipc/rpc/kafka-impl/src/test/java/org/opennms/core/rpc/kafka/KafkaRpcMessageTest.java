@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.rpc.kafka;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class KafkaRpcMessageTest {
+
+    @Test
+    public void canEncodeAndDecodeMessages() {
+        final KafkaRpcMessage message = new KafkaRpcMessage("id", 42L, 1, 3, new byte[] { 1, 2, 3 });
+        final KafkaRpcMessage decoded = KafkaRpcMessage.fromByteArray(message.toByteArray());
+        assertEquals("id", decoded.getRpcId());
+        assertEquals(42L, decoded.getExpirationTime());
+        assertEquals(1, decoded.getChunk());
+        assertEquals(3, decoded.getTotalChunks());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, decoded.getPayload());
+        assertFalse(decoded.isExpired(42L));
+        assertTrue(decoded.isExpired(43L));
+    }
+
+    @Test
+    public void canReassembleChunksReceivedOutOfOrder() {
+        final byte[] payload = new byte[10000];
+        new Random(1).nextBytes(payload);
+
+        final List<KafkaRpcMessage> chunks = KafkaRpcMessage.chunk("id", 0L, payload, 1024);
+        assertEquals(10, chunks.size());
+        Collections.reverse(chunks);
+
+        final KafkaRpcMessage.Buffer buffer = new KafkaRpcMessage.Buffer(chunks.get(0));
+        for (int i = 0; i < chunks.size() - 1; i++) {
+            assertNull(buffer.add(KafkaRpcMessage.fromByteArray(chunks.get(i).toByteArray())));
+        }
+        // Duplicates are ignored
+        assertNull(buffer.add(chunks.get(0)));
+        assertArrayEquals(payload, buffer.add(chunks.get(chunks.size() - 1)));
+    }
+
+    @Test
+    public void doesNotChunkSmallPayloads() {
+        final List<KafkaRpcMessage> chunks = KafkaRpcMessage.chunk("id", 0L, new byte[1024], 1024);
+        assertEquals(1, chunks.size());
+        assertArrayEquals(new byte[1024], new KafkaRpcMessage.Buffer(chunks.get(0)).add(chunks.get(0)));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void rejectsTruncatedMessages() {
+        final byte[] bytes = new KafkaRpcMessage("id", 0L, 0, 1, new byte[16]).toByteArray();
+        final byte[] truncated = new byte[bytes.length - 1];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        KafkaRpcMessage.fromByteArray(truncated);
+    }
+}
@@ -48,6 +48,20 @@ public interface AsyncDispatcher<S extends Message> extends AutoCloseable {
      */
     CompletableFuture<S> send(S message);
 
+    /**
+     * Asynchronously send the given message without tracking
+     * when it is dispatched.
+     *
+     * Callers that never read the future returned by {@link #send(Message)}
+     * should use this instead, since implementations can avoid creating
+     * the future altogether.
+     *
+     * @param message the message to send
+     */
+    default void sendAndForget(S message) {
+        send(message);
+    }
+
     /**
      * Returns the number of messages that are currently queued
      * awaiting for dispatch.
@@ -66,4 +66,38 @@ public interface AsyncPolicy {
      * should block when the queue is full
      */
     boolean isBlockWhenFull();
+
+    /**
+     * What to do with a message that is dispatched when the queue is full.
+     */
+    public static enum OverflowPolicy {
+        /**
+         * Block the calling thread until the queue can accept the message.
+         */
+        BLOCK,
+        /**
+         * Reject the new message.
+         */
+        DROP_NEWEST,
+        /**
+         * Drop the oldest message in the queue to make room for the new one.
+         */
+        DROP_OLDEST
+    }
+
+    /**
+     * Used to control the behavior of a dispatch when the queue
+     * is full.
+     *
+     * Defaults to {@link OverflowPolicy#BLOCK} or {@link OverflowPolicy#DROP_NEWEST}
+     * depending on the value of {@link #isBlockWhenFull()}.
+     *
+     * The futures of dropped messages are completed with a
+     * {@link java.util.concurrent.RejectedExecutionException}.
+     *
+     * @return the policy to apply when the queue is full
+     */
+    default OverflowPolicy getOverflowPolicy() {
+        return isBlockWhenFull() ? OverflowPolicy.BLOCK : OverflowPolicy.DROP_NEWEST;
+    }
 }
@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.ipc.sink.api;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads messages written by a {@link BinaryMessageWriter}.
+ *
+ * Typical usage:
+ * <pre>
+ *   while (reader.next()) {
+ *       switch (reader.getField()) {
+ *       case 1: name = reader.readString(); break;
+ *       default: reader.skip();
+ *       }
+ *   }
+ * </pre>
+ *
+ * Byte buffers returned by {@link #readByteBuffer()} share their content with
+ * the buffer being read.
+ */
+public class BinaryMessageReader {
+
+    private final ByteBuffer m_buffer;
+
+    private int m_field;
+
+    private int m_wireType;
+
+    public BinaryMessageReader(byte[] bytes) {
+        this(ByteBuffer.wrap(bytes));
+    }
+
+    public BinaryMessageReader(ByteBuffer buffer) {
+        m_buffer = buffer.slice();
+    }
+
+    /**
+     * Advances to the next field.
+     *
+     * @return {@code false} if there are no fields left
+     */
+    public boolean next() {
+        if (!m_buffer.hasRemaining()) {
+            return false;
+        }
+        final long tag = readRawVarint();
+        m_field = (int)(tag >>> 3);
+        m_wireType = (int)(tag & 0x7);
+        if (m_field < 1) {
+            throw new IllegalArgumentException("Invalid field number: " + m_field);
+        }
+        return true;
+    }
+
+    public int getField() {
+        return m_field;
+    }
+
+    public long readLong() {
+        checkWireType(BinaryMessageWriter.WIRETYPE_VARINT);
+        final long value = readRawVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public int readInt() {
+        return (int)readLong();
+    }
+
+    public String readString() {
+        final ByteBuffer bytes = readByteBuffer();
+        if (bytes.hasArray()) {
+            return new String(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining(), StandardCharsets.UTF_8);
+        }
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    public byte[] readBytes() {
+        final ByteBuffer bytes = readByteBuffer();
+        final byte[] value = new byte[bytes.remaining()];
+        bytes.get(value);
+        return value;
+    }
+
+    public ByteBuffer readByteBuffer() {
+        checkWireType(BinaryMessageWriter.WIRETYPE_LENGTH_DELIMITED);
+        final int length = readLength();
+        final ByteBuffer value = m_buffer.slice();
+        value.limit(length);
+        m_buffer.position(m_buffer.position() + length);
+        return value;
+    }
+
+    public int[] readUnsignedInts() {
+        final BinaryMessageReader packed = readMessage();
+        int[] values = new int[16];
+        int count = 0;
+        while (packed.m_buffer.hasRemaining()) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = (int)packed.readRawVarint();
+        }
+        return Arrays.copyOf(values, count);
+    }
+
+    public BinaryMessageReader readMessage() {
+        return new BinaryMessageReader(readByteBuffer());
+    }
+
+    /**
+     * Skips the value of the current field.
+     */
+    public void skip() {
+        switch (m_wireType) {
+        case BinaryMessageWriter.WIRETYPE_VARINT:
+            readRawVarint();
+            break;
+        case BinaryMessageWriter.WIRETYPE_LENGTH_DELIMITED:
+            final int length = readLength();
+            m_buffer.position(m_buffer.position() + length);
+            break;
+        default:
+            throw new IllegalArgumentException("Unsupported wire type " + m_wireType + " for field " + m_field);
+        }
+    }
+
+    private int readLength() {
+        final long length = readRawVarint();
+        if (length < 0 || length > m_buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid length " + length + " for field " + m_field
+                    + ", only " + m_buffer.remaining() + " bytes remain.");
+        }
+        return (int)length;
+    }
+
+    private void checkWireType(int expected) {
+        if (m_wireType != expected) {
+            throw new IllegalArgumentException("Field " + m_field + " has wire type " + m_wireType + ", expected " + expected);
+        }
+    }
+
+    private long readRawVarint() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!m_buffer.hasRemaining()) {
+                throw new IllegalArgumentException("Truncated varint for field " + m_field);
+            }
+            final byte b = m_buffer.get();
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint for field " + m_field);
+    }
+}
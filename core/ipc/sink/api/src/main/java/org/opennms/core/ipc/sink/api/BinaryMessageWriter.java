@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.ipc.sink.api;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Writes messages using a compact tagged format, similar to the one used by protocol buffers.
+ *
+ * Every field is prefixed with its field number and wire type so that readers
+ * can skip the fields they don't know about. Integers are written as zig-zag
+ * encoded variable length integers, and strings, byte arrays and nested
+ * messages are prefixed with their length. Fields with {@code null} values
+ * are omitted.
+ *
+ * Instances are not thread-safe.
+ *
+ * @see BinaryMessageReader
+ */
+public class BinaryMessageWriter {
+
+    protected static final int WIRETYPE_VARINT = 0;
+    protected static final int WIRETYPE_LENGTH_DELIMITED = 2;
+
+    /**
+     * Number of bytes reserved for the length of nested messages, enough for any int.
+     */
+    private static final int MAX_VARINT32_SIZE = 5;
+
+    private byte[] m_buffer;
+
+    private int m_position = 0;
+
+    public BinaryMessageWriter() {
+        this(256);
+    }
+
+    public BinaryMessageWriter(int initialCapacity) {
+        m_buffer = new byte[Math.max(16, initialCapacity)];
+    }
+
+    public BinaryMessageWriter writeLong(int field, long value) {
+        writeTag(field, WIRETYPE_VARINT);
+        writeRawVarint((value << 1) ^ (value >> 63));
+        return this;
+    }
+
+    public BinaryMessageWriter writeInt(int field, int value) {
+        return writeLong(field, value);
+    }
+
+    public BinaryMessageWriter writeString(int field, String value) {
+        if (value != null) {
+            writeBytes(field, value.getBytes(StandardCharsets.UTF_8));
+        }
+        return this;
+    }
+
+    public BinaryMessageWriter writeBytes(int field, byte[] value) {
+        if (value != null) {
+            writeTag(field, WIRETYPE_LENGTH_DELIMITED);
+            writeRawVarint(value.length);
+            writeRawBytes(value, 0, value.length);
+        }
+        return this;
+    }
+
+    /**
+     * Writes the remaining bytes of the given buffer without modifying its position.
+     */
+    public BinaryMessageWriter writeBytes(int field, ByteBuffer value) {
+        if (value != null) {
+            final ByteBuffer bytes = value.duplicate();
+            final int length = bytes.remaining();
+            writeTag(field, WIRETYPE_LENGTH_DELIMITED);
+            writeRawVarint(length);
+            ensureCapacity(length);
+            bytes.get(m_buffer, m_position, length);
+            m_position += length;
+        }
+        return this;
+    }
+
+    /**
+     * Writes the values as a packed list of unsigned integers, i.e. the sub-identifiers of an OID.
+     */
+    public BinaryMessageWriter writeUnsignedInts(int field, int[] values) {
+        if (values != null) {
+            writeNested(field, () -> {
+                for (int value : values) {
+                    writeRawVarint(value & 0xFFFFFFFFL);
+                }
+            });
+        }
+        return this;
+    }
+
+    /**
+     * Writes a nested message, the fields of which are written by the given callback.
+     */
+    public BinaryMessageWriter writeMessage(int field, Consumer<BinaryMessageWriter> message) {
+        writeNested(field, () -> message.accept(this));
+        return this;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(m_buffer, m_position);
+    }
+
+    public int size() {
+        return m_position;
+    }
+
+    private void writeNested(int field, Runnable body) {
+        writeTag(field, WIRETYPE_LENGTH_DELIMITED);
+        // Reserve enough room for the length, write the body, and shift it back
+        // once we know how many bytes are actually needed to encode the length
+        ensureCapacity(MAX_VARINT32_SIZE);
+        final int lengthPosition = m_position;
+        m_position += MAX_VARINT32_SIZE;
+        body.run();
+        final int bodyPosition = lengthPosition + MAX_VARINT32_SIZE;
+        final int length = m_position - bodyPosition;
+        m_position = lengthPosition;
+        writeRawVarint(length);
+        System.arraycopy(m_buffer, bodyPosition, m_buffer, m_position, length);
+        m_position += length;
+    }
+
+    private void writeTag(int field, int wireType) {
+        if (field < 1) {
+            throw new IllegalArgumentException("Field numbers must be positive: " + field);
+        }
+        writeRawVarint(((long)field << 3) | wireType);
+    }
+
+    private void writeRawVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            m_buffer[m_position++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        m_buffer[m_position++] = (byte)value;
+    }
+
+    private void writeRawBytes(byte[] value, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(value, offset, m_buffer, m_position, length);
+        m_position += length;
+    }
+
+    private void ensureCapacity(int length) {
+        if (m_position + length > m_buffer.length) {
+            m_buffer = Arrays.copyOf(m_buffer, Math.max(m_buffer.length * 2, m_position + length));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.ipc.sink.api;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary encoding for the messages of a {@link SinkModule}.
+ *
+ * Implementations should write the fields using a {@link BinaryMessageWriter}
+ * and skip any field numbers they don't know about when reading, so that
+ * producers and consumers running different versions can still exchange messages.
+ *
+ * @param <T> type of message handled by the codec
+ */
+public interface MessageCodec<T extends Message> {
+
+    /**
+     * Encodes the message to a byte array.
+     */
+    byte[] encode(T message);
+
+    /**
+     * Decodes a message from the remaining bytes of the given buffer.
+     */
+    T decode(ByteBuffer buffer);
+}
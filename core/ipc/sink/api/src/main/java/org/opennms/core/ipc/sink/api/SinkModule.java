@@ -64,6 +64,20 @@ public interface SinkModule<S extends Message, T extends Message> {
      */
     T unmarshal(String message);
 
+    /**
+     * Optional binary codec used in place of {@link #marshal} and {@link #unmarshal}
+     * when the binary format is enabled for this module.
+     *
+     * Consumers always accept both formats, so modules can add a codec
+     * without breaking producers that still send strings.
+     *
+     * @return the {@link MessageCodec} used to encode the messages, or {@code null}
+     * if the module only supports the string format.
+     */
+    default MessageCodec<T> getBinaryCodec() {
+        return null;
+    }
+
     /**
      * Defines how messages should be combined, and when they
      * should be "released".
@@ -39,6 +39,9 @@ import org.opennms.core.camel.JmsQueueNameFactory;
 import org.opennms.core.ipc.sink.api.Message;
 import org.opennms.core.ipc.sink.api.SinkModule;
 import org.opennms.core.ipc.sink.common.AbstractMessageDispatcherFactory;
+import org.opennms.core.ipc.sink.common.SinkCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.codahale.metrics.JmxReporter;
 
@@ -47,7 +50,9 @@ import com.codahale.metrics.JmxReporter;
  *
  * @author jwhite
  */
-public class CamelRemoteMessageDispatcherFactory extends AbstractMessageDispatcherFactory<Map<String, Object>> {
+public class CamelRemoteMessageDispatcherFactory extends AbstractMessageDispatcherFactory<CamelRemoteMessageDispatcherFactory.ModuleMetadata> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CamelRemoteMessageDispatcherFactory.class);
 
     @EndpointInject(uri = "direct:sendMessage", context = "sinkClient")
     private ProducerTemplate template;
@@ -57,18 +62,47 @@ public class CamelRemoteMessageDispatcherFactory extends AbstractMessageDispatch
 
     private JmxReporter reporter;
 
-    public <S extends Message, T extends Message> Map<String, Object> getModuleMetadata(SinkModule<S, T> module) {
+    /**
+     * The JMS headers and codec used to send the messages of a given module.
+     */
+    protected static class ModuleMetadata {
+        private final Map<String, Object> headers;
+        private final SinkCodec<Message> codec;
+
+        @SuppressWarnings("unchecked")
+        private ModuleMetadata(Map<String, Object> headers, SinkCodec<?> codec) {
+            this.headers = headers;
+            this.codec = (SinkCodec<Message>)codec;
+        }
+    }
+
+    @Override
+    public <S extends Message, T extends Message> ModuleMetadata getModuleMetadata(SinkModule<S, T> module) {
         // Pre-compute the JMS headers instead of recomputing them every dispatch
         final JmsQueueNameFactory queueNameFactory = new JmsQueueNameFactory(
                 CamelSinkConstants.JMS_QUEUE_PREFIX, module.getId());
         Map<String, Object> headers = new HashMap<>();
         headers.put(CamelSinkConstants.JMS_QUEUE_NAME_HEADER, queueNameFactory.getName());
-        return Collections.unmodifiableMap(headers);
+        final SinkCodec<T> codec = SinkCodec.forModule(module);
+        LOG.info("Sending messages for module {} using the {} format.", module.getId(), codec.getFormat().getName());
+        return new ModuleMetadata(Collections.unmodifiableMap(headers), codec);
+    }
+
+    @Override
+    public <S extends Message, T extends Message> void dispatch(SinkModule<S, T> module, ModuleMetadata metadata, T message) {
+        if (metadata.codec.getFormat() == SinkCodec.Format.BINARY) {
+            // Sent as a JMS BytesMessage
+            template.sendBodyAndHeaders(endpoint, metadata.codec.marshal(message), metadata.headers);
+        } else {
+            // Keep sending text messages, which can be read by consumers that predate the binary format
+            template.sendBodyAndHeaders(endpoint, module.marshal(message), metadata.headers);
+        }
     }
 
     @Override
-    public <S extends Message, T extends Message> void dispatch(SinkModule<S, T> module, Map<String, Object> headers, T message) {
-        template.sendBodyAndHeaders(endpoint, module.marshal((T)message), headers);
+    protected boolean isSpoolingSupported() {
+        // The producer template throws when the message cannot be delivered to the broker
+        return true;
     }
 
     public void registerJmxReporter() {
@@ -34,6 +34,7 @@ import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
 import org.opennms.core.ipc.sink.api.Message;
 import org.opennms.core.ipc.sink.api.SinkModule;
+import org.opennms.core.ipc.sink.common.SinkCodec;
 
 public class CamelSinkServerProcessor implements Processor {
 
@@ -47,8 +48,14 @@ public class CamelSinkServerProcessor implements Processor {
 
     @Override
     public void process(Exchange exchange) {
-        final String messageAsString = exchange.getIn().getBody(String.class);
-        final Message message = module.unmarshal(messageAsString);
+        final Object body = exchange.getIn().getBody();
+        final Message message;
+        if (body instanceof byte[]) {
+            message = SinkCodec.unmarshal(module, (byte[])body);
+        } else {
+            final String messageAsString = exchange.getIn().getBody(String.class);
+            message = module.unmarshal(messageAsString);
+        }
         consumerManager.dispatch(module, message);
     }
 }
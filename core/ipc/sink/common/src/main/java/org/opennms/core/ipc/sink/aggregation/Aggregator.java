@@ -28,28 +28,36 @@
 
 package org.opennms.core.ipc.sink.aggregation;
 
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.Set;
+import java.util.Queue;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.opennms.core.ipc.sink.api.AggregationPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.util.concurrent.Striped;
-
 /**
  * This aggregator is used to realize a given {@link AggregationPolicy}.
  *
  * This class is designed to delegate dispatching to the calling threads as much
  * as possible (those which make calls to {@link #aggregate(Message).}
  *
+ * No locks are held while aggregating: producers claim a position in the bucket
+ * with an atomic counter and store their message at that position. The
+ * thread that claims the last position (or the flush timer, once the bucket has expired)
+ * seals the bucket and is the only one to invoke {@link AggregationPolicy#aggregate(Object, Object)}
+ * on its messages, so the policy never needs to be thread-safe.
+ *
+ * Buckets are placed on a timing wheel when they are created, so that the flush
+ * timer only needs to look at the buckets which are due, instead of every bucket.
+ *
  * @author jwhite
  *
  * @param <S> individual message
@@ -60,19 +68,27 @@ public class Aggregator<S, T> implements AutoCloseable, Runnable {
     private static final Logger LOG = LoggerFactory.getLogger(Aggregator.class);
 
     /**
-     * System property used to override the default number of stripe locks.
+     * System property used to override the number of timer ticks per completion interval.
      */
-    public static final String NUM_STRIPE_LOCKS_SYS_PROP = "org.opennms.ipc.sink.aggregation.stripes";
+    public static final String TICKS_PER_INTERVAL_SYS_PROP = "org.opennms.ipc.sink.aggregation.ticksPerInterval";
 
-    public static final int DEFAULT_NUM_STRIPE_LOCKS = 64;
+    public static final int DEFAULT_TICKS_PER_INTERVAL = 8;
 
     /**
-     * The number of stripe locks used to lock the buckets.
+     * The number of slots on the timing wheel used for every completion interval.
      *
-     * Increasing this number will reduce the chance of collisions, but will cost
-     * more in terms of memory.
+     * Increasing this number will flush buckets closer to their deadline, but will
+     * wake up the flush timer more often.
      */
-    private static final int NUM_STRIPE_LOCKS = Integer.getInteger(NUM_STRIPE_LOCKS_SYS_PROP, DEFAULT_NUM_STRIPE_LOCKS);
+    private static final int TICKS_PER_INTERVAL = Math.max(1, Integer.getInteger(TICKS_PER_INTERVAL_SYS_PROP, DEFAULT_TICKS_PER_INTERVAL));
+
+    private static final int CHUNK_SIZE = 64;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<Aggregator.Bucket> CLAIMED = AtomicIntegerFieldUpdater.newUpdater(Aggregator.Bucket.class, "claimed");
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<Aggregator.Bucket> ADDED = AtomicIntegerFieldUpdater.newUpdater(Aggregator.Bucket.class, "added");
 
     private final AggregationPolicy<S,T> aggregationPolicy;
 
@@ -86,8 +102,16 @@ public class Aggregator<S, T> implements AutoCloseable, Runnable {
 
     private final ConcurrentHashMap<Object, Bucket> buckets = new ConcurrentHashMap<>();
 
-    private final Striped<Lock> lockStripes = Striped.lock(NUM_STRIPE_LOCKS);
+    private final long tickMs;
 
+    private final Queue<Bucket>[] wheel;
+
+    /**
+     * Last tick processed by the flush timer.
+     */
+    private long lastTick;
+
+    @SuppressWarnings("unchecked")
     public Aggregator(String id, AggregationPolicy<S,T> policy, AggregatingMessageProducer<S,T> messageProducer) {
         aggregationPolicy = Objects.requireNonNull(policy);
         this.messageProducer = Objects.requireNonNull(messageProducer);
@@ -95,7 +119,16 @@ public class Aggregator<S, T> implements AutoCloseable, Runnable {
         completionIntervalMs = aggregationPolicy.getCompletionIntervalMs();
 
         if (completionIntervalMs > 0) {
-            // Periodically verify the buckets, and flush those that are older than completionIntervalMs
+            tickMs = Math.max(1, completionIntervalMs / TICKS_PER_INTERVAL);
+            // Buckets are always scheduled one interval ahead, so a single
+            // revolution of the wheel must span more than one interval
+            wheel = new Queue[(int)(completionIntervalMs / tickMs) + 2];
+            for (int i = 0; i < wheel.length; i++) {
+                wheel[i] = new ConcurrentLinkedQueue<>();
+            }
+            lastTick = System.currentTimeMillis() / tickMs;
+
+            // Periodically flush the buckets that are older than completionIntervalMs
             flushTimer = new Timer(String.format("AggregatorFlush-%s", id));
             flushTimer.scheduleAtFixedRate(new TimerTask() {
                 @Override
@@ -108,8 +141,10 @@ public class Aggregator<S, T> implements AutoCloseable, Runnable {
                         LOG.error("An error occurred while flushing one or more aggregates in module '{}'.", id, t);
                     }
                 }
-            }, completionIntervalMs, completionIntervalMs);
+            }, tickMs, tickMs);
         } else {
+            tickMs = 0;
+            wheel = null;
             flushTimer = null;
         }
     }
@@ -123,66 +158,82 @@ public class Aggregator<S, T> implements AutoCloseable, Runnable {
      * if nothing is ready to be dispatched
      */
     public T aggregate(S message) {
+        if (completionSize <= 1) {
+            // Every message completes its own bucket
+            return aggregationPolicy.aggregate(null, message);
+        }
+
         // Compute the key
         final Object key = aggregationPolicy.key(message);
-        // Lock the bucket
-        final Lock lock = lockStripes.get(key);
-        try {
-            lock.lock();
+        while (true) {
             // Obtain the bucket, creating a new one if it doesn't already exist
             Bucket bucket = buckets.get(key);
             if (bucket == null) {
-                bucket = new Bucket();
-                buckets.put(key, bucket);
+                final Bucket newBucket = new Bucket(key);
+                bucket = buckets.putIfAbsent(key, newBucket);
+                if (bucket == null) {
+                    bucket = newBucket;
+                    schedule(bucket);
+                }
             }
 
-            // Accumulate into the bucket
-            T accumulator = bucket.accumulate(message);
-            if (accumulator != null) {
-                // The bucket is ready to be dispatched
-                buckets.remove(key);
-                return accumulator;
-            } else {
-                // The bucket is NOT ready to be dispatched
-                return null;
+            // Claim a position in the bucket
+            final int position = bucket.claim();
+            if (position <= 0 || position > completionSize) {
+                // The bucket was already sealed, make sure it's gone and try again
+                buckets.remove(key, bucket);
+                continue;
             }
-        } finally {
-            lock.unlock();
+            bucket.add(position, message);
+
+            if (position == completionSize) {
+                // We claimed the last position, the bucket is ready to be dispatched
+                buckets.remove(key, bucket);
+                return bucket.complete(position);
+            }
+            // The bucket is NOT ready to be dispatched, expired buckets are
+            // left to the flush timer, which runs several times per interval
+            return null;
         }
     }
 
+    /**
+     * Dispatches the buckets that have expired since the last call.
+     */
     @Override
     public void run() {
-        final List<T> messagesReadyForDispatch = new LinkedList<>();
-        // Grab a copy of all the current bucket keys
-        final Set<Object> keys = new HashSet<>(buckets.keySet());
-        // NMS-9114: As we iterate over the keys to add them to set above,
-        // it's possible that one of the buckets was removed
-        // in which case the key set may contain a null key
-        // so we remove it here for good measure, otherwise
-        // the call to bulkGet bellow will fail with an NPE
-        keys.remove(null);
-
-        // Lock all the buckets
-        final Iterable<Lock> locks = lockStripes.bulkGet(keys);
-        try {
-            locks.forEach(l -> l.lock());
-            // Determine which buckets are ready to be dispatched
-            // and remove these from the map
-            final long cutOff = System.currentTimeMillis() - completionIntervalMs;
-            for (final Object key : keys) {
-                final Bucket bucket = buckets.get(key);
-                // The bucket may have been removed between the time we retrieved
-                // the keys, and the time we obtained the lock, so we make sure
-                // it's non-null before accessing it's properties
-                if (bucket != null && bucket.getFirstTimeMillis() != null && bucket.getFirstTimeMillis() <= cutOff) {
-                    messagesReadyForDispatch.add(bucket.getValue());
-                    buckets.remove(key);
+        if (wheel == null) {
+            return;
+        }
+        final List<T> messagesReadyForDispatch = new ArrayList<>();
+        final List<Bucket> notYetDue = new ArrayList<>();
+        final long now = System.currentTimeMillis();
+        final long nowTick = now / tickMs;
+        synchronized (wheel) {
+            // Visit every slot at most once, even if we fell behind by more than a revolution
+            final long firstTick = Math.max(lastTick + 1, nowTick - wheel.length + 1);
+            for (long tick = firstTick; tick <= nowTick; tick++) {
+                final Queue<Bucket> slot = wheel[(int)(tick % wheel.length)];
+                Bucket bucket;
+                while ((bucket = slot.poll()) != null) {
+                    if (bucket.deadlineMillis > now) {
+                        // Belongs to a later revolution
+                        notYetDue.add(bucket);
+                        continue;
+                    }
+                    // Buckets that were completed by size are already sealed, and are skipped
+                    final int size = bucket.seal();
+                    if (size >= 0) {
+                        buckets.remove(bucket.key, bucket);
+                    }
+                    if (size > 0) {
+                        messagesReadyForDispatch.add(bucket.complete(size));
+                    }
                 }
             }
-        } finally {
-            locks.forEach(l -> l.unlock());
+            lastTick = Math.max(lastTick, nowTick);
         }
+        notYetDue.forEach(this::schedule);
 
         // Dispatch!
         for (T message : messagesReadyForDispatch) {
@@ -197,37 +248,93 @@ public class Aggregator<S, T> implements AutoCloseable, Runnable {
         }
     }
 
+    private void schedule(Bucket bucket) {
+        if (wheel != null) {
+            // Round up so that the bucket is never visited before its deadline
+            final long tick = (bucket.deadlineMillis + tickMs - 1) / tickMs;
+            wheel[(int)(tick % wheel.length)].add(bucket);
+        }
+    }
+
     protected class Bucket {
-        private T accumulator;
-        private int count = 0;
-        private Long firstTimeMillis;
-
-        public T accumulate(S message) {
-            accumulator = aggregationPolicy.aggregate(accumulator, message);
-            count++;
-            if (count >= completionSize) {
-                // We're ready!
-                return accumulator;
-            } else if (completionIntervalMs > 0) {
-                final long now = System.currentTimeMillis();
-                if (firstTimeMillis == null) {
-                    firstTimeMillis = now;
-                } else if (now - firstTimeMillis >= completionIntervalMs) {
-                    // We're ready!
-                    return accumulator;
-                }
+        private final Object key;
+        private final long deadlineMillis;
+
+        /**
+         * Number of positions claimed by the producers, the bucket is sealed
+         * once this is negative or greater than the completion size.
+         */
+        volatile int claimed = 0;
+
+        /**
+         * Number of messages stored by the producers.
+         */
+        volatile int added = 0;
+
+        /**
+         * Messages are stored in fixed size chunks which are allocated on demand,
+         * so that large completion sizes don't cost anything until they are used.
+         */
+        private AtomicReferenceArray<Object[]> chunks;
+
+        public Bucket(Object key) {
+            this.key = key;
+            deadlineMillis = completionIntervalMs > 0 ? System.currentTimeMillis() + completionIntervalMs : Long.MAX_VALUE;
+            chunks = new AtomicReferenceArray<>((completionSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        }
+
+        private int claim() {
+            return CLAIMED.incrementAndGet(this);
+        }
+
+        private void add(int position, S message) {
+            final int index = position - 1;
+            Object[] chunk = chunks.get(index / CHUNK_SIZE);
+            if (chunk == null) {
+                chunks.compareAndSet(index / CHUNK_SIZE, null, new Object[CHUNK_SIZE]);
+                chunk = chunks.get(index / CHUNK_SIZE);
             }
-            // We're NOT ready yet...
-            return null;
+            chunk[index % CHUNK_SIZE] = message;
+            // Publishes the message to the thread that completes the bucket
+            ADDED.incrementAndGet(this);
         }
 
-        public T getValue() {
-            return accumulator;
+        /**
+         * Prevents any other messages from being added to the bucket.
+         *
+         * @return the number of messages in the bucket, or -1 if the bucket was already sealed
+         */
+        private int seal() {
+            while (true) {
+                final int size = claimed;
+                if (size < 0 || size >= completionSize) {
+                    return -1;
+                }
+                if (CLAIMED.compareAndSet(this, size, Integer.MIN_VALUE)) {
+                    return size;
+                }
+            }
         }
 
-        public Long getFirstTimeMillis() {
-            return firstTimeMillis;
+        /**
+         * Aggregates the messages in a sealed bucket.
+         *
+         * Must only be called once, by the thread that sealed the bucket.
+         */
+        @SuppressWarnings("unchecked")
+        private T complete(int size) {
+            // Wait for the producers that claimed a position to add their message
+            while (added < size) {
+                Thread.yield();
+            }
+            T accumulator = null;
+            for (int i = 0; i < size; i++) {
+                accumulator = aggregationPolicy.aggregate(accumulator, (S)chunks.get(i / CHUNK_SIZE)[i % CHUNK_SIZE]);
+            }
+            // The bucket may linger on the timing wheel until its deadline, don't hold on to the messages
+            chunks = null;
+            return accumulator;
         }
     }
-    
+
 }
@@ -32,6 +32,8 @@ import java.util.Objects;
 
 import org.opennms.core.ipc.sink.aggregation.AggregatingSinkMessageProducer;
 import org.opennms.core.ipc.sink.api.AsyncDispatcher;
+import org.opennms.core.ipc.sink.api.AsyncPolicy;
+import org.opennms.core.ipc.sink.api.AsyncPolicy.OverflowPolicy;
 import org.opennms.core.ipc.sink.api.Message;
 import org.opennms.core.ipc.sink.api.MessageDispatcherFactory;
 import org.opennms.core.ipc.sink.api.SinkModule;
@@ -47,6 +49,8 @@ import com.codahale.metrics.Timer.Context;
  * Different types of dispatchers are created based on whether or not the module is using aggregation.
  *
  * Asynchronous dispatchers use a queue and a thread pool to delegate to a suitable synchronous dispatcher.
+ * A lock-free ring buffer is used instead when {@link RingBufferAsyncDispatcher#RING_BUFFER_PROPERTY}
+ * is set, or when the module's {@link AsyncPolicy} drops the oldest messages on overflow.
  *
  * @author jwhite
  *
@@ -58,6 +62,17 @@ public abstract class AbstractMessageDispatcherFactory<W> implements MessageDisp
 
     private final MetricRegistry metrics = new MetricRegistry();
 
+    /**
+     * Dispatches a message on behalf of a {@link SinkSpool}, which needs to know
+     * when the message could not be sent.
+     *
+     * Defaults to {@link #dispatch}. Implementations that only log the messages that
+     * could not be sent from {@link #dispatch} must throw an exception here instead.
+     */
+    protected <S extends Message, T extends Message> void dispatchOrThrow(SinkModule<S, T> module, W metadata, T message) {
+        dispatch(module, metadata, message);
+    }
+
     /**
      * Invokes dispatch within a timer context.
      */
@@ -67,6 +82,38 @@ public abstract class AbstractMessageDispatcherFactory<W> implements MessageDisp
         }
     }
 
+    /**
+     * Invokes dispatchOrThrow within a timer context.
+     */
+    <S extends Message, T extends Message> void timedDispatchOrThrow(DispatcherState<W, S,T> state, T message) {
+        try (Context ctx = state.getDispatchTimer().time()) {
+            dispatchOrThrow(state.getModule(), state.getMetaData(), message);
+        }
+    }
+
+    /**
+     * Dispatches the message through the module's spool, if any.
+     */
+    private <S extends Message, T extends Message> void spooledDispatch(DispatcherState<W, S,T> state, T message) {
+        final SinkSpool<T> spool = state.getSpool();
+        if (spool != null) {
+            spool.dispatch(message);
+        } else {
+            timedDispatch(state, message);
+        }
+    }
+
+    /**
+     * Whether or not messages that cannot be dispatched should be stored in a {@link SinkSpool},
+     * when spooling is enabled.
+     *
+     * Implementations that return <code>true</code> must throw an exception from {@link #dispatchOrThrow}
+     * when a message could not be sent.
+     */
+    protected boolean isSpoolingSupported() {
+        return false;
+    }
+
     /**
      * Optionally build meta-data or state information for the module which will
      * be passed on all the calls to {@link #dispatch}.
@@ -94,7 +141,13 @@ public abstract class AbstractMessageDispatcherFactory<W> implements MessageDisp
         Objects.requireNonNull(module.getAsyncPolicy(), "module must have an AsyncPolicy");
         final DispatcherState<W,S,T> state = new DispatcherState<>(this, module);
         final SyncDispatcher<S> syncDispatcher = createSyncDispatcher(state);
-        return new AsyncDispatcherImpl<>(state, module.getAsyncPolicy(), syncDispatcher);
+        final AsyncPolicy asyncPolicy = module.getAsyncPolicy();
+        if (Boolean.getBoolean(RingBufferAsyncDispatcher.RING_BUFFER_PROPERTY)
+                || asyncPolicy.getOverflowPolicy() == OverflowPolicy.DROP_OLDEST) {
+            // The thread pool based dispatcher cannot evict queued messages
+            return new RingBufferAsyncDispatcher<>(state, asyncPolicy, syncDispatcher);
+        }
+        return new AsyncDispatcherImpl<>(state, asyncPolicy, syncDispatcher);
     }
 
     protected <S extends Message, T extends Message> SyncDispatcher<S> createSyncDispatcher(DispatcherState<W,S,T> state) {
@@ -104,7 +157,7 @@ public abstract class AbstractMessageDispatcherFactory<W> implements MessageDisp
             return new AggregatingSinkMessageProducer<S,T>(module) {
                 @Override
                 public void dispatch(T message) {
-                    AbstractMessageDispatcherFactory.this.timedDispatch(state, message);
+                    AbstractMessageDispatcherFactory.this.spooledDispatch(state, message);
                 }
                 @Override
                 public void close() throws Exception {
@@ -130,7 +183,7 @@ public abstract class AbstractMessageDispatcherFactory<W> implements MessageDisp
         public void send(S message) {
             // Cast S to T, modules that do not use an AggregationPolicty
             // must have the same types for S and T
-            AbstractMessageDispatcherFactory.this.timedDispatch(state, (T)message);
+            AbstractMessageDispatcherFactory.this.spooledDispatch(state, (T)message);
         }
 
         @Override
@@ -0,0 +1,472 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.ipc.sink.common;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A persistent FIFO queue of byte arrays, stored in segment files.
+ *
+ * Records are appended to the last segment, and read back from the first one. A new
+ * segment is started when the last one is full, and segments are deleted once all
+ * of their records have been read. The read position is stored in the header of each
+ * segment, so the queue survives restarts.
+ *
+ * The total size of the segments is bounded: when a new segment would exceed the limit,
+ * the oldest segments are discarded, along with the records they contain.
+ *
+ * Each segment is laid out as:
+ * <pre>
+ *   [magic (4)][read offset (4)] ([length (4)][timestamp (8)][payload (length)])* [0 (4)]
+ * </pre>
+ * The length of a record is written last, so a record is never visible before it is complete.
+ *
+ * This class is thread-safe.
+ */
+public class DiskSpool implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DiskSpool.class);
+
+    private static final int MAGIC = 0x4F4E5350;
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final int READ_OFFSET_POSITION = 4;
+
+    private static final int RECORD_HEADER_SIZE = 12;
+
+    private static final String SEGMENT_SUFFIX = ".spool";
+
+    private static final String LOCK_FILE = "spool.lock";
+
+    /**
+     * A record read from the spool.
+     */
+    public static class Record {
+        private final long segment;
+        private final int offset;
+        private final long timestamp;
+        private final byte[] payload;
+
+        private Record(long segment, int offset, long timestamp, byte[] payload) {
+            this.segment = segment;
+            this.offset = offset;
+            this.timestamp = timestamp;
+            this.payload = payload;
+        }
+
+        /**
+         * @return the time at which the record was appended, in milliseconds since the epoch
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+    }
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final long maxSize;
+
+    private final Deque<Segment> segments = new ArrayDeque<>();
+
+    private final FileChannel lockChannel;
+
+    private final FileLock lock;
+
+    private long nextSequence = 0;
+
+    private long depth = 0;
+
+    private long size = 0;
+
+    private boolean closed = false;
+
+    /**
+     * Opens the spool stored in the given directory, creating it if necessary.
+     *
+     * @param directory directory in which the segments are stored, must not be shared with another spool
+     * @param segmentSize size of a segment in bytes
+     * @param maxSize maximum number of bytes used by all the segments
+     * @throws IOException if the directory cannot be read, or is already used by another spool
+     */
+    public DiskSpool(Path directory, int segmentSize, long maxSize) throws IOException {
+        this.directory = Objects.requireNonNull(directory);
+        if (segmentSize <= HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment size is too small: " + segmentSize);
+        }
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+
+        Files.createDirectories(directory);
+        lockChannel = FileChannel.open(directory.resolve(LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock fileLock;
+        try {
+            fileLock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Locked by this JVM
+            fileLock = null;
+        }
+        lock = fileLock;
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Spool directory " + directory + " is already in use.");
+        }
+
+        final List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(paths::add);
+        }
+        // The names are zero-padded, so these sort by sequence
+        Collections.sort(paths);
+        for (Path path : paths) {
+            final String name = path.getFileName().toString();
+            final long sequence;
+            try {
+                sequence = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                LOG.warn("Ignoring unexpected file {} in spool directory {}.", name, directory);
+                continue;
+            }
+            final Segment segment = Segment.open(path, sequence);
+            if (segment == null) {
+                LOG.warn("Discarding invalid spool segment {}.", path);
+                Files.deleteIfExists(path);
+                continue;
+            }
+            nextSequence = sequence + 1;
+            if (segment.isEmpty()) {
+                segment.delete();
+                continue;
+            }
+            segments.add(segment);
+            depth += segment.count;
+            size += segment.capacity();
+        }
+        if (depth > 0) {
+            LOG.info("Found {} spooled records in {}.", depth, directory);
+        }
+    }
+
+    /**
+     * Appends the given payload to the spool.
+     *
+     * @return the number of records that were discarded to stay within the size limit
+     */
+    public synchronized long append(byte[] payload) throws IOException {
+        checkNotClosed();
+        long dropped = 0;
+        Segment segment = segments.peekLast();
+        if (segment == null || !segment.hasRoomFor(payload.length)) {
+            final int capacity = Math.max(segmentSize, HEADER_SIZE + RECORD_HEADER_SIZE + payload.length + 4);
+            // Make room for the new segment
+            while (!segments.isEmpty() && size + capacity > maxSize) {
+                final Segment oldest = segments.removeFirst();
+                LOG.warn("Spool {} is full, discarding {} records.", directory, oldest.count);
+                dropped += oldest.count;
+                depth -= oldest.count;
+                size -= oldest.capacity();
+                oldest.delete();
+            }
+            segment = Segment.create(directory.resolve(String.format("%020d%s", nextSequence, SEGMENT_SUFFIX)), nextSequence, capacity);
+            nextSequence++;
+            segments.addLast(segment);
+            size += capacity;
+        }
+        segment.append(System.currentTimeMillis(), payload);
+        depth++;
+        return dropped;
+    }
+
+    /**
+     * Retrieves, but does not remove, the oldest record.
+     *
+     * @return the oldest record, or <code>null</code> if the spool is empty
+     */
+    public synchronized Record peek() throws IOException {
+        checkNotClosed();
+        final Segment segment = segments.peekFirst();
+        return segment != null ? segment.peek() : null;
+    }
+
+    /**
+     * Removes the given record, which must have been returned by {@link #peek()}.
+     *
+     * Does nothing if the record was already removed, or discarded.
+     */
+    public synchronized void remove(Record record) throws IOException {
+        checkNotClosed();
+        final Segment segment = segments.peekFirst();
+        if (segment == null || segment.sequence != record.segment || segment.readOffset != record.offset) {
+            return;
+        }
+        segment.remove(record);
+        depth--;
+        if (segment.isEmpty()) {
+            // Fully consumed, new records will go to a new segment
+            segments.removeFirst();
+            size -= segment.capacity();
+            try {
+                segment.delete();
+            } catch (IOException e) {
+                LOG.warn("Failed to delete spool segment {}.", segment.path, e);
+            }
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return depth == 0;
+    }
+
+    /**
+     * @return the number of records in the spool
+     */
+    public synchronized long getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return the number of bytes used by the segments
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the time at which the oldest record was appended, or <code>null</code> if the spool is empty
+     */
+    public synchronized Long getOldestTimestamp() {
+        final Segment segment = closed ? null : segments.peekFirst();
+        try {
+            return segment != null ? segment.peekTimestamp() : null;
+        } catch (IOException e) {
+            LOG.warn("Failed to read the oldest record of spool segment {}.", segment.path, e);
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Segment segment : segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                LOG.warn("Failed to close spool segment {}.", segment.path, e);
+            }
+        }
+        segments.clear();
+        lock.release();
+        lockChannel.close();
+    }
+
+    private void checkNotClosed() {
+        if (closed) {
+            throw new IllegalStateException("Spool " + directory + " is closed.");
+        }
+    }
+
+    private static class Segment {
+        private final Path path;
+        private final long sequence;
+        private final FileChannel channel;
+        private final int capacity;
+        private int readOffset;
+        private int writeOffset;
+        private int count;
+
+        private Segment(Path path, long sequence, FileChannel channel, int capacity) {
+            this.path = path;
+            this.sequence = sequence;
+            this.channel = channel;
+            this.capacity = capacity;
+        }
+
+        private static Segment create(Path path, long sequence, int capacity) throws IOException {
+            final RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw");
+            try {
+                file.setLength(capacity);
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+            // Closing the channel also closes the file
+            final Segment segment = new Segment(path, sequence, file.getChannel(), capacity);
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 4);
+            header.putInt(MAGIC).putInt(HEADER_SIZE).putInt(0).flip();
+            segment.write(header, 0);
+            segment.readOffset = HEADER_SIZE;
+            segment.writeOffset = HEADER_SIZE;
+            return segment;
+        }
+
+        private static Segment open(Path path, long sequence) throws IOException {
+            final long length = Files.size(path);
+            if (length < HEADER_SIZE + 4 || length > Integer.MAX_VALUE) {
+                return null;
+            }
+            final Segment segment = new Segment(path, sequence, FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE), (int)length);
+            try {
+                final int readOffset = segment.readInt(READ_OFFSET_POSITION);
+                if (segment.readInt(0) != MAGIC || readOffset < HEADER_SIZE || readOffset > segment.capacity) {
+                    segment.close();
+                    return null;
+                }
+                // Find the end of the segment and count the unread records
+                int offset = HEADER_SIZE;
+                while (offset + RECORD_HEADER_SIZE <= segment.capacity) {
+                    final int recordLength = segment.readInt(offset);
+                    if (recordLength <= 0 || recordLength > segment.capacity - offset - RECORD_HEADER_SIZE) {
+                        break;
+                    }
+                    if (offset >= readOffset) {
+                        segment.count++;
+                    }
+                    offset += RECORD_HEADER_SIZE + recordLength;
+                }
+                segment.readOffset = Math.min(readOffset, offset);
+                segment.writeOffset = offset;
+                return segment;
+            } catch (IOException e) {
+                segment.close();
+                throw e;
+            }
+        }
+
+        private int capacity() {
+            return capacity;
+        }
+
+        private boolean isEmpty() {
+            return count == 0;
+        }
+
+        private boolean hasRoomFor(int length) {
+            // Leave room for the terminating 0 length
+            return writeOffset + RECORD_HEADER_SIZE + length + 4 <= capacity;
+        }
+
+        private void append(long timestamp, byte[] payload) throws IOException {
+            final ByteBuffer record = ByteBuffer.allocate(8 + payload.length + 4);
+            record.putLong(timestamp).put(payload).putInt(0).flip();
+            write(record, writeOffset + 4);
+            // Commit
+            writeInt(writeOffset, payload.length);
+            writeOffset += RECORD_HEADER_SIZE + payload.length;
+            count++;
+        }
+
+        private Record peek() throws IOException {
+            if (count == 0) {
+                return null;
+            }
+            final ByteBuffer header = read(readOffset, RECORD_HEADER_SIZE);
+            final int length = header.getInt();
+            final long timestamp = header.getLong();
+            final byte[] payload = read(readOffset + RECORD_HEADER_SIZE, length).array();
+            return new Record(sequence, readOffset, timestamp, payload);
+        }
+
+        private Long peekTimestamp() throws IOException {
+            return count > 0 ? read(readOffset + 4, 8).getLong() : null;
+        }
+
+        private void remove(Record record) throws IOException {
+            readOffset += RECORD_HEADER_SIZE + record.payload.length;
+            writeInt(READ_OFFSET_POSITION, readOffset);
+            count--;
+        }
+
+        private void close() throws IOException {
+            channel.close();
+        }
+
+        private void delete() throws IOException {
+            // Release the file before deleting it, so that its space is reclaimed right away
+            close();
+            Files.deleteIfExists(path);
+        }
+
+        private int readInt(int position) throws IOException {
+            return read(position, 4).getInt();
+        }
+
+        private void writeInt(int position, int value) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.allocate(4);
+            buffer.putInt(value).flip();
+            write(buffer, position);
+        }
+
+        private ByteBuffer read(int position, int length) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of spool segment " + path);
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        private void write(ByteBuffer buffer, int position) throws IOException {
+            final int start = buffer.position();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position() - start);
+            }
+        }
+    }
+}
@@ -57,6 +57,8 @@ public class DispatcherState<W, S extends Message, T extends Message> implements
 
     private final Timer dispatchTimer;
 
+    private final SinkSpool<T> spool;
+
     public DispatcherState(AbstractMessageDispatcherFactory<W> dispatcherFactory, SinkModule<S, T> module) {
         this.module = module;
         metadata = dispatcherFactory.getModuleMetadata(module);
@@ -82,6 +84,12 @@ public class DispatcherState<W, S extends Message, T extends Message> implements
             LOG.warn("Multiple timers registered with name {} somehow", metricName);
             dispatchTimer = existingTimers.iterator().next();
         }
+
+        if (dispatcherFactory.isSpoolingSupported()) {
+            spool = SinkSpool.create(module, metrics, message -> dispatcherFactory.timedDispatchOrThrow(this, message));
+        } else {
+            spool = null;
+        }
     }
 
     public SinkModule<S, T> getModule() {
@@ -100,8 +108,19 @@ public class DispatcherState<W, S extends Message, T extends Message> implements
         return dispatchTimer;
     }
 
+    /**
+     * @return the spool used to store the messages which cannot be dispatched, or
+     * <code>null</code> if spooling is disabled
+     */
+    public SinkSpool<T> getSpool() {
+        return spool;
+    }
+
     @Override
     public void close() throws Exception {
+        if (spool != null) {
+            spool.close();
+        }
         final String prefix = MetricRegistry.name(module.getId());
         metrics.removeMatching(new MetricFilter() {
             @Override
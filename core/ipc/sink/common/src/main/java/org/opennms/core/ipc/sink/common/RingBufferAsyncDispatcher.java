@@ -0,0 +1,468 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.ipc.sink.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.joda.time.Duration;
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.ipc.sink.api.AsyncDispatcher;
+import org.opennms.core.ipc.sink.api.AsyncPolicy;
+import org.opennms.core.ipc.sink.api.AsyncPolicy.OverflowPolicy;
+import org.opennms.core.ipc.sink.api.Message;
+import org.opennms.core.ipc.sink.api.SyncDispatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.swrve.ratelimitedlogger.RateLimitedLog;
+
+/**
+ * An {@link AsyncDispatcher} that queues the messages in a preallocated,
+ * bounded, multi-producer/multi-consumer ring buffer.
+ *
+ * Unlike the {@link AsyncDispatcherImpl}, no task or future is allocated per message
+ * (unless the caller asks for a future), and the consumer threads drain the
+ * messages in batches of up to {@value #DEFAULT_BATCH_SIZE} (see {@link #BATCH_SIZE_PROPERTY})
+ * before handing them to the {@link SyncDispatcher}. Producers and consumers only
+ * synchronize on a lock when they need to wait for the buffer to become non-full
+ * or non-empty.
+ *
+ * The behavior when the buffer is full is defined by the module's
+ * {@link AsyncPolicy#getOverflowPolicy()}.
+ *
+ * The time spent by the messages in the buffer is tracked with a per-module
+ * <code>queue-latency</code> timer.
+ */
+public class RingBufferAsyncDispatcher<W, S extends Message, T extends Message> implements AsyncDispatcher<S> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RingBufferAsyncDispatcher.class);
+
+    /**
+     * Set to <code>true</code> to use the ring buffer for all of the asynchronous dispatchers.
+     */
+    public static final String RING_BUFFER_PROPERTY = "org.opennms.core.ipc.sink.async.ringBuffer";
+
+    public static final String BATCH_SIZE_PROPERTY = "org.opennms.core.ipc.sink.async.batchSize";
+
+    private static final int DEFAULT_BATCH_SIZE = 32;
+
+    /**
+     * Number of times threads yield before waiting on the lock.
+     */
+    private static final int SPIN_TRIES = 64;
+
+    /**
+     * Upper bound on how long idle threads wait before re-checking the buffer.
+     */
+    private static final long MAX_WAIT_MS = 100;
+
+    private static final long CLOSE_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private final RateLimitedLog rateLimittedLogger = RateLimitedLog
+            .withRateLimit(LOG)
+            .maxRate(5).every(Duration.standardSeconds(30))
+            .build();
+
+    private final String moduleId;
+
+    private final SyncDispatcher<S> syncDispatcher;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final int queueSize;
+
+    private final int batchSize;
+
+    private final int mask;
+
+    /**
+     * Slot <code>i</code> is free for the producer at position <code>p</code> when its sequence
+     * is <code>p</code>, and holds the message for position <code>p</code> when its
+     * sequence is <code>p + 1</code>.
+     */
+    private final AtomicLongArray sequences;
+
+    private final Object[] messages;
+
+    private final Object[] futures;
+
+    private final long[] enqueuedAt;
+
+    private final AtomicLong head = new AtomicLong(0);
+
+    private final AtomicLong tail = new AtomicLong(0);
+
+    private final Lock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    private final Condition notFull = lock.newCondition();
+
+    private final AtomicInteger waitingConsumers = new AtomicInteger(0);
+
+    private final AtomicInteger waitingProducers = new AtomicInteger(0);
+
+    private final List<Thread> consumerThreads;
+
+    private volatile boolean closed = false;
+
+    private final Counter droppedCounter;
+
+    private final Timer queueLatencyTimer;
+
+    private final Histogram batchSizeHistogram;
+
+    public RingBufferAsyncDispatcher(DispatcherState<W,S,T> state, AsyncPolicy asyncPolicy, SyncDispatcher<S> syncDispatcher) {
+        Objects.requireNonNull(state);
+        Objects.requireNonNull(asyncPolicy);
+        this.syncDispatcher = Objects.requireNonNull(syncDispatcher);
+        this.moduleId = state.getModule().getId();
+        this.overflowPolicy = Objects.requireNonNull(asyncPolicy.getOverflowPolicy());
+        if (asyncPolicy.getQueueSize() < 1) {
+            throw new IllegalArgumentException("Queue size must be > 0 for module " + moduleId);
+        }
+        this.queueSize = asyncPolicy.getQueueSize();
+        this.batchSize = Math.max(1, Integer.getInteger(BATCH_SIZE_PROPERTY, DEFAULT_BATCH_SIZE));
+
+        // Round up to the next power of 2 so we can mask instead of using modulo
+        final int capacity = queueSize == 1 ? 1 : Integer.highestOneBit(queueSize - 1) << 1;
+        mask = capacity - 1;
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        messages = new Object[capacity];
+        futures = new Object[capacity];
+        enqueuedAt = new long[capacity];
+
+        final MetricRegistry metrics = state.getMetrics();
+        droppedCounter = metrics.counter(MetricRegistry.name(moduleId, "dropped"));
+        queueLatencyTimer = metrics.timer(MetricRegistry.name(moduleId, "queue-latency"));
+        batchSizeHistogram = metrics.histogram(MetricRegistry.name(moduleId, "batch-size"));
+        metrics.register(MetricRegistry.name(moduleId, "queue-size"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getQueueSize();
+            }
+        });
+
+        final LogPreservingThreadFactory threadFactory = new LogPreservingThreadFactory("OpenNMS.Sink.AsyncDispatcher." + moduleId, Integer.MAX_VALUE);
+        consumerThreads = new ArrayList<>(asyncPolicy.getNumThreads());
+        for (int i = 0; i < Math.max(1, asyncPolicy.getNumThreads()); i++) {
+            final Thread thread = threadFactory.newThread(this::consume);
+            thread.setDaemon(true);
+            consumerThreads.add(thread);
+            thread.start();
+        }
+    }
+
+    @Override
+    public CompletableFuture<S> send(S message) {
+        final CompletableFuture<S> future = new CompletableFuture<>();
+        if (!enqueue(message, future)) {
+            future.completeExceptionally(new RejectedExecutionException("Message rejected by the dispatcher for module " + moduleId));
+        }
+        return future;
+    }
+
+    @Override
+    public void sendAndForget(S message) {
+        enqueue(message, null);
+    }
+
+    @Override
+    public int getQueueSize() {
+        return (int)Math.max(0, tail.get() - head.get());
+    }
+
+    @Override
+    public void close() throws Exception {
+        closed = true;
+        signal(notEmpty, true);
+        signal(notFull, true);
+
+        // Let the consumers drain what's left in the buffer
+        final long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MS;
+        for (Thread thread : consumerThreads) {
+            thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+        }
+
+        // Fail anything that was queued after the consumers stopped
+        final Object[] batchMessages = new Object[batchSize];
+        final Object[] batchFutures = new Object[batchSize];
+        final long[] batchEnqueuedAt = new long[batchSize];
+        int n;
+        while ((n = drain(batchMessages, batchFutures, batchEnqueuedAt, batchSize)) > 0) {
+            for (int i = 0; i < n; i++) {
+                reject(batchFutures[i], "Dispatcher for module " + moduleId + " was closed");
+            }
+        }
+
+        syncDispatcher.close();
+    }
+
+    private boolean enqueue(S message, CompletableFuture<S> future) {
+        if (closed) {
+            return false;
+        }
+        int tries = 0;
+        while (!tryEnqueue(message, future)) {
+            if (closed) {
+                return false;
+            }
+            switch (overflowPolicy) {
+            case DROP_NEWEST:
+                droppedCounter.inc();
+                return false;
+            case DROP_OLDEST:
+                if (dropOldest()) {
+                    droppedCounter.inc();
+                } else {
+                    // Another thread is claiming or publishing the slot
+                    Thread.yield();
+                }
+                break;
+            case BLOCK:
+            default:
+                if (++tries < SPIN_TRIES) {
+                    Thread.yield();
+                } else if (!awaitNotFull()) {
+                    return false;
+                }
+            }
+        }
+        if (waitingConsumers.get() > 0) {
+            signal(notEmpty, false);
+        }
+        return true;
+    }
+
+    private boolean tryEnqueue(S message, CompletableFuture<S> future) {
+        long pos = tail.get();
+        while (true) {
+            if (pos - head.get() >= queueSize) {
+                return false;
+            }
+            final int idx = (int)(pos & mask);
+            final long dif = sequences.get(idx) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    messages[idx] = message;
+                    futures[idx] = future;
+                    enqueuedAt[idx] = System.nanoTime();
+                    // Publish
+                    sequences.set(idx, pos + 1);
+                    return true;
+                }
+            } else if (dif < 0) {
+                // The slot from the previous lap is still being consumed
+                return false;
+            }
+            pos = tail.get();
+        }
+    }
+
+    /**
+     * Claims up to <code>max</code> consecutive published messages and frees their slots.
+     *
+     * @return the number of messages copied to the given arrays
+     */
+    private int drain(Object[] batchMessages, Object[] batchFutures, long[] batchEnqueuedAt, int max) {
+        long pos = head.get();
+        while (true) {
+            int n = 0;
+            while (n < max && sequences.get((int)((pos + n) & mask)) == pos + n + 1) {
+                n++;
+            }
+            if (n == 0) {
+                final long current = head.get();
+                if (current == pos) {
+                    return 0;
+                }
+                pos = current;
+                continue;
+            }
+            if (head.compareAndSet(pos, pos + n)) {
+                for (int i = 0; i < n; i++) {
+                    final int idx = (int)((pos + i) & mask);
+                    batchMessages[i] = messages[idx];
+                    batchFutures[i] = futures[idx];
+                    batchEnqueuedAt[i] = enqueuedAt[idx];
+                    messages[idx] = null;
+                    futures[idx] = null;
+                    // Make the slot available for the next lap
+                    sequences.set(idx, pos + i + mask + 1);
+                }
+                return n;
+            }
+            pos = head.get();
+        }
+    }
+
+    private boolean dropOldest() {
+        final Object[] oldestMessage = new Object[1];
+        final Object[] oldestFuture = new Object[1];
+        final long[] oldestEnqueuedAt = new long[1];
+        if (drain(oldestMessage, oldestFuture, oldestEnqueuedAt, 1) == 1) {
+            reject(oldestFuture[0], "Message dropped to make room for newer messages for module " + moduleId);
+            return true;
+        }
+        return false;
+    }
+
+    private void consume() {
+        final Object[] batchMessages = new Object[batchSize];
+        final Object[] batchFutures = new Object[batchSize];
+        final long[] batchEnqueuedAt = new long[batchSize];
+        int idle = 0;
+        while (true) {
+            final int n = drain(batchMessages, batchFutures, batchEnqueuedAt, batchSize);
+            if (n > 0) {
+                idle = 0;
+                if (waitingProducers.get() > 0) {
+                    signal(notFull, true);
+                }
+                batchSizeHistogram.update(n);
+                for (int i = 0; i < n; i++) {
+                    queueLatencyTimer.update(System.nanoTime() - batchEnqueuedAt[i], TimeUnit.NANOSECONDS);
+                    dispatch(batchMessages[i], batchFutures[i]);
+                    batchMessages[i] = null;
+                    batchFutures[i] = null;
+                }
+            } else if (closed) {
+                return;
+            } else if (++idle < SPIN_TRIES) {
+                Thread.yield();
+            } else {
+                awaitNotEmpty();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void dispatch(Object message, Object future) {
+        try {
+            syncDispatcher.send((S)message);
+            if (future != null) {
+                ((CompletableFuture<S>)future).complete((S)message);
+            }
+        } catch (Throwable t) {
+            if (future != null) {
+                ((CompletableFuture<S>)future).completeExceptionally(t);
+            } else {
+                rateLimittedLogger.warn("Failed to dispatch message for module {}.", moduleId, t);
+            }
+        }
+    }
+
+    private void reject(Object future, String reason) {
+        if (future != null) {
+            ((CompletableFuture<?>)future).completeExceptionally(new RejectedExecutionException(reason));
+        }
+    }
+
+    private boolean isEmpty() {
+        final long pos = head.get();
+        return sequences.get((int)(pos & mask)) != pos + 1;
+    }
+
+    private boolean isFull() {
+        return tail.get() - head.get() >= queueSize;
+    }
+
+    private void awaitNotEmpty() {
+        lock.lock();
+        try {
+            waitingConsumers.incrementAndGet();
+            try {
+                // Re-check after registering as a waiter, producers check the counter after publishing
+                if (isEmpty() && !closed) {
+                    notEmpty.await(MAX_WAIT_MS, TimeUnit.MILLISECONDS);
+                }
+            } finally {
+                waitingConsumers.decrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closed = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean awaitNotFull() {
+        lock.lock();
+        try {
+            waitingProducers.incrementAndGet();
+            try {
+                if (isFull() && !closed) {
+                    notFull.await(MAX_WAIT_MS, TimeUnit.MILLISECONDS);
+                }
+            } finally {
+                waitingProducers.decrementAndGet();
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signal(Condition condition, boolean all) {
+        lock.lock();
+        try {
+            if (all) {
+                condition.signalAll();
+            } else {
+                condition.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.ipc.sink.common;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+import org.opennms.core.ipc.sink.api.Message;
+import org.opennms.core.ipc.sink.api.MessageCodec;
+import org.opennms.core.ipc.sink.api.SinkModule;
+
+/**
+ * Marshals the messages of a given module to the format that is sent over the wire.
+ *
+ * The format is chosen by the producer, using the {@value #SINK_CODEC_PROPERTY}
+ * system property, which can be overridden for a specific module by appending
+ * the module id, i.e. {@code org.opennms.core.ipc.sink.codec.Trap=binary}.
+ * The string (XML) format remains the default so that existing consumers
+ * can still read the messages. The binary format is only used when the
+ * module provides a {@link MessageCodec}.
+ *
+ * Binary messages are prefixed with a {@link #BINARY_MAGIC} byte, which can never
+ * start an XML document, and the version of the framing, so consumers can
+ * always tell both formats apart.
+ *
+ * @param <T> type of message handled by the module
+ */
+public class SinkCodec<T extends Message> {
+
+    public static final String SINK_CODEC_PROPERTY = "org.opennms.core.ipc.sink.codec";
+
+    public static final byte BINARY_MAGIC = 0x00;
+
+    public static final byte BINARY_VERSION = 1;
+
+    private static final int BINARY_HEADER_LENGTH = 2;
+
+    private static final String XML_CODEC_NAME = "xml";
+
+    private static final String BINARY_CODEC_NAME = "binary";
+
+    public static enum Format {
+        XML(XML_CODEC_NAME),
+        BINARY(BINARY_CODEC_NAME);
+
+        private final String m_name;
+
+        Format(String name) {
+            m_name = name;
+        }
+
+        public String getName() {
+            return m_name;
+        }
+    }
+
+    private final SinkModule<?, T> m_module;
+
+    private final Format m_format;
+
+    private final MessageCodec<T> m_binaryCodec;
+
+    private SinkCodec(SinkModule<?, T> module, Format format) {
+        m_module = Objects.requireNonNull(module);
+        m_format = Objects.requireNonNull(format);
+        m_binaryCodec = module.getBinaryCodec();
+    }
+
+    /**
+     * Resolves the format that should be used by producers of the given module.
+     */
+    public static <S extends Message, T extends Message> SinkCodec<T> forModule(SinkModule<S, T> module) {
+        final String effectiveCodecName = System.getProperty(SINK_CODEC_PROPERTY + "." + module.getId(),
+                System.getProperty(SINK_CODEC_PROPERTY, XML_CODEC_NAME));
+        Format format = null;
+        for (Format candidate : Format.values()) {
+            if (candidate.getName().equalsIgnoreCase(effectiveCodecName)) {
+                format = candidate;
+            }
+        }
+        if (format == null) {
+            throw new IllegalArgumentException("Unsupported Sink codec: " + effectiveCodecName);
+        }
+        if (format == Format.BINARY && module.getBinaryCodec() == null) {
+            format = Format.XML;
+        }
+        return new SinkCodec<>(module, format);
+    }
+
+    public SinkModule<?, T> getModule() {
+        return m_module;
+    }
+
+    public Format getFormat() {
+        return m_format;
+    }
+
+    /**
+     * Marshals the message to bytes using the format selected for the module.
+     */
+    public byte[] marshal(T message) {
+        if (m_format == Format.BINARY) {
+            final byte[] payload = m_binaryCodec.encode(message);
+            final byte[] bytes = new byte[BINARY_HEADER_LENGTH + payload.length];
+            bytes[0] = BINARY_MAGIC;
+            bytes[1] = BINARY_VERSION;
+            System.arraycopy(payload, 0, bytes, BINARY_HEADER_LENGTH, payload.length);
+            return bytes;
+        }
+        return m_module.marshal(message).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Unmarshals a message in either format.
+     */
+    public static <T extends Message> T unmarshal(SinkModule<?, T> module, byte[] bytes) {
+        if (bytes.length > 0 && bytes[0] == BINARY_MAGIC) {
+            final MessageCodec<T> binaryCodec = module.getBinaryCodec();
+            if (binaryCodec == null) {
+                throw new IllegalArgumentException("Received a binary message for module " + module.getId()
+                        + ", which does not support the binary format.");
+            }
+            if (bytes.length < BINARY_HEADER_LENGTH || bytes[1] != BINARY_VERSION) {
+                throw new IllegalArgumentException("Unsupported binary message version for module " + module.getId());
+            }
+            return binaryCodec.decode(ByteBuffer.wrap(bytes, BINARY_HEADER_LENGTH, bytes.length - BINARY_HEADER_LENGTH));
+        }
+        return module.unmarshal(new String(bytes, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,317 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.ipc.sink.common;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import org.joda.time.Duration;
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.ipc.sink.api.Message;
+import org.opennms.core.ipc.sink.api.SinkModule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.swrve.ratelimitedlogger.RateLimitedLog;
+
+/**
+ * Stores the messages of a module in a {@link DiskSpool} while they cannot be dispatched,
+ * and replays them in order once the dispatches succeed again.
+ *
+ * Messages are dispatched directly as long as the spool is empty. Once a dispatch fails,
+ * that message and all of the following ones are appended to the spool, and a
+ * background thread dispatches them, retrying with an exponential back-off,
+ * until the spool is drained.
+ *
+ * Spooling is enabled by setting the {@value #SPOOL_DIRECTORY_PROPERTY} system property,
+ * and is only used by the dispatchers that send messages to a broker.
+ *
+ * @param <T> type of message handled by the module
+ */
+public class SinkSpool<T extends Message> implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SinkSpool.class);
+
+    /**
+     * Directory in which the spools are stored, each module uses a sub-directory named after its id.
+     */
+    public static final String SPOOL_DIRECTORY_PROPERTY = "org.opennms.core.ipc.sink.spool.directory";
+
+    /**
+     * Maximum disk space used by the spool of a single module, in megabytes.
+     */
+    public static final String SPOOL_MAX_SIZE_PROPERTY = "org.opennms.core.ipc.sink.spool.maxSizeMb";
+
+    public static final String SPOOL_SEGMENT_SIZE_PROPERTY = "org.opennms.core.ipc.sink.spool.segmentSizeMb";
+
+    private static final int DEFAULT_MAX_SIZE_MB = 1024;
+
+    private static final int DEFAULT_SEGMENT_SIZE_MB = 16;
+
+    private static final long INITIAL_RETRY_DELAY_MS = 100;
+
+    private static final long MAX_RETRY_DELAY_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private final RateLimitedLog rateLimittedLogger = RateLimitedLog
+            .withRateLimit(LOG)
+            .maxRate(5).every(Duration.standardSeconds(30))
+            .build();
+
+    private final SinkModule<?, T> module;
+
+    private final SinkCodec<T> codec;
+
+    private final DiskSpool spool;
+
+    private final Consumer<T> dispatcher;
+
+    /**
+     * Direct dispatches hold the read lock, while switching between spooling
+     * and dispatching directly requires the write lock. This ensures that a
+     * message that was dispatched directly never overtakes a spooled one.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Condition notEmpty = lock.writeLock().newCondition();
+
+    /**
+     * Set while there are messages in the spool, in which case new messages
+     * must be spooled as well to preserve their order.
+     */
+    private volatile boolean spooling;
+
+    private volatile boolean closed = false;
+
+    private final Thread replayThread;
+
+    private final Meter spooledMeter;
+
+    private final Meter replayedMeter;
+
+    private final Counter droppedCounter;
+
+    /**
+     * Creates a spool for the given module if spooling is enabled.
+     *
+     * @param dispatcher used to dispatch the messages, must throw an exception when the message could not be sent
+     * @return the spool, or <code>null</code> if spooling is disabled or the spool could not be opened
+     */
+    public static <S extends Message, T extends Message> SinkSpool<T> create(SinkModule<S, T> module, MetricRegistry metrics, Consumer<T> dispatcher) {
+        final String directory = System.getProperty(SPOOL_DIRECTORY_PROPERTY);
+        if (directory == null || directory.trim().isEmpty()) {
+            return null;
+        }
+        final Path moduleDirectory = Paths.get(directory.trim(), module.getId());
+        final long maxSize = Long.getLong(SPOOL_MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE_MB) * 1024 * 1024;
+        final int segmentSize = (int)Math.min(Integer.MAX_VALUE, Long.getLong(SPOOL_SEGMENT_SIZE_PROPERTY, DEFAULT_SEGMENT_SIZE_MB) * 1024 * 1024);
+        try {
+            final DiskSpool spool = new DiskSpool(moduleDirectory, segmentSize, maxSize);
+            LOG.info("Spooling messages for module {} to {} when they cannot be dispatched.", module.getId(), moduleDirectory);
+            return new SinkSpool<>(module, spool, metrics, dispatcher);
+        } catch (IOException e) {
+            LOG.error("Failed to open the spool in {}. Messages for module {} will not be spooled.", moduleDirectory, module.getId(), e);
+            return null;
+        }
+    }
+
+    public SinkSpool(SinkModule<?, T> module, DiskSpool spool, MetricRegistry metrics, Consumer<T> dispatcher) {
+        this.module = Objects.requireNonNull(module);
+        this.spool = Objects.requireNonNull(spool);
+        this.dispatcher = Objects.requireNonNull(dispatcher);
+        // Spool the messages using the same format as the one sent on the wire
+        codec = SinkCodec.forModule(module);
+        spooling = !spool.isEmpty();
+
+        final String id = module.getId();
+        spooledMeter = metrics.meter(MetricRegistry.name(id, "spool", "spooled"));
+        replayedMeter = metrics.meter(MetricRegistry.name(id, "spool", "replayed"));
+        droppedCounter = metrics.counter(MetricRegistry.name(id, "spool", "dropped"));
+        metrics.register(MetricRegistry.name(id, "spool", "depth"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return spool.getDepth();
+            }
+        });
+        metrics.register(MetricRegistry.name(id, "spool", "size"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return spool.getSize();
+            }
+        });
+        metrics.register(MetricRegistry.name(id, "spool", "age"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                // Age of the oldest message, in milliseconds
+                final Long oldest = spool.getOldestTimestamp();
+                return oldest != null ? Math.max(0, System.currentTimeMillis() - oldest) : 0L;
+            }
+        });
+
+        replayThread = new LogPreservingThreadFactory("OpenNMS.Sink.Spool." + id, 1).newThread(this::replay);
+        replayThread.setDaemon(true);
+        replayThread.start();
+    }
+
+    /**
+     * Dispatches the given message, or spools it if it cannot be dispatched right now.
+     */
+    public void dispatch(T message) {
+        lock.readLock().lock();
+        try {
+            if (!spooling) {
+                try {
+                    dispatcher.accept(message);
+                    return;
+                } catch (RuntimeException e) {
+                    rateLimittedLogger.warn("Failed to dispatch message for module {}. Spooling messages until the dispatches succeed.", module.getId(), e);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        append(message);
+    }
+
+    public boolean isSpooling() {
+        return spooling;
+    }
+
+    @Override
+    public void close() throws Exception {
+        closed = true;
+        replayThread.interrupt();
+        replayThread.join(TimeUnit.SECONDS.toMillis(30));
+        lock.writeLock().lock();
+        try {
+            // Anything left in the spool will be replayed after the next restart
+            spool.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void append(T message) {
+        final byte[] bytes = codec.marshal(message);
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                droppedCounter.inc();
+                rateLimittedLogger.warn("Spool for module {} is closed. The message was dropped.", module.getId());
+                return;
+            }
+            droppedCounter.inc(spool.append(bytes));
+            spooledMeter.mark();
+            spooling = true;
+            notEmpty.signal();
+        } catch (IOException e) {
+            droppedCounter.inc();
+            rateLimittedLogger.error("Failed to spool message for module {}. The message was dropped.", module.getId(), e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void replay() {
+        long retryDelayMs = INITIAL_RETRY_DELAY_MS;
+        while (!closed) {
+            try {
+                final DiskSpool.Record record = nextRecord();
+                if (record == null) {
+                    continue;
+                }
+
+                final T message;
+                try {
+                    message = SinkCodec.unmarshal(module, record.getPayload());
+                } catch (RuntimeException e) {
+                    LOG.error("Discarding spooled message for module {} which cannot be unmarshalled.", module.getId(), e);
+                    spool.remove(record);
+                    droppedCounter.inc();
+                    continue;
+                }
+
+                try {
+                    dispatcher.accept(message);
+                } catch (RuntimeException e) {
+                    rateLimittedLogger.warn("Failed to replay spooled message for module {}. Retrying in {}ms.", module.getId(), retryDelayMs, e);
+                    Thread.sleep(retryDelayMs);
+                    retryDelayMs = Math.min(retryDelayMs * 2, MAX_RETRY_DELAY_MS);
+                    continue;
+                }
+                spool.remove(record);
+                replayedMeter.mark();
+                retryDelayMs = INITIAL_RETRY_DELAY_MS;
+            } catch (InterruptedException e) {
+                // We're closing
+                return;
+            } catch (Throwable t) {
+                LOG.error("Unexpected error while replaying spooled messages for module {}.", module.getId(), t);
+            }
+        }
+    }
+
+    /**
+     * Waits for a spooled record.
+     *
+     * @return the next record, or <code>null</code> if none is available yet
+     */
+    private DiskSpool.Record nextRecord() throws InterruptedException, IOException {
+        final DiskSpool.Record record = spool.peek();
+        if (record != null) {
+            return record;
+        }
+        lock.writeLock().lock();
+        try {
+            // The spool is empty, new messages can be dispatched directly
+            // unless they are appended while we're holding the lock
+            if (spool.isEmpty()) {
+                if (spooling) {
+                    LOG.info("All spooled messages for module {} were replayed.", module.getId());
+                }
+                spooling = false;
+                notEmpty.await(1, TimeUnit.SECONDS);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return null;
+    }
+}
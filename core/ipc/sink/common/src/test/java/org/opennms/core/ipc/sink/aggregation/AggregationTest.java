@@ -31,8 +31,10 @@ package org.opennms.core.ipc.sink.aggregation;
 import static com.jayway.awaitility.Awaitility.await;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 
@@ -40,6 +42,7 @@ import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 
@@ -55,6 +58,7 @@ import org.opennms.core.ipc.sink.api.SyncDispatcher;
 import org.opennms.core.ipc.sink.common.AbstractMessageDispatcherFactory;
 import org.opennms.core.test.MockLogAppender;
 
+import com.google.common.net.InetAddresses;
 import com.google.common.util.concurrent.RateLimiter;
 
 public class AggregationTest {
@@ -182,6 +186,79 @@ public class AggregationTest {
         }
     }
 
+    /**
+     * Verifies that no messages are lost or duplicated when many threads
+     * aggregate into the same buckets while these are being flushed.
+     */
+    @Test
+    public void aggregateConcurrentlyWithInterval() throws Exception {
+        final int NUM_THREADS = 8;
+        final int NUM_KEYS = 4;
+        final int MESSAGES_PER_THREAD = 10000;
+
+        final List<UDPPacketLog> buckets = Collections.synchronizedList(new ArrayList<>());
+        final AggregationPolicy<UDPPacket, UDPPacketLog> policy = new SinkModuleWithAggregateNoInterval().getAggregationPolicy();
+        final AggregatingMessageProducer<UDPPacket, UDPPacketLog> producer = new AggregatingMessageProducer<UDPPacket, UDPPacketLog>("concurrent", new AggregationPolicy<UDPPacket, UDPPacketLog>() {
+            @Override
+            public int getCompletionSize() {
+                return COMPLETION_SIZE;
+            }
+
+            @Override
+            public int getCompletionIntervalMs() {
+                // Flush often to race with the producers
+                return 5;
+            }
+
+            @Override
+            public Object key(UDPPacket message) {
+                return policy.key(message);
+            }
+
+            @Override
+            public UDPPacketLog aggregate(UDPPacketLog oldBucket, UDPPacket newMessage) {
+                return policy.aggregate(oldBucket, newMessage);
+            }
+        }) {
+            @Override
+            public void dispatch(UDPPacketLog message) {
+                buckets.add(message);
+            }
+        };
+
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < NUM_THREADS; i++) {
+            final Thread t = new Thread(() -> {
+                for (int j = 0; j < MESSAGES_PER_THREAD; j++) {
+                    final InetAddress source = InetAddresses.fromInteger(j % NUM_KEYS);
+                    producer.send(new UDPPacket(source, ByteBuffer.wrap(new byte[]{(byte)j})));
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        // Wait for the last partial buckets to be flushed
+        await().atMost(10, SECONDS)
+            .until(() -> {
+                synchronized(buckets) {
+                    return buckets.stream().mapToInt(b -> b.getPackets().size()).sum();
+                }
+            }, equalTo(NUM_THREADS * MESSAGES_PER_THREAD));
+        producer.close();
+
+        synchronized(buckets) {
+            for (UDPPacketLog bucket : buckets) {
+                assertThat(bucket.getPackets().size(), lessThanOrEqualTo(COMPLETION_SIZE));
+                // All of the packets in a bucket should share the same key
+                assertEquals(1, bucket.getPackets().stream().map(UDPPacket::getSource).distinct().count());
+            }
+        }
+    }
+
     public static class UDPPacket implements Message {
         private final InetAddress source;
         private final ByteBuffer bytes;
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.ipc.sink.common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DiskSpoolTest {
+
+    private static final int SEGMENT_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void canAppendAndRemoveInOrder() throws IOException {
+        try (DiskSpool spool = new DiskSpool(tempFolder.getRoot().toPath(), SEGMENT_SIZE, 1024 * SEGMENT_SIZE)) {
+            assertTrue(spool.isEmpty());
+            assertNull(spool.peek());
+            assertNull(spool.getOldestTimestamp());
+
+            // Enough to span several segments
+            for (int i = 0; i < 500; i++) {
+                spool.append(bytes(i));
+            }
+            assertEquals(500, spool.getDepth());
+            assertTrue(spool.getSize() > SEGMENT_SIZE);
+            assertNotNull(spool.getOldestTimestamp());
+
+            for (int i = 0; i < 500; i++) {
+                final DiskSpool.Record record = spool.peek();
+                assertArrayEquals(bytes(i), record.getPayload());
+                spool.remove(record);
+                // Removing the same record twice has no effect
+                spool.remove(record);
+            }
+            assertTrue(spool.isEmpty());
+            assertEquals(0, spool.getSize());
+        }
+        // Fully consumed segments are deleted
+        assertEquals(0, countSegments(tempFolder.getRoot().toPath()));
+    }
+
+    @Test
+    public void canResumeAfterReopening() throws IOException {
+        final Path directory = tempFolder.getRoot().toPath();
+        try (DiskSpool spool = new DiskSpool(directory, SEGMENT_SIZE, 1024 * SEGMENT_SIZE)) {
+            for (int i = 0; i < 100; i++) {
+                spool.append(bytes(i));
+            }
+            for (int i = 0; i < 40; i++) {
+                spool.remove(spool.peek());
+            }
+        }
+
+        try (DiskSpool spool = new DiskSpool(directory, SEGMENT_SIZE, 1024 * SEGMENT_SIZE)) {
+            assertEquals(60, spool.getDepth());
+            spool.append(bytes(100));
+            for (int i = 40; i <= 100; i++) {
+                final DiskSpool.Record record = spool.peek();
+                assertArrayEquals(bytes(i), record.getPayload());
+                spool.remove(record);
+            }
+            assertTrue(spool.isEmpty());
+        }
+    }
+
+    @Test
+    public void canBoundDiskUsage() throws IOException {
+        try (DiskSpool spool = new DiskSpool(tempFolder.getRoot().toPath(), SEGMENT_SIZE, 4 * SEGMENT_SIZE)) {
+            long dropped = 0;
+            for (int i = 0; i < 1000; i++) {
+                dropped += spool.append(bytes(i));
+            }
+            assertTrue(spool.getSize() <= 4 * SEGMENT_SIZE);
+            assertEquals(1000, spool.getDepth() + dropped);
+
+            // The newest records are kept
+            DiskSpool.Record record = null;
+            for (DiskSpool.Record next = spool.peek(); next != null; next = spool.peek()) {
+                record = next;
+                spool.remove(record);
+            }
+            assertArrayEquals(bytes(999), record.getPayload());
+        }
+    }
+
+    @Test
+    public void canSpoolRecordsLargerThanASegment() throws IOException {
+        final byte[] large = new byte[4 * SEGMENT_SIZE];
+        large[large.length - 1] = 42;
+        try (DiskSpool spool = new DiskSpool(tempFolder.getRoot().toPath(), SEGMENT_SIZE, 1024 * SEGMENT_SIZE)) {
+            spool.append(bytes(1));
+            spool.append(large);
+            spool.append(bytes(2));
+
+            assertArrayEquals(bytes(1), removeNext(spool));
+            assertArrayEquals(large, removeNext(spool));
+            assertArrayEquals(bytes(2), removeNext(spool));
+        }
+    }
+
+    @Test
+    public void cannotShareDirectory() throws IOException {
+        try (DiskSpool spool = new DiskSpool(tempFolder.getRoot().toPath(), SEGMENT_SIZE, 1024 * SEGMENT_SIZE)) {
+            try (DiskSpool other = new DiskSpool(tempFolder.getRoot().toPath(), SEGMENT_SIZE, 1024 * SEGMENT_SIZE)) {
+                fail("The directory should be locked.");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    private static byte[] removeNext(DiskSpool spool) throws IOException {
+        final DiskSpool.Record record = spool.peek();
+        spool.remove(record);
+        return record.getPayload();
+    }
+
+    private static byte[] bytes(int i) {
+        return ("message-" + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long countSegments(Path directory) throws IOException {
+        return Files.list(directory).filter(p -> p.toString().endsWith(".spool")).count();
+    }
+}
@@ -0,0 +1,300 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.ipc.sink.common;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.opennms.core.ipc.sink.api.AsyncDispatcher;
+import org.opennms.core.ipc.sink.api.AsyncPolicy;
+import org.opennms.core.ipc.sink.api.AsyncPolicy.OverflowPolicy;
+import org.opennms.core.ipc.sink.api.Message;
+import org.opennms.core.ipc.sink.api.SinkModule;
+import org.opennms.core.ipc.sink.api.SyncDispatcher;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RingBufferAsyncDispatcherTest {
+
+    private static final int QUEUE_SIZE = 100;
+
+    @Mock
+    private SinkModule<MyMessage, MyMessage> module;
+
+    private static class MyMessage implements Message {
+        private final int id;
+
+        public MyMessage(int id) {
+            this.id = id;
+        }
+    }
+
+    private final ThreadLockingDispatcherFactory<MyMessage> threadLockingDispatcherFactory = new ThreadLockingDispatcherFactory<>();
+
+    @Test(timeout=3*60*1000)
+    public void testBlockWhenFull() throws Exception {
+        final AsyncDispatcher<MyMessage> asyncDispatcher = createLockedDispatcher(OverflowPolicy.BLOCK);
+        final List<CompletableFuture<MyMessage>> futures = fillQueue(asyncDispatcher);
+
+        // The queue is full, additional calls should block
+        final CountDownLatch didSend = new CountDownLatch(1);
+        final Thread t = new Thread(() -> {
+            futures.add(asyncDispatcher.send(new MyMessage(-1)));
+            didSend.countDown();
+        });
+        t.start();
+        assertFalse(didSend.await(500, TimeUnit.MILLISECONDS));
+
+        // Release the thread and wait for the queue to be drained
+        threadLockingDispatcherFactory.getThreadLockingSyncDispatcher().release();
+        didSend.await();
+        await().atMost(1, MINUTES).until(() -> threadLockingDispatcherFactory.getNumMessageDispatched(), equalTo(QUEUE_SIZE + 2));
+
+        // All of our futures should be successfully resolved
+        for (CompletableFuture<MyMessage> future : futures) {
+            future.get();
+        }
+        asyncDispatcher.close();
+    }
+
+    @Test(timeout=3*60*1000)
+    public void testDropNewestWhenFull() throws Exception {
+        final AsyncDispatcher<MyMessage> asyncDispatcher = createLockedDispatcher(OverflowPolicy.DROP_NEWEST);
+        final List<CompletableFuture<MyMessage>> futures = fillQueue(asyncDispatcher);
+
+        // The next dispatch should return a failed future
+        final CompletableFuture<MyMessage> rejected = asyncDispatcher.send(new MyMessage(-1));
+        assertTrue("future should have failed!", rejected.isCompletedExceptionally());
+        assertEquals(QUEUE_SIZE, asyncDispatcher.getQueueSize());
+
+        threadLockingDispatcherFactory.getThreadLockingSyncDispatcher().release();
+        for (CompletableFuture<MyMessage> future : futures) {
+            future.get();
+        }
+        assertEquals(QUEUE_SIZE + 1, threadLockingDispatcherFactory.getNumMessageDispatched());
+        asyncDispatcher.close();
+    }
+
+    @Test(timeout=3*60*1000)
+    public void testDropOldestWhenFull() throws Exception {
+        // The factory should pick the ring buffer on its own for this policy
+        when(module.getAsyncPolicy()).thenReturn(getAsyncPolicy(OverflowPolicy.DROP_OLDEST, 1));
+        final AsyncDispatcher<MyMessage> asyncDispatcher = threadLockingDispatcherFactory.createAsyncDispatcher(module);
+        assertTrue(asyncDispatcher instanceof RingBufferAsyncDispatcher);
+        lockConsumer(asyncDispatcher);
+        final List<CompletableFuture<MyMessage>> futures = fillQueue(asyncDispatcher);
+
+        // Make room for 10 more messages
+        final List<CompletableFuture<MyMessage>> newFutures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            newFutures.add(asyncDispatcher.send(new MyMessage(QUEUE_SIZE + i)));
+        }
+        assertEquals(QUEUE_SIZE, asyncDispatcher.getQueueSize());
+
+        // The 10 oldest queued messages should have been rejected
+        for (int i = 1; i < futures.size(); i++) {
+            final CompletableFuture<MyMessage> future = futures.get(i);
+            if (i <= 10) {
+                assertTrue("future should have failed!", future.isCompletedExceptionally());
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof RejectedExecutionException);
+                }
+            } else {
+                assertFalse(future.isDone());
+            }
+        }
+
+        threadLockingDispatcherFactory.getThreadLockingSyncDispatcher().release();
+        for (CompletableFuture<MyMessage> future : newFutures) {
+            assertEquals(future.get().id, QUEUE_SIZE + newFutures.indexOf(future));
+        }
+        assertEquals(QUEUE_SIZE + 1, threadLockingDispatcherFactory.getNumMessageDispatched());
+        asyncDispatcher.close();
+    }
+
+    @Test(timeout=3*60*1000)
+    public void testSendAndForgetPreservesOrder() throws Exception {
+        final int numMessages = 10 * QUEUE_SIZE;
+        final List<Integer> received = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(numMessages);
+        final SyncDispatcher<MyMessage> syncDispatcher = new SyncDispatcher<MyMessage>() {
+            @Override
+            public void send(MyMessage message) {
+                if (message.id % 7 == 0) {
+                    throw new IllegalStateException("Failures should not stop the dispatcher");
+                }
+                received.add(message.id);
+                done.countDown();
+            }
+
+            @Override
+            public void close() throws Exception {
+                // pass
+            }
+        };
+        final AsyncDispatcher<MyMessage> asyncDispatcher = new RingBufferAsyncDispatcher<>(
+                new DispatcherState<>(threadLockingDispatcherFactory, module),
+                getAsyncPolicy(OverflowPolicy.BLOCK, 1), syncDispatcher);
+
+        int expected = 0;
+        for (int i = 0; expected < numMessages; i++) {
+            asyncDispatcher.sendAndForget(new MyMessage(i));
+            if (i % 7 != 0) {
+                expected++;
+            }
+        }
+        done.await();
+
+        // A single consumer dispatches the messages in order
+        int last = -1;
+        for (Integer id : received) {
+            assertTrue(id > last);
+            last = id;
+        }
+        assertEquals(0, asyncDispatcher.getQueueSize());
+        asyncDispatcher.close();
+    }
+
+    @Test(timeout=3*60*1000)
+    public void testConcurrentProducersAndConsumers() throws Exception {
+        final int numProducers = 4;
+        final int numMessagesPerProducer = 10000;
+        final AtomicInteger numDispatched = new AtomicInteger(0);
+        final SyncDispatcher<MyMessage> syncDispatcher = new SyncDispatcher<MyMessage>() {
+            @Override
+            public void send(MyMessage message) {
+                numDispatched.incrementAndGet();
+            }
+
+            @Override
+            public void close() throws Exception {
+                // pass
+            }
+        };
+        final AsyncDispatcher<MyMessage> asyncDispatcher = new RingBufferAsyncDispatcher<>(
+                new DispatcherState<>(threadLockingDispatcherFactory, module),
+                getAsyncPolicy(OverflowPolicy.BLOCK, 4), syncDispatcher);
+
+        final List<Thread> producers = new ArrayList<>();
+        for (int i = 0; i < numProducers; i++) {
+            final Thread producer = new Thread(() -> {
+                for (int j = 0; j < numMessagesPerProducer; j++) {
+                    asyncDispatcher.sendAndForget(new MyMessage(j));
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        await().atMost(1, MINUTES).until(() -> numDispatched.get(), equalTo(numProducers * numMessagesPerProducer));
+        asyncDispatcher.close();
+    }
+
+    /**
+     * Creates a dispatcher with a single consumer thread, and locks that
+     * thread on the first message.
+     */
+    private AsyncDispatcher<MyMessage> createLockedDispatcher(OverflowPolicy overflowPolicy) throws Exception {
+        final AsyncDispatcher<MyMessage> asyncDispatcher = new RingBufferAsyncDispatcher<>(
+                new DispatcherState<>(threadLockingDispatcherFactory, module),
+                getAsyncPolicy(overflowPolicy, 1),
+                threadLockingDispatcherFactory.getThreadLockingSyncDispatcher());
+        lockConsumer(asyncDispatcher);
+        return asyncDispatcher;
+    }
+
+    private void lockConsumer(AsyncDispatcher<MyMessage> asyncDispatcher) {
+        final AtomicBoolean allThreadsLocked = new AtomicBoolean(false);
+        threadLockingDispatcherFactory.getThreadLockingSyncDispatcher().waitForThreads(1).thenRun(() -> {
+            allThreadsLocked.set(true);
+        });
+        asyncDispatcher.sendAndForget(new MyMessage(0));
+        await().atMost(1, MINUTES).until(() -> allThreadsLocked.get());
+        assertEquals(0, asyncDispatcher.getQueueSize());
+    }
+
+    private List<CompletableFuture<MyMessage>> fillQueue(AsyncDispatcher<MyMessage> asyncDispatcher) {
+        final List<CompletableFuture<MyMessage>> futures = new ArrayList<>();
+        // Index 0 is the message held by the locked consumer
+        futures.add(CompletableFuture.completedFuture(null));
+        for (int i = 1; i <= QUEUE_SIZE; i++) {
+            futures.add(asyncDispatcher.send(new MyMessage(i)));
+        }
+        assertEquals(QUEUE_SIZE, asyncDispatcher.getQueueSize());
+        return futures;
+    }
+
+    private static AsyncPolicy getAsyncPolicy(OverflowPolicy overflowPolicy, int numThreads) {
+        return new AsyncPolicy() {
+            @Override
+            public int getQueueSize() {
+                return QUEUE_SIZE;
+            }
+
+            @Override
+            public int getNumThreads() {
+                return numThreads;
+            }
+
+            @Override
+            public boolean isBlockWhenFull() {
+                return overflowPolicy == OverflowPolicy.BLOCK;
+            }
+
+            @Override
+            public OverflowPolicy getOverflowPolicy() {
+                return overflowPolicy;
+            }
+        };
+    }
+}
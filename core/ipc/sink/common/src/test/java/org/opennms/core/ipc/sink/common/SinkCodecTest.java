@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.ipc.sink.common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.ipc.sink.api.BinaryMessageReader;
+import org.opennms.core.ipc.sink.api.BinaryMessageWriter;
+import org.opennms.core.ipc.sink.api.Message;
+import org.opennms.core.ipc.sink.api.MessageCodec;
+import org.opennms.core.ipc.sink.api.SinkModule;
+
+public class SinkCodecTest {
+
+    private static class TestMessage implements Message {
+        private final String value;
+
+        private TestMessage(String value) {
+            this.value = value;
+        }
+    }
+
+    private static class TestMessageCodec implements MessageCodec<TestMessage> {
+        @Override
+        public byte[] encode(TestMessage message) {
+            return new BinaryMessageWriter().writeString(1, message.value).toByteArray();
+        }
+
+        @Override
+        public TestMessage decode(ByteBuffer buffer) {
+            String value = null;
+            final BinaryMessageReader reader = new BinaryMessageReader(buffer);
+            while (reader.next()) {
+                if (reader.getField() == 1) {
+                    value = reader.readString();
+                } else {
+                    reader.skip();
+                }
+            }
+            return new TestMessage(value);
+        }
+    }
+
+    private SinkModule<TestMessage, TestMessage> xmlOnlyModule;
+
+    private SinkModule<TestMessage, TestMessage> binaryModule;
+
+    @Before
+    public void setUp() {
+        xmlOnlyModule = createModule("XmlOnly", null);
+        binaryModule = createModule("Binary", new TestMessageCodec());
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(SinkCodec.SINK_CODEC_PROPERTY);
+        System.clearProperty(SinkCodec.SINK_CODEC_PROPERTY + ".Binary");
+    }
+
+    @Test
+    public void defaultsToXml() {
+        final SinkCodec<TestMessage> codec = SinkCodec.forModule(binaryModule);
+        assertEquals(SinkCodec.Format.XML, codec.getFormat());
+
+        final byte[] bytes = codec.marshal(new TestMessage("ünïcödé"));
+        assertArrayEquals("<test>ünïcödé</test>".getBytes(StandardCharsets.UTF_8), bytes);
+        assertEquals("ünïcödé", SinkCodec.unmarshal(binaryModule, bytes).value);
+    }
+
+    @Test
+    public void canUseBinaryFormat() {
+        System.setProperty(SinkCodec.SINK_CODEC_PROPERTY, "binary");
+
+        final SinkCodec<TestMessage> codec = SinkCodec.forModule(binaryModule);
+        assertEquals(SinkCodec.Format.BINARY, codec.getFormat());
+
+        final byte[] bytes = codec.marshal(new TestMessage("ünïcödé"));
+        assertEquals(SinkCodec.BINARY_MAGIC, bytes[0]);
+        assertEquals(SinkCodec.BINARY_VERSION, bytes[1]);
+        assertEquals("ünïcödé", SinkCodec.unmarshal(binaryModule, bytes).value);
+
+        // Modules without a codec keep using XML
+        assertEquals(SinkCodec.Format.XML, SinkCodec.forModule(xmlOnlyModule).getFormat());
+    }
+
+    @Test
+    public void canOverrideFormatPerModule() {
+        System.setProperty(SinkCodec.SINK_CODEC_PROPERTY, "binary");
+        System.setProperty(SinkCodec.SINK_CODEC_PROPERTY + ".Binary", "xml");
+        assertEquals(SinkCodec.Format.XML, SinkCodec.forModule(binaryModule).getFormat());
+
+        System.clearProperty(SinkCodec.SINK_CODEC_PROPERTY);
+        System.setProperty(SinkCodec.SINK_CODEC_PROPERTY + ".Binary", "binary");
+        assertEquals(SinkCodec.Format.BINARY, SinkCodec.forModule(binaryModule).getFormat());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void failsOnBinaryMessagesForXmlOnlyModules() {
+        System.setProperty(SinkCodec.SINK_CODEC_PROPERTY, "binary");
+        final byte[] bytes = SinkCodec.forModule(binaryModule).marshal(new TestMessage("test"));
+        SinkCodec.unmarshal(xmlOnlyModule, bytes);
+    }
+
+    @Test
+    public void canSkipUnknownFields() {
+        final BinaryMessageWriter writer = new BinaryMessageWriter(16);
+        writer.writeLong(7, Long.MIN_VALUE);
+        writer.writeMessage(8, w -> w.writeString(1, "nested").writeUnsignedInts(2, new int[] { 1, 3, -1 }));
+        writer.writeString(1, "value");
+        writer.writeBytes(9, new byte[1024]);
+
+        assertEquals("value", new TestMessageCodec().decode(ByteBuffer.wrap(writer.toByteArray())).value);
+    }
+
+    @Test
+    public void canReadAndWriteValues() {
+        final BinaryMessageWriter writer = new BinaryMessageWriter(16);
+        writer.writeLong(1, Long.MIN_VALUE);
+        writer.writeLong(2, -1);
+        writer.writeInt(3, Integer.MAX_VALUE);
+        writer.writeUnsignedInts(4, new int[] { 1, 3, 6, 1, 4, 1, 0xFFFFFFFF });
+        writer.writeMessage(5, w -> w.writeString(1, "nested"));
+        writer.writeString(6, null);
+        writer.writeBytes(7, ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+
+        final BinaryMessageReader reader = new BinaryMessageReader(writer.toByteArray());
+        reader.next();
+        assertEquals(Long.MIN_VALUE, reader.readLong());
+        reader.next();
+        assertEquals(-1, reader.readLong());
+        reader.next();
+        assertEquals(Integer.MAX_VALUE, reader.readInt());
+        reader.next();
+        assertArrayEquals(new int[] { 1, 3, 6, 1, 4, 1, 0xFFFFFFFF }, reader.readUnsignedInts());
+        reader.next();
+        final BinaryMessageReader nested = reader.readMessage();
+        nested.next();
+        assertEquals("nested", nested.readString());
+        assertEquals(false, nested.next());
+        reader.next();
+        assertEquals(7, reader.getField());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, reader.readBytes());
+        assertEquals(false, reader.next());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SinkModule<TestMessage, TestMessage> createModule(String id, MessageCodec<TestMessage> binaryCodec) {
+        final SinkModule<TestMessage, TestMessage> module = mock(SinkModule.class);
+        when(module.getId()).thenReturn(id);
+        when(module.getBinaryCodec()).thenReturn(binaryCodec);
+        when(module.marshal(any())).thenAnswer(invocation ->
+                "<test>" + ((TestMessage)invocation.getArguments()[0]).value + "</test>");
+        when(module.unmarshal(anyString())).thenAnswer(invocation -> {
+            final String xml = (String)invocation.getArguments()[0];
+            return new TestMessage(xml.substring("<test>".length(), xml.length() - "</test>".length()));
+        });
+        return module;
+    }
+}
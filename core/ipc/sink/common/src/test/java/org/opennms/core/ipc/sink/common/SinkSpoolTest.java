@@ -0,0 +1,279 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.ipc.sink.common;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.core.ipc.sink.api.AggregationPolicy;
+import org.opennms.core.ipc.sink.api.AsyncPolicy;
+import org.opennms.core.ipc.sink.api.Message;
+import org.opennms.core.ipc.sink.api.SinkModule;
+import org.opennms.core.ipc.sink.api.SyncDispatcher;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+public class SinkSpoolTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final AtomicBoolean brokerAvailable = new AtomicBoolean(true);
+
+    private final List<String> dispatched = Collections.synchronizedList(new ArrayList<>());
+
+    private final List<String> dropped = Collections.synchronizedList(new ArrayList<>());
+
+    private final SpoolingDispatcherFactory dispatcherFactory = new SpoolingDispatcherFactory();
+
+    private final StringSinkModule module = new StringSinkModule();
+
+    @Before
+    public void setUp() {
+        System.setProperty(SinkSpool.SPOOL_DIRECTORY_PROPERTY, tempFolder.getRoot().getAbsolutePath());
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(SinkSpool.SPOOL_DIRECTORY_PROPERTY);
+    }
+
+    @Test(timeout=3*60*1000)
+    public void canSpoolAndReplayInOrder() throws Exception {
+        try (SyncDispatcher<StringMessage> dispatcher = dispatcherFactory.createSyncDispatcher(module)) {
+            dispatcher.send(new StringMessage("0"));
+            assertEquals(1, dispatched.size());
+
+            // Messages should be spooled while the broker is unavailable
+            brokerAvailable.set(false);
+            for (int i = 1; i < 100; i++) {
+                dispatcher.send(new StringMessage(Integer.toString(i)));
+            }
+            assertEquals(1, dispatched.size());
+            assertTrue(getGauge("spool.depth") > 0);
+
+            // And replayed once it's back
+            brokerAvailable.set(true);
+            for (int i = 100; i < 200; i++) {
+                dispatcher.send(new StringMessage(Integer.toString(i)));
+            }
+            await().atMost(1, MINUTES).until(() -> dispatched.size(), equalTo(200));
+            for (int i = 0; i < 200; i++) {
+                assertEquals(Integer.toString(i), dispatched.get(i));
+            }
+            await().atMost(1, MINUTES).until(() -> getGauge("spool.depth"), equalTo(0L));
+            assertEquals(199, dispatcherFactory.getMetrics().meter(module.getId() + ".spool.replayed").getCount());
+        }
+    }
+
+    @Test(timeout=3*60*1000)
+    public void canReplayAfterRestart() throws Exception {
+        brokerAvailable.set(false);
+        try (SyncDispatcher<StringMessage> dispatcher = dispatcherFactory.createSyncDispatcher(module)) {
+            for (int i = 0; i < 10; i++) {
+                dispatcher.send(new StringMessage(Integer.toString(i)));
+            }
+        }
+        assertTrue(dispatched.isEmpty());
+
+        brokerAvailable.set(true);
+        try (SyncDispatcher<StringMessage> dispatcher = dispatcherFactory.createSyncDispatcher(module)) {
+            await().atMost(1, MINUTES).until(() -> dispatched.size(), equalTo(10));
+            for (int i = 0; i < 10; i++) {
+                assertEquals(Integer.toString(i), dispatched.get(i));
+            }
+        }
+    }
+
+    @Test(timeout=3*60*1000)
+    public void spooledMessagesAreNotOvertakenByDirectDispatches() throws Exception {
+        final CountDownLatch dispatchingA = new CountDownLatch(1);
+        final CountDownLatch releaseA = new CountDownLatch(1);
+        final AtomicBoolean failB = new AtomicBoolean(true);
+        final DiskSpool diskSpool = new DiskSpool(tempFolder.getRoot().toPath().resolve(module.getId()), 1024, 1024 * 1024);
+        try (SinkSpool<StringMessage> spool = new SinkSpool<>(module, diskSpool, new MetricRegistry(), message -> {
+            switch (message.getValue()) {
+            case "a":
+                dispatchingA.countDown();
+                try {
+                    releaseA.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                break;
+            case "b":
+                if (failB.getAndSet(false)) {
+                    throw new IllegalStateException("Broker is unavailable.");
+                }
+                break;
+            }
+            dispatched.add(message.getValue());
+        })) {
+            final Thread a = new Thread(() -> spool.dispatch(new StringMessage("a")));
+            a.start();
+            dispatchingA.await();
+
+            // b fails while a is still being dispatched, and must not be spooled, nor replayed, before a completes
+            final Thread b = new Thread(() -> spool.dispatch(new StringMessage("b")));
+            b.start();
+            b.join(TimeUnit.SECONDS.toMillis(1));
+            assertTrue(b.isAlive());
+            assertTrue(dispatched.isEmpty());
+
+            releaseA.countDown();
+            a.join();
+            b.join();
+            assertTrue(spool.isSpooling());
+
+            spool.dispatch(new StringMessage("c"));
+            await().atMost(1, MINUTES).until(() -> dispatched.size(), equalTo(3));
+            assertEquals(Arrays.asList("a", "b", "c"), dispatched);
+        }
+    }
+
+    @Test
+    public void dropsMessagesWhenSpoolingIsDisabled() throws Exception {
+        System.clearProperty(SinkSpool.SPOOL_DIRECTORY_PROPERTY);
+        brokerAvailable.set(false);
+        try (SyncDispatcher<StringMessage> dispatcher = dispatcherFactory.createSyncDispatcher(module)) {
+            // The failures should not be surfaced to the callers
+            dispatcher.send(new StringMessage("0"));
+            dispatcher.send(new StringMessage("1"));
+        }
+        assertTrue(dispatched.isEmpty());
+        assertEquals(Arrays.asList("0", "1"), dropped);
+    }
+
+    @Test
+    public void isDisabledByDefault() throws Exception {
+        System.clearProperty(SinkSpool.SPOOL_DIRECTORY_PROPERTY);
+        final DispatcherState<Void, StringMessage, StringMessage> state = new DispatcherState<>(dispatcherFactory, module);
+        assertEquals(null, state.getSpool());
+        state.close();
+
+        System.setProperty(SinkSpool.SPOOL_DIRECTORY_PROPERTY, tempFolder.getRoot().getAbsolutePath());
+        final DispatcherState<Void, StringMessage, StringMessage> spoolingState = new DispatcherState<>(dispatcherFactory, module);
+        assertNotNull(spoolingState.getSpool());
+        assertFalse(spoolingState.getSpool().isSpooling());
+        spoolingState.close();
+    }
+
+    private long getGauge(String name) {
+        final Gauge<?> gauge = dispatcherFactory.getMetrics().getGauges().get(module.getId() + "." + name);
+        return ((Number)gauge.getValue()).longValue();
+    }
+
+    private class SpoolingDispatcherFactory extends AbstractMessageDispatcherFactory<Void> {
+        @Override
+        public <S extends Message, T extends Message> void dispatch(SinkModule<S, T> module, Void metadata, T message) {
+            if (!brokerAvailable.get()) {
+                dropped.add(((StringMessage)message).getValue());
+                return;
+            }
+            dispatched.add(((StringMessage)message).getValue());
+        }
+
+        @Override
+        protected <S extends Message, T extends Message> void dispatchOrThrow(SinkModule<S, T> module, Void metadata, T message) {
+            if (!brokerAvailable.get()) {
+                throw new IllegalStateException("Broker is unavailable.");
+            }
+            dispatched.add(((StringMessage)message).getValue());
+        }
+
+        @Override
+        protected boolean isSpoolingSupported() {
+            return true;
+        }
+    }
+
+    private static class StringMessage implements Message {
+        private final String value;
+
+        public StringMessage(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+
+    private static class StringSinkModule implements SinkModule<StringMessage, StringMessage> {
+        @Override
+        public String getId() {
+            return "String";
+        }
+
+        @Override
+        public int getNumConsumerThreads() {
+            return 1;
+        }
+
+        @Override
+        public String marshal(StringMessage message) {
+            return message.getValue();
+        }
+
+        @Override
+        public StringMessage unmarshal(String message) {
+            return new StringMessage(message);
+        }
+
+        @Override
+        public AggregationPolicy<StringMessage, StringMessage> getAggregationPolicy() {
+            return null;
+        }
+
+        @Override
+        public AsyncPolicy getAsyncPolicy() {
+            return null;
+        }
+    }
+}
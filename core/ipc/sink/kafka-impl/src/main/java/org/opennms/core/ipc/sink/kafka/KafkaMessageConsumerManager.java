@@ -44,12 +44,14 @@ import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.opennms.core.camel.JmsQueueNameFactory;
 import org.opennms.core.ipc.sink.api.Message;
 import org.opennms.core.ipc.sink.api.MessageConsumerManager;
 import org.opennms.core.ipc.sink.api.SinkModule;
 import org.opennms.core.ipc.sink.common.AbstractMessageConsumerManager;
+import org.opennms.core.ipc.sink.common.SinkCodec;
 import org.opennms.core.logging.Logging;
 import org.opennms.core.utils.SystemInfoUtils;
 import org.slf4j.Logger;
@@ -75,7 +77,7 @@ public class KafkaMessageConsumerManager extends AbstractMessageConsumerManager
     private class KafkaConsumerRunner implements Runnable {
         private final SinkModule<?, Message> module;
         private final AtomicBoolean closed = new AtomicBoolean(false);
-        private final KafkaConsumer<String, String> consumer;
+        private final KafkaConsumer<String, byte[]> consumer;
         private final String topic;
 
         public KafkaConsumerRunner(SinkModule<?, Message> module) {
@@ -93,10 +95,11 @@ public class KafkaMessageConsumerManager extends AbstractMessageConsumerManager
             try {
                 consumer.subscribe(Arrays.asList(topic));
                 while (!closed.get()) {
-                    ConsumerRecords<String, String> records = consumer.poll(100);
-                    for (ConsumerRecord<String, String> record : records) {
+                    ConsumerRecords<String, byte[]> records = consumer.poll(100);
+                    for (ConsumerRecord<String, byte[]> record : records) {
                         try {
-                            dispatch(module, module.unmarshal(record.value()));
+                            // Messages may either be XML strings or binary, depending on the producer
+                            dispatch(module, SinkCodec.unmarshal(module, record.value()));
                         } catch (RuntimeException e) {
                             LOG.warn("Unexpected exception while dispatching message", e);
                         }
@@ -154,8 +157,6 @@ public class KafkaMessageConsumerManager extends AbstractMessageConsumerManager
         kafkaConfig.clear();
         kafkaConfig.put("group.id", SystemInfoUtils.getInstanceId());
         kafkaConfig.put("enable.auto.commit", "true");
-        kafkaConfig.put("key.deserializer", StringDeserializer.class.getCanonicalName());
-        kafkaConfig.put("value.deserializer", StringDeserializer.class.getCanonicalName());
         kafkaConfig.put("auto.commit.interval.ms", "1000");
 
         // Find all of the  system properties that start with 'org.opennms.core.ipc.sink.kafka.'
@@ -174,6 +175,10 @@ public class KafkaMessageConsumerManager extends AbstractMessageConsumerManager
                 kafkaConfig.put(kafkaConfigKey, entry.getValue());
             }
         }
+
+        // The messages are received as byte arrays, so the deserializers cannot be overridden
+        kafkaConfig.put("key.deserializer", StringDeserializer.class.getCanonicalName());
+        kafkaConfig.put("value.deserializer", ByteArrayDeserializer.class.getCanonicalName());
         LOG.info("KafkaMessageConsumerManager: consuming from Kafka using: {}", kafkaConfig);
     }
 }
@@ -38,12 +38,14 @@ import java.util.concurrent.Future;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.opennms.core.camel.JmsQueueNameFactory;
 import org.opennms.core.ipc.sink.api.Message;
 import org.opennms.core.ipc.sink.api.MessageConsumerManager;
 import org.opennms.core.ipc.sink.api.SinkModule;
 import org.opennms.core.ipc.sink.common.AbstractMessageDispatcherFactory;
+import org.opennms.core.ipc.sink.common.SinkCodec;
 import org.opennms.core.logging.Logging;
 import org.opennms.core.logging.Logging.MDCCloseable;
 import org.osgi.service.cm.ConfigurationAdmin;
@@ -52,7 +54,7 @@ import org.slf4j.LoggerFactory;
 
 import com.codahale.metrics.JmxReporter;
 
-public class KafkaRemoteMessageDispatcherFactory extends AbstractMessageDispatcherFactory<String> {
+public class KafkaRemoteMessageDispatcherFactory extends AbstractMessageDispatcherFactory<KafkaRemoteMessageDispatcherFactory.ModuleMetadata> {
     private static final Logger LOG = LoggerFactory.getLogger(KafkaRemoteMessageDispatcherFactory.class);
 
     private final Properties kafkaConfig = new Properties();
@@ -61,19 +63,46 @@ public class KafkaRemoteMessageDispatcherFactory extends AbstractMessageDispatch
 
     private JmxReporter reporter;
 
-    private KafkaProducer<String,String> producer;
+    private KafkaProducer<String,byte[]> producer;
+
+    /**
+     * The topic and codec used to send the messages of a given module.
+     */
+    protected static class ModuleMetadata {
+        private final String topic;
+        private final SinkCodec<Message> codec;
+
+        @SuppressWarnings("unchecked")
+        private ModuleMetadata(String topic, SinkCodec<?> codec) {
+            this.topic = topic;
+            this.codec = (SinkCodec<Message>)codec;
+        }
+    }
 
     @Override
-    public <S extends Message, T extends Message> String getModuleMetadata(final SinkModule<S, T> module) {
+    public <S extends Message, T extends Message> ModuleMetadata getModuleMetadata(final SinkModule<S, T> module) {
         final JmsQueueNameFactory topicNameFactory = new JmsQueueNameFactory(KafkaSinkConstants.KAFKA_TOPIC_PREFIX, module.getId());
-        return topicNameFactory.getName();
+        final SinkCodec<T> codec = SinkCodec.forModule(module);
+        LOG.info("Sending messages for module {} using the {} format.", module.getId(), codec.getFormat().getName());
+        return new ModuleMetadata(topicNameFactory.getName(), codec);
     }
 
     @Override
-    public <S extends Message, T extends Message> void dispatch(SinkModule<S, T> module, String topic, T message) {
+    public <S extends Message, T extends Message> void dispatch(SinkModule<S, T> module, ModuleMetadata metadata, T message) {
+        send(metadata, message, false);
+    }
+
+    @Override
+    protected <S extends Message, T extends Message> void dispatchOrThrow(SinkModule<S, T> module, ModuleMetadata metadata, T message) {
+        // Let the spool know that the message was not sent
+        send(metadata, message, true);
+    }
+
+    private <T extends Message> void send(ModuleMetadata metadata, T message, boolean throwOnFailure) {
+        final String topic = metadata.topic;
         try (MDCCloseable mdc = Logging.withPrefixCloseable(MessageConsumerManager.LOG_PREFIX)) {
             LOG.trace("dispatch({}): sending message {}", topic, message);
-            final ProducerRecord<String,String> record = new ProducerRecord<>(topic, module.marshal(message));
+            final ProducerRecord<String,byte[]> record = new ProducerRecord<>(topic, metadata.codec.marshal(message));
             try {
                 // From KafkaProducer's JavaDoc: The producer is thread safe and should generally be shared among all threads for best performance.
                 final Future<RecordMetadata> future = producer.send(record);
@@ -81,20 +110,29 @@ public class KafkaRemoteMessageDispatcherFactory extends AbstractMessageDispatch
                 future.get();
             } catch (InterruptedException e) {
                 LOG.warn("Interrupted while sending message to topic {}.", topic, e);
+                if (throwOnFailure) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while sending message to topic " + topic, e);
+                }
             } catch (ExecutionException e) {
                 LOG.error("Error occured while sending message to topic {}.", topic, e);
+                if (throwOnFailure) {
+                    throw new IllegalStateException("Error occured while sending message to topic " + topic, e.getCause());
+                }
             }
         }
     }
 
+    @Override
+    protected boolean isSpoolingSupported() {
+        return true;
+    }
+
     public void init() throws IOException {
         try (MDCCloseable mdc = Logging.withPrefixCloseable(MessageConsumerManager.LOG_PREFIX)) {
             registerJmxReporter();
 
-            // Defaults
             kafkaConfig.clear();
-            kafkaConfig.put("key.serializer", StringSerializer.class.getCanonicalName());
-            kafkaConfig.put("value.serializer", StringSerializer.class.getCanonicalName());
 
             // Retrieve all of the properties from org.opennms.core.ipc.sink.kafka.cfg
             final Dictionary<String, Object> properties = configAdmin.getConfiguration(KafkaSinkConstants.KAFKA_CONFIG_PID).getProperties();
@@ -106,10 +144,14 @@ public class KafkaRemoteMessageDispatcherFactory extends AbstractMessageDispatch
                 }
             }
 
+            // The messages are sent as byte arrays, so the serializers cannot be overridden
+            kafkaConfig.put("key.serializer", StringSerializer.class.getCanonicalName());
+            kafkaConfig.put("value.serializer", ByteArraySerializer.class.getCanonicalName());
+
             LOG.info("KafkaRemoteMessageDispatcherFactory: initializing the Kafka producer with: {}", kafkaConfig);
             final ClassLoader currentClassLoader = Thread.currentThread().getContextClassLoader();
             try {
-                // Class-loader hack for accessing the org.apache.kafka.common.serialization.StringSerializer
+                // Class-loader hack for accessing the org.apache.kafka.common.serialization serializers
                 Thread.currentThread().setContextClassLoader(null);
                 producer = new KafkaProducer<>(kafkaConfig);
             } finally {
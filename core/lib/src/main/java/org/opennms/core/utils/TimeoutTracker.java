@@ -149,6 +149,21 @@ public class TimeoutTracker {
 
     }
 
+    /**
+     * Returns how long {@link #startAttempt()} would sleep before starting
+     * the next attempt when strict timeouts are enabled. Callers that must
+     * not block can wait this long on their own before starting the attempt.
+     *
+     * @param unit the unit of the returned delay
+     * @return the delay, or 0 if the next attempt can start immediately
+     */
+    public long getNextAttemptDelay(TimeUnit unit) {
+        if (!m_strictTimeouts) {
+            return 0;
+        }
+        return unit.convert(Math.max(0, m_nextRetryTimeNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
     private void sleep(long nanos) {
         long millis = nanos / 1000000L;
         int remainingNanos = (int)(nanos % 1000000L);
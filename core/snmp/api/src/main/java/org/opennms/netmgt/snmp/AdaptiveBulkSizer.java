@@ -0,0 +1,362 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Learns the largest number of variables per PDU and of repetitions per GETBULK
+ * request that each agent handles, so that walks take as few round trips as possible
+ * without running into tooBig responses or timeouts.
+ *
+ * The sizes are adjusted with an AIMD policy: every successful response increases them
+ * by one, up to the configured maximum, while a tooBig response halves the repetitions
+ * (or the variables, once there is a single repetition) and a timeout halves both.
+ * The sizes that failed become a ceiling for the increases, which is lifted after
+ * {@link #PROBE_INTERVAL} successful responses in order to probe the agent again.
+ * The learned sizes are periodically saved to a file, and used as the starting point
+ * of the walks after a restart.
+ *
+ * The sizer is disabled unless the {@link #ENABLED_PROPERTY} system property is set to true,
+ * in which case the walkers use the sizes from the agent configuration as-is.
+ */
+public class AdaptiveBulkSizer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveBulkSizer.class);
+
+    public static final String ENABLED_PROPERTY = "org.opennms.snmp.adaptiveBulk.enabled";
+
+    /**
+     * Upper bound of the learned variables per PDU. The configured value of an agent is used
+     * instead when it is larger.
+     */
+    public static final String MAX_VARS_PER_PDU_PROPERTY = "org.opennms.snmp.adaptiveBulk.maxVarsPerPdu";
+
+    /**
+     * Upper bound of the learned repetitions. The configured value of an agent is used
+     * instead when it is larger.
+     */
+    public static final String MAX_REPETITIONS_PROPERTY = "org.opennms.snmp.adaptiveBulk.maxRepetitions";
+
+    /**
+     * File in which the learned sizes are saved. Defaults to share/snmp-bulk-sizes.properties
+     * in the OpenNMS home directory, and the sizes aren't saved if neither are set.
+     */
+    public static final String FILE_PROPERTY = "org.opennms.snmp.adaptiveBulk.file";
+
+    public static final int DEFAULT_MAX_VARS_PER_PDU = 50;
+
+    public static final int DEFAULT_MAX_REPETITIONS = 50;
+
+    /**
+     * Number of successful responses after which the sizes that failed are tried again.
+     */
+    public static final int PROBE_INTERVAL = 100;
+
+    private static final long SAVE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static AdaptiveBulkSizer s_instance;
+
+    private static boolean s_initialized = false;
+
+    private final int m_maxVarsPerPdu;
+
+    private final int m_maxRepetitions;
+
+    private final Path m_file;
+
+    private final ConcurrentMap<String, AgentState> m_agents = new ConcurrentHashMap<>();
+
+    private final AtomicLong m_lastSave = new AtomicLong(System.currentTimeMillis());
+
+    private volatile boolean m_dirty = false;
+
+    public AdaptiveBulkSizer(final int maxVarsPerPdu, final int maxRepetitions, final Path file) {
+        m_maxVarsPerPdu = Math.max(1, maxVarsPerPdu);
+        m_maxRepetitions = Math.max(1, maxRepetitions);
+        m_file = file;
+        load();
+    }
+
+    /**
+     * Returns the sizer configured with the system properties.
+     *
+     * @return the sizer, or null if the sizes shouldn't be adjusted
+     */
+    public static synchronized AdaptiveBulkSizer getInstance() {
+        if (!s_initialized) {
+            if (Boolean.getBoolean(ENABLED_PROPERTY)) {
+                final String file = System.getProperty(FILE_PROPERTY);
+                final String home = System.getProperty("opennms.home");
+                s_instance = new AdaptiveBulkSizer(Integer.getInteger(MAX_VARS_PER_PDU_PROPERTY, DEFAULT_MAX_VARS_PER_PDU),
+                        Integer.getInteger(MAX_REPETITIONS_PROPERTY, DEFAULT_MAX_REPETITIONS),
+                        file != null ? Paths.get(file) : home != null ? Paths.get(home, "share", "snmp-bulk-sizes.properties") : null);
+            }
+            s_initialized = true;
+        }
+        return s_instance;
+    }
+
+    public static synchronized void setInstance(final AdaptiveBulkSizer sizer) {
+        s_instance = sizer;
+        s_initialized = true;
+    }
+
+    /**
+     * Returns the state of the given agent, starting from its configured sizes if
+     * nothing was learned about it yet.
+     */
+    public AgentState getAgentState(final InetAddress address, final int maxVarsPerPdu, final int maxRepetitions) {
+        return m_agents.computeIfAbsent(InetAddrUtils.str(address), a -> new AgentState(maxVarsPerPdu, maxRepetitions))
+                .withBounds(Math.max(m_maxVarsPerPdu, maxVarsPerPdu), Math.max(m_maxRepetitions, maxRepetitions));
+    }
+
+    /**
+     * @return the state of the agent, or null if nothing was learned about it
+     */
+    public AgentState getAgentState(final InetAddress address) {
+        return m_agents.get(InetAddrUtils.str(address));
+    }
+
+    public Map<String, AgentState> getAgentStates() {
+        return m_agents;
+    }
+
+    /**
+     * Records a completed walk, and saves the learned sizes if they changed since
+     * they were last saved a while ago.
+     */
+    void walkCompleted(final AgentState state, final String name, final InetAddress address, final long durationMs,
+            final int roundTrips, final int tooBigs, final boolean timedOut) {
+        state.walkCompleted(durationMs, roundTrips, tooBigs, timedOut);
+        LOG.debug("Walk {} of {} took {}ms in {} round trips with {} tooBig responses{}. Now using {}.", name,
+                InetAddrUtils.str(address), durationMs, roundTrips, tooBigs, timedOut ? " and timed out" : "", state);
+        m_dirty = true;
+
+        final long now = System.currentTimeMillis();
+        final long lastSave = m_lastSave.get();
+        if (now - lastSave >= SAVE_INTERVAL_MS && m_lastSave.compareAndSet(lastSave, now)) {
+            save();
+        }
+    }
+
+    /**
+     * Saves the learned sizes of every agent.
+     */
+    public synchronized void save() {
+        if (m_file == null || !m_dirty) {
+            return;
+        }
+        m_dirty = false;
+
+        final Properties properties = new Properties();
+        for (final Map.Entry<String, AgentState> agent : m_agents.entrySet()) {
+            properties.setProperty(agent.getKey(), agent.getValue().getMaxVarsPerPdu() + "," + agent.getValue().getMaxRepetitions());
+        }
+        try {
+            Files.createDirectories(m_file.toAbsolutePath().getParent());
+            final Path tmp = m_file.resolveSibling(m_file.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                properties.store(out, "Learned SNMP PDU sizes: <agent>=<maxVarsPerPdu>,<maxRepetitions>");
+            }
+            Files.move(tmp, m_file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Failed to save the learned SNMP PDU sizes to {}.", m_file, e);
+        }
+    }
+
+    private void load() {
+        if (m_file == null || !Files.isReadable(m_file)) {
+            return;
+        }
+        final Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(m_file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            LOG.warn("Failed to load the learned SNMP PDU sizes from {}.", m_file, e);
+            return;
+        }
+        for (final String agent : properties.stringPropertyNames()) {
+            final String[] sizes = properties.getProperty(agent).split(",");
+            try {
+                m_agents.put(agent, new AgentState(Integer.parseInt(sizes[0].trim()), Integer.parseInt(sizes[1].trim())));
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                LOG.warn("Ignoring invalid learned SNMP PDU sizes for {}: {}", agent, properties.getProperty(agent));
+            }
+        }
+        LOG.info("Loaded the learned SNMP PDU sizes of {} agents from {}.", m_agents.size(), m_file);
+    }
+
+    /**
+     * The learned sizes of an agent, along with statistics about its walks.
+     */
+    public static class AgentState {
+        private int m_maxVarsPerPdu;
+        private int m_maxRepetitions;
+        private int m_maxVarsPerPduBound = Integer.MAX_VALUE;
+        private int m_maxRepetitionsBound = Integer.MAX_VALUE;
+        private int m_maxVarsPerPduCeiling = Integer.MAX_VALUE;
+        private int m_maxRepetitionsCeiling = Integer.MAX_VALUE;
+        private int m_successes = 0;
+
+        private long m_walks;
+        private long m_roundTrips;
+        private long m_tooBigs;
+        private long m_timeouts;
+        private long m_totalDurationMs;
+        private long m_lastDurationMs;
+
+        private AgentState(final int maxVarsPerPdu, final int maxRepetitions) {
+            m_maxVarsPerPdu = Math.max(1, maxVarsPerPdu);
+            m_maxRepetitions = Math.max(1, maxRepetitions);
+        }
+
+        private synchronized AgentState withBounds(final int maxVarsPerPdu, final int maxRepetitions) {
+            m_maxVarsPerPduBound = maxVarsPerPdu;
+            m_maxRepetitionsBound = maxRepetitions;
+            m_maxVarsPerPdu = Math.min(m_maxVarsPerPdu, maxVarsPerPdu);
+            m_maxRepetitions = Math.min(m_maxRepetitions, maxRepetitions);
+            return this;
+        }
+
+        public synchronized int getMaxVarsPerPdu() {
+            return m_maxVarsPerPdu;
+        }
+
+        public synchronized int getMaxRepetitions() {
+            return m_maxRepetitions;
+        }
+
+        /**
+         * Additive increase after a successful response.
+         */
+        synchronized void success() {
+            if (++m_successes >= PROBE_INTERVAL) {
+                m_maxVarsPerPduCeiling = Integer.MAX_VALUE;
+                m_maxRepetitionsCeiling = Integer.MAX_VALUE;
+                m_successes = 0;
+            }
+            m_maxVarsPerPdu = Math.max(m_maxVarsPerPdu, Math.min(Math.min(m_maxVarsPerPduBound, m_maxVarsPerPduCeiling - 1), m_maxVarsPerPdu + 1));
+            m_maxRepetitions = Math.max(m_maxRepetitions, Math.min(Math.min(m_maxRepetitionsBound, m_maxRepetitionsCeiling - 1), m_maxRepetitions + 1));
+        }
+
+        /**
+         * Multiplicative decrease after a tooBig response.
+         *
+         * @return false if the sizes can't be reduced any further
+         */
+        synchronized boolean tooBig() {
+            m_successes = 0;
+            if (m_maxRepetitions > 1) {
+                m_maxRepetitionsCeiling = m_maxRepetitions;
+                m_maxRepetitions /= 2;
+            } else if (m_maxVarsPerPdu > 1) {
+                m_maxVarsPerPduCeiling = m_maxVarsPerPdu;
+                m_maxVarsPerPdu /= 2;
+            } else {
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Multiplicative decrease after a timeout.
+         */
+        synchronized void timeout() {
+            m_successes = 0;
+            m_maxVarsPerPduCeiling = m_maxVarsPerPdu;
+            m_maxRepetitionsCeiling = m_maxRepetitions;
+            m_maxVarsPerPdu = Math.max(1, m_maxVarsPerPdu / 2);
+            m_maxRepetitions = Math.max(1, m_maxRepetitions / 2);
+        }
+
+        private synchronized void walkCompleted(final long durationMs, final int roundTrips, final int tooBigs, final boolean timedOut) {
+            m_walks++;
+            m_roundTrips += roundTrips;
+            m_tooBigs += tooBigs;
+            m_timeouts += timedOut ? 1 : 0;
+            m_totalDurationMs += durationMs;
+            m_lastDurationMs = durationMs;
+        }
+
+        public synchronized long getWalks() {
+            return m_walks;
+        }
+
+        public synchronized long getRoundTrips() {
+            return m_roundTrips;
+        }
+
+        public synchronized long getTooBigs() {
+            return m_tooBigs;
+        }
+
+        public synchronized long getTimeouts() {
+            return m_timeouts;
+        }
+
+        public synchronized long getTotalDurationMs() {
+            return m_totalDurationMs;
+        }
+
+        public synchronized long getLastDurationMs() {
+            return m_lastDurationMs;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return new ToStringBuilder(this)
+                .append("maxVarsPerPdu", m_maxVarsPerPdu)
+                .append("maxRepetitions", m_maxRepetitions)
+                .append("walks", m_walks)
+                .append("roundTrips", m_roundTrips)
+                .append("tooBigs", m_tooBigs)
+                .append("timeouts", m_timeouts)
+                .append("totalDurationMs", m_totalDurationMs)
+                .toString();
+        }
+    }
+}
@@ -58,17 +58,27 @@ public abstract class SnmpWalker implements AutoCloseable {
 
     private SnmpWalkCallback m_callback;
 
+    private final AdaptiveBulkSizer m_bulkSizer;
+    private final AdaptiveBulkSizer.AgentState m_agentState;
+    private long m_startTime;
+    private int m_roundTrips = 0;
+    private int m_tooBigs = 0;
+
     protected SnmpWalker(InetAddress address, String name, int maxVarsPerPdu, int maxRepetitions, int maxRetries, CollectionTracker tracker) {
         m_address = address;
         m_signal = new CountDownLatch(1);
         
         m_name = name;
 
+        // Start from the sizes that were learned for this agent, if any
+        m_bulkSizer = AdaptiveBulkSizer.getInstance();
+        m_agentState = m_bulkSizer == null || address == null ? null : m_bulkSizer.getAgentState(address, maxVarsPerPdu, maxRepetitions);
+
         m_tracker = tracker;
-        m_tracker.setMaxRepetitions(maxRepetitions);
+        m_tracker.setMaxRepetitions(m_agentState == null ? maxRepetitions : m_agentState.getMaxRepetitions());
         m_tracker.setMaxRetries(maxRetries);
         
-        m_maxVarsPerPdu = maxVarsPerPdu;
+        m_maxVarsPerPdu = m_agentState == null ? maxVarsPerPdu : m_agentState.getMaxVarsPerPdu();
     }
 
     /**
@@ -84,6 +94,7 @@ public abstract class SnmpWalker implements AutoCloseable {
     protected abstract WalkerPduBuilder createPduBuilder(int maxVarsPerPdu);
     
     public void start() {
+        m_startTime = System.currentTimeMillis();
         m_pduBuilder = createPduBuilder(m_maxVarsPerPdu);
         try {
             buildAndSendNextPdu();
@@ -148,6 +159,9 @@ public abstract class SnmpWalker implements AutoCloseable {
     }
     
     protected void handleTimeout(String msg) {
+        if (m_agentState != null) {
+            m_agentState.timeout();
+        }
         m_tracker.setTimedOut(true);
         processError("Timeout retrieving", msg, new SnmpAgentTimeoutException(getName(), m_address));
     }
@@ -163,6 +177,10 @@ public abstract class SnmpWalker implements AutoCloseable {
     }
 
     private void finish() {
+        if (m_agentState != null) {
+            m_bulkSizer.walkCompleted(m_agentState, m_name, m_address, System.currentTimeMillis() - m_startTime,
+                    m_roundTrips, m_tooBigs, m_tracker.timedOut());
+        }
         signal();
         // Trigger the callback after the latch was decreased and the session was closed.
         if (m_callback != null) {
@@ -209,8 +227,33 @@ public abstract class SnmpWalker implements AutoCloseable {
     
     // processErrors returns true if we need to retry the request and false otherwise
     protected boolean processErrors(int errorStatus, int errorIndex) {
+        m_roundTrips++;
+        if (m_agentState != null) {
+            final ErrorStatus status = ErrorStatus.fromStatus(errorStatus);
+            if (status == ErrorStatus.TOO_BIG) {
+                m_tooBigs++;
+                if (m_agentState.tooBig()) {
+                    // Retry the same request with the smaller sizes
+                    applyLearnedSizes();
+                    return true;
+                }
+            } else if (status == ErrorStatus.NO_ERROR) {
+                m_agentState.success();
+                applyLearnedSizes();
+            }
+        }
         return m_responseProcessor.processErrors(errorStatus, errorIndex);
     }
+
+    /**
+     * Uses the sizes learned for the agent for the next requests of this walk.
+     */
+    private void applyLearnedSizes() {
+        m_tracker.setMaxRepetitions(m_agentState.getMaxRepetitions());
+        if (m_pduBuilder != null) {
+            m_pduBuilder.setMaxVarsPerPdu(m_agentState.getMaxVarsPerPdu());
+        }
+    }
     
     protected void processResponse(SnmpObjId receivedOid, SnmpValue val) {
         m_responseProcessor.processResponse(receivedOid, val);
@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+
+public class AdaptiveBulkSizerTest {
+
+    private static final SnmpObjId IF_DESCR = SnmpObjId.get(".1.3.6.1.2.1.2.2.1.2");
+
+    private static final int NUM_ROWS = 200;
+
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    private final ExecutorService m_executor = Executors.newSingleThreadExecutor();
+
+    private final NavigableMap<SnmpObjId, SnmpValue> m_table = new TreeMap<>();
+
+    private final SnmpValue m_endOfMib = mock(SnmpValue.class);
+
+    private InetAddress m_address;
+
+    private Path m_file;
+
+    private AdaptiveBulkSizer m_sizer;
+
+    /**
+     * Responses with more variables than this are rejected with a tooBig error.
+     */
+    private int m_maxResponseSize = Integer.MAX_VALUE;
+
+    /**
+     * Responses with more variables than this are never received.
+     */
+    private int m_maxReceivedSize = Integer.MAX_VALUE;
+
+    @Before
+    public void setUp() throws Exception {
+        m_address = InetAddress.getByName("192.0.2.1");
+        for (int i = 1; i <= NUM_ROWS; i++) {
+            final SnmpValue value = mock(SnmpValue.class);
+            when(value.toInt()).thenReturn(i);
+            m_table.put(SnmpObjId.get(IF_DESCR, String.valueOf(i)), value);
+            m_table.put(SnmpObjId.get(".1.3.6.1.2.1.2.2.1.3." + i), value);
+        }
+        when(m_endOfMib.isEndOfMib()).thenReturn(true);
+
+        m_file = m_folder.getRoot().toPath().resolve("share").resolve("snmp-bulk-sizes.properties");
+        m_sizer = new AdaptiveBulkSizer(25, 30, m_file);
+        AdaptiveBulkSizer.setInstance(m_sizer);
+    }
+
+    @After
+    public void tearDown() {
+        AdaptiveBulkSizer.setInstance(null);
+        m_executor.shutdownNow();
+    }
+
+    @Test
+    public void canGrowTheSizesOfFastAgents() throws Exception {
+        final TestWalker first = walk(10, 2);
+        assertFalse(first.failed());
+        // Without the sizer, every request would return 2 rows
+        assertTrue("round trips: " + first.m_requestSizes.size(), first.m_requestSizes.size() < 30);
+
+        final AdaptiveBulkSizer.AgentState state = m_sizer.getAgentState(m_address);
+        assertEquals(1, state.getWalks());
+        assertEquals(first.m_requestSizes.size(), state.getRoundTrips());
+        assertEquals(0, state.getTooBigs());
+        final int maxRepetitions = state.getMaxRepetitions();
+        assertEquals(2 + first.m_requestSizes.size(), maxRepetitions);
+
+        // The next walks start with the learned sizes, up to the configured maximum
+        final TestWalker second = walk(10, 2);
+        assertEquals(maxRepetitions, (int)second.m_requestSizes.get(0));
+        walk(10, 2);
+        assertEquals(25, state.getMaxVarsPerPdu());
+        assertEquals(30, state.getMaxRepetitions());
+        assertEquals(NUM_ROWS / 30 + 1, walk(10, 2).m_requestSizes.size());
+    }
+
+    @Test
+    public void canShrinkTheSizesOnTooBigResponses() throws Exception {
+        m_maxResponseSize = 8;
+        AdaptiveBulkSizer.setInstance(null);
+        assertTrue("the walk should fail without the sizer", walk(10, 12).failed());
+
+        AdaptiveBulkSizer.setInstance(m_sizer);
+        final TestWalker walker = walk(10, 12);
+        assertFalse(walker.getErrorMessage(), walker.failed());
+
+        // The sizes stay below the ones that were too big
+        final AdaptiveBulkSizer.AgentState state = m_sizer.getAgentState(m_address);
+        assertEquals(2, state.getTooBigs());
+        assertEquals(8, state.getMaxRepetitions());
+        for (int size : walker.m_requestSizes.subList(1, walker.m_requestSizes.size())) {
+            assertTrue(size <= 9);
+        }
+        walk(10, 12);
+        assertEquals(2, state.getTooBigs());
+    }
+
+    @Test
+    public void canShrinkTheSizesOnTimeouts() throws Exception {
+        m_maxReceivedSize = 10;
+        final TestWalker first = walk(10, 2);
+        assertTrue(first.timedOut());
+
+        final AdaptiveBulkSizer.AgentState state = m_sizer.getAgentState(m_address);
+        assertEquals(1, state.getTimeouts());
+        assertEquals(5, state.getMaxRepetitions());
+
+        // The sizes stay below the limit of the agent for the next walks
+        final TestWalker second = walk(10, 2);
+        assertFalse(second.getErrorMessage(), second.failed());
+    }
+
+    @Test
+    public void canPersistTheLearnedSizes() throws Exception {
+        m_maxResponseSize = 8;
+        walk(10, 2);
+        final AdaptiveBulkSizer.AgentState state = m_sizer.getAgentState(m_address);
+        m_sizer.save();
+
+        final AdaptiveBulkSizer sizer = new AdaptiveBulkSizer(25, 30, m_file);
+        final AdaptiveBulkSizer.AgentState loaded = sizer.getAgentState(m_address);
+        assertNotNull(loaded);
+        assertEquals(state.getMaxVarsPerPdu(), loaded.getMaxVarsPerPdu());
+        assertEquals(state.getMaxRepetitions(), loaded.getMaxRepetitions());
+
+        // The learned sizes are bounded by the current configuration
+        assertEquals(3, new AdaptiveBulkSizer(3, 3, m_file).getAgentState(m_address, 2, 2).getMaxRepetitions());
+    }
+
+    private TestWalker walk(int maxVarsPerPdu, int maxRepetitions) throws InterruptedException {
+        final List<Integer> rows = Lists.newArrayList();
+        final ColumnTracker tracker = new ColumnTracker(IF_DESCR) {
+            @Override
+            protected void storeResult(SnmpResult res) {
+                rows.add(res.getValue().toInt());
+            }
+        };
+        final TestWalker walker = new TestWalker(maxVarsPerPdu, maxRepetitions, new AggregateTracker(new Collectable[] { tracker }));
+        walker.start();
+        assertTrue(walker.waitFor(TimeUnit.SECONDS.toMillis(10)));
+        if (!walker.failed()) {
+            assertEquals(NUM_ROWS, rows.size());
+            for (int i = 0; i < NUM_ROWS; i++) {
+                assertEquals(i + 1, (int)rows.get(i));
+            }
+        }
+        return walker;
+    }
+
+    /**
+     * Walks the table of the test, answering the requests on a separate thread.
+     */
+    private class TestWalker extends SnmpWalker {
+        private final List<Integer> m_requestSizes = Lists.newCopyOnWriteArrayList();
+
+        private class TestPduBuilder extends WalkerPduBuilder {
+            private final List<SnmpObjId> m_oids = Lists.newArrayList();
+            private int m_nonRepeaters;
+            private int m_maxRepetitions;
+
+            private TestPduBuilder(int maxVarsPerPdu) {
+                super(maxVarsPerPdu);
+            }
+
+            @Override
+            public void reset() {
+                m_oids.clear();
+                m_nonRepeaters = 0;
+                m_maxRepetitions = 1;
+            }
+
+            @Override
+            public void addOid(SnmpObjId snmpObjId) {
+                m_oids.add(snmpObjId);
+            }
+
+            @Override
+            public void setNonRepeaters(int numNonRepeaters) {
+                m_nonRepeaters = numNonRepeaters;
+            }
+
+            @Override
+            public void setMaxRepetitions(int maxRepetitions) {
+                m_maxRepetitions = maxRepetitions;
+            }
+        }
+
+        private TestWalker(int maxVarsPerPdu, int maxRepetitions, CollectionTracker tracker) {
+            super(m_address, "test", maxVarsPerPdu, maxRepetitions, 0, tracker);
+        }
+
+        @Override
+        protected WalkerPduBuilder createPduBuilder(int maxVarsPerPdu) {
+            return new TestPduBuilder(maxVarsPerPdu);
+        }
+
+        @Override
+        protected void sendNextPdu(WalkerPduBuilder pduBuilder) throws IOException {
+            final TestPduBuilder builder = (TestPduBuilder)pduBuilder;
+            final List<SnmpObjId> oids = Lists.newArrayList(builder.m_oids);
+            final int nonRepeaters = builder.m_nonRepeaters;
+            final int maxRepetitions = builder.m_maxRepetitions;
+            m_executor.execute(() -> respond(oids, nonRepeaters, maxRepetitions));
+        }
+
+        private void respond(List<SnmpObjId> oids, int nonRepeaters, int maxRepetitions) {
+            final List<SnmpObjId> last = Lists.newArrayList(oids);
+            final List<Map.Entry<SnmpObjId, SnmpValue>> response = Lists.newArrayList();
+            for (int r = 0; r < maxRepetitions; r++) {
+                for (int i = r == 0 ? 0 : nonRepeaters; i < last.size(); i++) {
+                    final Map.Entry<SnmpObjId, SnmpValue> next = m_table.higherEntry(last.get(i));
+                    response.add(next != null ? next : new TreeMap.SimpleEntry<>(last.get(i), m_endOfMib));
+                    last.set(i, response.get(response.size() - 1).getKey());
+                }
+            }
+            m_requestSizes.add(response.size());
+
+            try {
+                if (response.size() > m_maxReceivedSize) {
+                    handleTimeout("test: snmpTimeoutError for: " + getAddress());
+                } else if (response.size() > m_maxResponseSize) {
+                    processErrors(ErrorStatus.TOO_BIG.ordinal(), 0);
+                    buildAndSendNextPdu();
+                } else if (!processErrors(ErrorStatus.NO_ERROR.ordinal(), 0)) {
+                    for (Map.Entry<SnmpObjId, SnmpValue> vb : response) {
+                        processResponse(vb.getKey(), vb.getValue());
+                    }
+                    buildAndSendNextPdu();
+                }
+            } catch (Throwable t) {
+                handleFatalError(t);
+            }
+        }
+
+        @Override
+        public void close() {
+            // pass
+        }
+    }
+}
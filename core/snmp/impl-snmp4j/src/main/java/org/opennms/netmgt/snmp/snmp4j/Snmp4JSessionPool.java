@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.MessageDispatcher;
+import org.snmp4j.MessageDispatcherImpl;
+import org.snmp4j.Snmp;
+import org.snmp4j.Target;
+import org.snmp4j.mp.MPv1;
+import org.snmp4j.mp.MPv2c;
+import org.snmp4j.mp.MPv3;
+import org.snmp4j.security.SecurityProtocols;
+import org.snmp4j.security.USM;
+import org.snmp4j.security.UsmUser;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+import org.snmp4j.util.MultiThreadedMessageDispatcher;
+import org.snmp4j.util.ThreadPool;
+
+/**
+ * A fixed set of SNMP sessions that are shared by all of the agents.
+ *
+ * Creating a session for every request allocates a socket, a listener thread and,
+ * for SNMPv3, a USM that has to rediscover the engine of the agent. Here, every
+ * session owns a single UDP transport and the responses are matched to their
+ * requests by the request ID, so any number of requests can be outstanding
+ * on the same socket.
+ *
+ * An agent is always sent through the same session so that the engine ID and
+ * engine time discovered by its SNMPv3 message processing model are reused.
+ * The USM is shared by all of the sessions.
+ */
+public class Snmp4JSessionPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Snmp4JSessionPool.class);
+
+    /**
+     * Number of shared sessions, and UDP sockets. A session is created for
+     * every request when set to 0.
+     */
+    public static final String NUM_SESSIONS_PROPERTY = "org.opennms.snmp.snmp4j.sessions";
+
+    public static final int DEFAULT_NUM_SESSIONS = 4;
+
+    /**
+     * Number of threads used to process the responses received by the shared sessions.
+     */
+    public static final String NUM_DISPATCHER_THREADS_PROPERTY = "org.opennms.snmp.snmp4j.dispatcherThreads";
+
+    private final Snmp[] m_sessions;
+
+    private final int m_numDispatcherThreads;
+
+    private final USM m_usm = new USM(SecurityProtocols.getInstance(), new OctetString(MPv3.createLocalEngineID()), 0);
+
+    /**
+     * Credentials of the users that were added to the USM without an engine ID.
+     */
+    private final ConcurrentMap<OctetString, List<Object>> m_users = new ConcurrentHashMap<>();
+
+    /**
+     * Credentials of the users that were added to the USM for a specific engine ID, since
+     * other agents use different credentials for the same security name.
+     */
+    private final ConcurrentMap<List<OctetString>, List<Object>> m_engineUsers = new ConcurrentHashMap<>();
+
+    private final Set<OctetString> m_conflictingUsers = ConcurrentHashMap.newKeySet();
+
+    private ThreadPool m_dispatcherThreads;
+
+    private boolean m_closed = false;
+
+    public Snmp4JSessionPool(final int numSessions, final int numDispatcherThreads) {
+        if (numSessions < 1) {
+            throw new IllegalArgumentException("At least one session is required.");
+        }
+        m_sessions = new Snmp[numSessions];
+        m_numDispatcherThreads = Math.max(1, numDispatcherThreads);
+    }
+
+    /**
+     * Creates the pool configured with the system properties.
+     *
+     * @return the pool, or null if a session should be created for every request
+     */
+    public static Snmp4JSessionPool fromSystemProperties() {
+        final int numSessions = Integer.getInteger(NUM_SESSIONS_PROPERTY, DEFAULT_NUM_SESSIONS);
+        if (numSessions < 1) {
+            return null;
+        }
+        final int numDispatcherThreads = Integer.getInteger(NUM_DISPATCHER_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+        LOG.info("Sharing {} SNMP sessions with {} dispatcher threads.", numSessions, numDispatcherThreads);
+        return new Snmp4JSessionPool(numSessions, numDispatcherThreads);
+    }
+
+    /**
+     * Returns the session used to communicate with the given agent.
+     *
+     * The session is shared, so the callers must not close it, and must cancel the
+     * requests that they sent with a response listener once they are done with them.
+     */
+    public Snmp getSession(final Snmp4JAgentConfig agentConfig) throws IOException {
+        final int index = Math.floorMod(Objects.hash(agentConfig.getInetAddress(), agentConfig.getPort()), m_sessions.length);
+        final Snmp session = getOrCreateSession(index);
+        if (agentConfig.isSnmpV3()) {
+            addUser(session, agentConfig);
+        }
+        return session;
+    }
+
+    /**
+     * Number of sessions that were opened.
+     */
+    public synchronized int getNumOpenSessions() {
+        return (int)Arrays.stream(m_sessions).filter(Objects::nonNull).count();
+    }
+
+    public void clearUsers() {
+        m_usm.removeAllUsers();
+        m_users.clear();
+        m_engineUsers.clear();
+        m_conflictingUsers.clear();
+    }
+
+    public synchronized void close() {
+        m_closed = true;
+        for (int i = 0; i < m_sessions.length; i++) {
+            if (m_sessions[i] != null) {
+                try {
+                    m_sessions[i].close();
+                } catch (IOException e) {
+                    LOG.error("Error closing the shared SNMP session.", e);
+                }
+                m_sessions[i] = null;
+            }
+        }
+        if (m_dispatcherThreads != null) {
+            m_dispatcherThreads.stop();
+            m_dispatcherThreads = null;
+        }
+    }
+
+    private synchronized Snmp getOrCreateSession(final int index) throws IOException {
+        if (m_closed) {
+            throw new IOException("The SNMP session pool is closed.");
+        }
+        if (m_sessions[index] == null) {
+            if (m_dispatcherThreads == null) {
+                m_dispatcherThreads = ThreadPool.create("SNMP4J-Dispatcher", m_numDispatcherThreads);
+            }
+            final MessageDispatcher disp = new MessageDispatcherImpl();
+            disp.addMessageProcessingModel(new MPv1());
+            disp.addMessageProcessingModel(new MPv2c());
+            disp.addMessageProcessingModel(new MPv3(m_usm));
+            // Process the responses off of the listener thread, so that a slow
+            // callback doesn't delay the responses of the other agents
+            final Snmp session = new Snmp(new MultiThreadedMessageDispatcher(m_dispatcherThreads, disp), new DefaultUdpTransportMapping());
+            session.listen();
+            m_sessions[index] = session;
+        }
+        return m_sessions[index];
+    }
+
+    /**
+     * Adds the user of the agent to the USM. Users are added without an engine ID, so
+     * that the USM localizes their keys for every agent that uses them. If agents use
+     * different credentials for the same security name, the user is added for the engine
+     * ID of each of these agents instead, which requires discovering their engine ID.
+     */
+    private void addUser(final Snmp session, final Snmp4JAgentConfig agentConfig) {
+        final OctetString securityName = agentConfig.getSecurityName();
+        final List<Object> credentials = Arrays.asList(agentConfig.getAuthProtocol(), agentConfig.getAuthPassPhrase(),
+                agentConfig.getPrivProtocol(), agentConfig.getPrivPassPhrase());
+
+        final List<Object> existing = m_users.putIfAbsent(securityName, credentials);
+        if (existing == null) {
+            m_usm.addUser(securityName, createUser(agentConfig));
+            return;
+        } else if (existing.equals(credentials) && !m_conflictingUsers.contains(securityName)) {
+            return;
+        }
+
+        m_conflictingUsers.add(securityName);
+        final Target target = agentConfig.getTarget();
+        final MPv3 mpv3 = (MPv3)session.getMessageProcessingModel(MPv3.ID);
+        OctetString engineId = mpv3.getEngineID(target.getAddress());
+        if (engineId == null) {
+            final byte[] discoveredEngineId = session.discoverAuthoritativeEngineID(target.getAddress(), target.getTimeout());
+            if (discoveredEngineId == null) {
+                LOG.warn("Could not discover the engine ID of agent {} to add user {}.", agentConfig, securityName);
+                return;
+            }
+            engineId = new OctetString(discoveredEngineId);
+        }
+        if (!credentials.equals(m_engineUsers.put(Arrays.asList(engineId, securityName), credentials))) {
+            LOG.debug("Adding user {} for engine ID {} of agent {}.", securityName, engineId, agentConfig);
+            m_usm.addUser(securityName, engineId, createUser(agentConfig));
+        }
+    }
+
+    private static UsmUser createUser(final Snmp4JAgentConfig agentConfig) {
+        return new UsmUser(agentConfig.getSecurityName(), agentConfig.getAuthProtocol(), agentConfig.getAuthPassPhrase(),
+                agentConfig.getPrivProtocol(), agentConfig.getPrivPassPhrase());
+    }
+}
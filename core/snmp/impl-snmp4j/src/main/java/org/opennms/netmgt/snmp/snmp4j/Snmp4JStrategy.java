@@ -101,6 +101,10 @@ public class Snmp4JStrategy implements SnmpStrategy {
 
     private static USM m_usm;
 
+    private static Snmp4JSessionPool s_sessionPool;
+
+    private final Snmp4JSessionPool m_sessionPool;
+
     private Snmp4JValueFactory m_valueFactory;
 
     /**
@@ -133,17 +137,31 @@ public class Snmp4JStrategy implements SnmpStrategy {
         // so we perform it only once during initialization
         SecurityProtocols.getInstance().addDefaultProtocols();
 
+        s_sessionPool = Snmp4JSessionPool.fromSystemProperties();
+
         s_initialized = true;
     }
     
     public Snmp4JStrategy() {
         initialize();
+        m_sessionPool = s_sessionPool;
+    }
+
+    /**
+     * @param sessionPool the sessions shared by the requests, or null to create a session for every request
+     */
+    protected Snmp4JStrategy(final Snmp4JSessionPool sessionPool) {
+        initialize();
+        m_sessionPool = sessionPool;
     }
     
     public void clearUsers() {
         if (m_usm != null) {
             m_usm.removeAllUsers();
         }
+        if (m_sessionPool != null) {
+            m_sessionPool.clearUsers();
+        }
     }
     
     /**
@@ -155,7 +173,7 @@ public class Snmp4JStrategy implements SnmpStrategy {
      */
         @Override
     public SnmpWalker createWalker(SnmpAgentConfig snmpAgentConfig, String name, CollectionTracker tracker) {
-        return new Snmp4JWalker(new Snmp4JAgentConfig(snmpAgentConfig), name, tracker);
+        return new Snmp4JWalker(new Snmp4JAgentConfig(snmpAgentConfig), name, tracker, m_sessionPool);
     }
     
     /**
@@ -290,6 +308,11 @@ public class Snmp4JStrategy implements SnmpStrategy {
     }
 
     private void send(Snmp4JAgentConfig agentConfig, PDU pdu, boolean expectResponse, CompletableFuture<SnmpValue[]> future) {
+        if (m_sessionPool != null) {
+            sendWithSharedSession(agentConfig, pdu, expectResponse, future);
+            return;
+        }
+
         Snmp session;
 
         try {
@@ -348,6 +371,43 @@ public class Snmp4JStrategy implements SnmpStrategy {
         }
     }
 
+    private void sendWithSharedSession(Snmp4JAgentConfig agentConfig, PDU pdu, boolean expectResponse, CompletableFuture<SnmpValue[]> future) {
+        final Snmp session;
+        try {
+            session = m_sessionPool.getSession(agentConfig);
+        } catch (IOException e) {
+            LOG.error("send: Could not get SNMP session for agent {}", agentConfig, e);
+            future.completeExceptionally(new Exception("Could not get SNMP session for agent"));
+            return;
+        }
+
+        try {
+            if (expectResponse) {
+                session.send(pdu, agentConfig.getTarget(), null, new ResponseListener() {
+                    @Override
+                    public void onResponse(ResponseEvent responseEvent) {
+                        // The session is shared, so the request must be cancelled instead of closing the session
+                        session.cancel(responseEvent.getRequest(), this);
+                        try {
+                            future.complete(processResponse(agentConfig, responseEvent));
+                        } catch (IOException e) {
+                            future.completeExceptionally(e);
+                        }
+                    }
+                });
+            } else {
+                session.send(pdu, agentConfig.getTarget());
+                future.complete(null);
+            }
+        } catch (final IOException e) {
+            LOG.error("send: error during SNMP operation", e);
+            future.completeExceptionally(e);
+        } catch (final RuntimeException e) {
+            LOG.error("send: unexpected error during SNMP operation", e);
+            future.completeExceptionally(e);
+        }
+    }
+
     protected PDU buildPdu(Snmp4JAgentConfig agentConfig, int pduType, SnmpObjId[] oids, SnmpValue[] values) {
         PDU pdu = agentConfig.createPdu(pduType);
         
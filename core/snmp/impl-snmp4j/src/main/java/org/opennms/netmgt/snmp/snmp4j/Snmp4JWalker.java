@@ -186,14 +186,24 @@ public class Snmp4JWalker extends SnmpWalker {
     }
     
     private Snmp m_session;
+    private PDU m_pendingPdu;
     private final Target m_tgt;
     private final ResponseListener m_listener;
     private final Snmp4JAgentConfig m_agentConfig;
+    private final Snmp4JSessionPool m_sessionPool;
 
     public Snmp4JWalker(Snmp4JAgentConfig agentConfig, String name, CollectionTracker tracker) {
+        this(agentConfig, name, tracker, null);
+    }
+
+    /**
+     * @param sessionPool the pool of shared sessions, or null to create a session for the walk
+     */
+    public Snmp4JWalker(Snmp4JAgentConfig agentConfig, String name, CollectionTracker tracker, Snmp4JSessionPool sessionPool) {
         super(agentConfig.getInetAddress(), name, agentConfig.getMaxVarsPerPdu(), agentConfig.getMaxRepetitions(), agentConfig.getRetries(), tracker);
         
         m_agentConfig = agentConfig;
+        m_sessionPool = sessionPool;
         
         m_tgt = agentConfig.getTarget();
         m_listener = new Snmp4JResponseListener();
@@ -218,12 +228,17 @@ public class Snmp4JWalker extends SnmpWalker {
     protected void sendNextPdu(WalkerPduBuilder pduBuilder) throws IOException {
         Snmp4JPduBuilder snmp4JPduBuilder = (Snmp4JPduBuilder)pduBuilder;
         if (m_session == null) {
-            m_session = m_agentConfig.createSnmpSession();
-            m_session.listen();
+            if (m_sessionPool != null) {
+                m_session = m_sessionPool.getSession(m_agentConfig);
+            } else {
+                m_session = m_agentConfig.createSnmpSession();
+                m_session.listen();
+            }
         }
         
         LOG.debug("Sending tracker pdu of size {}", snmp4JPduBuilder.getPdu().size());
-        m_session.send(snmp4JPduBuilder.getPdu(), m_tgt, null, m_listener);
+        m_pendingPdu = snmp4JPduBuilder.getPdu();
+        m_session.send(m_pendingPdu, m_tgt, null, m_listener);
     }
     
     protected int getVersion() {
@@ -232,7 +247,13 @@ public class Snmp4JWalker extends SnmpWalker {
 
     @Override
     public void close() {
-        if (m_session != null) {
+        if (m_session != null && m_sessionPool != null) {
+            // The session is shared, so only forget about the request that may still be outstanding
+            final PDU pendingPdu = m_pendingPdu;
+            if (pendingPdu != null) {
+                m_session.cancel(pendingPdu, m_listener);
+            }
+        } else if (m_session != null) {
             try {
                 m_session.close();
             } catch (IOException e) {
@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.opennms.core.utils.InetAddressUtils.str;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.mock.snmp.MockSnmpAgent;
+import org.opennms.netmgt.snmp.ColumnTracker;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.SnmpWalker;
+import org.snmp4j.mp.MPv3;
+import org.snmp4j.security.AuthMD5;
+import org.snmp4j.security.PrivDES;
+import org.snmp4j.security.UsmUser;
+import org.snmp4j.smi.OctetString;
+import org.springframework.core.io.ClassPathResource;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class Snmp4JSessionPoolTest {
+
+    private static final SnmpObjId SYS_NAME = SnmpObjId.get(".1.3.6.1.2.1.1.5.0");
+
+    private static final SnmpObjId IF_DESCR = SnmpObjId.get(".1.3.6.1.2.1.2.2.1.2");
+
+    private static final String SECURITY_NAME = "opennmsUser";
+
+    private static final String PASS_PHRASE = "0p3nNMSv3";
+
+    private final List<MockSnmpAgent> m_agents = Lists.newArrayList();
+
+    private final Map<MockSnmpAgent, String> m_passPhrases = Maps.newHashMap();
+
+    private Snmp4JSessionPool m_sessionPool;
+
+    private Snmp4JStrategy m_strategy;
+
+    @Before
+    public void setUp() {
+        m_sessionPool = new Snmp4JSessionPool(2, 2);
+        m_strategy = new Snmp4JStrategy(m_sessionPool);
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException {
+        m_sessionPool.close();
+        for (MockSnmpAgent agent : m_agents) {
+            agent.shutDownAndWait();
+        }
+    }
+
+    @Test
+    public void canShareSessionsBetweenAgents() throws Exception {
+        final int numAgents = 10;
+        for (int i = 0; i < numAgents; i++) {
+            startAgent("agent" + i, PASS_PHRASE);
+        }
+
+        final List<CompletableFuture<SnmpValue[]>> futures = Lists.newArrayList();
+        for (int i = 0; i < 10 * numAgents; i++) {
+            final SnmpAgentConfig config = getAgentConfig(m_agents.get(i % numAgents), SnmpAgentConfig.VERSION2C);
+            futures.add(m_strategy.getAsync(config, new SnmpObjId[] { SYS_NAME }));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals("agent" + (i % numAgents), futures.get(i).get(10, TimeUnit.SECONDS)[0].toDisplayString());
+        }
+
+        // Synchronous requests go through the same sessions
+        assertEquals("agent3", m_strategy.get(getAgentConfig(m_agents.get(3), SnmpAgentConfig.VERSION1), SYS_NAME).toDisplayString());
+        assertEquals(2, m_sessionPool.getNumOpenSessions());
+    }
+
+    @Test
+    public void canWalkWithSharedSessions() throws Exception {
+        final MockSnmpAgent agent = startAgent("agent", PASS_PHRASE);
+        for (int version : new int[] { SnmpAgentConfig.VERSION1, SnmpAgentConfig.VERSION2C, SnmpAgentConfig.VERSION3 }) {
+            final List<String> descriptions = Lists.newCopyOnWriteArrayList();
+            final ColumnTracker tracker = new ColumnTracker(IF_DESCR, 2, 1) {
+                @Override
+                protected void storeResult(SnmpResult res) {
+                    descriptions.add(res.getValue().toDisplayString());
+                }
+            };
+            try (SnmpWalker walker = m_strategy.createWalker(getAgentConfig(agent, version), "ifDescr", tracker)) {
+                walker.start();
+                assertTrue(walker.waitFor(TimeUnit.SECONDS.toMillis(10)));
+                assertFalse(walker.getErrorMessage(), walker.failed());
+            }
+            assertEquals(Lists.newArrayList("lo0", "gif0", "stf0", "en0", "en1", "fw0"), descriptions);
+        }
+        assertEquals(1, m_sessionPool.getNumOpenSessions());
+    }
+
+    @Test
+    public void canUseDifferentCredentialsForTheSameUser() throws Exception {
+        final MockSnmpAgent first = startAgent("first", PASS_PHRASE);
+        final MockSnmpAgent second = startAgent("second", "an0therPassw0rd");
+        final MockSnmpAgent third = startAgent("third", PASS_PHRASE);
+
+        for (int i = 0; i < 2; i++) {
+            assertEquals("first", m_strategy.get(getAgentConfig(first, SnmpAgentConfig.VERSION3), SYS_NAME).toDisplayString());
+            assertEquals("second", m_strategy.get(getAgentConfig(second, SnmpAgentConfig.VERSION3), SYS_NAME).toDisplayString());
+            assertEquals("third", m_strategy.get(getAgentConfig(third, SnmpAgentConfig.VERSION3), SYS_NAME).toDisplayString());
+        }
+
+        // Requests with the wrong credentials still fail
+        final SnmpAgentConfig config = getAgentConfig(first, SnmpAgentConfig.VERSION3);
+        config.setAuthPassPhrase("an0therPassw0rd");
+        config.setTimeout(500);
+        config.setRetries(0);
+        assertNull(m_strategy.get(config, SYS_NAME));
+    }
+
+    /**
+     * Starts an agent with its own engine ID, that authenticates the SNMPv3 user
+     * with the given pass phrase.
+     */
+    private MockSnmpAgent startAgent(final String sysName, final String passPhrase) throws IOException, InterruptedException {
+        final UsmUser user = new UsmUser(new OctetString(SECURITY_NAME), AuthMD5.ID, new OctetString(passPhrase),
+                PrivDES.ID, new OctetString(passPhrase));
+        final MockSnmpAgent agent = MockSnmpAgent.createAgentAndRun(new ClassPathResource("snmpTestData1.properties").getURL(),
+                str(InetAddressUtils.ONE_TWENTY_SEVEN) + "/0", new OctetString(MPv3.createLocalEngineID(new OctetString(sysName))), user);
+        agent.updateStringValue(SYS_NAME.toString(), sysName);
+        m_agents.add(agent);
+        m_passPhrases.put(agent, passPhrase);
+        return agent;
+    }
+
+    private SnmpAgentConfig getAgentConfig(final MockSnmpAgent agent, final int version) {
+        final SnmpAgentConfig config = new SnmpAgentConfig(agent.getInetAddress());
+        config.setPort(agent.getPort());
+        config.setVersion(version);
+        config.setTimeout(3000);
+        config.setRetries(1);
+        if (version == SnmpAgentConfig.VERSION3) {
+            config.setSecurityLevel(SnmpAgentConfig.AUTH_PRIV);
+            config.setSecurityName(SECURITY_NAME);
+            config.setAuthProtocol("MD5");
+            config.setAuthPassPhrase(m_passPhrases.get(agent));
+            config.setPrivProtocol("DES");
+            config.setPrivPassPhrase(m_passPhrases.get(agent));
+        }
+        return config;
+    }
+}
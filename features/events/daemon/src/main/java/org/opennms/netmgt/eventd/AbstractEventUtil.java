@@ -33,7 +33,6 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.concurrent.ExecutionException;
-import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -766,18 +765,30 @@ public abstract class AbstractEventUtil implements EventUtil {
 		}
 		try {
 			final EventTemplate eventTemplate = eventTemplateCache.get(input);
-			Supplier<String> expander = () -> eventTemplate.expand(event, decode);
 			if (eventTemplate.requiresTransaction()) {
 				Objects.requireNonNull(transactionOperations);
-				return transactionOperations.execute(session -> expander.get());
+				return transactionOperations.execute(session -> eventTemplate.expand(event, decode));
 			} else {
-				return expander.get();
+				return eventTemplate.expand(event, decode);
 			}
 		} catch (ExecutionException ex) {
 			throw new RuntimeException(ex);
 		}
 	}
 
+	/**
+	 * Discards any node or interface details that were cached for the given node,
+	 * i.e. after the node, one of its interfaces or its assets have changed.
+	 *
+	 * Implementations that do not cache any of these details can ignore the call.
+	 *
+	 * @param nodeId the id of the node which has changed
+	 */
+	@Override
+	public void invalidateNode(long nodeId) {
+		// Nothing is cached by default
+	}
+
 	/**
 	 * <p>getEventHost</p>
 	 *
@@ -29,12 +29,15 @@
 package org.opennms.netmgt.eventd;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 import org.opennms.netmgt.config.api.EventConfDao;
+import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.events.api.EventProcessor;
 import org.opennms.netmgt.events.api.EventProcessorException;
 import org.opennms.netmgt.model.events.EventUtils;
@@ -60,6 +63,10 @@ import org.springframework.util.Assert;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.codahale.metrics.Timer.Context;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableSet;
 
 /**
  * <P>
@@ -119,8 +126,39 @@ public final class EventExpander implements org.opennms.netmgt.dao.api.EventExpa
      */
     private static final String DEFAULT_EVENT_UEI = "uei.opennms.org/default/event";
 
+    /**
+     * Events signaling that the details of a node, or one of its interfaces, have changed.
+     */
+    private static final Set<String> NODE_CHANGE_UEIS = ImmutableSet.of(
+            EventConstants.NODE_ADDED_EVENT_UEI,
+            EventConstants.NODE_UPDATED_EVENT_UEI,
+            EventConstants.NODE_DELETED_EVENT_UEI,
+            EventConstants.DUP_NODE_DELETED_EVENT_UEI,
+            EventConstants.NODE_INFO_CHANGED_EVENT_UEI,
+            EventConstants.NODE_LABEL_CHANGED_EVENT_UEI,
+            EventConstants.NODE_GAINED_INTERFACE_EVENT_UEI,
+            EventConstants.INTERFACE_DELETED_EVENT_UEI,
+            EventConstants.INTERFACE_REPARENTED_EVENT_UEI,
+            EventConstants.INTERFACE_INDEX_CHANGED_EVENT_UEI,
+            EventConstants.INTERFACE_IP_HOSTNAME_CHANGED_EVENT_UEI,
+            EventConstants.ASSET_INFO_CHANGED_EVENT_UEI);
+
     private final Timer expandTimer;
 
+    /**
+     * The varbind decodes of the eventconf entries. The entries are compared by identity,
+     * so the decodes are built once for every loaded eventconf entry, and dropped when
+     * the configuration is reloaded.
+     */
+    private final LoadingCache<org.opennms.netmgt.xml.eventconf.Event, Map<String, Map<String, String>>> m_decodeCache = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build(new CacheLoader<org.opennms.netmgt.xml.eventconf.Event, Map<String, Map<String, String>>>() {
+                @Override
+                public Map<String, Map<String, String>> load(org.opennms.netmgt.xml.eventconf.Event econf) {
+                    return getDecodes(econf);
+                }
+            });
+
     public EventExpander(MetricRegistry registry) {
         expandTimer = Objects.requireNonNull(registry).timer("eventlogs.process.expand");
     }
@@ -755,23 +793,36 @@ public final class EventExpander implements org.opennms.netmgt.dao.api.EventExpa
             }
         }
         
-        Map<String, Map<String, String>> decode = new HashMap<String, Map<String,String>>();
+        final Map<String, Map<String, String>> decode;
         if (econf != null && econf.getVarbindsdecodes().size() > 0) {
-           for (final Varbindsdecode element : econf.getVarbindsdecodes()) {
-               List<Decode> decodeArray = element.getDecodes();
-               Map<String, String> valueMap = new HashMap<String, String>();
-               for (final Decode element2 : decodeArray) {
-                   valueMap.put(element2.getVarbindvalue(), element2.getVarbinddecodedstring());
-               }
-               decode.put(element.getParmid(), valueMap);
-           }
+            decode = m_decodeCache.getUnchecked(econf);
+        } else {
+            decode = Collections.emptyMap();
         }// end fill of event using econf
 
+        // discard the cached node details before expanding the event announcing the change
+        if (e.hasNodeid() && NODE_CHANGE_UEIS.contains(e.getUei())) {
+            m_eventUtil.invalidateNode(e.getNodeid());
+        }
+
         // do the event parm expansion
         expandParms(e, decode);
 
     } // end expandEvent()
 
+    private static Map<String, Map<String, String>> getDecodes(org.opennms.netmgt.xml.eventconf.Event econf) {
+        final Map<String, Map<String, String>> decode = new HashMap<String, Map<String,String>>();
+        for (final Varbindsdecode element : econf.getVarbindsdecodes()) {
+            List<Decode> decodeArray = element.getDecodes();
+            Map<String, String> valueMap = new HashMap<String, String>();
+            for (final Decode element2 : decodeArray) {
+                valueMap.put(element2.getVarbindvalue(), element2.getVarbinddecodedstring());
+            }
+            decode.put(element.getParmid(), Collections.unmodifiableMap(valueMap));
+        }
+        return Collections.unmodifiableMap(decode);
+    }
+
     /**
      * Event expansion is always synchronous so this method just 
      * delegates to {@link #process(Log)}.
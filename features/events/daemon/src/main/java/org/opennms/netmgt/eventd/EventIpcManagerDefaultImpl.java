@@ -32,12 +32,14 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
@@ -62,7 +64,9 @@ import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
 import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 
 /**
  * An implementation of the EventIpcManager interface that can be used to
@@ -76,6 +80,22 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     
     private static final Logger LOG = LoggerFactory.getLogger(EventIpcManagerDefaultImpl.class);
 
+    /**
+     * Number of threads used to deliver events to each listener, defaults to 1.
+     *
+     * Can be set for a given listener by appending its name, i.e.
+     * <code>org.opennms.netmgt.eventd.listenerThreads.Notifd\:BroadcastEventProcessor=4</code>.
+     *
+     * Events with the same node id are always delivered by the same thread, and
+     * therefore in the order in which they were broadcast.
+     */
+    public static final String LISTENER_THREADS_PROPERTY = "org.opennms.netmgt.eventd.listenerThreads";
+
+    /**
+     * Maximum number of distinct UEIs for which the matching listeners are cached.
+     */
+    private static final int MAX_RESOLVED_UEIS = 10000;
+
     public static class DiscardTrapsAndSyslogEvents implements RejectedExecutionHandler {
         /**
          * Creates a <tt>DiscardOldestPolicy</tt> for the given executor.
@@ -100,19 +120,27 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     }
 
     /**
-     * Hash table of list of event listeners keyed by event UEI
+     * Hash table of list of event listeners keyed by event UEI.
+     * Only modified while holding the lock, and published via {@link #m_index}.
      */
     private Map<String, List<EventListener>> m_ueiListeners = new HashMap<String, List<EventListener>>();
 
     /**
-     * The list of event listeners interested in all events
+     * The list of event listeners interested in all events.
+     * Only modified while holding the lock, and published via {@link #m_index}.
      */
     private List<EventListener> m_listeners = new ArrayList<EventListener>();
 
+    /**
+     * Snapshot of the registrations used when broadcasting, replaced whenever
+     * these change so that broadcasts never need to lock.
+     */
+    private volatile ListenerIndex m_index = new ListenerIndex(m_ueiListeners, m_listeners);
+
     /**
      * Hash table of event listener threads keyed by the listener's id
      */
-    private Map<String, EventListenerExecutor> m_listenerThreads = new HashMap<String, EventListenerExecutor>();
+    private Map<String, EventListenerExecutor> m_listenerThreads = new ConcurrentHashMap<String, EventListenerExecutor>();
 
     /**
      * The thread pool handling the events
@@ -128,74 +156,187 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     private final MetricRegistry m_registry;
 
     /**
-     * A thread dedicated to each listener. The events meant for each listener
-     * is added to an execution queue when the 'sendNow()' is called. The
-     * ListenerThread reads events off of this queue and sends them to the
-     * appropriate listener.
+     * Immutable view of the listener registrations.
+     */
+    private static class ListenerIndex {
+        private final Map<String, List<EventListener>> m_ueiListeners;
+
+        private final List<EventListener> m_listeners;
+
+        /**
+         * Listeners matching a given UEI, including the partial wild card "directory" matches.
+         */
+        private final ConcurrentMap<String, List<EventListener>> m_listenersByUei = new ConcurrentHashMap<>();
+
+        private ListenerIndex(Map<String, List<EventListener>> ueiListeners, List<EventListener> listeners) {
+            final Map<String, List<EventListener>> ueiListenersCopy = new HashMap<>();
+            for (Map.Entry<String, List<EventListener>> entry : ueiListeners.entrySet()) {
+                if (!entry.getValue().isEmpty()) {
+                    ueiListenersCopy.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+                }
+            }
+            m_ueiListeners = Collections.unmodifiableMap(ueiListenersCopy);
+            m_listeners = Collections.unmodifiableList(new ArrayList<>(listeners));
+        }
+
+        public List<EventListener> getListenersForAllEvents() {
+            return m_listeners;
+        }
+
+        public List<EventListener> getListenersForUei(String uei) {
+            List<EventListener> listeners = m_listenersByUei.get(uei);
+            if (listeners == null) {
+                listeners = resolveListenersForUei(uei);
+                if (m_listenersByUei.size() < MAX_RESOLVED_UEIS) {
+                    m_listenersByUei.put(uei, listeners);
+                }
+            }
+            return listeners;
+        }
+
+        private List<EventListener> resolveListenersForUei(String uei) {
+            /*
+             * Loop to attempt partial wild card "directory" matches.
+             */
+            final Set<EventListener> listeners = new LinkedHashSet<>();
+            for (String prefix = uei; prefix.length() > 0; ) {
+                final List<EventListener> listenersForPrefix = m_ueiListeners.get(prefix);
+                if (listenersForPrefix != null) {
+                    listeners.addAll(listenersForPrefix);
+                }
+
+                // Try wild cards: Find / before last character
+                int i = prefix.lastIndexOf("/", prefix.length() - 2);
+                if (i > 0) {
+                    // Split at "/", including the /
+                    prefix = prefix.substring (0, i + 1);
+                } else {
+                    // No more wild cards to match
+                    break;
+                }
+            }
+            return listeners.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(listeners));
+        }
+
+        public boolean hasListenersForUei(String uei) {
+            return m_ueiListeners.containsKey(uei);
+        }
+    }
+
+    /**
+     * Threads dedicated to each listener. The events meant for each listener
+     * are added to the execution queue of one of its threads when 'broadcastNow()'
+     * is called, based on the event's node id. These threads read the events off of
+     * their queue and send them to the appropriate listener.
      */
     private static class EventListenerExecutor {
         /**
-         * Listener to which this thread is dedicated
+         * Listener to which the threads are dedicated
          */
         private final EventListener m_listener;
 
         /**
-         * The thread that is running this runnable.
+         * Single threaded executors, events for the same node are always
+         * handled by the same executor in order to preserve their ordering.
          */
-        private final ExecutorService m_delegateThread;
+        private final ThreadPoolExecutor[] m_delegateThreads;
+
+        private final MetricRegistry m_registry;
+
+        private final String m_queuedMetricName;
+
+        private final Timer m_lag;
+
+        private final Meter m_dropped;
 
         /**
          * Constructor
          */
-        EventListenerExecutor(EventListener listener, Integer handlerQueueLength) {
+        EventListenerExecutor(EventListener listener, Integer handlerQueueLength, int numThreads, MetricRegistry registry) {
             m_listener = listener;
-            // You could also do Executors.newSingleThreadExecutor() here
-            m_delegateThread = new ThreadPoolExecutor(
-                    1,
-                    1,
-                    0L,
-                    TimeUnit.MILLISECONDS,
-                    handlerQueueLength == null ? new LinkedBlockingQueue<Runnable>() : new LinkedBlockingQueue<Runnable>(handlerQueueLength),
-                    // This ThreadFactory will ensure that the log prefix of the calling thread
-                    // is used for all events that this listener handles. Therefore, if Notifd
-                    // registers for an event then all logs for handling that event will end up
-                    // inside notifd.log.
-                    new LogPreservingThreadFactory(m_listener.getName(), 1),
-                    new RejectedExecutionHandler() {
-                        @Override
-                        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
-                            LOG.warn("Listener {}'s event queue is full, discarding event", m_listener.getName());
-                        }
+            // This ThreadFactory will ensure that the log prefix of the calling thread
+            // is used for all events that this listener handles. Therefore, if Notifd
+            // registers for an event then all logs for handling that event will end up
+            // inside notifd.log.
+            final LogPreservingThreadFactory threadFactory = new LogPreservingThreadFactory(m_listener.getName(), numThreads);
+            m_delegateThreads = new ThreadPoolExecutor[numThreads];
+            for (int i = 0; i < numThreads; i++) {
+                m_delegateThreads[i] = new ThreadPoolExecutor(
+                        1,
+                        1,
+                        0L,
+                        TimeUnit.MILLISECONDS,
+                        handlerQueueLength == null ? new LinkedBlockingQueue<Runnable>() : new LinkedBlockingQueue<Runnable>(handlerQueueLength),
+                        threadFactory
+                );
+            }
+
+            m_registry = registry;
+            m_queuedMetricName = MetricRegistry.name("eventlisteners", m_listener.getName(), "queued");
+            m_registry.remove(m_queuedMetricName);
+            m_registry.register(m_queuedMetricName, new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    int queued = 0;
+                    for (ThreadPoolExecutor delegateThread : m_delegateThreads) {
+                        queued += delegateThread.getQueue().size();
                     }
-            );
+                    return queued;
+                }
+            });
+            m_lag = m_registry.timer(MetricRegistry.name("eventlisteners", m_listener.getName(), "lag"));
+            m_dropped = m_registry.meter(MetricRegistry.name("eventlisteners", m_listener.getName(), "dropped"));
         }
 
         public CompletableFuture<Void> addEvent(final Event event) {
-            return CompletableFuture.runAsync(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        LOG.debug("run: calling onEvent on {} for event {} dbid {} with time {}", m_listener.getName(), event.getUei(), event.getDbid(), event.getTime());
-
-                        // Make sure we restore our log4j logging prefix after onEvent is called
-                        Map<String,String> mdc = Logging.getCopyOfContextMap();
+            final CompletableFuture<Void> future = new CompletableFuture<>();
+            final long queuedAt = System.nanoTime();
+            try {
+                getDelegateThread(event).execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        m_lag.update(System.nanoTime() - queuedAt, TimeUnit.NANOSECONDS);
                         try {
-                            m_listener.onEvent(event);
+                            LOG.debug("run: calling onEvent on {} for event {} dbid {} with time {}", m_listener.getName(), event.getUei(), event.getDbid(), event.getTime());
+
+                            // Make sure we restore our log4j logging prefix after onEvent is called
+                            Map<String,String> mdc = Logging.getCopyOfContextMap();
+                            try {
+                                m_listener.onEvent(event);
+                            } finally {
+                                Logging.setContextMap(mdc);
+                            }
+                        } catch (Throwable t) {
+                            LOG.warn("run: an unexpected error occured during ListenerThread {}", m_listener.getName(), t);
                         } finally {
-                            Logging.setContextMap(mdc);
+                            future.complete(null);
                         }
-                    } catch (Throwable t) {
-                        LOG.warn("run: an unexpected error occured during ListenerThread {}", m_listener.getName(), t);
                     }
-                }
-            }, m_delegateThread);
+                });
+            } catch (RejectedExecutionException e) {
+                LOG.warn("Listener {}'s event queue is full, discarding event", m_listener.getName());
+                m_dropped.mark();
+                // Don't leave synchronous broadcasts waiting
+                future.complete(null);
+            }
+            return future;
+        }
+
+        private ExecutorService getDelegateThread(Event event) {
+            if (m_delegateThreads.length == 1 || event.getNodeid() == null) {
+                return m_delegateThreads[0];
+            }
+            return m_delegateThreads[(int)Math.floorMod(event.getNodeid(), (long)m_delegateThreads.length)];
         }
 
         /**
          * Stops the execution of this listener.
          */
         public void stop() {
-            m_delegateThread.shutdown();
+            for (ThreadPoolExecutor delegateThread : m_delegateThreads) {
+                delegateThread.shutdown();
+            }
+            m_registry.remove(m_queuedMetricName);
         }
     }
 
@@ -290,14 +431,17 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             LOG.debug("Event ID {} to be broadcasted: {}", event.getDbid(), event.getUei());
         }
 
-        if (LOG.isDebugEnabled() && m_listeners.isEmpty()) {
+        // Use the same snapshot for the whole broadcast
+        final ListenerIndex index = m_index;
+
+        if (LOG.isDebugEnabled() && index.getListenersForAllEvents().isEmpty()) {
             LOG.debug("No listeners interested in all events");
         }
 
         List<CompletableFuture<Void>> listenerFutures = new ArrayList<>();
 
         // Send to listeners interested in receiving all events
-        for (EventListener listener : m_listeners) {
+        for (EventListener listener : index.getListenersForAllEvents()) {
             listenerFutures.add(queueEventToListener(event, listener));
         }
 
@@ -310,31 +454,13 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
         /*
          * Send to listeners who are interested in this event UEI.
-         * Loop to attempt partial wild card "directory" matches.
          */
-        Set<EventListener> sentToListeners = new HashSet<EventListener>();
-        for (String uei = event.getUei(); uei.length() > 0; ) {
-            if (m_ueiListeners.containsKey(uei)) {
-                for (EventListener listener : m_ueiListeners.get(uei)) {
-                    if (!sentToListeners.contains(listener)) {
-                        listenerFutures.add(queueEventToListener(event, listener));
-                        sentToListeners.add(listener);
-                    }
-                }
-            }
-            
-            // Try wild cards: Find / before last character
-            int i = uei.lastIndexOf("/", uei.length() - 2);
-            if (i > 0) {
-                // Split at "/", including the /
-                uei = uei.substring (0, i + 1);
-            } else {
-                // No more wild cards to match
-                break;
-            }
+        final List<EventListener> ueiListeners = index.getListenersForUei(event.getUei());
+        for (EventListener listener : ueiListeners) {
+            listenerFutures.add(queueEventToListener(event, listener));
         }
-        
-        if (sentToListeners.isEmpty()) {
+
+        if (ueiListeners.isEmpty()) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("No listener interested in event ID {}: {}", event.getDbid(), event.getUei());
             }
@@ -348,7 +474,12 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     }
 
     private CompletableFuture<Void> queueEventToListener(Event event, EventListener listener) {
-        return m_listenerThreads.get(listener.getName()).addEvent(event);
+        final EventListenerExecutor listenerThread = m_listenerThreads.get(listener.getName());
+        if (listenerThread == null) {
+            // The listener was removed after we took the snapshot
+            return CompletableFuture.completedFuture(null);
+        }
+        return listenerThread.addEvent(event);
     }
 
     /**
@@ -369,6 +500,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         for (String uei : m_ueiListeners.keySet()) {
             removeUeiForListener(uei, listener);
         }
+
+        publishIndex();
     }
 
     /**
@@ -398,6 +531,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
         // Since we have a UEI-specific listener, remove the match-all listener
         removeMatchAllForListener(listener);
+
+        publishIndex();
     }
 
     /**
@@ -432,6 +567,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         for (String uei : ueis) {
             removeUeiForListener(uei, listener);
         }
+
+        publishIndex();
     }
 
     /**
@@ -451,6 +588,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         Assert.notNull(uei, "uei argument cannot be null");
 
         removeUeiForListener(uei, listener);
+
+        publishIndex();
     }
 
     /**
@@ -471,6 +610,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             removeUeiForListener(uei, listener);
         }
 
+        publishIndex();
+
         // stop and remove the listener thread for this listener
         if (m_listenerThreads.containsKey(listener.getName())) {
             m_listenerThreads.get(listener.getName()).stop();
@@ -488,10 +629,24 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             return;
         }
         
-        EventListenerExecutor listenerThread = new EventListenerExecutor(listener, m_handlerQueueLength);
+        EventListenerExecutor listenerThread = new EventListenerExecutor(listener, m_handlerQueueLength, getNumListenerThreads(listener), m_registry);
         m_listenerThreads.put(listener.getName(), listenerThread);
     }
 
+    private static int getNumListenerThreads(EventListener listener) {
+        final int numThreads = Integer.getInteger(LISTENER_THREADS_PROPERTY + "." + listener.getName(),
+                Integer.getInteger(LISTENER_THREADS_PROPERTY, 1));
+        return Math.max(1, numThreads);
+    }
+
+    /**
+     * Replaces the snapshot used by broadcasts, must be called while holding the lock
+     * after the registrations are modified.
+     */
+    private void publishIndex() {
+        m_index = new ListenerIndex(m_ueiListeners, m_listeners);
+    }
+
     /**
      * Add to uei listeners.
      */
@@ -630,10 +785,6 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
     @Override
     public boolean hasEventListener(final String uei) {
-        if (this.m_ueiListeners.containsKey(uei)) {
-            return this.m_ueiListeners.get(uei).size() > 0;
-        } else {
-            return false;
-        }
+        return m_index.hasListenersForUei(uei);
     }
 }
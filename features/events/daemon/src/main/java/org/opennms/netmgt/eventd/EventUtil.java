@@ -136,4 +136,15 @@ public interface EventUtil {
 	String getNodeLocation(long nodeId) throws SQLException;
 
 	ExpandableParameterResolver getResolver(String token);
+
+	/**
+	 * Discards any node or interface details that were cached for the given node.
+	 *
+	 * Called when an event signals that the node, one of its interfaces or
+	 * its assets have changed.
+	 *
+	 * @param nodeId
+	 *            Node identifier
+	 */
+	void invalidateNode(long nodeId);
 }
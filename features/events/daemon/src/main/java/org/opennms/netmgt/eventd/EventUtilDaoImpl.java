@@ -34,6 +34,12 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -57,10 +63,44 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
+/**
+ * {@link EventUtil} backed by the DAOs.
+ *
+ * The node label, location, foreign source and id, as well as the interface
+ * aliases and host names are looked up for most of the expanded events, so they
+ * are kept in a bounded per-node cache. Entries are discarded when the node changes
+ * (see {@link #invalidateNode(long)}) and expire after a while, to pick up changes
+ * which were not announced by an event.
+ */
 public class EventUtilDaoImpl extends AbstractEventUtil {
 
+    /**
+     * Maximum number of nodes for which the details are cached. Use 0 to disable the cache.
+     */
+    public static final String NODE_CACHE_SIZE_PROPERTY = "org.opennms.eventd.nodeCacheSize";
+
+    /**
+     * Number of milliseconds after which cached node details expire.
+     */
+    public static final String NODE_CACHE_TTL_PROPERTY = "org.opennms.eventd.nodeCacheTtl";
+
+    private static final String NODE_LABEL = "nodelabel";
+
+    private static final String NODE_LOCATION = "nodelocation";
+
+    private static final String FOREIGN_SOURCE = "foreignsource";
+
+    private static final String FOREIGN_ID = "foreignid";
+
+    private static final String IF_ALIAS_PREFIX = "ifalias:";
+
+    private static final String HOST_NAME_PREFIX = "hostname:";
+
     private static final Logger LOG = LoggerFactory.getLogger(EventUtilDaoImpl.class);
 
 	@Autowired
@@ -83,47 +123,123 @@ public class EventUtilDaoImpl extends AbstractEventUtil {
 
 	private final static Map<String, PropertyDescriptor> hwEntityDescriptorsByName = getDescriptorsForStrings(OnmsHwEntity.class);
 
-    public EventUtilDaoImpl() { }
+    // Cached values by node id, keyed by the kind of value (and interface address, if any)
+    private final Cache<Long, ConcurrentMap<String, String>> nodeCache;
+
+    public EventUtilDaoImpl() {
+        this(null);
+    }
 
     public EventUtilDaoImpl(MetricRegistry registry) {
         super(registry);
+
+        final long maximumNodeCacheSize = Long.getLong(NODE_CACHE_SIZE_PROPERTY, 10000L);
+        final long nodeCacheTtl = Long.getLong(NODE_CACHE_TTL_PROPERTY, TimeUnit.MINUTES.toMillis(5));
+        if (maximumNodeCacheSize > 0) {
+            final CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder()
+                    .maximumSize(maximumNodeCacheSize)
+                    .expireAfterWrite(nodeCacheTtl, TimeUnit.MILLISECONDS);
+            if (registry != null) {
+                cacheBuilder.recordStats();
+            }
+            nodeCache = cacheBuilder.build();
+        } else {
+            nodeCache = null;
+        }
+
+        if (registry != null && nodeCache != null) {
+            registry.register(MetricRegistry.name("eventutil.nodecache.size"),
+                    new Gauge<Long>() {
+                        @Override
+                        public Long getValue() {
+                            return nodeCache.size();
+                        }
+                    });
+
+            registry.register(MetricRegistry.name("eventutil.nodecache.hitrate"),
+                    new Gauge<Double>() {
+                        @Override
+                        public Double getValue() {
+                            return nodeCache.stats().hitRate();
+                        }
+                    });
+        }
     }
 
     @Override
     public String getNodeLabel(long nodeId) {
-        return nodeDao.getLabelForId(Integer.valueOf((int)nodeId));
+        return getCached(nodeId, NODE_LABEL, () -> nodeDao.getLabelForId(Integer.valueOf((int)nodeId)));
     }
 
     @Override
     public String getNodeLocation(long nodeId) {
-        return nodeDao.getLocationForId(Integer.valueOf((int)nodeId));
+        return getCached(nodeId, NODE_LOCATION, () -> nodeDao.getLocationForId(Integer.valueOf((int)nodeId)));
     }
 
     @Override
     public String getForeignSource(long nodeId) {
-        OnmsNode node = nodeDao.get((int)nodeId);
-        if (node != null) {
-            return node.getForeignSource();
-        }
-        return null;
+        return getCached(nodeId, FOREIGN_SOURCE, () -> {
+            OnmsNode node = nodeDao.get((int)nodeId);
+            if (node != null) {
+                return node.getForeignSource();
+            }
+            return null;
+        });
     }
 
     @Override
     public String getForeignId(long nodeId) {
-        OnmsNode node = nodeDao.get((int)nodeId);
-        return node == null ? null : node.getForeignId();
+        return getCached(nodeId, FOREIGN_ID, () -> {
+            OnmsNode node = nodeDao.get((int)nodeId);
+            return node == null ? null : node.getForeignId();
+        });
     }
 
     @Override
     public String getIfAlias(long nodeId, String ipaddr) {
-        OnmsIpInterface iface = ipInterfaceDao.findByNodeIdAndIpAddress((int)nodeId, ipaddr);
-        if (iface != null && iface.getSnmpInterface() != null) {
-            return iface.getSnmpInterface().getIfAlias();
-        } else {
-            return null;
+        return getCached(nodeId, IF_ALIAS_PREFIX + ipaddr, () -> {
+            OnmsIpInterface iface = ipInterfaceDao.findByNodeIdAndIpAddress((int)nodeId, ipaddr);
+            if (iface != null && iface.getSnmpInterface() != null) {
+                return iface.getSnmpInterface().getIfAlias();
+            } else {
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void invalidateNode(long nodeId) {
+        if (nodeCache != null) {
+            LOG.debug("Discarding the cached details of node {}.", nodeId);
+            nodeCache.invalidate(nodeId);
         }
     }
 
+    /**
+     * Retrieves the value from the node cache, or uses the given loader
+     * to look it up. Missing values are not cached, since these are typically
+     * seen for nodes which are still being provisioned.
+     */
+    private String getCached(long nodeId, String key, Supplier<String> loader) {
+        if (nodeCache == null) {
+            return loader.get();
+        }
+        final ConcurrentMap<String, String> values;
+        try {
+            values = nodeCache.get(nodeId, ConcurrentHashMap::new);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+        String value = values.get(key);
+        if (value == null) {
+            value = loader.get();
+            if (value != null) {
+                values.put(key, value);
+            }
+        }
+        return value;
+    }
+
     @Override
     public String getAssetFieldValue(String parm, long nodeId) {
         final Matcher matcher = ASSET_PARM_PATTERN.matcher(parm);
@@ -207,14 +323,11 @@ public class EventUtilDaoImpl extends AbstractEventUtil {
      */
     @Override
     public String getHostName(final int nodeId, final String hostip) {
-
-        OnmsIpInterface ints = ipInterfaceDao.findByNodeIdAndIpAddress(nodeId, hostip);
-        if (ints == null) {
-            return hostip;
-        } else {
-            final String hostname = ints.getIpHostName();
-            return (hostname == null) ? hostip : hostname;
-        }
+        final String hostname = getCached(nodeId, HOST_NAME_PREFIX + Objects.toString(hostip), () -> {
+            OnmsIpInterface ints = ipInterfaceDao.findByNodeIdAndIpAddress(nodeId, hostip);
+            return ints == null ? null : ints.getIpHostName();
+        });
+        return (hostname == null) ? hostip : hostname;
     }
 
     @Override
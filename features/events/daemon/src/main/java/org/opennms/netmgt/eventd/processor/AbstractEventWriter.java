@@ -0,0 +1,323 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.opennms.netmgt.dao.util.AutoAction;
+import org.opennms.netmgt.dao.util.Correlation;
+import org.opennms.netmgt.dao.util.Forward;
+import org.opennms.netmgt.dao.util.OperatorAction;
+import org.opennms.netmgt.dao.util.SnmpInfo;
+import org.opennms.netmgt.eventd.EventUtil;
+import org.opennms.netmgt.events.api.EventDatabaseConstants;
+import org.opennms.netmgt.events.api.EventParameterUtils;
+import org.opennms.netmgt.model.OnmsDistPoller;
+import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.OnmsMonitoringSystem;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.OnmsServiceType;
+import org.opennms.netmgt.model.OnmsSeverity;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Header;
+import org.opennms.netmgt.xml.event.Log;
+import org.opennms.netmgt.xml.event.Operaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.util.Assert;
+
+/**
+ * Common base for {@link EventWriter} implementations that persist events
+ * to the <code>events</code> table. Subclasses decide how the
+ * {@link OnmsEvent} rows are stored and how the referenced nodes, services
+ * and monitoring systems are looked up.
+ */
+public abstract class AbstractEventWriter implements EventWriter {
+    private static final Logger LOG = LoggerFactory.getLogger(AbstractEventWriter.class);
+
+    public static final String LOG_MSG_DEST_DO_NOT_PERSIST = "donotpersist";
+    public static final String LOG_MSG_DEST_SUPRRESS = "suppress";
+    public static final String LOG_MSG_DEST_LOG_AND_DISPLAY = "logndisplay";
+    public static final String LOG_MSG_DEST_LOG_ONLY = "logonly";
+    public static final String LOG_MSG_DEST_DISPLAY_ONLY = "displayonly";
+
+    @Autowired
+    private EventUtil eventUtil;
+
+    /**
+     * <p>checkEventSanityAndDoWeProcess</p>
+     *
+     * @param event a {@link org.opennms.netmgt.xml.event.Event} object.
+     * @param logPrefix a {@link java.lang.String} object.
+     * @return a boolean.
+     */
+    protected static boolean checkEventSanityAndDoWeProcess(Event event, String logPrefix) {
+        Assert.notNull(event, "event argument must not be null");
+
+        /*
+         * Check value of <logmsg> attribute 'dest', if set to
+         * "donotpersist" or "suppress" then simply return, the UEI is not to be
+         * persisted to the database
+         */
+        Assert.notNull(event.getLogmsg(), "event does not have a logmsg");
+        if (
+            LOG_MSG_DEST_DO_NOT_PERSIST.equalsIgnoreCase(event.getLogmsg().getDest()) ||
+            LOG_MSG_DEST_SUPRRESS.equalsIgnoreCase(event.getLogmsg().getDest())
+        ) {
+            LOG.debug("{}: uei '{}' marked as '{}'; not processing event.", logPrefix, event.getUei(), event.getLogmsg().getDest());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the events in the given log that need to be persisted.
+     *
+     * @return an empty list if there is nothing to persist
+     */
+    protected List<Event> getEventsToPersist(Log eventLog) {
+        if (eventLog == null || eventLog.getEvents() == null) {
+            return Collections.emptyList();
+        }
+        final List<Event> eventsInLog = eventLog.getEvents().getEventCollection();
+        // This shouldn't happen, but just to be safe...
+        if (eventsInLog == null) {
+            return Collections.emptyList();
+        }
+        return eventsInLog.stream()
+            .filter(e -> checkEventSanityAndDoWeProcess(e, getClass().getSimpleName()))
+            .collect(Collectors.toList());
+    }
+
+    protected abstract OnmsNode getNode(int nodeId);
+
+    /**
+     * Resolves the event host to a hostname using the ipInterface table.
+     * The hostnames are cached by the {@link EventUtil}.
+     */
+    protected String getEventHost(Event event) {
+        return eventUtil.getEventHost(event);
+    }
+
+    protected abstract OnmsDistPoller getDistPoller(String id);
+
+    protected abstract OnmsMonitoringSystem getMonitoringSystem(String id);
+
+    protected abstract OnmsDistPoller getLocalDistPoller();
+
+    protected abstract OnmsServiceType getServiceType(String serviceName);
+
+    /**
+     * Creates OnmsEvent to be inserted afterwards.
+     * 
+     * @exception java.lang.NullPointerException
+     *                Thrown if a required resource cannot be found in the
+     *                properties file.
+     */
+    protected OnmsEvent createOnmsEvent(final Header eventHeader, final Event event) {
+
+        OnmsEvent ovent = new OnmsEvent();
+
+        // eventID
+        //ovent.setId(event.getDbid());
+
+        // eventUEI
+        ovent.setEventUei(EventDatabaseConstants.format(event.getUei(), EVENT_UEI_FIELD_SIZE));
+
+        // nodeID
+        if (event.hasNodeid()) {
+            ovent.setNode(getNode(event.getNodeid().intValue()));
+        }
+
+        // eventTime
+        ovent.setEventTime(event.getTime());
+
+        // eventHost
+        // Resolve the event host to a hostname using the ipInterface table
+        ovent.setEventHost(EventDatabaseConstants.format(getEventHost(event), EVENT_HOST_FIELD_SIZE));
+
+        // eventSource
+        ovent.setEventSource(EventDatabaseConstants.format(event.getSource(), EVENT_SOURCE_FIELD_SIZE));
+
+        // ipAddr
+        ovent.setIpAddr(event.getInterfaceAddress());
+
+        // ifindex
+        if (event.hasIfIndex()) {
+            ovent.setIfIndex(event.getIfIndex());
+        } else {
+            ovent.setIfIndex(null);
+        }
+
+        // systemId
+
+        // If available, use the header's distPoller
+        if (eventHeader != null && eventHeader.getDpName() != null && !"".equals(eventHeader.getDpName().trim())) {
+            // TODO: Should we also try a look up the value in the MinionDao and LocationMonitorDao here?
+            ovent.setDistPoller(getDistPoller(eventHeader.getDpName()));
+        }
+        // Otherwise, use the event's distPoller
+        if (ovent.getDistPoller() == null && event.getDistPoller() != null && !"".equals(event.getDistPoller().trim())) {
+            ovent.setDistPoller(getMonitoringSystem(event.getDistPoller()));
+        }
+        // And if both are unavailable, use the local system as the event's source system
+        if (ovent.getDistPoller() == null) {
+            ovent.setDistPoller(getLocalDistPoller());
+        }
+
+        // eventSnmpHost
+        ovent.setEventSnmpHost(EventDatabaseConstants.format(event.getSnmphost(), EVENT_SNMPHOST_FIELD_SIZE));
+
+        // service
+        ovent.setServiceType(getServiceType(event.getService()));
+
+        // eventSnmp
+        ovent.setEventSnmp(event.getSnmp() == null ? null : SnmpInfo.format(event.getSnmp(), EVENT_SNMP_FIELD_SIZE));
+
+        // eventParms
+        // Replace any null bytes with a space, otherwise postgres will complain about encoding in UNICODE
+        final String parametersString = EventParameterUtils.format(event);
+        ovent.setEventParms(EventDatabaseConstants.format(parametersString, 0));
+
+        // eventCreateTime
+        // TODO: We are overriding the 'eventcreatetime' field of the event with a new Date
+        // representing the storage time of the event. 'eventcreatetime' should really be
+        // renamed to something like 'eventpersisttime' since that is closer to its meaning.
+        ovent.setEventCreateTime(new Date());
+
+        // eventDescr
+        ovent.setEventDescr(EventDatabaseConstants.format(event.getDescr(), 0));
+
+        // eventLoggroup
+        ovent.setEventLogGroup(event.getLoggroupCount() > 0 ? EventDatabaseConstants.format(event.getLoggroup(), EVENT_LOGGRP_FIELD_SIZE) : null);
+
+        // eventLogMsg
+        // eventLog
+        // eventDisplay
+        if (event.getLogmsg() != null) {
+            // set log message
+            ovent.setEventLogMsg(EventDatabaseConstants.format(event.getLogmsg().getContent(), 0));
+            String logdest = event.getLogmsg().getDest();
+            if (LOG_MSG_DEST_LOG_AND_DISPLAY.equals(logdest)) {
+                // if 'logndisplay' set both log and display column to yes
+                ovent.setEventLog(String.valueOf(MSG_YES));
+                ovent.setEventDisplay(String.valueOf(MSG_YES));
+            } else if (LOG_MSG_DEST_LOG_ONLY.equals(logdest)) {
+                // if 'logonly' set log column to true
+                ovent.setEventLog(String.valueOf(MSG_YES));
+                ovent.setEventDisplay(String.valueOf(MSG_NO));
+            } else if (LOG_MSG_DEST_DISPLAY_ONLY.equals(logdest)) {
+                // if 'displayonly' set display column to true
+                ovent.setEventLog(String.valueOf(MSG_NO));
+                ovent.setEventDisplay(String.valueOf(MSG_YES));
+            } else if (LOG_MSG_DEST_SUPRRESS.equals(logdest)) {
+                // if 'suppress' set both log and display to false
+                ovent.setEventLog(String.valueOf(MSG_NO));
+                ovent.setEventDisplay(String.valueOf(MSG_NO));
+            }
+        } else {
+            ovent.setEventLogMsg(null);
+            ovent.setEventLog(String.valueOf(MSG_YES));
+            ovent.setEventDisplay(String.valueOf(MSG_YES));
+        }
+
+        // eventSeverity
+        ovent.setEventSeverity(OnmsSeverity.get(event.getSeverity()).getId());
+
+        // eventPathOutage
+        ovent.setEventPathOutage(event.getPathoutage() != null ? EventDatabaseConstants.format(event.getPathoutage(), EVENT_PATHOUTAGE_FIELD_SIZE) : null);
+
+        // eventCorrelation
+        ovent.setEventCorrelation(event.getCorrelation() != null ? Correlation.format(event.getCorrelation(), EVENT_CORRELATION_FIELD_SIZE) : null);
+
+        // eventSuppressedCount
+        ovent.setEventSuppressedCount(null);
+
+        // eventOperInstruct
+        ovent.setEventOperInstruct(EventDatabaseConstants.format(event.getOperinstruct(), 0));
+
+        // eventAutoAction
+        ovent.setEventAutoAction(event.getAutoactionCount() > 0 ? AutoAction.format(event.getAutoaction(), EVENT_AUTOACTION_FIELD_SIZE) : null);
+
+        // eventOperAction / eventOperActionMenuText
+        if (event.getOperactionCount() > 0) {
+            final List<Operaction> a = new ArrayList<Operaction>();
+            final List<String> b = new ArrayList<String>();
+
+            for (final Operaction eoa : event.getOperactionCollection()) {
+                a.add(eoa);
+                b.add(eoa.getMenutext());
+            }
+            ovent.setEventOperAction(OperatorAction.format(a, EVENT_OPERACTION_FIELD_SIZE));
+            ovent.setEventOperActionMenuText(EventDatabaseConstants.format(b, EVENT_OPERACTION_FIELD_SIZE));
+        } else {
+            ovent.setEventOperAction(null);
+            ovent.setEventOperActionMenuText(null);
+        }
+
+        // eventNotification, this column no longer needed
+        ovent.setEventNotification(null);
+
+        // eventTroubleTicket / eventTroubleTicket state
+        if (event.getTticket() != null) {
+            ovent.setEventTTicket(EventDatabaseConstants.format(event.getTticket().getContent(), EVENT_TTICKET_FIELD_SIZE));
+            ovent.setEventTTicketState("on".equals(event.getTticket().getState()) ? 1 : 0);
+        } else {
+            ovent.setEventTTicket(null);
+            ovent.setEventTTicketState(null);
+        }
+
+        // eventForward
+        ovent.setEventForward(event.getForwardCount() > 0 ? Forward.format(event.getForward(), EVENT_FORWARD_FIELD_SIZE) : null);
+
+        // eventmouseOverText
+        ovent.setEventMouseOverText(EventDatabaseConstants.format(event.getMouseovertext(), EVENT_MOUSEOVERTEXT_FIELD_SIZE));
+
+        // eventAckUser
+        if (event.getAutoacknowledge() != null && "on".equals(event.getAutoacknowledge().getState())) {
+            ovent.setEventAckUser(EventDatabaseConstants.format(event.getAutoacknowledge().getContent(), EVENT_ACKUSER_FIELD_SIZE));
+            // eventAckTime - if autoacknowledge is present,
+            // set time to event create time
+            ovent.setEventAckTime(ovent.getEventCreateTime());
+        } else {
+            ovent.setEventAckUser(null);
+            ovent.setEventAckTime(null);
+        }
+        return ovent;
+    }
+
+    public void setEventUtil(EventUtil eventUtil) {
+        this.eventUtil = eventUtil;
+    }
+}
@@ -0,0 +1,481 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.dao.api.DistPollerDao;
+import org.opennms.netmgt.dao.api.MonitoringSystemDao;
+import org.opennms.netmgt.dao.api.NodeDao;
+import org.opennms.netmgt.dao.api.ServiceTypeDao;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.events.api.EventProcessorException;
+import org.opennms.netmgt.model.OnmsDistPoller;
+import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.OnmsMonitoringSystem;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.OnmsServiceType;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Header;
+import org.opennms.netmgt.xml.event.Log;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.util.Assert;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.Timer.Context;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * An {@link EventWriter} that groups the events of concurrent calls to
+ * {@link #process(Log)} into micro-batches and stores them in the
+ * <code>events</code> table using JDBC batch inserts.
+ *
+ * A batch is flushed once it contains {@link #setBatchSize(int)} events or
+ * once the oldest log in the batch has been waiting for
+ * {@link #setBatchTimeout(long)} milliseconds. Callers block until the batch
+ * containing their events has been committed, so the database ID of every
+ * event is set before the event reaches the processors that follow this one.
+ *
+ * Nodes, services and monitoring systems are resolved through bounded
+ * caches instead of querying the DAOs for every event. Event hosts are
+ * resolved by the {@link org.opennms.netmgt.eventd.EventUtil}, which keeps
+ * its own per-node cache.
+ */
+public class JdbcEventWriter extends AbstractEventWriter implements InitializingBean, DisposableBean {
+    private static final Logger LOG = LoggerFactory.getLogger(JdbcEventWriter.class);
+
+    private static final String NEXT_EVENT_IDS_SQL = "SELECT nextval('eventsNxtId') FROM generate_series(1, ?)";
+
+    private static final String INSERT_EVENT_SQL = "INSERT INTO events ("
+            + "eventID, eventUei, nodeID, eventTime, eventHost, eventSource, ipAddr, systemId, eventSnmphost, serviceID, "
+            + "eventSnmp, eventParms, eventCreateTime, eventDescr, eventLoggroup, eventLogmsg, eventSeverity, eventPathOutage, eventCorrelation, eventSuppressedCount, "
+            + "eventOperInstruct, eventAutoAction, eventOperAction, eventOperActionMenuText, eventNotification, eventTticket, eventTticketState, eventForward, eventMouseOverText, eventLog, "
+            + "eventDisplay, ifIndex, eventAckUser, eventAckTime"
+            + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    @Autowired
+    private TransactionOperations m_transactionManager;
+
+    @Autowired
+    private JdbcTemplate m_jdbcTemplate;
+
+    @Autowired
+    private NodeDao nodeDao;
+
+    @Autowired
+    private MonitoringSystemDao monitoringSystemDao;
+
+    @Autowired
+    private DistPollerDao distPollerDao;
+
+    @Autowired
+    private ServiceTypeDao serviceTypeDao;
+
+    private int m_batchSize = Integer.getInteger("org.opennms.eventd.jdbc.batchSize", 500);
+
+    private long m_batchTimeout = Long.getLong("org.opennms.eventd.jdbc.batchTimeout", 10);
+
+    private final long m_cacheSize = Long.getLong("org.opennms.eventd.jdbc.cacheSize", 10000);
+
+    private final long m_cacheTtl = Long.getLong("org.opennms.eventd.jdbc.cacheTtl", 300);
+
+    private final BlockingQueue<PendingLog> m_queue = new LinkedBlockingQueue<>();
+
+    private final LoadingCache<Integer, Optional<Integer>> m_nodeCache;
+
+    private final LoadingCache<String, Optional<Integer>> m_serviceTypeCache;
+
+    private final LoadingCache<String, Optional<String>> m_distPollerCache;
+
+    private final LoadingCache<String, Optional<String>> m_monitoringSystemCache;
+
+    private volatile String m_localDistPollerId;
+
+    private volatile boolean m_running = false;
+
+    private Thread m_flusher;
+
+    private final Timer writeTimer;
+
+    private final Histogram batchSizeHistogram;
+
+    public JdbcEventWriter(MetricRegistry registry) {
+        writeTimer = Objects.requireNonNull(registry).timer("eventlogs.process.write");
+        batchSizeHistogram = registry.histogram("eventlogs.process.write.batchsize");
+        registry.register(MetricRegistry.name("eventlogs.process.write.queued"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return m_queue.size();
+            }
+        });
+
+        m_nodeCache = buildCache(nodeId -> Optional.ofNullable(nodeDao.get(nodeId)).map(OnmsNode::getId));
+        m_serviceTypeCache = buildCache(name -> Optional.ofNullable(serviceTypeDao.findByName(name)).map(OnmsServiceType::getId));
+        m_distPollerCache = buildCache(id -> Optional.ofNullable(distPollerDao.get(id)).map(OnmsMonitoringSystem::getId));
+        m_monitoringSystemCache = buildCache(id -> Optional.ofNullable(monitoringSystemDao.get(id)).map(OnmsMonitoringSystem::getId));
+    }
+
+    private <K,V> LoadingCache<K,V> buildCache(Function<K,V> loader) {
+        return CacheBuilder.newBuilder()
+                .maximumSize(m_cacheSize)
+                .expireAfterWrite(m_cacheTtl, TimeUnit.SECONDS)
+                .build(new CacheLoader<K,V>() {
+                    @Override
+                    public V load(K key) {
+                        // The DAOs need a session, so perform the lookups in their own (short) transaction
+                        return m_transactionManager.execute(status -> loader.apply(key));
+                    }
+                });
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        Assert.state(m_batchSize > 0, "batchSize must be > 0");
+        Assert.state(m_batchTimeout >= 0, "batchTimeout must be >= 0");
+
+        m_running = true;
+        m_flusher = new Thread(this::flushLoop, "JdbcEventWriter-Flusher");
+        m_flusher.setDaemon(true);
+        m_flusher.start();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        m_running = false;
+        if (m_flusher != null) {
+            m_flusher.join();
+            m_flusher = null;
+        }
+    }
+
+    /**
+     * Event writing is always synchronous so this method just
+     * delegates to {@link #process(Log)}.
+     */
+    @Override
+    public void process(Log eventLog, boolean synchronous) throws EventProcessorException {
+        process(eventLog);
+    }
+
+    @Override
+    public void process(Log eventLog) throws EventProcessorException {
+        final List<Event> eventsToPersist = getEventsToPersist(eventLog);
+        if (eventsToPersist.size() < 1) {
+            return;
+        }
+
+        for (Event event : eventsToPersist) {
+            // Forget the node as soon as we see it go away, rather than waiting for the entry to expire
+            if (EventConstants.NODE_DELETED_EVENT_UEI.equals(event.getUei()) && event.hasNodeid()) {
+                m_nodeCache.invalidate(event.getNodeid().intValue());
+            }
+        }
+
+        if (!m_running) {
+            throw new EventProcessorException("JdbcEventWriter is not running.");
+        }
+
+        final PendingLog pending = new PendingLog(eventLog.getHeader(), eventsToPersist);
+        m_queue.add(pending);
+        try {
+            pending.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EventProcessorException("Interrupted while waiting for events to be stored.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof EventProcessorException) {
+                throw (EventProcessorException)e.getCause();
+            }
+            throw new EventProcessorException("Unexpected exception while storing events.", e.getCause());
+        }
+    }
+
+    private void flushLoop() {
+        final List<PendingLog> batch = new ArrayList<>();
+        while (m_running || !m_queue.isEmpty()) {
+            try {
+                final PendingLog first = m_queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                int numEvents = first.events.size();
+
+                // Linger until the batch is full, or until the first log has waited long enough
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(m_batchTimeout);
+                while (numEvents < m_batchSize) {
+                    final long remaining = deadline - System.nanoTime();
+                    final PendingLog next = remaining > 0 ? m_queue.poll(remaining, TimeUnit.NANOSECONDS) : m_queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    numEvents += next.events.size();
+                }
+
+                flush(batch);
+            } catch (InterruptedException e) {
+                LOG.warn("Interrupted while waiting for events, flushing and stopping.");
+                m_running = false;
+            } catch (Throwable t) {
+                LOG.error("Unexpected exception while flushing events.", t);
+            } finally {
+                batch.forEach(p -> p.future.completeExceptionally(new EventProcessorException("Event batch was not stored.")));
+                batch.clear();
+            }
+        }
+
+        // Fail anything that was queued after we were stopped
+        PendingLog pending;
+        while ((pending = m_queue.poll()) != null) {
+            pending.future.completeExceptionally(new EventProcessorException("JdbcEventWriter is not running."));
+        }
+    }
+
+    private void flush(List<PendingLog> batch) {
+        try {
+            write(batch);
+            batch.forEach(p -> p.future.complete(null));
+            return;
+        } catch (Throwable t) {
+            if (batch.size() < 2) {
+                LOG.warn("Failed to store events.", t);
+                batch.forEach(p -> p.future.completeExceptionally(toEventProcessorException(p, t)));
+                return;
+            }
+            LOG.warn("Failed to store a batch of {} event logs, storing them one by one.", batch.size(), t);
+        }
+
+        // One bad event shouldn't fail the whole batch, so retry each log on its own
+        // with fresh lookups in case the failure was caused by a stale cache entry
+        invalidateCaches();
+        for (PendingLog pending : batch) {
+            try {
+                write(Collections.singletonList(pending));
+                pending.future.complete(null);
+            } catch (Throwable t) {
+                pending.future.completeExceptionally(toEventProcessorException(pending, t));
+            }
+        }
+    }
+
+    private void write(List<PendingLog> batch) {
+        try (Context context = writeTimer.time()) {
+            final List<OnmsEvent> ovents = new ArrayList<>();
+            final List<Event> events = new ArrayList<>();
+            for (PendingLog pending : batch) {
+                for (Event event : pending.events) {
+                    LOG.debug("JdbcEventWriter: processing {}, nodeid: {}, ipaddr: {}, serviceid: {}, time: {}", event.getUei(), event.getNodeid(), event.getInterface(), event.getService(), event.getTime());
+                    ovents.add(createOnmsEvent(pending.header, event));
+                    events.add(event);
+                }
+            }
+
+            m_transactionManager.execute(status -> {
+                final List<Integer> ids = m_jdbcTemplate.queryForList(NEXT_EVENT_IDS_SQL, Integer.class, ovents.size());
+                for (int i = 0; i < ovents.size(); i++) {
+                    ovents.get(i).setId(ids.get(i));
+                }
+                m_jdbcTemplate.batchUpdate(INSERT_EVENT_SQL, new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        bind(ps, ovents.get(i));
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return ovents.size();
+                    }
+                });
+                return null;
+            });
+            batchSizeHistogram.update(ovents.size());
+
+            // Only hand out the IDs once the rows have been committed
+            for (int i = 0; i < events.size(); i++) {
+                events.get(i).setDbid(ovents.get(i).getId());
+            }
+        }
+    }
+
+    private static void bind(PreparedStatement ps, OnmsEvent ovent) throws SQLException {
+        int k = 1;
+        ps.setInt(k++, ovent.getId());
+        ps.setString(k++, ovent.getEventUei());
+        ps.setObject(k++, ovent.getNode() == null ? null : ovent.getNode().getId(), Types.INTEGER);
+        ps.setTimestamp(k++, toTimestamp(ovent.getEventTime()));
+        ps.setString(k++, ovent.getEventHost());
+        ps.setString(k++, ovent.getEventSource());
+        ps.setString(k++, ovent.getIpAddr() == null ? null : InetAddressUtils.str(ovent.getIpAddr()));
+        ps.setString(k++, ovent.getDistPoller().getId());
+        ps.setString(k++, ovent.getEventSnmpHost());
+        ps.setObject(k++, ovent.getServiceType() == null ? null : ovent.getServiceType().getId(), Types.INTEGER);
+        ps.setString(k++, ovent.getEventSnmp());
+        ps.setString(k++, ovent.getEventParms());
+        ps.setTimestamp(k++, toTimestamp(ovent.getEventCreateTime()));
+        ps.setString(k++, ovent.getEventDescr());
+        ps.setString(k++, ovent.getEventLogGroup());
+        ps.setString(k++, ovent.getEventLogMsg());
+        ps.setObject(k++, ovent.getEventSeverity(), Types.INTEGER);
+        ps.setString(k++, ovent.getEventPathOutage());
+        ps.setString(k++, ovent.getEventCorrelation());
+        ps.setObject(k++, ovent.getEventSuppressedCount(), Types.INTEGER);
+        ps.setString(k++, ovent.getEventOperInstruct());
+        ps.setString(k++, ovent.getEventAutoAction());
+        ps.setString(k++, ovent.getEventOperAction());
+        ps.setString(k++, ovent.getEventOperActionMenuText());
+        ps.setString(k++, ovent.getEventNotification());
+        ps.setString(k++, ovent.getEventTTicket());
+        ps.setObject(k++, ovent.getEventTTicketState(), Types.INTEGER);
+        ps.setString(k++, ovent.getEventForward());
+        ps.setString(k++, ovent.getEventMouseOverText());
+        ps.setString(k++, ovent.getEventLog());
+        ps.setString(k++, ovent.getEventDisplay());
+        ps.setObject(k++, ovent.getIfIndex(), Types.INTEGER);
+        ps.setString(k++, ovent.getEventAckUser());
+        ps.setTimestamp(k++, toTimestamp(ovent.getEventAckTime()));
+    }
+
+    private static Timestamp toTimestamp(Date date) {
+        return date == null ? null : new Timestamp(date.getTime());
+    }
+
+    private static EventProcessorException toEventProcessorException(PendingLog pending, Throwable t) {
+        return new EventProcessorException("Unexpected exception while storing events: " + pending.events, t);
+    }
+
+    private void invalidateCaches() {
+        m_nodeCache.invalidateAll();
+        m_serviceTypeCache.invalidateAll();
+        m_distPollerCache.invalidateAll();
+        m_monitoringSystemCache.invalidateAll();
+        m_localDistPollerId = null;
+    }
+
+    @Override
+    protected OnmsNode getNode(int nodeId) {
+        return m_nodeCache.getUnchecked(nodeId).map(id -> {
+            final OnmsNode node = new OnmsNode();
+            node.setId(id);
+            return node;
+        }).orElse(null);
+    }
+
+    @Override
+    protected OnmsDistPoller getDistPoller(String id) {
+        return m_distPollerCache.getUnchecked(id).map(OnmsDistPoller::new).orElse(null);
+    }
+
+    @Override
+    protected OnmsMonitoringSystem getMonitoringSystem(String id) {
+        return m_monitoringSystemCache.getUnchecked(id).map(systemId -> {
+            final OnmsMonitoringSystem system = new OnmsMonitoringSystem();
+            system.setId(systemId);
+            return system;
+        }).orElse(null);
+    }
+
+    @Override
+    protected OnmsDistPoller getLocalDistPoller() {
+        if (m_localDistPollerId == null) {
+            m_localDistPollerId = m_transactionManager.execute(status -> distPollerDao.whoami().getId());
+        }
+        return new OnmsDistPoller(m_localDistPollerId);
+    }
+
+    @Override
+    protected OnmsServiceType getServiceType(String serviceName) {
+        if (serviceName == null) {
+            return null;
+        }
+        return m_serviceTypeCache.getUnchecked(serviceName).map(id -> {
+            final OnmsServiceType serviceType = new OnmsServiceType(serviceName);
+            serviceType.setId(id);
+            return serviceType;
+        }).orElse(null);
+    }
+
+    public void setBatchSize(int batchSize) {
+        m_batchSize = batchSize;
+    }
+
+    public void setBatchTimeout(long batchTimeout) {
+        m_batchTimeout = batchTimeout;
+    }
+
+    public void setTransactionManager(TransactionOperations transactionManager) {
+        m_transactionManager = transactionManager;
+    }
+
+    public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
+        m_jdbcTemplate = jdbcTemplate;
+    }
+
+    public void setDistPollerDao(DistPollerDao distPollerDao) {
+        this.distPollerDao = distPollerDao;
+    }
+
+    private static class PendingLog {
+        private final Header header;
+        private final List<Event> events;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingLog(Header header, List<Event> events) {
+            this.header = header;
+            this.events = events;
+        }
+    }}
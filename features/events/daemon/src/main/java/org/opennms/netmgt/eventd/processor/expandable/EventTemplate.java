@@ -31,8 +31,6 @@ package org.opennms.netmgt.eventd.processor.expandable;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 import org.opennms.netmgt.eventd.EventUtil;
 import org.opennms.netmgt.xml.event.Event;
@@ -47,6 +45,9 @@ import com.google.common.collect.Lists;
  *
  * For each placeholder in the {@link EventTemplate#input} a {@link ExpandableToken} is created.
  * The expandable state of the {@link EventTemplate} is the expanded state of all tokens ({@link EventTemplate#tokens}.
+ *
+ * Templates are parsed once and then expanded for every matching event, so adjacent constants are merged
+ * at parse time and the expansion itself only appends the token values to a single buffer.
  */
 public class EventTemplate implements ExpandableToken {
 
@@ -54,8 +55,6 @@ public class EventTemplate implements ExpandableToken {
 
     private static final char PERCENT = '%';
 
-    private static final Pattern WHITESPACE_PATTERN = Pattern.compile(".*\\s(?s).*");
-
     private final String input;
 
     private final List<ExpandableToken> tokens = Lists.newArrayList();
@@ -64,11 +63,15 @@ public class EventTemplate implements ExpandableToken {
 
     private final boolean requiresTransaction;
 
+    // The template value, if the template does not contain any expandable parameter
+    private final String constant;
+
     public EventTemplate(String input, EventUtil eventUtil) {
         this.input = Objects.requireNonNull(input);
         this.eventUtil = Objects.requireNonNull(eventUtil);
         parse();
         this.requiresTransaction = tokens.stream().filter(t -> t.requiresTransaction()).findAny().isPresent();
+        this.constant = getConstant();
     }
 
     /**
@@ -87,7 +90,7 @@ public class EventTemplate implements ExpandableToken {
 
             LOG.debug("checking input {}", tempInp);
             // copy till first %
-            tokens.add(new ExpandableConstant(tempInp.substring(0, index1)));
+            addConstant(tempInp.substring(0, index1));
             tempInp = tempInp.substring(index1);
 
             index2 = tempInp.indexOf(PERCENT, 1);
@@ -98,8 +101,8 @@ public class EventTemplate implements ExpandableToken {
 
                 // If there's any whitespace in between the % signs, then do not try to
                 // expand it with a parameter value
-                if (WHITESPACE_PATTERN.matcher(parm).matches()) {
-                    tokens.add(new ExpandableConstant(PERCENT));
+                if (containsWhitespace(parm)) {
+                    addConstant(String.valueOf(PERCENT));
                     tempInp = tempInp.substring(1);
                     LOG.debug("skipping parm: {} because whitespace found in value", parm);
                     continue;
@@ -117,16 +120,64 @@ public class EventTemplate implements ExpandableToken {
             }
         }
         if ((index1 == -1 || index2 == -1) && (tempInp != null)) {
-            tokens.add(new ExpandableConstant(tempInp));
+            addConstant(tempInp);
+        }
+    }
+
+    /**
+     * Adds the given constant, merging it with the previous token if that one is a constant as well.
+     */
+    private void addConstant(String value) {
+        if (value.isEmpty()) {
+            return;
+        }
+        final int last = tokens.size() - 1;
+        if (last >= 0 && tokens.get(last) instanceof ExpandableConstant) {
+            final ExpandableConstant previous = (ExpandableConstant) tokens.get(last);
+            tokens.set(last, new ExpandableConstant(previous.expand(null, null) + value));
+        } else {
+            tokens.add(new ExpandableConstant(value));
         }
     }
 
+    private String getConstant() {
+        if (tokens.isEmpty()) {
+            return "";
+        }
+        if (tokens.size() == 1 && tokens.get(0) instanceof ExpandableConstant) {
+            return tokens.get(0).expand(null, null);
+        }
+        return null;
+    }
+
+    // Matches the same characters as the \s regular expression class
+    private static boolean containsWhitespace(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            switch (value.charAt(i)) {
+                case ' ':
+                case '\t':
+                case '\n':
+                case '\u000B':
+                case '\f':
+                case '\r':
+                    return true;
+                default:
+                    break;
+            }
+        }
+        return false;
+    }
+
     @Override
     public String expand(Event event, Map<String, Map<String, String>> decode) {
-        final String collect = tokens.stream()
-                .map(t -> t.expand(event, decode))
-                .collect(Collectors.joining());
-        return collect;
+        if (constant != null) {
+            return constant;
+        }
+        final StringBuilder sb = new StringBuilder(input.length() + 16);
+        for (final ExpandableToken token : tokens) {
+            sb.append(token.expand(event, decode));
+        }
+        return sb.toString();
     }
 
     // If we find any token which requires a transaction, the template itself requires a transaction as well
@@ -69,9 +69,10 @@ public class ExpandableParameter implements ExpandableToken {
         LOG.debug("Value of token {}={}", token, value);
 
         if (value != null) {
-            if (decode != null && decode.containsKey(token) && decode.get(token).containsKey(value)) {
+            final Map<String, String> decodedValues = decode != null ? decode.get(token) : null;
+            if (decodedValues != null && decodedValues.containsKey(value)) {
                 StringBuilder ret = new StringBuilder();
-                ret.append(decode.get(token).get(value));
+                ret.append(decodedValues.get(value));
                 ret.append("(");
                 ret.append(value);
                 ret.append(")");
@@ -36,7 +36,11 @@ import static org.opennms.core.utils.InetAddressUtils.addr;
 
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -757,4 +761,104 @@ public class EventIpcManagerDefaultImplTest extends TestCase {
         // broadcastNow() returned, so the counter should have been increased
         assertEquals(1, counter.get());
     }
+
+    public void testParallelListenerPreservesOrderPerNode() throws InterruptedException {
+        final int numNodes = 8;
+        final int numEventsPerNode = 50;
+        final Map<Long, List<Integer>> sequencesByNode = new ConcurrentHashMap<>();
+        final Set<String> threadNames = ConcurrentHashMap.newKeySet();
+        final CountDownLatch latch = new CountDownLatch(numNodes * numEventsPerNode);
+
+        final EventListener parallelListener = new EventListener() {
+            @Override
+            public String getName() {
+                return "testParallelListener";
+            }
+
+            @Override
+            public void onEvent(Event event) {
+                threadNames.add(Thread.currentThread().getName());
+                sequencesByNode.computeIfAbsent(event.getNodeid(), k -> Collections.synchronizedList(new ArrayList<>()))
+                    .add(Integer.valueOf(event.getParm("seq").getValue().getContent()));
+                latch.countDown();
+            }
+        };
+
+        System.setProperty(EventIpcManagerDefaultImpl.LISTENER_THREADS_PROPERTY + ".testParallelListener", "4");
+        try {
+            EventIpcManagerDefaultImpl manager = new EventIpcManagerDefaultImpl(m_registry);
+            manager.setHandlerPoolSize(1);
+            manager.setEventHandler(new DefaultEventHandlerImpl(m_registry));
+            manager.afterPropertiesSet();
+            manager.addEventListener(parallelListener, "uei.opennms.org/foo/");
+
+            for (int i = 0; i < numEventsPerNode; i++) {
+                for (long nodeId = 1; nodeId <= numNodes; nodeId++) {
+                    EventBuilder bldr = new EventBuilder("uei.opennms.org/foo/bar", "testParallelListener");
+                    bldr.setNodeid(nodeId);
+                    bldr.addParam("seq", i);
+                    manager.broadcastNow(bldr.getEvent(), false);
+                }
+            }
+
+            assertTrue("not all events were delivered", latch.await(30, TimeUnit.SECONDS));
+            assertEquals(4, threadNames.size());
+            for (long nodeId = 1; nodeId <= numNodes; nodeId++) {
+                final List<Integer> sequence = sequencesByNode.get(nodeId);
+                assertEquals(numEventsPerNode, sequence.size());
+                for (int i = 0; i < numEventsPerNode; i++) {
+                    assertEquals("events for node " + nodeId + " were reordered", Integer.valueOf(i), sequence.get(i));
+                }
+            }
+
+            // The queue depth and lag are tracked per listener
+            assertEquals(numNodes * numEventsPerNode, m_registry.timer("eventlisteners.testParallelListener.lag").getCount());
+            assertEquals(0, m_registry.getGauges().get("eventlisteners.testParallelListener.queued").getValue());
+
+            manager.removeEventListener(parallelListener);
+            assertFalse(m_registry.getGauges().containsKey("eventlisteners.testParallelListener.queued"));
+            assertFalse(manager.hasEventListener("uei.opennms.org/foo/"));
+        } finally {
+            System.clearProperty(EventIpcManagerDefaultImpl.LISTENER_THREADS_PROPERTY + ".testParallelListener");
+        }
+    }
+
+    public void testBroadcastNowSyncDoesNotBlockOnDiscardedEvents() throws InterruptedException {
+        final CountDownLatch blocker = new CountDownLatch(1);
+        final EventListener blockedListener = new EventListener() {
+            @Override
+            public String getName() {
+                return "testBlockedListener";
+            }
+
+            @Override
+            public void onEvent(Event event) {
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+
+        EventIpcManagerDefaultImpl manager = new EventIpcManagerDefaultImpl(m_registry);
+        manager.setHandlerPoolSize(1);
+        manager.setHandlerQueueLength(1);
+        manager.setEventHandler(new DefaultEventHandlerImpl(m_registry));
+        manager.afterPropertiesSet();
+        manager.addEventListener(blockedListener);
+
+        try {
+            // Fill the listener's thread and queue
+            manager.broadcastNow(new EventBuilder("uei.opennms.org/foo", "testBlockedListener").getEvent(), false);
+            await().atMost(10, TimeUnit.SECONDS).until(() -> m_registry.getGauges().get("eventlisteners.testBlockedListener.queued").getValue(), equalTo(0));
+            manager.broadcastNow(new EventBuilder("uei.opennms.org/foo", "testBlockedListener").getEvent(), false);
+
+            // The event is discarded, and the call should return
+            manager.broadcastNow(new EventBuilder("uei.opennms.org/foo", "testBlockedListener").getEvent(), true);
+            assertEquals(1, m_registry.meter("eventlisteners.testBlockedListener.dropped").getCount());
+        } finally {
+            blocker.countDown();
+            manager.removeEventListener(blockedListener);
+        }
+    }
 }
@@ -31,16 +31,21 @@ package org.opennms.netmgt.eventd.processor;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.easymock.Capture;
+import org.easymock.CaptureType;
 import org.easymock.EasyMock;
 import org.junit.After;
 import org.junit.Test;
 import org.opennms.netmgt.config.api.EventConfDao;
 import org.opennms.netmgt.eventd.EventExpander;
 import org.opennms.netmgt.eventd.EventUtil;
+import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.model.events.EventBuilder;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.test.ThrowableAnticipator;
@@ -157,4 +162,64 @@ public class EventExpanderTest {
         assertEquals("parameter value", "Vaadin", event.getParm("i-hate").getValue().getContent());
     }
 
+    @Test
+    public void testInvalidatesNodeOnNodeChangeEvents() {
+        EventExpander expander = new EventExpander(new MetricRegistry());
+        expander.setEventConfDao(m_eventConfDao);
+        expander.setEventUtil(m_eventUtil);
+        expander.afterPropertiesSet();
+
+        Event labelChanged = new EventBuilder(EventConstants.NODE_LABEL_CHANGED_EVENT_UEI, "something").setNodeid(42).getEvent();
+        Event nodeDown = new EventBuilder(EventConstants.NODE_DOWN_EVENT_UEI, "something").setNodeid(42).getEvent();
+
+        EasyMock.expect(m_eventConfDao.findByEvent(EasyMock.anyObject())).andReturn(null).times(2);
+        EasyMock.expect(m_eventConfDao.findByUei("uei.opennms.org/default/event")).andReturn(null).times(2);
+        // Only the label change should discard the cached node details
+        m_eventUtil.invalidateNode(42);
+        EasyMock.expectLastCall().once();
+        m_mocks.replayAll();
+
+        expander.expandEvent(labelChanged);
+        expander.expandEvent(nodeDown);
+    }
+
+    @Test
+    public void testDecodesAreBuiltOncePerEventConf() {
+        String uei = "uei.opennms.org/testEventWithDecodes";
+
+        EventExpander expander = new EventExpander(new MetricRegistry());
+        expander.setEventConfDao(m_eventConfDao);
+        expander.setEventUtil(m_eventUtil);
+        expander.afterPropertiesSet();
+
+        org.opennms.netmgt.xml.eventconf.Event eventConfig = new org.opennms.netmgt.xml.eventconf.Event();
+        eventConfig.setUei(uei);
+        eventConfig.setDescr("%parm[state]%");
+        org.opennms.netmgt.xml.eventconf.Decode decode = new org.opennms.netmgt.xml.eventconf.Decode();
+        decode.setVarbindvalue("1");
+        decode.setVarbinddecodedstring("up");
+        org.opennms.netmgt.xml.eventconf.Varbindsdecode varbindsdecode = new org.opennms.netmgt.xml.eventconf.Varbindsdecode();
+        varbindsdecode.setParmid("parm[state]");
+        varbindsdecode.addDecode(decode);
+        eventConfig.addVarbindsdecode(varbindsdecode);
+
+        Map<String, Map<String, String>> expectedDecode = new HashMap<>();
+        expectedDecode.put("parm[state]", Collections.singletonMap("1", "up"));
+
+        Event event1 = new EventBuilder(uei, "something").getEvent();
+        Event event2 = new EventBuilder(uei, "something").getEvent();
+        Capture<Map<String, Map<String, String>>> decodes = EasyMock.newCapture(CaptureType.ALL);
+
+        EasyMock.expect(m_eventConfDao.findByEvent(EasyMock.anyObject())).andReturn(eventConfig).times(2);
+        EasyMock.expect(m_eventConfDao.isSecureTag(EasyMock.anyObject())).andReturn(false).anyTimes();
+        EasyMock.expect(m_eventUtil.expandParms(EasyMock.eq("%parm[state]%"), EasyMock.anyObject(), EasyMock.capture(decodes))).andReturn("up(1)").times(2);
+        m_mocks.replayAll();
+
+        expander.expandEvent(event1);
+        expander.expandEvent(event2);
+
+        assertEquals("up(1)", event1.getDescr());
+        assertEquals(expectedDecode, decodes.getValues().get(0));
+        assertSame(decodes.getValues().get(0), decodes.getValues().get(1));
+    }
 }
@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.PreparedStatement;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.opennms.netmgt.dao.api.DistPollerDao;
+import org.opennms.netmgt.eventd.EventUtil;
+import org.opennms.netmgt.events.api.EventProcessorException;
+import org.opennms.netmgt.model.OnmsDistPoller;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Log;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Sets;
+
+/**
+ * Verifies that {@link JdbcEventWriter} groups concurrent logs into
+ * batches and sets the database IDs on the events.
+ */
+public class JdbcEventWriterTest {
+
+    private JdbcEventWriter eventWriter;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionOperations transactionManager;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        transactionManager = mock(TransactionOperations.class);
+        when(transactionManager.execute(any())).thenAnswer(invocation -> ((TransactionCallback<Object>)invocation.getArguments()[0]).doInTransaction(null));
+
+        final DistPollerDao distPollerDao = mock(DistPollerDao.class);
+        when(distPollerDao.whoami()).thenReturn(new OnmsDistPoller("00000000-0000-0000-0000-000000000000"));
+
+        eventWriter = new JdbcEventWriter(new MetricRegistry());
+        eventWriter.setJdbcTemplate(jdbcTemplate);
+        eventWriter.setTransactionManager(transactionManager);
+        eventWriter.setDistPollerDao(distPollerDao);
+
+        final EventUtil eventUtil = mock(EventUtil.class);
+        when(eventUtil.getEventHost(any())).thenAnswer(invocation -> ((Event)invocation.getArguments()[0]).getHost());
+        eventWriter.setEventUtil(eventUtil);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        eventWriter.destroy();
+    }
+
+    @Test
+    public void testNothingWritten() throws EventProcessorException {
+        eventWriter.afterPropertiesSet();
+
+        eventWriter.process(null);
+        eventWriter.process(new Log());
+
+        EventBuilder bldr = new EventBuilder("testUei", "testSource");
+        bldr.setLogDest(JdbcEventWriter.LOG_MSG_DEST_DO_NOT_PERSIST);
+        eventWriter.process(bldr.getLog());
+
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), any(BatchPreparedStatementSetter.class));
+    }
+
+    @Test(timeout=30000)
+    public void testConcurrentLogsAreBatched() throws Exception {
+        when(jdbcTemplate.queryForList(anyString(), eq(Integer.class), eq(2))).thenReturn(Arrays.asList(10, 11));
+        eventWriter.setBatchSize(2);
+        eventWriter.setBatchTimeout(TimeUnit.MINUTES.toMillis(1));
+        eventWriter.afterPropertiesSet();
+
+        final Log log1 = createLog();
+        final Log log2 = createLog();
+        final CompletableFuture<Void> f1 = CompletableFuture.runAsync(() -> process(log1));
+        final CompletableFuture<Void> f2 = CompletableFuture.runAsync(() -> process(log2));
+        f1.get();
+        f2.get();
+
+        // Both logs should have been stored with a single batch
+        verify(jdbcTemplate, times(1)).batchUpdate(anyString(), any(BatchPreparedStatementSetter.class));
+        assertEquals(21, log1.getEvents().getEvent(0).getDbid() + log2.getEvents().getEvent(0).getDbid());
+    }
+
+    @Test(timeout=30000)
+    public void testFailedBatchIsRetriedPerLog() throws Exception {
+        when(jdbcTemplate.queryForList(anyString(), eq(Integer.class), eq(3))).thenReturn(Arrays.asList(1, 2, 3));
+        when(jdbcTemplate.queryForList(anyString(), eq(Integer.class), eq(1))).thenReturn(Arrays.asList(4), Arrays.asList(5), Arrays.asList(6));
+        // Reject any batch that contains the bad event
+        final PreparedStatement ps = mock(PreparedStatement.class);
+        when(jdbcTemplate.batchUpdate(anyString(), any(BatchPreparedStatementSetter.class))).thenAnswer(invocation -> {
+            final BatchPreparedStatementSetter setter = (BatchPreparedStatementSetter)invocation.getArguments()[1];
+            reset(ps);
+            for (int i = 0; i < setter.getBatchSize(); i++) {
+                setter.setValues(ps, i);
+            }
+            final ArgumentCaptor<String> ueis = ArgumentCaptor.forClass(String.class);
+            verify(ps, atLeastOnce()).setString(eq(2), ueis.capture());
+            if (ueis.getAllValues().contains("badUei")) {
+                throw new DataIntegrityViolationException("bad row");
+            }
+            return new int[setter.getBatchSize()];
+        });
+        eventWriter.setBatchSize(3);
+        eventWriter.setBatchTimeout(TimeUnit.MINUTES.toMillis(1));
+        eventWriter.afterPropertiesSet();
+
+        final Log good1 = createLog();
+        final Log bad = createLog("badUei");
+        final Log good2 = createLog();
+        final CompletableFuture<Void> f1 = CompletableFuture.runAsync(() -> process(good1));
+        final CompletableFuture<Void> f2 = CompletableFuture.runAsync(() -> process(bad));
+        final CompletableFuture<Void> f3 = CompletableFuture.runAsync(() -> process(good2));
+        f1.get();
+        f3.get();
+        try {
+            f2.get();
+            fail("Expected an EventProcessorException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getCause() instanceof EventProcessorException);
+        }
+
+        // The batch failed, and was followed by one attempt per log
+        verify(jdbcTemplate, times(4)).batchUpdate(anyString(), any(BatchPreparedStatementSetter.class));
+        assertFalse(bad.getEvents().getEvent(0).hasDbid());
+        // The other logs get the IDs of their own attempts, not the ones of the failed batch
+        final Set<Integer> dbids = Sets.newHashSet(good1.getEvents().getEvent(0).getDbid(), good2.getEvents().getEvent(0).getDbid());
+        assertEquals(2, dbids.size());
+        assertTrue(dbids.toString(), Sets.newHashSet(4, 5, 6).containsAll(dbids));
+    }
+
+    private void process(Log log) {
+        try {
+            eventWriter.process(log);
+        } catch (EventProcessorException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Log createLog() {
+        return createLog("testUei");
+    }
+
+    private static Log createLog(String uei) {
+        EventBuilder bldr = new EventBuilder(uei, "testSource");
+        bldr.setLogDest(JdbcEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY);
+        return bldr.getLog();
+    }
+}
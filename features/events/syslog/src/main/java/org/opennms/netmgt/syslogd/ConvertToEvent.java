@@ -33,38 +33,31 @@ import static org.opennms.core.utils.InetAddressUtils.str;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.Collections;
+import java.util.BitSet;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
 
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.config.SyslogdConfig;
-import org.opennms.netmgt.config.syslogd.HideMatch;
-import org.opennms.netmgt.config.syslogd.HostaddrMatch;
-import org.opennms.netmgt.config.syslogd.HostnameMatch;
 import org.opennms.netmgt.config.syslogd.ParameterAssignment;
-import org.opennms.netmgt.config.syslogd.ProcessMatch;
 import org.opennms.netmgt.config.syslogd.UeiMatch;
 import org.opennms.netmgt.dao.api.AbstractInterfaceToNodeCache;
 import org.opennms.netmgt.dao.api.InterfaceToNodeCache;
 import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.syslogd.SyslogRuleIndex.UeiRule;
 import org.opennms.netmgt.xml.event.Event;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-
 /**
  * This routine does the majority of Syslogd's work.
  * Improvements are most likely to be made.
  * 
- * TODO: This class is sloooow. It needs to be sped up significantly
- * to handle increased syslog volume.
+ * The &lt;ueiMatch&gt; and &lt;hideMatch&gt; rules are evaluated through the
+ * {@link SyslogRuleIndex} of the configuration, which only considers the rules
+ * that can possibly match the message.
  *
  * @author Seth
  * @author <a href="mailto:joed@opennms.org">Johan Edstrom</a>
@@ -83,19 +76,6 @@ public class ConvertToEvent {
 
     private final Event m_event;
 
-    private static final LoadingCache<String,Pattern> CACHED_PATTERNS = CacheBuilder.newBuilder().build(
-        new CacheLoader<String,Pattern>() {
-            public Pattern load(String expression) {
-                try {
-                    return Pattern.compile(expression, Pattern.MULTILINE);
-                } catch(final PatternSyntaxException e) {
-                    LOG.warn("Failed to compile regex pattern '{}'", expression, e);
-                    return null;
-                }
-            }
-        }
-    );
-
     /**
      * Reduce the limit of the buffer to trim trailing nulls from the value.
      * 
@@ -269,21 +249,21 @@ public class ConvertToEvent {
 
         EventBuilder bldr = toEventBuilder(message, systemId, location);
 
-        final List<UeiMatch> ueiMatch = (config.getUeiList() == null ? Collections.emptyList() : config.getUeiList());
-        for (final UeiMatch uei : ueiMatch) {
-            final boolean messageMatchesUeiListEntry = containsIgnoreCase(uei.getFacilities(), facilityTxt) &&
-                                              containsIgnoreCase(uei.getSeverities(), priorityTxt) &&
-                                              matchProcess(uei.getProcessMatch().orElse(null), message.getProcessName()) &&
-                                              matchHostname(uei.getHostnameMatch().orElse(null), message.getHostName()) &&
-                                              matchHostAddr(uei.getHostaddrMatch().orElse(null), str(message.getHostAddress()));
+        final SyslogRuleIndex ruleIndex = SyslogRuleIndex.forConfig(config);
+        final List<UeiRule> ueiRules = ruleIndex.getUeiRules();
+        final BitSet candidates = ruleIndex.getUeiCandidates(message.getMessage());
+        final String hostAddress = str(message.getHostAddress());
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            final UeiRule uei = ueiRules.get(i);
+            final boolean messageMatchesUeiListEntry = uei.matchesFilters(facilityTxt, priorityTxt, message.getProcessName(), message.getHostName(), hostAddress);
 
             if (messageMatchesUeiListEntry) {
-                if (uei.getMatch().getType().equals("substr")) {
-                    if (matchSubstring(message.getMessage(), uei, bldr, config.getDiscardUei())) {
+                if (uei.isSubstring()) {
+                    if (matchSubstring(message.getMessage(), uei.getUeiMatch(), bldr, config.getDiscardUei())) {
                         break;
                     }
-                } else if ((uei.getMatch().getType().startsWith("regex"))) {
-                    if (matchRegex(message.getMessage(), uei, bldr, config.getDiscardUei())) {
+                } else if (uei.isRegex()) {
+                    if (matchRegex(message.getMessage(), uei.getPattern(), uei.getUeiMatch(), bldr, config.getDiscardUei())) {
                         break;
                     }
                 }
@@ -291,33 +271,10 @@ public class ConvertToEvent {
         }
 
         // Time to verify if we need to hide the message
-        final List<HideMatch> hideMatch = (config.getHideMessages() == null ? Collections.emptyList() : config.getHideMessages());
         boolean doHide = false;
-        if (hideMatch.size() > 0) {
-            // Match this regex against the full string of the message
-            final String fullText = message.asRfc3164Message();
-
-            for (final HideMatch hide : hideMatch) {
-                if (hide.getMatch().getType().equals("substr")) {
-                    if (fullText.contains(hide.getMatch().getExpression())) {
-                        // We should hide the message based on this match
-                        doHide = true;
-                        break;
-                    }
-                } else if (hide.getMatch().getType().equals("regex")) {
-                    try {
-                        Pattern msgPat = getPattern(hide.getMatch().getExpression());
-                        Matcher msgMat = msgPat.matcher(fullText);
-                        if (msgMat.find()) {
-                            // We should hide the message based on this match
-                            doHide = true;
-                            break;
-                        }
-                    } catch (PatternSyntaxException pse) {
-                        LOG.warn("Failed to compile hide-match regex pattern '{}'", hide.getMatch().getExpression(), pse);
-                    }
-                }
-            }
+        if (ruleIndex.hasHideRules()) {
+            // Match against the full string of the message
+            doHide = ruleIndex.shouldHide(message.asRfc3164Message());
         }
 
         if (doHide) {
@@ -329,51 +286,6 @@ public class ConvertToEvent {
         m_event = bldr.getEvent();
     }
 
-    private static boolean matchFind(final String expression, final String input, final String context) {
-        if (input == null) {
-            return false;
-        }
-        final Pattern pat = getPattern(expression);
-        if (pat == null) {
-            LOG.debug("Unable to get pattern for expression '{}' in {} context", expression, context);
-            return false;
-        }
-        final Matcher mat = pat.matcher(input);
-        if (mat != null && mat.find()) {
-            LOG.trace("Successful regex {} for input '{}' against expression '{}'", context, input, expression);
-            return true;
-        } else {
-           return false;
-        }
-    }
-
-    private static boolean matchHostAddr(final HostaddrMatch hostaddrMatch, final String hostAddress) {
-        if (hostaddrMatch == null) return true;
-        return matchFind(hostaddrMatch.getExpression(), hostAddress, "hostaddr-match");
-    }
-
-    private static boolean matchHostname(final HostnameMatch hostnameMatch, final String hostName) {
-        if (hostnameMatch == null) return true;
-        return matchFind(hostnameMatch.getExpression(), hostName, "hostname-match");
-    }
-
-    private static boolean matchProcess(final ProcessMatch processMatch, final String processName) {
-        if (processMatch == null) return true;
-        return matchFind(processMatch.getExpression(), processName, "process-match");
-    }
-
-    private static boolean containsIgnoreCase(List<String> collection, String match) {
-         if (collection.size() == 0) return true;
-         for (String string : collection) {
-             if (string.equalsIgnoreCase(match)) return true;
-         }
-         return false;
-    }
-
-    private static Pattern getPattern(final String expression) {
-        return CACHED_PATTERNS.getUnchecked(expression);
-    }
-
     /**
      * Checks the message for substring matches to a {@link UeiMatch}. If the message
      * matches, then the UEI is updated (or the event is discarded if the discard
@@ -410,16 +322,16 @@ public class ConvertToEvent {
      * UEI is used) and parameters are added to the event.
      * 
      * @param message
+     * @param msgPat
      * @param uei
      * @param bldr
      * @param discardUei
      * @return
      * @throws MessageDiscardedException
      */
-    private static boolean matchRegex(final String message, final UeiMatch uei, final EventBuilder bldr, final String discardUei) throws MessageDiscardedException {
+    private static boolean matchRegex(final String message, final Pattern msgPat, final UeiMatch uei, final EventBuilder bldr, final String discardUei) throws MessageDiscardedException {
         final boolean traceEnabled = LOG.isTraceEnabled();
         final String expression = uei.getMatch().getExpression();
-        final Pattern msgPat = getPattern(expression);
         if (msgPat == null) {
             LOG.debug("Unable to create pattern for expression '{}'", expression);
             return false;
@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Finds all occurrences of a fixed set of keywords in a single pass over the
+ * input, using the Aho-Corasick algorithm.
+ *
+ * Every keyword is associated with an id, and {@link #find(CharSequence, BitSet)} sets
+ * the ids of all the keywords contained in the input. Several keywords may share an id.
+ * Instances are immutable once built, and can be shared between threads.
+ */
+class KeywordMatcher {
+
+    // Transitions of every state, with the keys sorted for binary search
+    private final char[][] m_keys;
+    private final int[][] m_targets;
+
+    // State to fall back to when there is no transition for the next character
+    private final int[] m_fail;
+
+    // Keyword ids ending in every state
+    private final int[][] m_outputs;
+
+    // Closest state on the fail chain with outputs, or 0 if there is none
+    private final int[] m_dictionary;
+
+    private KeywordMatcher(Builder builder) {
+        final int numStates = builder.m_transitions.size();
+        m_keys = new char[numStates][];
+        m_targets = new int[numStates][];
+        m_fail = new int[numStates];
+        m_outputs = new int[numStates][];
+        m_dictionary = new int[numStates];
+
+        for (int state = 0; state < numStates; state++) {
+            final Map<Character, Integer> transitions = builder.m_transitions.get(state);
+            m_keys[state] = new char[transitions.size()];
+            m_targets[state] = new int[transitions.size()];
+            int k = 0;
+            for (Map.Entry<Character, Integer> transition : transitions.entrySet()) {
+                m_keys[state][k] = transition.getKey();
+                m_targets[state][k] = transition.getValue();
+                k++;
+            }
+            final List<Integer> outputs = builder.m_outputs.get(state);
+            m_outputs[state] = outputs.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        // Compute the fail and dictionary links in breadth first order
+        final Queue<Integer> queue = new ArrayDeque<>();
+        for (int target : m_targets[0]) {
+            queue.add(target);
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.remove();
+            for (int k = 0; k < m_keys[state].length; k++) {
+                final char c = m_keys[state][k];
+                final int target = m_targets[state][k];
+
+                int fail = m_fail[state];
+                while (fail != 0 && next(fail, c) < 0) {
+                    fail = m_fail[fail];
+                }
+                final int failTarget = next(fail, c);
+                m_fail[target] = failTarget >= 0 && failTarget != target ? failTarget : 0;
+                m_dictionary[target] = m_outputs[m_fail[target]].length > 0 ? m_fail[target] : m_dictionary[m_fail[target]];
+                queue.add(target);
+            }
+        }
+    }
+
+    private int next(int state, char c) {
+        final char[] keys = m_keys[state];
+        int low = 0;
+        int high = keys.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (keys[mid] < c) {
+                low = mid + 1;
+            } else if (keys[mid] > c) {
+                high = mid - 1;
+            } else {
+                return m_targets[state][mid];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Sets the ids of all the keywords found in the input.
+     *
+     * @param input the text to scan
+     * @param ids the set to which the ids are added
+     */
+    public void find(CharSequence input, BitSet ids) {
+        int state = 0;
+        for (int i = 0; i < input.length(); i++) {
+            final char c = input.charAt(i);
+            int target;
+            while ((target = next(state, c)) < 0 && state != 0) {
+                state = m_fail[state];
+            }
+            state = target < 0 ? 0 : target;
+
+            for (int output = m_outputs[state].length > 0 ? state : m_dictionary[state]; output != 0; output = m_dictionary[output]) {
+                for (int id : m_outputs[output]) {
+                    ids.set(id);
+                }
+            }
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private final List<Map<Character, Integer>> m_transitions = new ArrayList<>();
+        private final List<List<Integer>> m_outputs = new ArrayList<>();
+
+        private Builder() {
+            addState();
+        }
+
+        private int addState() {
+            m_transitions.add(new TreeMap<>());
+            m_outputs.add(new ArrayList<>(1));
+            return m_transitions.size() - 1;
+        }
+
+        /**
+         * Adds a keyword. Empty keywords are ignored.
+         */
+        public Builder add(String keyword, int id) {
+            if (keyword.isEmpty()) {
+                return this;
+            }
+            int state = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                final Integer target = m_transitions.get(state).get(keyword.charAt(i));
+                if (target != null) {
+                    state = target;
+                } else {
+                    final int newState = addState();
+                    m_transitions.get(state).put(keyword.charAt(i), newState);
+                    state = newState;
+                }
+            }
+            m_outputs.get(state).add(id);
+            return this;
+        }
+
+        public KeywordMatcher build() {
+            return new KeywordMatcher(this);
+        }
+    }
+}
@@ -37,7 +37,6 @@ import java.util.EmptyStackException;
 import java.util.List;
 import java.util.Objects;
 import java.util.Stack;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
@@ -65,48 +64,54 @@ public class ParserStageSequenceBuilder {
 
 	/**
 	 * The state of an individual {@link ParserStage} operation.
+	 * 
+	 * Accumulated characters are not copied as they are read: since each
+	 * stage only accumulates a contiguous run of characters starting at
+	 * the position where the stage began, the value is tracked as a slice
+	 * of the buffer and only converted when a consumer needs it.
 	 */
 	private static class ParserStageState {
 		public final ByteBuffer buffer;
 
-		private StringBuffer accumulatedValue = null;
-		private AtomicInteger accumulatedSize = null;
+		private final int start;
+		private int accumulatedSize = 0;
 
 		// Only used by MatchMonth
 		public RadixTreeNode<CharacterWithValue> currentNode = null; 
 
 		public ParserStageState(ByteBuffer input) {
 			buffer = input;
+			start = input.position();
 		}
 
 		public void accumulate(char c) {
-			accessAccumulatedValue().append(c);
-			accessAccumulatedSize().incrementAndGet();
+			accumulatedSize++;
 		}
 
 		public int getAccumulatedSize() {
-			return accessAccumulatedSize().get();
+			return accumulatedSize;
 		}
 
-		private final StringBuffer accessAccumulatedValue() {
-			if (accumulatedValue == null) {
-				accumulatedValue = new StringBuffer();
-			}
-			return accumulatedValue;
+		public char accumulatedCharAt(int index) {
+			return (char)buffer.get(start + index);
 		}
 
-		private final AtomicInteger accessAccumulatedSize() {
-			if (accumulatedSize == null) {
-				accumulatedSize = new AtomicInteger();
+		public String getAccumulatedValue() {
+			if (accumulatedSize == 0) {
+				return null;
 			}
-			return accumulatedSize;
+			final char[] chars = new char[accumulatedSize];
+			for (int i = 0; i < accumulatedSize; i++) {
+				chars[i] = accumulatedCharAt(i);
+			}
+			return new String(chars);
 		}
 
 		@Override
 		public String toString() {
 			return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
-				.append("accumulatedValue", accumulatedValue == null ? "null" : accumulatedValue.toString())
-				.append("accumulatedSize", accumulatedSize == null ? 0 : accumulatedSize.get())
+				.append("accumulatedValue", accumulatedSize == 0 ? "null" : getAccumulatedValue())
+				.append("accumulatedSize", accumulatedSize)
 				.toString();
 		}
 	}
@@ -263,16 +268,20 @@ public class ParserStageSequenceBuilder {
 			if (incomingState == null) {
 				return null;
 			} else {
-				LOG.trace("Starting stage: " + this);
+				LOG.trace("Starting stage: {}", this);
 			}
 
-			ParserState state = incomingState.clone();
+			// Only stages that emit a value modify the message so the
+			// others can share the incoming message instead of cloning it
+			final ParserState state = m_resultConsumer == null ? incomingState : incomingState.clone();
 
 			// Create a new state for the current ParserStage.
 			// Use ByteBuffer.duplicate() to create a buffer with marks
-			// and positions that only this stage will use.
-//			ParserStageState stageState = new ParserStageState(state.getBuffer().duplicate()); 
-			ParserStageState stageState = new ParserStageState(state.getBuffer()); 
+			// and positions that only this stage will use. This matters
+			// even when the message is shared: sibling branches of the
+			// radix tree are all applied to the same incoming state and
+			// must each start reading at its position.
+			ParserStageState stageState = new ParserStageState(state.getBuffer().duplicate());
 
 			while(true) {
 				stageState.buffer.mark();
@@ -303,7 +312,7 @@ public class ParserStageSequenceBuilder {
 						return new ParserState(stageState.buffer, state.message);
 					} else {
 						// Reached end of buffer, match failed
-						LOG.trace("Parse failed due to buffer underflow: " + this);
+						LOG.trace("Parse failed due to buffer underflow: {}", this);
 						return null;
 					}
 				}
@@ -342,7 +351,7 @@ public class ParserStageSequenceBuilder {
 							return new ParserState(stageState.buffer, state.message);
 						} else {
 							// Match failed
-							LOG.trace("Parse failed: " + this);
+							LOG.trace("Parse failed: {}", this);
 							return null;
 						}
 				}
@@ -353,6 +362,14 @@ public class ParserStageSequenceBuilder {
 			// Do nothing by default
 		}
 
+		/**
+		 * Same test as {@link String#trim()}, without creating a {@link String}
+		 * for every character.
+		 */
+		protected static boolean isWhitespace(char c) {
+			return c <= ' ';
+		}
+
 		protected static void accumulate(ParserStageState state, char c) {
 			state.accumulate(c);
 		}
@@ -362,12 +379,38 @@ public class ParserStageSequenceBuilder {
 		}
 
 		protected static String getAccumulatedValue(ParserStageState state) {
-			StringBuffer accumulatedValue = state.accumulatedValue;
-			if (accumulatedValue == null) {
+			return state.getAccumulatedValue();
+		}
+
+		/**
+		 * Convert the accumulated characters into an integer without creating
+		 * an intermediate {@link String}.
+		 * 
+		 * @return The value with leading zeros ignored, or null if the
+		 * characters are not a short run of decimal digits
+		 */
+		protected static Integer getAccumulatedDigits(ParserStageState state) {
+			final int size = state.getAccumulatedSize();
+			if (size == 0) {
 				return null;
-			} else {
-				return accumulatedValue.toString();
 			}
+			int i = 0;
+			while (i < size && state.accumulatedCharAt(i) == '0') {
+				i++;
+			}
+			// Leave anything that could overflow to the string conversion
+			if (size - i > 9) {
+				return null;
+			}
+			int value = 0;
+			for (; i < size; i++) {
+				final char c = state.accumulatedCharAt(i);
+				if (c < '0' || c > '9') {
+					return null;
+				}
+				value = value * 10 + (c - '0');
+			}
+			return value;
 		}
 
 		protected R getValue(ParserStageState state) {
@@ -381,8 +424,7 @@ public class ParserStageSequenceBuilder {
 	static class MatchWhitespace extends AbstractParserStage<Void> {
 		@Override
 		public AcceptResult acceptChar(ParserStageState state, char c) {
-			// TODO: Make this more efficient
-			if ("".equals(String.valueOf(c).trim())) {
+			if (isWhitespace(c)) {
 				return AcceptResult.CONTINUE;
 			} else {
 				return AcceptResult.COMPLETE_WITHOUT_CONSUMING;
@@ -672,8 +714,7 @@ public class ParserStageSequenceBuilder {
 					return AcceptResult.COMPLETE_WITHOUT_CONSUMING;
 				}
 			}
-			// TODO: Make this more efficient?
-			if (m_endOnwhitespace && "".equals(String.valueOf(c).trim())) {
+			if (m_endOnwhitespace && isWhitespace(c)) {
 				return AcceptResult.COMPLETE_WITHOUT_CONSUMING;
 			}
 			accumulate(state, c);
@@ -735,6 +776,11 @@ public class ParserStageSequenceBuilder {
 
 		@Override
 		public Integer getValue(ParserStageState state) {
+			final Integer digits = getAccumulatedDigits(state);
+			if (digits != null) {
+				return digits;
+			}
+
 			// Trim the leading zeros from this value
 			String value = getAccumulatedValue(state);
 			boolean trimmed = false;
@@ -785,7 +831,8 @@ public class ParserStageSequenceBuilder {
 
 		@Override
 		public Integer getValue(ParserStageState state) {
-			return trimAndConvert(getAccumulatedValue(state));
+			final Integer digits = getAccumulatedDigits(state);
+			return digits != null ? digits : trimAndConvert(getAccumulatedValue(state));
 		}
 
 		/**
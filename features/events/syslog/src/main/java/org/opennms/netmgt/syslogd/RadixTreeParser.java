@@ -30,9 +30,13 @@ package org.opennms.netmgt.syslogd;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 import org.opennms.core.collections.RadixTree;
@@ -41,30 +45,27 @@ import org.opennms.core.collections.RadixTreeNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
 /**
  * <p>This class uses a {@link RadixTree} to store a tree of parser stages.
  * Each leaf node of the tree represents a complete parse of an incoming
- * message. To parse incoming {@link ByteBuffer} messages, the {@link RadixTree}
- * is traversed and each stage is added as a future processing step. When a leaf node 
- * is reached and returns a non-null result, ie. a complete parse, that result is 
- * returned as the parse result.</p>
+ * message. To parse incoming {@link ByteBuffer} messages, the tree is traversed
+ * depth-first and the first leaf node that returns a non-null result, ie. a 
+ * complete parse, is returned as the parse result. Branches are only evaluated
+ * when all of the branches before them have failed, so the rest of the tree is 
+ * never evaluated once a complete parse has been found.</p>
  * 
  * <p>You can teach the parser new {@link ParserStage} sequences by using the 
  * {@link #teach(ParserStage[])} method. This will add the stages to the {@link RadixTree}.</p>
  * 
- * <p>TODO: Make the parser tree construction phased or asynchronous so that tree 
- * nodes are added as-needed to complete the parse. In many cases, the first
- * several branches of the tree will result in a complete parse, making it unnecessary
- * to add all possible branches to the execution tree.</p>
- * 
- * <p>TODO: Allow cancellation of in-progress branches when the first non-null result
- * is obtained.</p>
- * 
- * <p>TODO: Score and sort parse branches based on successful parses. If a particular parse
- * branch is successful, we should have a way to increment a score on the stages in
- * that branch so that we can periodically sort the tree based on these scores. This 
- * will put heavily utilized parse branches near the front of the tree, making it faster
- * to traverse the branches to a successful parse.</p>
+ * <p>Every branch keeps a count of the successful parses that went through it.
+ * If a reorder interval is set with {@link #setReorderInterval(int)}, the siblings
+ * of every branch are periodically sorted by this score so that heavily utilized
+ * parse branches are tried first. Note that this changes which branch wins when 
+ * more than one of them can parse a message, so it should only be enabled when 
+ * the patterns do not overlap or when that trade-off is acceptable.</p>
  * 
  * @author Seth
  */
@@ -74,27 +75,17 @@ public class RadixTreeParser implements ByteBufferParser<SyslogMessage> {
 
 	final RadixTree<ParserStage> tree = new RadixTreeImpl<>();
 
-//	private static final ThreadPoolExecutor m_executor = new ThreadPoolExecutor(
-//		1,
-//		1,
-//		0L, TimeUnit.MILLISECONDS,
-//		new SynchronousQueue<>(true),
-//		new ThreadFactory() {
-//			final AtomicInteger index = new AtomicInteger();
-//			@Override
-//			public Thread newThread(Runnable r) {
-//				return new Thread(r, RadixTreeParser.class.getSimpleName() + "-Thread-" + String.valueOf(index.incrementAndGet()));
-//			}
-//		},
-//		// Throttle incoming tasks by running them on the caller thread
-//		new ThreadPoolExecutor.CallerRunsPolicy()
-//	);
-
-//	private static final ExecutorService m_executor = Executors.newSingleThreadExecutor();
+	/**
+	 * Scored copy of {@link #tree} that is used for parsing. It is built
+	 * on the first parse after the tree has been changed.
+	 */
+	private volatile Branch m_root = null;
 
-//	private final ExecutorService m_executor = new ExecutorFactoryCassandraSEPImpl().newExecutor("StagedParser", "StageExecutor");
+	private volatile int m_reorderInterval = 0;
 
-//	private final ExecutorService m_executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2);
+	private final AtomicLong m_parses = new AtomicLong();
+	private final LongAdder m_matches = new LongAdder();
+	private final AtomicLong m_reorders = new AtomicLong();
 
 	/**
 	 * @return The number of nodes in the underlying radix tree.
@@ -108,14 +99,29 @@ public class RadixTreeParser implements ByteBufferParser<SyslogMessage> {
 	 * 
 	 * @param stages
 	 */
-	public void teach(ParserStage[] stages) {
+	public synchronized void teach(ParserStage[] stages) {
 		tree.addChildren(stages);
+		m_root = null;
 	}
 
-	public void performEdgeCompression() {
+	public synchronized void performEdgeCompression() {
 		for (RadixTreeNode<ParserStage> child : tree.getChildren()) {
 			compressNode(child);
 		}
+		m_root = null;
+	}
+
+	/**
+	 * Sort the branches of the tree by their number of successful parses
+	 * after every {@code interval} parses. Set to 0 (the default) to always
+	 * evaluate the branches in the order that they were taught.
+	 */
+	public void setReorderInterval(int interval) {
+		m_reorderInterval = interval;
+	}
+
+	public int getReorderInterval() {
+		return m_reorderInterval;
 	}
 
 	public static void compressNode(RadixTreeNode<ParserStage> node) {
@@ -180,94 +186,173 @@ public class RadixTreeParser implements ByteBufferParser<SyslogMessage> {
 		}
 	}
 
+	/**
+	 * A node of the tree along with the number of successful parses that
+	 * went through it. The children are replaced as a whole when they are
+	 * reordered so that concurrent parses always see a consistent array.
+	 */
+	private static class Branch {
+		private final ParserStage m_stage;
+		private final int m_order;
+		private final LongAdder m_hits = new LongAdder();
+		private volatile Branch[] m_children;
+
+		private Branch(RadixTreeNode<ParserStage> node, int order) {
+			m_stage = node.getContent();
+			m_order = order;
+			final List<Branch> children = new ArrayList<>();
+			if (node.getChildren() != null) {
+				for (RadixTreeNode<ParserStage> child : node.getChildren()) {
+					children.add(new Branch(child, children.size()));
+				}
+			}
+			m_children = children.toArray(new Branch[children.size()]);
+		}
+	}
+
+	private static final Comparator<Branch> BY_SCORE = Comparator.<Branch>comparingLong(b -> b.m_hits.sum()).reversed().thenComparingInt(b -> b.m_order);
+
+	private Branch getRoot() {
+		Branch root = m_root;
+		if (root == null) {
+			synchronized(this) {
+				root = m_root;
+				if (root == null) {
+					root = new Branch(tree, 0);
+					m_root = root;
+				}
+			}
+		}
+		return root;
+	}
+
 	@Override
 	public CompletableFuture<SyslogMessage> parse(ByteBuffer incoming) {
-		ParserState state = new ParserState(incoming);
+		final Branch root = getRoot();
 
-		// TODO: Use better collection than ArrayList?
-		// We have to make sure that this list maintains the insertion order
-		// so that the first future that completes is definitely returned by
-		// {@link RadixTreeParser#firstNonNullResult()}
-		final List<CompletableFuture<ParserState>> finishedFutures = new ArrayList<>();
-
-		// Top of future tree is parser state
-		final CompletableFuture<ParserState> parent = CompletableFuture.completedFuture(state);
+		final ParserState result = parse(root, new ParserState(incoming));
+		if (result != null) {
+			m_matches.increment();
+		}
 
-		// Recursively construct the parser tree
-		addStageFutures(finishedFutures, parent, tree);
+		final long parses = m_parses.incrementAndGet();
+		final int interval = m_reorderInterval;
+		if (interval > 0 && parses % interval == 0) {
+			reorder(root);
+			m_reorders.incrementAndGet();
+		}
 
-		return firstNonNullResult(finishedFutures).thenApply(s -> {
-			if (s == null) {
-				return null;
-			} else {
-				return s.message;
-			}
-		});
+		return CompletableFuture.completedFuture(result == null ? null : result.message);
 	}
 
 	/**
-	 * TODO: Use a visitor pattern instead?
+	 * Apply the stage of the branch and then try each of its children in
+	 * turn, stopping at the first child that returns a complete parse.
+	 * 
+	 * @return The state of the first complete parse or null if no leaf
+	 * below this branch could parse the message
 	 */
-	private static void addStageFutures(List<CompletableFuture<ParserState>> finishedFutures, CompletableFuture<ParserState> parent, RadixTreeNode<ParserStage> node) {
-		final CompletableFuture<ParserState> current;
+	private static ParserState parse(Branch branch, ParserState state) {
+		ParserState current = state;
+		// The root of the radix tree has no content
+		if (branch.m_stage != null) {
+			try {
+				current = branch.m_stage.apply(state);
+			} catch (RuntimeException e) {
+				// Consumers can throw on unexpected values, treat that as a failed parse
+				LOG.trace("Stage threw an exception, cancelling branch: {}", branch.m_stage, e);
+				return null;
+			}
+			if (current == null) {
+				return null;
+			}
+		}
 
-		// If we're at the root of the radix tree (where the content is null), 
-		// use the parent future as the current future
-		if (node.getContent() == null) {
-			current = parent;
-		} else {
-			// Otherwise, apply the current node's stage to the parent
-			current = parent.thenApply(s -> { return node.getContent().apply(s); });
+		final Branch[] children = branch.m_children;
+		if (children.length == 0) {
+			branch.m_hits.increment();
+			return current;
 		}
 
-		// If the node has children, then recursively process the children. Do not
-		// add the current node to the finished futures list: we're only concerned
-		// with seeing if the leaf nodes complete, not the intermediate stages
-		if (node.getChildren() != null && node.getChildren().size() > 0) {
-			for (RadixTreeNode<ParserStage> child : node.getChildren()) {
-				addStageFutures(finishedFutures, current, child);
+		for (Branch child : children) {
+			final ParserState result = parse(child, current);
+			if (result != null) {
+				branch.m_hits.increment();
+				return result;
 			}
-		} else {
-			// If the node is a leaf node, then add it to the list of futures
-			// that need to be evaluated as part of the parse tree
-			finishedFutures.add(current);
 		}
+		return null;
+	}
+
+	private static void reorder(Branch branch) {
+		final Branch[] children = branch.m_children;
+		if (children.length == 0) {
+			return;
+		}
+		for (Branch child : children) {
+			reorder(child);
+		}
+		final Branch[] sorted = Arrays.copyOf(children, children.length);
+		Arrays.sort(sorted, BY_SCORE);
+		branch.m_children = sorted;
+	}
+
+	/**
+	 * @return The number of messages that have been parsed.
+	 */
+	public long getParseCount() {
+		return m_parses.get();
+	}
+
+	/**
+	 * @return The number of messages that were completely parsed by a branch.
+	 */
+	public long getMatchCount() {
+		return m_matches.sum();
+	}
+
+	/**
+	 * @return The number of times that the branches have been reordered.
+	 */
+	public long getReorderCount() {
+		return m_reorders.get();
+	}
+
+	/**
+	 * @return A description of every complete parse branch along with its number
+	 * of successful parses, in the order that the branches are currently evaluated.
+	 */
+	public List<String> getBranchStatistics() {
+		final List<String> retval = new ArrayList<>();
+		addBranchStatistics(retval, getRoot(), new ArrayList<>());
+		return Collections.unmodifiableList(retval);
 	}
 
-	private static <T> CompletableFuture<T> firstNonNullResult(List<? extends CompletionStage<T>> futures) {
-
-		CompletableFuture<T> parent = new CompletableFuture<>();
-
-		CompletableFuture.allOf(
-			futures.stream().map(
-				s -> s.thenAccept(t -> {
-//					System.out.println("VALUE " + t);
-					// After each stage completes, if its result is non-null
-					// then complete the parent future
-					if (t != null) {
-						if (!parent.complete(t)) {
-							LOG.trace("More than one future completed with a non-null result");
-						} else {
-							LOG.trace("Non-null result returned");
-						}
-					}
-				})
-			).toArray(
-				CompletableFuture<?>[]::new
-			)
-		).exceptionally(ex -> {
-			// If all futures complete exceptionally, mark this future as exceptional as well
-//			parent.completeExceptionally(ex);
-			parent.complete(null);
-			return null;
-		}).thenAccept(v -> {
-			// If the parent isn't complete yet, then all children returned null so just
-			// complete with null
-			if (parent.complete(null)) {
-				LOG.debug("All futures completed with a null result");
+	private static void addBranchStatistics(List<String> statistics, Branch branch, List<ParserStage> path) {
+		if (branch.m_stage != null) {
+			path.add(branch.m_stage);
+		}
+		final Branch[] children = branch.m_children;
+		if (children.length == 0) {
+			statistics.add(String.format("%d %s", branch.m_hits.sum(), path));
+		} else {
+			for (Branch child : children) {
+				addBranchStatistics(statistics, child, path);
 			}
-		});
+		}
+		if (branch.m_stage != null) {
+			path.remove(path.size() - 1);
+		}
+	}
 
-		return parent;
+	/**
+	 * Expose the parser statistics as gauges so that they can be
+	 * reported over JMX.
+	 */
+	public void registerMetrics(MetricRegistry registry, String name) {
+		registry.register(MetricRegistry.name(name, "parses"), (Gauge<Long>)this::getParseCount);
+		registry.register(MetricRegistry.name(name, "matches"), (Gauge<Long>)this::getMatchCount);
+		registry.register(MetricRegistry.name(name, "reorders"), (Gauge<Long>)this::getReorderCount);
+		registry.register(MetricRegistry.name(name, "branches"), (Gauge<List<String>>)this::getBranchStatistics);
 	}
 }
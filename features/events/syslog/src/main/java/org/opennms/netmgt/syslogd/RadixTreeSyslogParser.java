@@ -44,11 +44,17 @@ import org.opennms.netmgt.config.SyslogdConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.MetricRegistry;
+
 /**
  * This parser reads a set of grok patterns that are stored in the 
  * <i>grok-patterns.txt</i> classpath resource and uses the patterns to
  * construct a syslog message parser.
  * 
+ * The parse branches can be periodically sorted by their number of successful
+ * parses by setting the <code>org.opennms.netmgt.syslogd.RadixTreeSyslogParser.reorderInterval</code>
+ * system property to the number of messages between each sort.
+ * 
  * @author Seth
  */
 public class RadixTreeSyslogParser extends SyslogParser {
@@ -57,9 +63,13 @@ public class RadixTreeSyslogParser extends SyslogParser {
 
 	private static final Pattern STRUCTURED_DATA = Pattern.compile("^(?:\\[.*?\\])*(?: \uFEFF?(.*?))?$");
 
+	private static final String REORDER_INTERVAL_PROPERTY = "org.opennms.netmgt.syslogd.RadixTreeSyslogParser.reorderInterval";
+
 	private static RadixTreeParser radixParser = new RadixTreeParser();
 
 	static {
+		radixParser.setReorderInterval(Integer.getInteger(REORDER_INTERVAL_PROPERTY, 0));
+
 		try {
 			File configFile = ConfigFileConstants.getFile(ConfigFileConstants.SYSLOGD_GROK_PATTERNS_FILE_NAME);
 			if (configFile.exists() && configFile.isFile()) {
@@ -103,6 +113,13 @@ public class RadixTreeSyslogParser extends SyslogParser {
 		});
 	}
 
+	/**
+	 * Register the statistics of the shared parser tree with the given registry.
+	 */
+	public static void registerMetrics(MetricRegistry registry) {
+		radixParser.registerMetrics(registry, "parser.radixtree");
+	}
+
 	public RadixTreeSyslogParser(SyslogdConfig config, ByteBuffer syslogString) {
 		super(config, syslogString);
 	}
@@ -151,7 +151,7 @@ public class SyslogReceiverCamelNettyImpl extends SinkDispatchingSyslogReceiver
                             exchange.getIn().setBody(connection, SyslogConnection.class);
                         }
                     })
-                    .to("bean:dispatcher?method=send");
+                    .to("bean:dispatcher?method=sendAndForget");
                 }
             });
             m_camel.start();
@@ -219,7 +219,7 @@ public class SyslogReceiverJavaNetImpl extends SinkDispatchingSyslogReceiver {
                 packetSizeHistogram.update(length);
 
                 final SyslogConnection connection = new SyslogConnection(pkt, true);
-                m_dispatcher.send(connection);
+                m_dispatcher.sendAndForget(connection);
 
                 ioInterrupted = false; // reset the flag
             } catch (SocketTimeoutException e) {
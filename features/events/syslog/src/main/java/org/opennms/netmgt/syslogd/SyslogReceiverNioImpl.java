@@ -0,0 +1,333 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.opennms.core.logging.Logging;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.syslogd.api.SyslogConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Syslog receiver that reads from one or more {@link DatagramChannel}s in
+ * blocking mode, using one reader thread per channel.
+ *
+ * When the JVM supports SO_REUSEPORT, a separate socket is bound to the syslog
+ * port for every reader thread, and the kernel spreads the incoming datagrams
+ * across these sockets. Otherwise, all of the threads read from a single socket.
+ *
+ * Each thread receives into its own direct buffer, which is reused for every
+ * datagram, and only copies the received bytes before handing them over to the
+ * dispatcher.
+ *
+ * The number of received datagrams, the number of datagrams that could not be
+ * dispatched, and the number of datagrams dropped by the kernel (on Linux) are
+ * tracked for every socket.
+ */
+public class SyslogReceiverNioImpl extends SinkDispatchingSyslogReceiver {
+    private static final Logger LOG = LoggerFactory.getLogger(SyslogReceiverNioImpl.class);
+
+    /**
+     * Datagrams can't be larger than this.
+     */
+    private static final int MAX_DATAGRAM_SIZE = 0xffff;
+
+    private static final SocketOption<Boolean> SO_REUSEPORT = getReusePortOption();
+
+    private final SyslogdConfig m_config;
+
+    private final List<DatagramChannel> m_channels = new ArrayList<>();
+
+    private final List<Thread> m_threads = new ArrayList<>();
+
+    private MetricRegistry m_metrics = new MetricRegistry();
+
+    private int m_numThreads = Runtime.getRuntime().availableProcessors();
+
+    private volatile boolean m_stop = false;
+
+    public SyslogReceiverNioImpl(final SyslogdConfig config) {
+        super(config);
+        m_config = config;
+    }
+
+    @Override
+    public String getName() {
+        String listenAddress = m_config.getListenAddress() == null? "0.0.0.0" : m_config.getListenAddress();
+        return getClass().getSimpleName() + " [" + listenAddress + ":" + m_config.getSyslogPort() + "]";
+    }
+
+    /**
+     * Opens the sockets and starts the reader threads.
+     *
+     * The calling thread is used to read from the first socket, and
+     * this method only returns once the receiver was stopped.
+     */
+    @Override
+    public void run() {
+        // Setup logging and create the dispatcher
+        super.run();
+
+        if (m_stop) {
+            LOG.debug("Stop flag set before thread started, exiting");
+            return;
+        }
+
+        final boolean reusePort = m_numThreads > 1 && SO_REUSEPORT != null;
+        if (m_numThreads > 1 && !reusePort) {
+            LOG.info("SO_REUSEPORT is not supported by this JVM, all {} threads will read from the same socket.", m_numThreads);
+        }
+
+        final List<Reader> readers = new ArrayList<>(m_numThreads);
+        synchronized (m_channels) {
+            if (m_stop) {
+                return;
+            }
+            try {
+                final Set<Long> inodes = new HashSet<>();
+                DatagramChannel channel = null;
+                for (int i = 0; i < m_numThreads; i++) {
+                    if (channel == null || reusePort) {
+                        channel = openChannel(reusePort);
+                        m_channels.add(channel);
+                        // The socket that was just bound is the one that was not listed before
+                        final int port = ((InetSocketAddress)channel.getLocalAddress()).getPort();
+                        final Set<Long> boundInodes = UdpSocketStatistics.getDropsByInode(port).keySet();
+                        boundInodes.removeAll(inodes);
+                        final Long inode = boundInodes.size() == 1 ? boundInodes.iterator().next() : null;
+                        if (inode != null) {
+                            inodes.add(inode);
+                        }
+                        registerKernelDrops(m_channels.size() - 1, port, inode);
+                    }
+                    readers.add(new Reader(i, m_channels.size() - 1, channel));
+                }
+            } catch (IOException e) {
+                LOG.error("Failed to open the syslog socket(s) on {}.", getName(), e);
+                closeChannels();
+                return;
+            }
+
+            for (Reader reader : readers.subList(1, readers.size())) {
+                final Thread thread = new Thread(reader, "Syslogd-NIO-Receiver-" + reader.m_index);
+                thread.setDaemon(true);
+                m_threads.add(thread);
+                thread.start();
+            }
+        }
+
+        readers.get(0).run();
+    }
+
+    private DatagramChannel openChannel(boolean reusePort) throws IOException {
+        final DatagramChannel channel = DatagramChannel.open();
+        // Set SO_REUSEADDR so that we don't run into problems in
+        // unit tests trying to rebind to an address where other tests
+        // also bound. This shouldn't have any effect at runtime.
+        channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        if (reusePort) {
+            channel.setOption(SO_REUSEPORT, true);
+        }
+
+        // Increase the receive buffer for the socket
+        try {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, Integer.MAX_VALUE);
+            LOG.debug("Actual receive buffer size is {}", channel.getOption(StandardSocketOptions.SO_RCVBUF));
+        } catch (IOException e) {
+            LOG.info("Failed to set the receive buffer to {}", Integer.MAX_VALUE, e);
+        }
+
+        if (m_config.getListenAddress() != null) {
+            channel.bind(new InetSocketAddress(InetAddressUtils.addr(m_config.getListenAddress()), m_config.getSyslogPort()));
+        } else {
+            channel.bind(new InetSocketAddress(m_config.getSyslogPort()));
+        }
+        channel.configureBlocking(true);
+        return channel;
+    }
+
+    private void registerKernelDrops(int socketIndex, int port, Long inode) {
+        if (inode == null) {
+            return;
+        }
+        m_metrics.register(MetricRegistry.name(getClass(), "socket" + socketIndex, "kernelDrops"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                final Map<Long, Long> drops = UdpSocketStatistics.getDropsByInode(port);
+                return drops.getOrDefault(inode, 0L);
+            }
+        });
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        m_stop = true;
+
+        final List<Thread> threads;
+        synchronized (m_channels) {
+            closeChannels();
+            threads = new ArrayList<>(m_threads);
+            m_threads.clear();
+        }
+
+        for (Thread thread : threads) {
+            LOG.debug("Stopping and joining thread {}", thread.getName());
+            thread.interrupt();
+            thread.join();
+        }
+        LOG.debug("Reader threads stopped and joined");
+
+        super.stop();
+    }
+
+    private void closeChannels() {
+        for (DatagramChannel channel : m_channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.warn("Failed to close the syslog socket.", e);
+            }
+        }
+        m_channels.clear();
+    }
+
+    /**
+     * Number of threads used to read from the socket(s).
+     */
+    public void setNumThreads(int numThreads) {
+        m_numThreads = numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getNumThreads() {
+        return m_numThreads;
+    }
+
+    public void setMetricRegistry(MetricRegistry metrics) {
+        m_metrics = metrics;
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return m_metrics;
+    }
+
+    private static SocketOption<Boolean> getReusePortOption() {
+        // StandardSocketOptions.SO_REUSEPORT is only available on Java 9 and above
+        try {
+            @SuppressWarnings("unchecked")
+            final SocketOption<Boolean> option = (SocketOption<Boolean>)StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+            try (DatagramChannel channel = DatagramChannel.open()) {
+                return channel.supportedOptions().contains(option) ? option : null;
+            }
+        } catch (NoSuchFieldException|IllegalAccessException|IOException e) {
+            return null;
+        }
+    }
+
+    private class Reader implements Runnable {
+        private final int m_index;
+        private final DatagramChannel m_channel;
+        private final Meter m_received;
+        private final Counter m_dropped;
+        private final Histogram m_packetSize;
+
+        private Reader(int index, int socketIndex, DatagramChannel channel) {
+            m_index = index;
+            m_channel = channel;
+            // Threads that share a socket also share its metrics
+            m_received = m_metrics.meter(MetricRegistry.name(SyslogReceiverNioImpl.class, "socket" + socketIndex, "received"));
+            m_dropped = m_metrics.counter(MetricRegistry.name(SyslogReceiverNioImpl.class, "socket" + socketIndex, "dropped"));
+            m_packetSize = m_metrics.histogram(MetricRegistry.name(SyslogReceiverNioImpl.class, "packetSize"));
+        }
+
+        @Override
+        public void run() {
+            Logging.putPrefix(Syslogd.LOG4J_CATEGORY);
+            LOG.debug("Reader {} started", m_index);
+
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+            while (!m_stop) {
+                final SocketAddress source;
+                try {
+                    buffer.clear();
+                    source = m_channel.receive(buffer);
+                } catch (ClosedChannelException e) {
+                    // Thrown when the channel is closed while we're blocked, or if we were interrupted
+                    break;
+                } catch (IOException e) {
+                    if (m_stop) {
+                        LOG.debug("Shutting down the datagram receipt port: {}", e.getMessage());
+                    } else {
+                        LOG.error("An I/O exception occured on the datagram receipt port, exiting", e);
+                    }
+                    break;
+                }
+                if (source == null) {
+                    continue;
+                }
+                buffer.flip();
+                m_received.mark();
+                m_packetSize.update(buffer.remaining());
+
+                // The dispatcher holds on to the message, so it gets its own copy of the payload
+                final ByteBuffer payload = ByteBuffer.allocate(buffer.remaining());
+                payload.put(buffer);
+                payload.flip();
+
+                try {
+                    m_dispatcher.sendAndForget(new SyslogConnection((InetSocketAddress)source, payload));
+                } catch (RuntimeException e) {
+                    m_dropped.inc();
+                    LOG.warn("Failed to dispatch the syslog message from {}.", source, e);
+                }
+            }
+            LOG.debug("Reader {} exiting", m_index);
+        }
+    }
+}
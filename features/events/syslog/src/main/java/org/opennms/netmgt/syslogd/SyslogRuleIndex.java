@@ -0,0 +1,567 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.config.syslogd.HideMatch;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * The &lt;ueiMatch&gt; and &lt;hideMatch&gt; rules of the syslogd configuration,
+ * compiled once when the configuration is loaded.
+ *
+ * A literal string that must be contained in every matching message is derived
+ * from each rule: the expression itself for substring rules, and the longest
+ * literal run outside of any group, class or alternation for regular expressions.
+ * All of these literals are fed to a {@link KeywordMatcher}, so a single scan of
+ * the message finds the rules that can possibly match it. Only these candidates,
+ * and the rules for which no literal could be derived, are then evaluated in
+ * configuration order.
+ */
+public class SyslogRuleIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SyslogRuleIndex.class);
+
+    /**
+     * The last index built for each configuration, weakly keyed by identity.
+     */
+    private static final Cache<SyslogdConfig, SyslogRuleIndex> s_indexes = CacheBuilder.newBuilder().weakKeys().build();
+
+    private final List<UeiMatch> m_ueiSource;
+    private final Object[] m_ueiSnapshot;
+    private final List<HideMatch> m_hideSource;
+    private final Object[] m_hideSnapshot;
+
+    private final List<UeiRule> m_ueiRules;
+    private final BitSet m_ueiAlwaysCandidates = new BitSet();
+    private final KeywordMatcher m_ueiMatcher;
+
+    private final List<HideRule> m_hideRules;
+    private final BitSet m_hideAlwaysCandidates = new BitSet();
+    private final KeywordMatcher m_hideMatcher;
+
+    public SyslogRuleIndex(List<UeiMatch> ueiMatches, List<HideMatch> hideMatches) {
+        m_ueiSource = ueiMatches == null ? Collections.emptyList() : ueiMatches;
+        m_ueiSnapshot = m_ueiSource.toArray();
+        m_hideSource = hideMatches == null ? Collections.emptyList() : hideMatches;
+        m_hideSnapshot = m_hideSource.toArray();
+
+        final KeywordMatcher.Builder ueiMatcher = KeywordMatcher.builder();
+        m_ueiRules = new ArrayList<>(m_ueiSnapshot.length);
+        for (final UeiMatch ueiMatch : m_ueiSource) {
+            final UeiRule rule = new UeiRule(m_ueiRules.size(), ueiMatch);
+            if (rule.m_neverMatches) {
+                // Never a candidate
+            } else if (rule.m_literal != null) {
+                ueiMatcher.add(rule.m_literal, rule.m_index);
+            } else {
+                m_ueiAlwaysCandidates.set(rule.m_index);
+            }
+            m_ueiRules.add(rule);
+        }
+        m_ueiMatcher = ueiMatcher.build();
+
+        final KeywordMatcher.Builder hideMatcher = KeywordMatcher.builder();
+        m_hideRules = new ArrayList<>(m_hideSnapshot.length);
+        for (final HideMatch hideMatch : m_hideSource) {
+            final HideRule rule = new HideRule(m_hideRules.size(), hideMatch);
+            if (rule.m_neverMatches) {
+                // Never a candidate
+            } else if (rule.m_literal != null) {
+                hideMatcher.add(rule.m_literal, rule.m_index);
+            } else {
+                m_hideAlwaysCandidates.set(rule.m_index);
+            }
+            m_hideRules.add(rule);
+        }
+        m_hideMatcher = hideMatcher.build();
+
+        LOG.debug("Compiled {} uei-match rules ({} without literals) and {} hide-match rules ({} without literals).",
+                m_ueiRules.size(), m_ueiAlwaysCandidates.cardinality(), m_hideRules.size(), m_hideAlwaysCandidates.cardinality());
+    }
+
+    /**
+     * Returns the index for the rules of the given configuration. The index is reused
+     * for as long as the configuration returns the same lists, holding the same rules.
+     * The rules themselves are not expected to be modified once they are loaded.
+     */
+    public static SyslogRuleIndex forConfig(SyslogdConfig config) {
+        final List<UeiMatch> ueiMatches = config.getUeiList();
+        final List<HideMatch> hideMatches = config.getHideMessages();
+        SyslogRuleIndex index = s_indexes.getIfPresent(config);
+        if (index == null || !index.isBuiltFrom(ueiMatches, hideMatches)) {
+            index = new SyslogRuleIndex(ueiMatches, hideMatches);
+            s_indexes.put(config, index);
+        }
+        return index;
+    }
+
+    private boolean isBuiltFrom(List<UeiMatch> ueiMatches, List<HideMatch> hideMatches) {
+        final List<UeiMatch> ueiSource = ueiMatches == null ? Collections.emptyList() : ueiMatches;
+        final List<HideMatch> hideSource = hideMatches == null ? Collections.emptyList() : hideMatches;
+        return m_ueiSource == ueiSource && holdsSameRules(m_ueiSnapshot, ueiSource)
+                && m_hideSource == hideSource && holdsSameRules(m_hideSnapshot, hideSource);
+    }
+
+    private static boolean holdsSameRules(Object[] snapshot, List<?> rules) {
+        if (snapshot.length != rules.size()) {
+            return false;
+        }
+        for (int i = 0; i < snapshot.length; i++) {
+            if (snapshot[i] != rules.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public List<UeiRule> getUeiRules() {
+        return Collections.unmodifiableList(m_ueiRules);
+    }
+
+    /**
+     * Returns the indexes of the {@link UeiRule}s whose expression can match the given message.
+     */
+    public BitSet getUeiCandidates(String message) {
+        final BitSet candidates = (BitSet)m_ueiAlwaysCandidates.clone();
+        if (message != null) {
+            m_ueiMatcher.find(message, candidates);
+        }
+        return candidates;
+    }
+
+    /**
+     * Returns true if the message should be hidden, given its full text.
+     */
+    public boolean shouldHide(String fullText) {
+        if (m_hideRules.isEmpty()) {
+            return false;
+        }
+        final BitSet candidates = (BitSet)m_hideAlwaysCandidates.clone();
+        m_hideMatcher.find(fullText, candidates);
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            if (m_hideRules.get(i).matches(fullText)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean hasHideRules() {
+        return !m_hideRules.isEmpty();
+    }
+
+    public static class UeiRule {
+        private final int m_index;
+        private final UeiMatch m_ueiMatch;
+        private final boolean m_substring;
+        private final boolean m_regex;
+        private final Pattern m_pattern;
+        private final Pattern m_processPattern;
+        private final Pattern m_hostnamePattern;
+        private final Pattern m_hostaddrPattern;
+        private final String m_literal;
+        private final boolean m_neverMatches;
+
+        private UeiRule(int index, UeiMatch ueiMatch) {
+            m_index = index;
+            m_ueiMatch = Objects.requireNonNull(ueiMatch);
+            final String type = ueiMatch.getMatch().getType();
+            final String expression = ueiMatch.getMatch().getExpression();
+            m_substring = "substr".equals(type);
+            m_regex = !m_substring && type.startsWith("regex");
+            m_pattern = m_regex ? compile(expression) : null;
+            m_processPattern = ueiMatch.getProcessMatch().map(m -> compile(m.getExpression())).orElse(null);
+            m_hostnamePattern = ueiMatch.getHostnameMatch().map(m -> compile(m.getExpression())).orElse(null);
+            m_hostaddrPattern = ueiMatch.getHostaddrMatch().map(m -> compile(m.getExpression())).orElse(null);
+            // Rules with an unknown type or an invalid expression never match
+            m_neverMatches = !m_substring && m_pattern == null;
+            if (m_substring) {
+                m_literal = expression.isEmpty() ? null : expression;
+            } else if (m_pattern != null) {
+                m_literal = getRequiredLiteral(expression);
+            } else {
+                m_literal = null;
+            }
+        }
+
+        public int getIndex() {
+            return m_index;
+        }
+
+        public UeiMatch getUeiMatch() {
+            return m_ueiMatch;
+        }
+
+        public boolean isSubstring() {
+            return m_substring;
+        }
+
+        public boolean isRegex() {
+            return m_regex;
+        }
+
+        /**
+         * The compiled expression of a regex rule, or null if the expression is invalid.
+         */
+        public Pattern getPattern() {
+            return m_pattern;
+        }
+
+        /**
+         * Returns true if the message attributes match the filters of this rule.
+         * The message text itself is not considered.
+         */
+        public boolean matchesFilters(String facility, String severity, String processName, String hostName, String hostAddress) {
+            return containsIgnoreCase(m_ueiMatch.getFacilities(), facility)
+                    && containsIgnoreCase(m_ueiMatch.getSeverities(), severity)
+                    && matchFind(m_ueiMatch.getProcessMatch().isPresent(), m_processPattern, processName)
+                    && matchFind(m_ueiMatch.getHostnameMatch().isPresent(), m_hostnamePattern, hostName)
+                    && matchFind(m_ueiMatch.getHostaddrMatch().isPresent(), m_hostaddrPattern, hostAddress);
+        }
+    }
+
+    private static class HideRule {
+        private final int m_index;
+        private final String m_expression;
+        private final boolean m_substring;
+        private final Pattern m_pattern;
+        private final String m_literal;
+        private final boolean m_neverMatches;
+
+        private HideRule(int index, HideMatch hideMatch) {
+            m_index = index;
+            final String type = hideMatch.getMatch().getType();
+            m_expression = hideMatch.getMatch().getExpression();
+            m_substring = "substr".equals(type);
+            m_pattern = "regex".equals(type) ? compile(m_expression) : null;
+            m_neverMatches = !m_substring && m_pattern == null;
+            if (m_substring) {
+                m_literal = m_expression.isEmpty() ? null : m_expression;
+            } else if (m_pattern != null) {
+                m_literal = getRequiredLiteral(m_expression);
+            } else {
+                m_literal = null;
+            }
+        }
+
+        private boolean matches(String fullText) {
+            if (m_substring) {
+                return fullText.contains(m_expression);
+            }
+            return m_pattern != null && m_pattern.matcher(fullText).find();
+        }
+    }
+
+    private static Pattern compile(String expression) {
+        try {
+            return Pattern.compile(expression, Pattern.MULTILINE);
+        } catch (final PatternSyntaxException e) {
+            LOG.warn("Failed to compile regex pattern '{}'", expression, e);
+            return null;
+        }
+    }
+
+    private static boolean matchFind(boolean present, Pattern pattern, String input) {
+        if (!present) {
+            return true;
+        }
+        return pattern != null && input != null && pattern.matcher(input).find();
+    }
+
+    private static boolean containsIgnoreCase(List<String> collection, String match) {
+        if (collection.size() == 0) return true;
+        for (String string : collection) {
+            if (string.equalsIgnoreCase(match)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the longest literal that must be contained in any input matched by the
+     * given regular expression, or null if none can be derived.
+     *
+     * Only the characters outside of groups and character classes are considered, and
+     * expressions using alternation, quoting or inline flags are not analyzed at all.
+     */
+    protected static String getRequiredLiteral(String regex) {
+        if (regex.contains("\\Q") || hasInlineFlags(regex)) {
+            return null;
+        }
+
+        String longest = "";
+        final StringBuilder run = new StringBuilder();
+        int i = 0;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            switch (c) {
+                case '\\': {
+                    if (i + 1 >= regex.length()) {
+                        return null;
+                    }
+                    final char escaped = regex.charAt(i + 1);
+                    if (Character.isLetterOrDigit(escaped)) {
+                        // Character classes, anchors, back references and control characters
+                        longest = longest(longest, run);
+                        run.setLength(0);
+                        i = skipEscape(regex, i);
+                        if (i < 0) {
+                            return null;
+                        }
+                    } else {
+                        run.append(escaped);
+                        i += 2;
+                    }
+                    break;
+                }
+                case '(': {
+                    longest = longest(longest, run);
+                    run.setLength(0);
+                    i = skipGroup(regex, i);
+                    if (i < 0) {
+                        return null;
+                    }
+                    break;
+                }
+                case '[': {
+                    longest = longest(longest, run);
+                    run.setLength(0);
+                    i = skipClass(regex, i);
+                    if (i < 0) {
+                        return null;
+                    }
+                    break;
+                }
+                case '*':
+                case '?':
+                case '{': {
+                    // The previous character may not be present at all
+                    if (run.length() > 0) {
+                        run.setLength(run.length() - 1);
+                    }
+                    longest = longest(longest, run);
+                    run.setLength(0);
+                    i = skipQuantifier(regex, i);
+                    if (i < 0) {
+                        return null;
+                    }
+                    break;
+                }
+                case '+': {
+                    // The previous character is present at least once
+                    longest = longest(longest, run);
+                    run.setLength(0);
+                    i = skipQuantifier(regex, i);
+                    break;
+                }
+                case '|':
+                    return null;
+                case '.':
+                case '^':
+                case '$':
+                case ')':
+                case ']':
+                case '}':
+                    longest = longest(longest, run);
+                    run.setLength(0);
+                    i++;
+                    break;
+                default:
+                    run.append(c);
+                    i++;
+                    break;
+            }
+        }
+        longest = longest(longest, run);
+        return longest.isEmpty() ? null : longest;
+    }
+
+    private static String longest(String longest, CharSequence run) {
+        return run.length() > longest.length() ? run.toString() : longest;
+    }
+
+    private static boolean hasInlineFlags(String regex) {
+        int i = regex.indexOf("(?");
+        while (i >= 0) {
+            if (i + 2 < regex.length() && "idmsuxU-".indexOf(regex.charAt(i + 2)) >= 0) {
+                return true;
+            }
+            i = regex.indexOf("(?", i + 2);
+        }
+        return false;
+    }
+
+    /**
+     * Returns the index following the escape sequence of a letter or digit at the
+     * given index, including the hexadecimal, octal and Unicode code points, the
+     * control character, the named back references and the property classes, or
+     * -1 if it is malformed.
+     */
+    private static int skipEscape(String regex, int i) {
+        final char escaped = regex.charAt(i + 1);
+        i += 2;
+        switch (escaped) {
+            case 'x':
+                if (i < regex.length() && regex.charAt(i) == '{') {
+                    return skipPast(regex, i, '}');
+                }
+                i += 2;
+                break;
+            case 'u':
+                i += 4;
+                break;
+            case 'c':
+                i += 1;
+                break;
+            case 'k':
+                return skipPast(regex, i, '>');
+            case 'p':
+            case 'P':
+            case 'N':
+                if (i < regex.length() && regex.charAt(i) == '{') {
+                    return skipPast(regex, i, '}');
+                }
+                i += 1;
+                break;
+            case '0':
+                for (int n = 0; n < 3 && i < regex.length() && regex.charAt(i) >= '0' && regex.charAt(i) <= '7'; n++) {
+                    i++;
+                }
+                break;
+            default:
+                // Back references may be followed by more digits
+                if (escaped >= '1' && escaped <= '9') {
+                    while (i < regex.length() && Character.isDigit(regex.charAt(i))) {
+                        i++;
+                    }
+                }
+                break;
+        }
+        return i <= regex.length() ? i : -1;
+    }
+
+    /**
+     * Returns the index following the first occurrence of the given character, or -1 if there is none.
+     */
+    private static int skipPast(String regex, int i, char c) {
+        i = regex.indexOf(c, i);
+        return i < 0 ? -1 : i + 1;
+    }
+
+    /**
+     * Returns the index following the quantifier at the given index, including
+     * any trailing lazy or possessive modifier, or -1 if it is malformed.
+     */
+    private static int skipQuantifier(String regex, int i) {
+        if (regex.charAt(i) == '{') {
+            i = regex.indexOf('}', i);
+            if (i < 0) {
+                return -1;
+            }
+        }
+        i++;
+        if (i < regex.length() && (regex.charAt(i) == '?' || regex.charAt(i) == '+')) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the index following the group that starts at the given index, or -1 if it is not closed.
+     */
+    private static int skipGroup(String regex, int i) {
+        int depth = 0;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+                if (i < 0) {
+                    return -1;
+                }
+                continue;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index following the character class that starts at the given index, or -1 if it is not closed.
+     */
+    private static int skipClass(String regex, int i) {
+        int depth = 0;
+        i++;
+        // A closing bracket right after the opening one (or its negation) is a literal
+        if (i < regex.length() && regex.charAt(i) == '^') {
+            i++;
+        }
+        if (i < regex.length() && regex.charAt(i) == ']') {
+            i++;
+        }
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                if (depth == 0) {
+                    return i + 1;
+                }
+                depth--;
+            }
+            i++;
+        }
+        return -1;
+    }
+}
@@ -32,12 +32,14 @@ import java.util.Objects;
 
 import org.opennms.core.ipc.sink.api.AggregationPolicy;
 import org.opennms.core.ipc.sink.api.AsyncPolicy;
+import org.opennms.core.ipc.sink.api.MessageCodec;
 import org.opennms.core.ipc.sink.xml.AbstractXmlSinkModule;
 import org.opennms.netmgt.config.SyslogdConfig;
 import org.opennms.netmgt.dao.api.DistPollerDao;
 import org.opennms.netmgt.syslogd.api.SyslogConnection;
 import org.opennms.netmgt.syslogd.api.SyslogMessageDTO;
 import org.opennms.netmgt.syslogd.api.SyslogMessageLogDTO;
+import org.opennms.netmgt.syslogd.api.SyslogMessageLogDTOCodec;
 
 public class SyslogSinkModule extends AbstractXmlSinkModule<SyslogConnection, SyslogMessageLogDTO> {
 
@@ -62,6 +64,11 @@ public class SyslogSinkModule extends AbstractXmlSinkModule<SyslogConnection, Sy
         return config.getNumThreads();
     }
 
+    @Override
+    public MessageCodec<SyslogMessageLogDTO> getBinaryCodec() {
+        return SyslogMessageLogDTOCodec.INSTANCE;
+    }
+
     @Override
     public AggregationPolicy<SyslogConnection, SyslogMessageLogDTO> getAggregationPolicy() {
         final String systemId = distPollerDao.whoami().getId();
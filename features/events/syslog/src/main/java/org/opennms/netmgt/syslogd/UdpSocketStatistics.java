@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the per-socket UDP counters maintained by the Linux kernel in
+ * <code>/proc/net/udp</code> and <code>/proc/net/udp6</code>.
+ *
+ * The sockets are identified by their inode, and the counters are
+ * empty on platforms that do not expose these files.
+ */
+class UdpSocketStatistics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UdpSocketStatistics.class);
+
+    private static final Path[] PROC_NET_UDP = new Path[] {
+            Paths.get("/proc", "net", "udp"),
+            Paths.get("/proc", "net", "udp6")
+    };
+
+    private static final int LOCAL_ADDRESS_FIELD = 1;
+
+    private static final int INODE_FIELD = 9;
+
+    private static final int DROPS_FIELD = 12;
+
+    /**
+     * Returns the number of datagrams dropped by the kernel, i.e. because the
+     * receive buffer was full, for all of the sockets bound to the given port.
+     *
+     * @param port local UDP port
+     * @return the drop counters keyed by socket inode
+     */
+    public static Map<Long, Long> getDropsByInode(int port) {
+        final Map<Long, Long> drops = new LinkedHashMap<>();
+        for (Path path : PROC_NET_UDP) {
+            if (!Files.isReadable(path)) {
+                continue;
+            }
+            try {
+                drops.putAll(parse(Files.readAllLines(path, StandardCharsets.US_ASCII), port));
+            } catch (IOException e) {
+                LOG.debug("Failed to read the UDP socket statistics from {}.", path, e);
+            }
+        }
+        return drops;
+    }
+
+    protected static Map<Long, Long> parse(List<String> lines, int port) {
+        final Map<Long, Long> drops = new LinkedHashMap<>();
+        // The first line contains the column headers
+        for (int i = 1; i < lines.size(); i++) {
+            final String[] fields = lines.get(i).trim().split("\\s+");
+            if (fields.length <= DROPS_FIELD) {
+                continue;
+            }
+            final String localAddress = fields[LOCAL_ADDRESS_FIELD];
+            final int portIndex = localAddress.lastIndexOf(':');
+            try {
+                if (portIndex < 0 || Integer.parseInt(localAddress.substring(portIndex + 1), 16) != port) {
+                    continue;
+                }
+                drops.put(Long.parseLong(fields[INODE_FIELD]), Long.parseLong(fields[DROPS_FIELD]));
+            } catch (NumberFormatException e) {
+                LOG.debug("Skipping unparseable UDP socket statistics line: {}", lines.get(i));
+            }
+        }
+        return drops;
+    }
+}
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.syslogd.api;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+
+import org.opennms.core.ipc.sink.api.BinaryMessageReader;
+import org.opennms.core.ipc.sink.api.BinaryMessageWriter;
+import org.opennms.core.ipc.sink.api.MessageCodec;
+
+/**
+ * Binary codec for {@link SyslogMessageLogDTO}s.
+ *
+ * The raw syslog messages are copied as-is, instead of being Base64 encoded
+ * like they are in the XML format. Decoded messages share the byte array
+ * of the received buffer.
+ *
+ * Field numbers must never be re-used. New fields can be added at any time,
+ * since readers skip the fields they don't know about.
+ */
+public class SyslogMessageLogDTOCodec implements MessageCodec<SyslogMessageLogDTO> {
+
+    public static final SyslogMessageLogDTOCodec INSTANCE = new SyslogMessageLogDTOCodec();
+
+    // SyslogMessageLogDTO
+    private static final int LOG_SOURCE_ADDRESS = 1;
+    private static final int LOG_SOURCE_PORT = 2;
+    private static final int LOG_SYSTEM_ID = 3;
+    private static final int LOG_LOCATION = 4;
+    private static final int LOG_MESSAGE = 5;
+
+    // SyslogMessageDTO
+    private static final int MESSAGE_TIMESTAMP = 1;
+    private static final int MESSAGE_BYTES = 2;
+
+    @Override
+    public byte[] encode(SyslogMessageLogDTO log) {
+        final BinaryMessageWriter writer = new BinaryMessageWriter(1024);
+        if (log.getSourceAddress() != null) {
+            writer.writeBytes(LOG_SOURCE_ADDRESS, log.getSourceAddress().getAddress());
+        }
+        writer.writeInt(LOG_SOURCE_PORT, log.getSourcePort());
+        writer.writeString(LOG_SYSTEM_ID, log.getSystemId());
+        writer.writeString(LOG_LOCATION, log.getLocation());
+        for (SyslogMessageDTO message : log.getMessages()) {
+            writer.writeMessage(LOG_MESSAGE, w -> {
+                if (message.getTimestamp() != null) {
+                    w.writeLong(MESSAGE_TIMESTAMP, message.getTimestamp().getTime());
+                }
+                w.writeBytes(MESSAGE_BYTES, message.getBytes());
+            });
+        }
+        return writer.toByteArray();
+    }
+
+    @Override
+    public SyslogMessageLogDTO decode(ByteBuffer buffer) {
+        final SyslogMessageLogDTO log = new SyslogMessageLogDTO();
+        log.setMessages(new ArrayList<>());
+        final BinaryMessageReader reader = new BinaryMessageReader(buffer);
+        while (reader.next()) {
+            switch (reader.getField()) {
+            case LOG_SOURCE_ADDRESS:
+                try {
+                    log.setSourceAddress(InetAddress.getByAddress(reader.readBytes()));
+                } catch (UnknownHostException e) {
+                    throw new IllegalArgumentException("Invalid source address.", e);
+                }
+                break;
+            case LOG_SOURCE_PORT:
+                log.setSourcePort(reader.readInt());
+                break;
+            case LOG_SYSTEM_ID:
+                log.setSystemId(reader.readString());
+                break;
+            case LOG_LOCATION:
+                log.setLocation(reader.readString());
+                break;
+            case LOG_MESSAGE:
+                log.getMessages().add(readMessage(reader.readMessage()));
+                break;
+            default:
+                reader.skip();
+            }
+        }
+        return log;
+    }
+
+    private static SyslogMessageDTO readMessage(BinaryMessageReader reader) {
+        final SyslogMessageDTO message = new SyslogMessageDTO();
+        while (reader.next()) {
+            switch (reader.getField()) {
+            case MESSAGE_TIMESTAMP:
+                message.setTimestamp(new Date(reader.readLong()));
+                break;
+            case MESSAGE_BYTES:
+                message.setBytes(reader.readByteBuffer());
+                break;
+            default:
+                reader.skip();
+            }
+        }
+        return message;
+    }
+}
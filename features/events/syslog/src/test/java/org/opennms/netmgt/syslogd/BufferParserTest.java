@@ -31,6 +31,7 @@ package org.opennms.netmgt.syslogd;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.InputStream;
 import java.nio.ByteBuffer;
@@ -38,6 +39,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 import org.opennms.core.test.ConfigurationTestUtils;
@@ -395,6 +397,74 @@ public class BufferParserTest {
 		assertNull("No pattern should match", root.join());
 	}
 
+	@Test
+	public void testRadixTreeStopsAtFirstMatch() {
+		final AtomicInteger applied = new AtomicInteger();
+		final ParserStage counter = new ParserStage() {
+			@Override
+			public ParserState apply(ParserState state) {
+				applied.incrementAndGet();
+				return state;
+			}
+			@Override
+			public void setOptional(boolean optional) {}
+			@Override
+			public void setTerminal(boolean terminal) {}
+		};
+
+		RadixTreeParser treeParser = new RadixTreeParser();
+		treeParser.teach(new ParserStage[] { new MatchChar('a'), new MatchChar('b') });
+		treeParser.teach(new ParserStage[] { new MatchChar('a'), counter });
+		treeParser.teach(new ParserStage[] { counter });
+
+		assertNotNull(treeParser.parse(ByteBuffer.wrap("ab".getBytes())).join());
+		assertEquals("Branches after the first complete parse should not be evaluated", 0, applied.get());
+
+		assertNotNull(treeParser.parse(ByteBuffer.wrap("ac".getBytes())).join());
+		assertEquals(1, applied.get());
+
+		assertEquals(2, treeParser.getParseCount());
+		assertEquals(2, treeParser.getMatchCount());
+	}
+
+	@Test
+	public void testRadixTreeSiblingsStartAtTheSamePosition() {
+		RadixTreeParser treeParser = new RadixTreeParser();
+		treeParser.teach(new ParserStage[] { new MatchChar('a'), new MatchChar('b') });
+		treeParser.teach(new ParserStage[] { new MatchChar('a'), new MatchChar('c') });
+
+		ByteBuffer incoming = ByteBuffer.wrap("ac".getBytes());
+		assertNotNull("The second sibling should parse from the position after 'a'", treeParser.parse(incoming).join());
+		assertEquals("The incoming buffer should not be consumed", 0, incoming.position());
+		assertNull(treeParser.parse(ByteBuffer.wrap("ad".getBytes())).join());
+	}
+
+	@Test
+	public void testRadixTreeReorderByScore() {
+		RadixTreeParser treeParser = new RadixTreeParser();
+		treeParser.teach(GrokParserStageSequenceBuilder.parseGrok("<%{INT:facilityPriority}>a %{STRING:message}").toArray(new ParserStage[0]));
+		treeParser.teach(GrokParserStageSequenceBuilder.parseGrok("<%{INT:facilityPriority}>b %{STRING:message}").toArray(new ParserStage[0]));
+		treeParser.performEdgeCompression();
+		treeParser.setReorderInterval(10);
+
+		for (int i = 0; i < 10; i++) {
+			SyslogMessage message = treeParser.parse(ByteBuffer.wrap("<190>b hello".getBytes(StandardCharsets.US_ASCII))).join();
+			assertNotNull(message);
+			assertEquals("hello", message.getMessage());
+			assertEquals(SyslogFacility.LOCAL7, message.getFacility());
+		}
+		assertEquals(1, treeParser.getReorderCount());
+
+		List<String> branches = treeParser.getBranchStatistics();
+		assertEquals(2, branches.size());
+		assertTrue("Most used branch should be first: " + branches, branches.get(0).startsWith("10 "));
+		assertTrue("Least used branch should be last: " + branches, branches.get(1).startsWith("0 "));
+
+		// Both branches still parse after the reordering
+		assertNotNull(treeParser.parse(ByteBuffer.wrap("<190>a hello".getBytes(StandardCharsets.US_ASCII))).join());
+		assertNull(treeParser.parse(ByteBuffer.wrap("<190>c hello".getBytes(StandardCharsets.US_ASCII))).join());
+	}
+
 	@Test
 	public void testGrokRadixTree() {
 		RadixTreeParser radixParser = new RadixTreeParser();
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.opennms.core.ipc.sink.api.AsyncDispatcher;
+import org.opennms.core.ipc.sink.api.MessageDispatcherFactory;
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.dao.api.DistPollerDao;
+import org.opennms.netmgt.syslogd.api.SyslogConnection;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class SyslogReceiverNioImplTest {
+
+    private final List<SyslogConnection> m_dispatched = new CopyOnWriteArrayList<>();
+
+    private SyslogReceiverNioImpl m_receiver;
+
+    private Thread m_thread;
+
+    private int m_port;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            m_port = socket.getLocalPort();
+        }
+
+        SyslogdConfig config = mock(SyslogdConfig.class);
+        when(config.getSyslogPort()).thenReturn(m_port);
+        when(config.getListenAddress()).thenReturn("127.0.0.1");
+
+        DistPollerDao distPollerDao = mock(DistPollerDao.class, Mockito.RETURNS_DEEP_STUBS);
+        AsyncDispatcher<SyslogConnection> dispatcher = mock(AsyncDispatcher.class);
+        doAnswer(invocation -> {
+            m_dispatched.add((SyslogConnection)invocation.getArguments()[0]);
+            return null;
+        }).when(dispatcher).sendAndForget(any(SyslogConnection.class));
+        MessageDispatcherFactory messageDispatcherFactory = mock(MessageDispatcherFactory.class);
+        when(messageDispatcherFactory.createAsyncDispatcher(any(SyslogSinkModule.class))).thenReturn(dispatcher);
+
+        m_receiver = new SyslogReceiverNioImpl(config);
+        m_receiver.setDistPollerDao(distPollerDao);
+        m_receiver.setMessageDispatcherFactory(messageDispatcherFactory);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_receiver.stop();
+        if (m_thread != null) {
+            m_thread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    @Test(timeout=30000)
+    public void canReceiveWithSingleThread() throws Exception {
+        m_receiver.setNumThreads(1);
+        verifyReceive();
+
+        final MetricRegistry metrics = m_receiver.getMetricRegistry();
+        assertTrue(metrics.meter(MetricRegistry.name(SyslogReceiverNioImpl.class, "socket0", "received")).getCount() > 50);
+        assertEquals(0, metrics.counter(MetricRegistry.name(SyslogReceiverNioImpl.class, "socket0", "dropped")).getCount());
+        if (Files.isReadable(Paths.get("/proc/net/udp"))) {
+            assertTrue(metrics.getGauges().containsKey(MetricRegistry.name(SyslogReceiverNioImpl.class, "socket0", "kernelDrops")));
+        }
+    }
+
+    @Test(timeout=30000)
+    public void canReceiveWithMultipleThreads() throws Exception {
+        m_receiver.setNumThreads(4);
+        verifyReceive();
+    }
+
+    private void verifyReceive() throws Exception {
+        m_thread = new Thread(m_receiver);
+        m_thread.start();
+
+        final int numMessages = 50;
+        try (DatagramSocket socket = new DatagramSocket()) {
+            await().atMost(10, TimeUnit.SECONDS).until(() -> {
+                // Keep sending until the receiver is bound
+                final byte[] payload = "<34>1 2003-10-11T22:14:15.003Z host app - - - ready".getBytes(StandardCharsets.US_ASCII);
+                socket.send(new DatagramPacket(payload, payload.length, InetAddress.getLoopbackAddress(), m_port));
+                return !m_dispatched.isEmpty();
+            });
+
+            for (int i = 0; i < numMessages; i++) {
+                final byte[] payload = ("message " + i).getBytes(StandardCharsets.US_ASCII);
+                socket.send(new DatagramPacket(payload, payload.length, InetAddress.getLoopbackAddress(), m_port));
+            }
+        }
+
+        // Ignore the messages that were sent while waiting for the receiver
+        await().atMost(10, TimeUnit.SECONDS).until(() -> m_dispatched.stream()
+                .filter(c -> getText(c).startsWith("message ")).count(), equalTo((long)numMessages));
+
+        final SyslogConnection connection = m_dispatched.stream()
+                .filter(c -> "message 0".equals(getText(c)))
+                .findFirst().get();
+        assertEquals(InetAddress.getLoopbackAddress(), connection.getSource().getAddress());
+    }
+
+    private static String getText(SyslogConnection connection) {
+        return StandardCharsets.US_ASCII.decode(connection.getBuffer().duplicate()).toString();
+    }
+}
@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.config.syslogd.HideMatch;
+import org.opennms.netmgt.config.syslogd.Match;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+
+public class SyslogRuleIndexTest {
+
+    @Test
+    public void canDeriveRequiredLiterals() {
+        assertEquals("foo bar", SyslogRuleIndex.getRequiredLiteral("foo bar"));
+        assertEquals("%LINK-3-UPDOWN: Interface ", SyslogRuleIndex.getRequiredLiteral("^%LINK-3-UPDOWN: Interface (.*), changed state to (up|down)$"));
+        assertEquals(", changed state to ", SyslogRuleIndex.getRequiredLiteral("^Interface (.*), changed state to (up|down)$"));
+        assertEquals(" 192.168.", SyslogRuleIndex.getRequiredLiteral("\\d+ 192\\.168\\.\\d+"));
+        assertEquals("ab", SyslogRuleIndex.getRequiredLiteral("abc?d"));
+        assertEquals("cd", SyslogRuleIndex.getRequiredLiteral("ab*cd"));
+        assertEquals("ab", SyslogRuleIndex.getRequiredLiteral("ab+c"));
+        assertEquals("xy", SyslogRuleIndex.getRequiredLiteral("a{2,3}?xy"));
+        assertEquals("end", SyslogRuleIndex.getRequiredLiteral("[]a-z]+end"));
+        assertEquals("after", SyslogRuleIndex.getRequiredLiteral("(?<name>x(y)[)])after"));
+    }
+
+    @Test
+    public void skipsMultiCharacterEscapes() {
+        assertEquals("abc", SyslogRuleIndex.getRequiredLiteral("\\x41abc"));
+        assertEquals("abc", SyslogRuleIndex.getRequiredLiteral("\\x{1F600}abc"));
+        assertEquals("abc", SyslogRuleIndex.getRequiredLiteral("\\uFFFFabc"));
+        assertEquals("abc", SyslogRuleIndex.getRequiredLiteral("\\0101abc"));
+        assertEquals("abc", SyslogRuleIndex.getRequiredLiteral("\\cAabc"));
+        assertEquals("abc", SyslogRuleIndex.getRequiredLiteral("(?<name>x)\\k<name>abc"));
+        assertEquals("abc", SyslogRuleIndex.getRequiredLiteral("\\p{Alpha}abc"));
+        assertEquals("abc", SyslogRuleIndex.getRequiredLiteral("\\pLabc"));
+        assertEquals("abc", SyslogRuleIndex.getRequiredLiteral("\\P{Digit}abc"));
+        assertEquals("abc", SyslogRuleIndex.getRequiredLiteral("(x)\\1abc"));
+
+        // The rules are still candidates for the messages they match
+        for (String regex : new String[] { "\\x41abc", "\\uFFFFabc", "\\0101abc", "\\cAabc", "\\p{Alpha}abc" }) {
+            final SyslogRuleIndex index = new SyslogRuleIndex(Arrays.asList(ueiMatch("regex", regex, 0)), null);
+            assertTrue(regex, index.getUeiCandidates("A\uFFFF\u0001abc").get(0));
+        }
+    }
+
+    @Test
+    public void doesNotDeriveLiteralsFromUnsafeExpressions() {
+        assertNull(SyslogRuleIndex.getRequiredLiteral("foo|bar"));
+        assertNull(SyslogRuleIndex.getRequiredLiteral("(?i)foo"));
+        assertNull(SyslogRuleIndex.getRequiredLiteral("\\Qfoo\\E"));
+        assertNull(SyslogRuleIndex.getRequiredLiteral("a?"));
+        assertNull(SyslogRuleIndex.getRequiredLiteral(".*"));
+    }
+
+    @Test
+    public void canFindAllKeywords() {
+        final KeywordMatcher matcher = KeywordMatcher.builder()
+                .add("he", 0)
+                .add("she", 1)
+                .add("his", 2)
+                .add("hers", 3)
+                .add("", 4)
+                .build();
+        final BitSet ids = new BitSet();
+        matcher.find("ushers", ids);
+        assertEquals(new BitSet() {{ set(0); set(1); set(3); }}, ids);
+
+        ids.clear();
+        matcher.find("hi", ids);
+        assertTrue(ids.isEmpty());
+    }
+
+    @Test
+    public void reusesTheIndexUntilTheRulesChange() {
+        final List<UeiMatch> rules = new ArrayList<>(Arrays.asList(ueiMatch("substr", "foo", 0), ueiMatch("substr", "bar", 1)));
+        final SyslogdConfig config = mock(SyslogdConfig.class);
+        when(config.getUeiList()).thenReturn(rules);
+        when(config.getHideMessages()).thenReturn(Collections.emptyList());
+        final SyslogdConfig otherConfig = mock(SyslogdConfig.class);
+        when(otherConfig.getUeiList()).thenReturn(Arrays.asList(ueiMatch("substr", "baz", 0)));
+        when(otherConfig.getHideMessages()).thenReturn(Collections.emptyList());
+
+        final SyslogRuleIndex index = SyslogRuleIndex.forConfig(config);
+        assertSame(index, SyslogRuleIndex.forConfig(config));
+        assertNotSame(index, SyslogRuleIndex.forConfig(otherConfig));
+        assertSame(index, SyslogRuleIndex.forConfig(config));
+
+        // Replacing a rule keeps the size of the list
+        rules.set(1, ueiMatch("substr", "qux", 1));
+        final SyslogRuleIndex updated = SyslogRuleIndex.forConfig(config);
+        assertNotSame(index, updated);
+        assertTrue(updated.getUeiCandidates("qux").get(1));
+        assertFalse(updated.getUeiCandidates("bar").get(1));
+    }
+
+    @Test
+    public void canHideMessages() {
+        final SyslogRuleIndex index = new SyslogRuleIndex(Collections.emptyList(), Arrays.asList(
+                hideMatch("substr", "password"),
+                hideMatch("regex", "secret[0-9]+"),
+                hideMatch("regex", "(unbalanced")));
+        assertTrue(index.shouldHide("my password is"));
+        assertTrue(index.shouldHide("the secret42 is"));
+        assertFalse(index.shouldHide("the secret is"));
+    }
+
+    /**
+     * Verifies that the candidates always include the first matching rule,
+     * by comparing with an evaluation of all the rules in order.
+     */
+    @Test
+    public void candidatesIncludeFirstMatchingRule() {
+        final Random random = new Random(42);
+        final String[] words = new String[] { "link", "down", "up", "%LINK-3", "port", "a.b", "a", "error", "Eth0/1", "|", "*" };
+        final String[] templates = new String[] { "%s", "^%s", "%s .*%s", "%s\\d+%s", "(%s)%s", "%s|%s", "[%s]%s", "%s?%s", "%s+%s" };
+
+        final List<UeiMatch> rules = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            final String a = words[random.nextInt(words.length)];
+            final String b = words[random.nextInt(words.length)];
+            if (random.nextBoolean()) {
+                rules.add(ueiMatch("substr", a + " " + b, i));
+            } else {
+                final String template = templates[random.nextInt(templates.length)];
+                final String regex = String.format(template, (random.nextBoolean() ? a : a.replace(".", "\\.")).replace("*", "\\*"), b.replace("*", "\\*"));
+                rules.add(ueiMatch("regex", regex, i));
+            }
+        }
+        final SyslogRuleIndex index = new SyslogRuleIndex(rules, null);
+
+        for (int k = 0; k < 2000; k++) {
+            final StringBuilder message = new StringBuilder();
+            for (int n = random.nextInt(8); n >= 0; n--) {
+                message.append(words[random.nextInt(words.length)]).append(random.nextBoolean() ? " " : "");
+            }
+            final String text = message.toString();
+
+            final BitSet candidates = index.getUeiCandidates(text);
+            for (int i = 0; i < rules.size(); i++) {
+                if (matches(rules.get(i), text)) {
+                    assertTrue("Rule " + rules.get(i).getMatch().getExpression() + " should be a candidate for " + text, candidates.get(i));
+                }
+            }
+        }
+    }
+
+    private static boolean matches(UeiMatch rule, String text) {
+        if ("substr".equals(rule.getMatch().getType())) {
+            return text.contains(rule.getMatch().getExpression());
+        }
+        try {
+            return Pattern.compile(rule.getMatch().getExpression(), Pattern.MULTILINE).matcher(text).find();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static UeiMatch ueiMatch(String type, String expression, int id) {
+        final Match match = new Match();
+        match.setType(type);
+        match.setExpression(expression);
+        final UeiMatch ueiMatch = new UeiMatch();
+        ueiMatch.setMatch(match);
+        ueiMatch.setUei("uei.opennms.org/test/" + id);
+        return ueiMatch;
+    }
+
+    private static HideMatch hideMatch(String type, String expression) {
+        final Match match = new Match();
+        match.setType(type);
+        match.setExpression(expression);
+        final HideMatch hideMatch = new HideMatch();
+        hideMatch.setMatch(match);
+        return hideMatch;
+    }
+}
@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class UdpSocketStatisticsTest {
+
+    private static final List<String> PROC_NET_UDP = Arrays.asList(
+            "   sl  local_address rem_address   st tx_queue rx_queue tr tm->when retrnsmt   uid  timeout inode ref pointer drops",
+            "  123: 00000000:0202 00000000:0000 07 00000000:00000000 00:00000000 00000000     0        0 16391 2 ffff88003a1b8000 17",
+            "  124: 0100007F:0202 00000000:0000 07 00000000:00000000 00:00000000 00000000     0        0 16392 2 ffff88003a1b8400 0",
+            "  125: 00000000:0044 00000000:0000 07 00000000:00000000 00:00000000 00000000     0        0 12001 2 ffff88003a1b8800 3");
+
+    @Test
+    public void canParseDropsForPort() {
+        final Map<Long, Long> drops = UdpSocketStatistics.parse(PROC_NET_UDP, 514);
+        assertEquals(2, drops.size());
+        assertEquals(Long.valueOf(17), drops.get(16391L));
+        assertEquals(Long.valueOf(0), drops.get(16392L));
+    }
+
+    @Test
+    public void canParseIpv6Addresses() {
+        final List<String> lines = Arrays.asList(
+                "  sl  local_address                         remote_address                        st tx_queue rx_queue tr tm->when retrnsmt   uid  timeout inode ref pointer drops",
+                "  201: 00000000000000000000000000000000:0202 00000000000000000000000000000000:0000 07 00000000:00000000 00:00000000 00000000     0        0 17001 2 ffff88003a1b9000 42");
+        assertEquals(Long.valueOf(42), UdpSocketStatistics.parse(lines, 514).get(17001L));
+    }
+
+    @Test
+    public void ignoresMalformedLines() {
+        assertEquals(0, UdpSocketStatistics.parse(Arrays.asList("header", "garbage", ""), 514).size());
+    }
+}
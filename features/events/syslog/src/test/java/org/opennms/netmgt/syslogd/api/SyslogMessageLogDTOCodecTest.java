@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.syslogd.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import org.junit.Test;
+import org.opennms.core.xml.JaxbUtils;
+
+public class SyslogMessageLogDTOCodecTest {
+
+    @Test
+    public void canRoundTripMessageLogs() {
+        final SyslogMessageLogDTO messageLog = createMessageLog(10);
+
+        final byte[] bytes = SyslogMessageLogDTOCodec.INSTANCE.encode(messageLog);
+        final SyslogMessageLogDTO decoded = SyslogMessageLogDTOCodec.INSTANCE.decode(ByteBuffer.wrap(bytes));
+
+        assertEquals(messageLog, decoded);
+        // The buffers of the original messages must not be consumed
+        assertEquals(messageLog.getMessages().get(0).getBytes().remaining(),
+                decoded.getMessages().get(0).getBytes().remaining());
+    }
+
+    @Test
+    public void canRoundTripEmptyMessageLogs() {
+        final SyslogMessageLogDTO messageLog = createMessageLog(0);
+
+        final byte[] bytes = SyslogMessageLogDTOCodec.INSTANCE.encode(messageLog);
+        final SyslogMessageLogDTO decoded = SyslogMessageLogDTOCodec.INSTANCE.decode(ByteBuffer.wrap(bytes));
+
+        assertEquals(messageLog, decoded);
+    }
+
+    @Test
+    public void isSmallerThanXml() {
+        final SyslogMessageLogDTO messageLog = createMessageLog(10);
+
+        final int xmlLength = JaxbUtils.marshal(messageLog).getBytes(StandardCharsets.UTF_8).length;
+        final int binaryLength = SyslogMessageLogDTOCodec.INSTANCE.encode(messageLog).length;
+        assertTrue(String.format("binary: %d bytes, xml: %d bytes", binaryLength, xmlLength), binaryLength < xmlLength);
+    }
+
+    protected static SyslogMessageLogDTO createMessageLog(int numMessages) {
+        final SyslogMessageLogDTO messageLog = new SyslogMessageLogDTO("Default", "00000000-0000-0000-0000-000000000000",
+                new InetSocketAddress("192.168.1.1", 514));
+        for (int i = 0; i < numMessages; i++) {
+            final String syslog = "<31>main: 2010-08-19 localhost foo" + i + ": load test " + i + " on tty1";
+            final SyslogMessageDTO message = new SyslogMessageDTO(ByteBuffer.wrap(syslog.getBytes(StandardCharsets.US_ASCII)));
+            message.setTimestamp(new Date(1500000000000L + i));
+            messageLog.getMessages().add(message);
+        }
+        return messageLog;
+    }
+}
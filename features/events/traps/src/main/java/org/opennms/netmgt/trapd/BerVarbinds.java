@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.trapd;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.TrapInformation;
+import org.opennms.netmgt.snmp.snmp4j.Snmp4JTrapNotifier;
+import org.opennms.netmgt.snmp.snmp4j.Snmp4JValue;
+import org.snmp4j.PDU;
+import org.snmp4j.asn1.BERInputStream;
+import org.snmp4j.asn1.BEROutputStream;
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * Keeps the variable bindings of a trap in their BER encoding so that they
+ * can be carried through the Sink API without being converted to
+ * {@link SnmpResult}s, and only decoded by the consumer.
+ *
+ * This is only supported for Snmp4J {@link TrapInformation} implementations.
+ */
+final class BerVarbinds {
+
+    /**
+     * The sysUpTime and snmpTrapOID varbinds of a V2 trap are not
+     * processed as parms per RFC2089, see {@link Snmp4JTrapNotifier.Snmp4JV2TrapInformation}.
+     */
+    private static final int V2_SKIPPED_VARBINDS = 2;
+
+    private BerVarbinds() {
+    }
+
+    /**
+     * @return the BER encoded varbinds of the trap, or null if the trap was not
+     * received by Snmp4J or could not be encoded
+     */
+    public static byte[] encode(TrapInformation trapInfo) {
+        final PDU pdu;
+        final int first;
+        if (trapInfo instanceof Snmp4JTrapNotifier.Snmp4JV1TrapInformation) {
+            pdu = ((Snmp4JTrapNotifier.Snmp4JV1TrapInformation) trapInfo).getPdu();
+            first = 0;
+        } else if (trapInfo instanceof Snmp4JTrapNotifier.Snmp4JV2TrapInformation) {
+            pdu = ((Snmp4JTrapNotifier.Snmp4JV2TrapInformation) trapInfo).getPdu();
+            first = V2_SKIPPED_VARBINDS;
+        } else {
+            return null;
+        }
+
+        int length = 0;
+        for (int i = first; i < pdu.size(); i++) {
+            length += pdu.get(i).getBERLength();
+        }
+        final byte[] bytes = new byte[length];
+        try {
+            final BEROutputStream out = new BEROutputStream(ByteBuffer.wrap(bytes));
+            for (int i = first; i < pdu.size(); i++) {
+                pdu.get(i).encodeBER(out);
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return bytes;
+    }
+
+    public static List<SnmpResult> decode(byte[] bytes) {
+        final List<SnmpResult> results = new ArrayList<>();
+        final BERInputStream in = new BERInputStream(ByteBuffer.wrap(bytes));
+        try {
+            while (in.available() > 0) {
+                final VariableBinding vb = new VariableBinding();
+                vb.decodeBER(in);
+                results.add(new SnmpResult(SnmpObjId.get(vb.getOid().getValue()), null, new Snmp4JValue(vb.getVariable())));
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid varbinds.", e);
+        }
+        return results;
+    }
+}
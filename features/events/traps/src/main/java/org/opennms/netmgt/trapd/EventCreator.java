@@ -45,6 +45,8 @@ import org.opennms.netmgt.snmp.SnmpObjId;
 import org.opennms.netmgt.snmp.SnmpResult;
 import org.opennms.netmgt.snmp.SnmpValue;
 import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.eventconf.LogDestType;
+import org.opennms.netmgt.xml.eventconf.Logmsg;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,6 +62,15 @@ class EventCreator {
         this.eventConfDao = Objects.requireNonNull(eventConfDao);
     }
 
+    /**
+     * Builds the event for the given trap.
+     *
+     * The varbinds are only decoded before the event definition is looked up
+     * if definitions can match on them, and are never decoded for traps that
+     * are discarded.
+     *
+     * @return the event, or null if the matching event definition discards the trap
+     */
     public Event createEventFrom(final TrapDTO trapDTO, final String systemId, final String location, final InetAddress trapAddress) {
         LOG.debug("{} trap - trapInterface: {}", trapDTO.getVersion(), trapDTO.getAgentAddress());
 
@@ -83,13 +94,9 @@ class EventCreator {
         }
 
         // Handle var bindings
-        for (SnmpResult eachResult : trapDTO.getResults()) {
-            final SnmpObjId name = eachResult.getBase();
-            final SnmpValue value = eachResult.getValue();
-            eventBuilder.addParam(SyntaxToEvent.processSyntax(name.toString(), value));
-            if (EventConstants.OID_SNMP_IFINDEX.isPrefixOf(name)) {
-                eventBuilder.setIfIndex(value.toInt());
-            }
+        final boolean matchOnVarbinds = eventConfDao.hasVarbindMasks();
+        if (matchOnVarbinds) {
+            addVarbinds(eventBuilder, trapDTO);
         }
 
         // Resolve Node id and set, if known by OpenNMS
@@ -113,9 +120,36 @@ class EventCreator {
         } else {
             event.setUei(econf.getUei());
         }
+
+        if (shouldDiscard(econf)) {
+            return null;
+        }
+
+        if (!matchOnVarbinds) {
+            addVarbinds(eventBuilder, trapDTO);
+        }
         return event;
     }
 
+    private static void addVarbinds(EventBuilder eventBuilder, TrapDTO trapDTO) {
+        for (SnmpResult eachResult : trapDTO.getResults()) {
+            final SnmpObjId name = eachResult.getBase();
+            final SnmpValue value = eachResult.getValue();
+            eventBuilder.addParam(SyntaxToEvent.processSyntax(name.toString(), value));
+            if (EventConstants.OID_SNMP_IFINDEX.isPrefixOf(name)) {
+                eventBuilder.setIfIndex(value.toInt());
+            }
+        }
+    }
+
+    private static boolean shouldDiscard(org.opennms.netmgt.xml.eventconf.Event econf) {
+        if (econf != null) {
+            final Logmsg logmsg = econf.getLogmsg();
+            return logmsg != null && LogDestType.DISCARDTRAPS.equals(logmsg.getDest());
+        }
+        return false;
+    }
+
     private long resolveNodeId(String location, InetAddress trapAddress) {
         // If there was no location in the trap message, assume that
         // it was generated in the default location
@@ -33,6 +33,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 
+import javax.xml.bind.Marshaller;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
@@ -71,7 +72,18 @@ public class TrapDTO implements Message {
 	private TrapIdentityDTO trapIdentity;
 	@XmlElementWrapper(name = "results")
 	@XmlElement(name = "result")
-	private List<SnmpResult> results = new ArrayList<>();
+	private volatile List<SnmpResult> results = new ArrayList<>();
+
+	/**
+	 * BER encoded varbinds received by the binary codec, decoded into {@link #results} on first use.
+	 */
+	private byte[] varbinds;
+
+	/**
+	 * The trap this DTO was created from, its varbinds are mapped into {@link #results}
+	 * on first use, or encoded as-is by the binary codec.
+	 */
+	private TrapInformation trapInformation;
 
 	// No-arg constructor for JAXB
 	public TrapDTO() {
@@ -87,6 +99,12 @@ public class TrapDTO implements Message {
 		setCreationTime(trapInfo.getCreationTime());
 		setTrapIdentity(new TrapIdentityDTO(trapInfo.getTrapIdentity()));
 
+		// The variable bindings are only mapped if and when they are used
+		this.trapInformation = trapInfo;
+		this.results = null;
+	}
+
+	private static List<SnmpResult> toResults(TrapInformation trapInfo) {
 		// Map variable bindings
 		final List<SnmpResult> results = new ArrayList<>();
 		for (int i = 0; i < trapInfo.getPduLength(); i++) {
@@ -96,11 +114,7 @@ public class TrapDTO implements Message {
 				results.add(snmpResult);
 			}
 		}
-		setResults(results);
-	}
-
-	private void setResults(List<SnmpResult> results) {
-		this.results = new ArrayList<>(results);
+		return results;
 	}
 
 	public void setAgentAddress(InetAddress agentAddress) {
@@ -160,9 +174,46 @@ public class TrapDTO implements Message {
 	}
 
 	public List<SnmpResult> getResults() {
+		List<SnmpResult> results = this.results;
+		if (results == null) {
+			synchronized (this) {
+				results = this.results;
+				if (results == null) {
+					results = varbinds != null ? BerVarbinds.decode(varbinds) : toResults(trapInformation);
+					this.results = results;
+				}
+			}
+		}
 		return results;
 	}
 
+	/**
+	 * @return the BER encoded varbinds received by the binary codec, or null
+	 */
+	public byte[] getVarbinds() {
+		return varbinds;
+	}
+
+	public synchronized void setVarbinds(byte[] varbinds) {
+		this.varbinds = varbinds;
+		this.trapInformation = null;
+		this.results = varbinds == null ? new ArrayList<>() : null;
+	}
+
+	/**
+	 * @return the trap this DTO was created from, or null if it was unmarshalled
+	 */
+	TrapInformation getTrapInformation() {
+		return trapInformation;
+	}
+
+	/**
+	 * Called by JAXB, the XML format always contains the decoded results.
+	 */
+	void beforeMarshal(Marshaller marshaller) {
+		getResults();
+	}
+
 	public byte[] getRawMessage() {
 		return rawMessage;
 	}
@@ -173,7 +224,7 @@ public class TrapDTO implements Message {
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(community, version, timestamp, pduLength, creationTime, rawMessage, trapIdentity, results, agentAddress);
+		return Objects.hash(community, version, timestamp, pduLength, creationTime, rawMessage, trapIdentity, getResults(), agentAddress);
 	}
 
 	@Override
@@ -189,7 +240,7 @@ public class TrapDTO implements Message {
 				&& Objects.equals(creationTime, other.creationTime)
 				&& Objects.equals(rawMessage, other.rawMessage)
 				&& Objects.equals(trapIdentity, other.trapIdentity)
-				&& Objects.equals(results, other.results)
+				&& Objects.equals(getResults(), other.getResults())
 				&& Objects.equals(agentAddress, other.agentAddress);
 		return equals;
 	}
@@ -71,7 +71,7 @@ public class TrapListener implements TrapNotificationListener {
     @Override
     public void trapReceived(TrapInformation trapInformation) {
         try {
-            getMessageDispatcher().send(new TrapInformationWrapper(trapInformation));
+            getMessageDispatcher().sendAndForget(new TrapInformationWrapper(trapInformation));
         } catch (IllegalArgumentException ex) {
             LOG.error("Received trap {} is not valid and cannot be processed.", trapInformation, ex);
         }
@@ -0,0 +1,273 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.trapd;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+
+import org.opennms.core.ipc.sink.api.BinaryMessageReader;
+import org.opennms.core.ipc.sink.api.BinaryMessageWriter;
+import org.opennms.core.ipc.sink.api.MessageCodec;
+import org.opennms.netmgt.snmp.SnmpInstId;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.SnmpUtils;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.SnmpValueFactory;
+
+/**
+ * Binary codec for {@link TrapLogDTO}s.
+ *
+ * Field numbers must never be re-used. New fields can be added at any time,
+ * since readers skip the fields they don't know about.
+ */
+public class TrapLogDTOCodec implements MessageCodec<TrapLogDTO> {
+
+    public static final TrapLogDTOCodec INSTANCE = new TrapLogDTOCodec();
+
+    // TrapLogDTO
+    private static final int LOG_SYSTEM_ID = 1;
+    private static final int LOG_LOCATION = 2;
+    private static final int LOG_TRAP_ADDRESS = 3;
+    private static final int LOG_MESSAGE = 4;
+
+    // TrapDTO
+    private static final int TRAP_AGENT_ADDRESS = 1;
+    private static final int TRAP_COMMUNITY = 2;
+    private static final int TRAP_VERSION = 3;
+    private static final int TRAP_TIMESTAMP = 4;
+    private static final int TRAP_PDU_LENGTH = 5;
+    private static final int TRAP_CREATION_TIME = 6;
+    private static final int TRAP_RAW_MESSAGE = 7;
+    private static final int TRAP_IDENTITY = 8;
+    private static final int TRAP_RESULT = 9;
+    private static final int TRAP_VARBINDS = 10;
+
+    // TrapIdentityDTO
+    private static final int IDENTITY_GENERIC = 1;
+    private static final int IDENTITY_SPECIFIC = 2;
+    private static final int IDENTITY_ENTERPRISE_ID = 3;
+
+    // SnmpResult
+    private static final int RESULT_BASE = 1;
+    private static final int RESULT_INSTANCE = 2;
+    private static final int RESULT_VALUE_TYPE = 3;
+    private static final int RESULT_VALUE_BYTES = 4;
+
+    @Override
+    public byte[] encode(TrapLogDTO log) {
+        final BinaryMessageWriter writer = new BinaryMessageWriter(512);
+        writer.writeString(LOG_SYSTEM_ID, log.getSystemId());
+        writer.writeString(LOG_LOCATION, log.getLocation());
+        writeAddress(writer, LOG_TRAP_ADDRESS, log.getTrapAddress());
+        for (TrapDTO trap : log.getMessages()) {
+            writer.writeMessage(LOG_MESSAGE, w -> writeTrap(w, trap));
+        }
+        return writer.toByteArray();
+    }
+
+    @Override
+    public TrapLogDTO decode(ByteBuffer buffer) {
+        final TrapLogDTO log = new TrapLogDTO();
+        // Resolving the value factory loads the strategy class, so only do it once per log
+        final SnmpValueFactory valueFactory = SnmpUtils.getValueFactory();
+        final BinaryMessageReader reader = new BinaryMessageReader(buffer);
+        while (reader.next()) {
+            switch (reader.getField()) {
+            case LOG_SYSTEM_ID:
+                log.setSystemId(reader.readString());
+                break;
+            case LOG_LOCATION:
+                log.setLocation(reader.readString());
+                break;
+            case LOG_TRAP_ADDRESS:
+                log.setTrapAddress(readAddress(reader));
+                break;
+            case LOG_MESSAGE:
+                log.addMessage(readTrap(reader.readMessage(), valueFactory));
+                break;
+            default:
+                reader.skip();
+            }
+        }
+        return log;
+    }
+
+    private static void writeTrap(BinaryMessageWriter writer, TrapDTO trap) {
+        writeAddress(writer, TRAP_AGENT_ADDRESS, trap.getAgentAddress());
+        writer.writeString(TRAP_COMMUNITY, trap.getCommunity());
+        writer.writeString(TRAP_VERSION, trap.getVersion());
+        writer.writeLong(TRAP_TIMESTAMP, trap.getTimestamp());
+        writer.writeInt(TRAP_PDU_LENGTH, trap.getPduLength());
+        writer.writeLong(TRAP_CREATION_TIME, trap.getCreationTime());
+        writer.writeBytes(TRAP_RAW_MESSAGE, trap.getRawMessage());
+        final TrapIdentityDTO identity = trap.getTrapIdentity();
+        if (identity != null) {
+            writer.writeMessage(TRAP_IDENTITY, w -> {
+                w.writeInt(IDENTITY_GENERIC, identity.getGeneric());
+                w.writeInt(IDENTITY_SPECIFIC, identity.getSpecific());
+                w.writeString(IDENTITY_ENTERPRISE_ID, identity.getEnterpriseId());
+            });
+        }
+        // Pass the encoded varbinds through as-is, or encode the ones that Snmp4J received
+        byte[] varbinds = trap.getVarbinds();
+        if (varbinds == null && trap.getTrapInformation() != null) {
+            varbinds = BerVarbinds.encode(trap.getTrapInformation());
+        }
+        if (varbinds != null) {
+            writer.writeBytes(TRAP_VARBINDS, varbinds);
+        } else {
+            for (SnmpResult result : trap.getResults()) {
+                writer.writeMessage(TRAP_RESULT, w -> writeResult(w, result));
+            }
+        }
+    }
+
+    private static TrapDTO readTrap(BinaryMessageReader reader, SnmpValueFactory valueFactory) {
+        final TrapDTO trap = new TrapDTO();
+        while (reader.next()) {
+            switch (reader.getField()) {
+            case TRAP_AGENT_ADDRESS:
+                trap.setAgentAddress(readAddress(reader));
+                break;
+            case TRAP_COMMUNITY:
+                trap.setCommunity(reader.readString());
+                break;
+            case TRAP_VERSION:
+                trap.setVersion(reader.readString());
+                break;
+            case TRAP_TIMESTAMP:
+                trap.setTimestamp(reader.readLong());
+                break;
+            case TRAP_PDU_LENGTH:
+                trap.setPduLength(reader.readInt());
+                break;
+            case TRAP_CREATION_TIME:
+                trap.setCreationTime(reader.readLong());
+                break;
+            case TRAP_RAW_MESSAGE:
+                trap.setRawMessage(reader.readBytes());
+                break;
+            case TRAP_IDENTITY:
+                trap.setTrapIdentity(readIdentity(reader.readMessage()));
+                break;
+            case TRAP_RESULT:
+                trap.getResults().add(readResult(reader.readMessage(), valueFactory));
+                break;
+            case TRAP_VARBINDS:
+                // Decoded by the consumer on first use
+                trap.setVarbinds(reader.readBytes());
+                break;
+            default:
+                reader.skip();
+            }
+        }
+        return trap;
+    }
+
+    private static TrapIdentityDTO readIdentity(BinaryMessageReader reader) {
+        final TrapIdentityDTO identity = new TrapIdentityDTO();
+        while (reader.next()) {
+            switch (reader.getField()) {
+            case IDENTITY_GENERIC:
+                identity.setGeneric(reader.readInt());
+                break;
+            case IDENTITY_SPECIFIC:
+                identity.setSpecific(reader.readInt());
+                break;
+            case IDENTITY_ENTERPRISE_ID:
+                identity.setEnterpriseId(reader.readString());
+                break;
+            default:
+                reader.skip();
+            }
+        }
+        return identity;
+    }
+
+    private static void writeResult(BinaryMessageWriter writer, SnmpResult result) {
+        if (result.getBase() != null) {
+            writer.writeUnsignedInts(RESULT_BASE, result.getBase().getIds());
+        }
+        if (result.getInstance() != null) {
+            writer.writeUnsignedInts(RESULT_INSTANCE, result.getInstance().getIds());
+        }
+        final SnmpValue value = result.getValue();
+        if (value != null) {
+            writer.writeInt(RESULT_VALUE_TYPE, value.getType());
+            writer.writeBytes(RESULT_VALUE_BYTES, value.getBytes());
+        }
+    }
+
+    private static SnmpResult readResult(BinaryMessageReader reader, SnmpValueFactory valueFactory) {
+        SnmpObjId base = null;
+        SnmpInstId instance = null;
+        Integer valueType = null;
+        byte[] valueBytes = null;
+        while (reader.next()) {
+            switch (reader.getField()) {
+            case RESULT_BASE:
+                base = new SnmpObjId(reader.readUnsignedInts(), false);
+                break;
+            case RESULT_INSTANCE:
+                instance = new SnmpInstId(reader.readUnsignedInts());
+                break;
+            case RESULT_VALUE_TYPE:
+                valueType = reader.readInt();
+                break;
+            case RESULT_VALUE_BYTES:
+                valueBytes = reader.readBytes();
+                break;
+            default:
+                reader.skip();
+            }
+        }
+        SnmpValue value = null;
+        if (valueType != null) {
+            value = valueFactory.getValue(valueType, valueBytes != null ? valueBytes : new byte[0]);
+        }
+        return new SnmpResult(base, instance, value);
+    }
+
+    private static void writeAddress(BinaryMessageWriter writer, int field, InetAddress address) {
+        if (address != null) {
+            writer.writeBytes(field, address.getAddress());
+        }
+    }
+
+    private static InetAddress readAddress(BinaryMessageReader reader) {
+        try {
+            return InetAddress.getByAddress(reader.readBytes());
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Invalid address.", e);
+        }
+    }
+}
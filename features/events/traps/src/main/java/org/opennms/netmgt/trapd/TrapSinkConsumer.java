@@ -47,8 +47,6 @@ import org.opennms.netmgt.trapd.jmx.TrapdInstrumentation;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Events;
 import org.opennms.netmgt.xml.event.Log;
-import org.opennms.netmgt.xml.eventconf.LogDestType;
-import org.opennms.netmgt.xml.eventconf.Logmsg;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -128,7 +126,7 @@ public class TrapSinkConsumer implements MessageConsumer<TrapInformationWrapper,
 						messageLog.getSystemId(),
 						messageLog.getLocation(),
 						messageLog.getTrapAddress());
-				if (!shouldDiscard(event)) {
+				if (event != null) {
 					if (event.getSnmp() != null) {
 						trapdInstrumentation.incTrapsReceivedCount(event.getSnmp().getVersion());
 					}
@@ -155,13 +153,4 @@ public class TrapSinkConsumer implements MessageConsumer<TrapInformationWrapper,
 		// send the event to eventd
 		eventForwarder.sendNow(bldr.getEvent());
 	}
-
-	private boolean shouldDiscard(Event event) {
-		org.opennms.netmgt.xml.eventconf.Event econf = eventConfDao.findByEvent(event);
-		if (econf != null) {
-			final Logmsg logmsg = econf.getLogmsg();
-			return logmsg != null && LogDestType.DISCARDTRAPS.equals(logmsg.getDest());
-		}
-		return false;
-	}
 }
@@ -32,6 +32,7 @@ import java.util.Objects;
 
 import org.opennms.core.ipc.sink.api.AggregationPolicy;
 import org.opennms.core.ipc.sink.api.AsyncPolicy;
+import org.opennms.core.ipc.sink.api.MessageCodec;
 import org.opennms.core.ipc.sink.xml.AbstractXmlSinkModule;
 import org.opennms.netmgt.config.TrapdConfig;
 import org.opennms.netmgt.model.OnmsDistPoller;
@@ -67,6 +68,11 @@ public class TrapSinkModule extends AbstractXmlSinkModule<TrapInformationWrapper
         return config.getNumThreads();
     }
 
+    @Override
+    public MessageCodec<TrapLogDTO> getBinaryCodec() {
+        return TrapLogDTOCodec.INSTANCE;
+    }
+
     @Override
     public AggregationPolicy<TrapInformationWrapper, TrapLogDTO> getAggregationPolicy() {
         return new AggregationPolicy<TrapInformationWrapper, TrapLogDTO>() {
@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.trapd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.model.OnmsDistPoller;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.snmp4j.Snmp4JTrapNotifier;
+import org.snmp4j.PDU;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.Counter64;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.IpAddress;
+import org.snmp4j.smi.Null;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.TimeTicks;
+import org.snmp4j.smi.VariableBinding;
+
+public class TrapLogDTOCodecTest {
+
+    @Test
+    public void canRoundTripTrapLogs() throws Exception {
+        final TrapLogDTO trapLog = createTrapLog(5);
+
+        final byte[] bytes = TrapLogDTOCodec.INSTANCE.encode(trapLog);
+        final TrapLogDTO decoded = TrapLogDTOCodec.INSTANCE.decode(ByteBuffer.wrap(bytes));
+
+        assertEquals(trapLog, decoded);
+        assertEquals(trapLog.getMessages().get(0).getResults().get(3).getValue().toDisplayString(),
+                decoded.getMessages().get(0).getResults().get(3).getValue().toDisplayString());
+    }
+
+    @Test
+    public void canRoundTripRawMessages() throws Exception {
+        final TrapLogDTO trapLog = createTrapLog(2);
+        trapLog.getMessages().get(1).setRawMessage(new byte[] { 0, 1, 2, (byte)0xFF });
+
+        final byte[] bytes = TrapLogDTOCodec.INSTANCE.encode(trapLog);
+        final TrapLogDTO decoded = TrapLogDTOCodec.INSTANCE.decode(ByteBuffer.wrap(bytes));
+
+        assertNull(decoded.getMessages().get(0).getRawMessage());
+        assertArrayEquals(new byte[] { 0, 1, 2, (byte)0xFF }, decoded.getMessages().get(1).getRawMessage());
+    }
+
+    @Test
+    public void passesEncodedVarbindsThrough() throws Exception {
+        final TrapLogDTO trapLog = createTrapLog(1);
+        assertNull("Varbinds should only be encoded by the binary codec", trapLog.getMessages().get(0).getVarbinds());
+
+        final TrapLogDTO decoded = TrapLogDTOCodec.INSTANCE.decode(ByteBuffer.wrap(TrapLogDTOCodec.INSTANCE.encode(trapLog)));
+        final TrapDTO decodedTrap = decoded.getMessages().get(0);
+        assertNotNull("Varbinds should stay encoded until they are used", decodedTrap.getVarbinds());
+
+        // Encoding the trap again passes its varbinds through
+        final TrapLogDTO reencoded = TrapLogDTOCodec.INSTANCE.decode(ByteBuffer.wrap(TrapLogDTOCodec.INSTANCE.encode(decoded)));
+        assertArrayEquals(decodedTrap.getVarbinds(), reencoded.getMessages().get(0).getVarbinds());
+
+        // The sysUpTime and snmpTrapOID varbinds are not included
+        assertEquals(6, decodedTrap.getResults().size());
+        assertEquals(".1.3.6.1.4.1.9.9.41.1.2.3.1.2.0", decodedTrap.getResults().get(1).getBase().toString());
+        assertEquals("LINEPROTO-5-UPDOWN", decodedTrap.getResults().get(1).getValue().toDisplayString());
+        assertEquals(0xFFFFFFFFFFL, decodedTrap.getResults().get(4).getValue().toLong());
+    }
+
+    @Test
+    public void decodesVarbindsOnceForConcurrentReaders() throws Exception {
+        final TrapLogDTO decoded = TrapLogDTOCodec.INSTANCE.decode(ByteBuffer.wrap(TrapLogDTOCodec.INSTANCE.encode(createTrapLog(1))));
+        final TrapDTO trap = decoded.getMessages().get(0);
+
+        final int numThreads = 8;
+        final CyclicBarrier barrier = new CyclicBarrier(numThreads);
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            final List<Future<List<SnmpResult>>> futures = new ArrayList<>();
+            for (int i = 0; i < numThreads; i++) {
+                futures.add(executor.submit(() -> {
+                    barrier.await();
+                    return trap.getResults();
+                }));
+            }
+            for (Future<List<SnmpResult>> future : futures) {
+                final List<SnmpResult> results = future.get(10, TimeUnit.SECONDS);
+                assertSame(trap.getResults(), results);
+                assertEquals(6, results.size());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void xmlContainsDecodedVarbinds() throws Exception {
+        final TrapLogDTO trapLog = createTrapLog(2);
+        final TrapSinkModule module = new TrapSinkModule(new TrapdConfigBean(), createDistPoller());
+
+        final TrapLogDTO unmarshalled = module.unmarshal(module.marshal(trapLog));
+        assertEquals(trapLog, unmarshalled);
+        assertEquals(6, unmarshalled.getMessages().get(1).getResults().size());
+    }
+
+    @Test
+    public void isSmallerThanXml() throws Exception {
+        final TrapLogDTO trapLog = createTrapLog(10);
+        final TrapSinkModule module = new TrapSinkModule(new TrapdConfigBean(), createDistPoller());
+
+        final int xmlLength = module.marshal(trapLog).getBytes().length;
+        final int binaryLength = module.getBinaryCodec().encode(trapLog).length;
+        assertTrue(String.format("binary: %d bytes, xml: %d bytes", binaryLength, xmlLength), binaryLength * 3 < xmlLength);
+    }
+
+    protected static TrapLogDTO createTrapLog(int numTraps) throws Exception {
+        final TrapLogDTO trapLog = new TrapLogDTO("00000000-0000-0000-0000-000000000000", "Default", InetAddress.getByName("192.168.1.1"));
+        for (int i = 0; i < numTraps; i++) {
+            final PDU pdu = new PDU();
+            pdu.setType(PDU.TRAP);
+            final OID trapOid = new OID(".1.3.6.1.4.1.9.9.41.2.0." + (i + 1));
+            pdu.add(new VariableBinding(SnmpConstants.sysUpTime, new TimeTicks(5000 + i)));
+            pdu.add(new VariableBinding(SnmpConstants.snmpTrapOID, trapOid));
+            pdu.add(new VariableBinding(SnmpConstants.snmpTrapAddress, new IpAddress("192.168.1.1")));
+            pdu.add(new VariableBinding(new OID(".1.3.6.1.4.1.9.9.41.1.2.3.1.2." + i), new OctetString("LINEPROTO-5-UPDOWN")));
+            pdu.add(new VariableBinding(new OID(".1.3.6.1.4.1.9.9.41.1.2.3.1.3." + i), new Integer32(6)));
+            pdu.add(new VariableBinding(new OID(".1.3.6.1.4.1.9.9.41.1.2.3.1.5." + i),
+                    new OctetString("Line protocol on Interface GigabitEthernet0/" + i + ", changed state to down")));
+            pdu.add(new VariableBinding(new OID(".1.3.6.1.4.1.9.9.41.1.2.3.1.6." + i), new Counter64(0xFFFFFFFFFFL)));
+            pdu.add(new VariableBinding(new OID(".1.3.6.1.4.1.9.9.41.1.2.3.1.7." + i), new Null(128)));
+
+            final TrapDTO trap = new TrapDTO(new Snmp4JTrapNotifier.Snmp4JV2TrapInformation(
+                    InetAddressUtils.ONE_TWENTY_SEVEN, "public", pdu));
+            trapLog.addMessage(trap);
+        }
+        return trapLog;
+    }
+
+    protected static OnmsDistPoller createDistPoller() {
+        final OnmsDistPoller distPoller = new OnmsDistPoller("00000000-0000-0000-0000-000000000000");
+        distPoller.setLocation("Default");
+        return distPoller;
+    }
+}
@@ -0,0 +1,484 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.api;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+import org.opennms.netmgt.measurements.model.Source;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+
+/**
+ * Caches the results of another {@link MeasurementFetchStrategy}.
+ *
+ * Requests are keyed by their sources and parameters, and their time window is
+ * widened to the requested resolution so that the same dashboard, refreshed by many
+ * viewers, maps to a single entry. The entry holds the rows of the widened window,
+ * and each request is answered with the rows of its own window. Concurrent requests
+ * for the same entry are coalesced into a single fetch.
+ *
+ * Windows that end at the current time are keyed by their length. When such a
+ * window moves forward, only the newest steps are fetched and appended to the
+ * rows that are already cached.
+ *
+ * Other windows are cached for good, unless their end is within a step and a
+ * heartbeat of the time they were fetched. Their newest row may not have been
+ * consolidated yet, so they're refreshed as often as the live windows.
+ *
+ * The entries are evicted once their combined size exceeds the configured number of bytes.
+ */
+public class CachingFetchStrategy implements MeasurementFetchStrategy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CachingFetchStrategy.class);
+
+    /**
+     * Maximum size of the cached results, in bytes. The cache is disabled when <= 0.
+     */
+    public static final String MAX_BYTES_PROPERTY = "org.opennms.netmgt.measurements.cache.maxBytes";
+
+    /**
+     * Entries are evicted when they haven't been used for this many milliseconds.
+     */
+    public static final String TTL_PROPERTY = "org.opennms.netmgt.measurements.cache.ttl";
+
+    /**
+     * Windows that end at the current time, or that ended before their newest row was final,
+     * are refreshed when they're older than this many milliseconds.
+     */
+    public static final String LIVE_TTL_PROPERTY = "org.opennms.netmgt.measurements.cache.liveTtl";
+
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024L * 1024L;
+
+    public static final long DEFAULT_TTL = TimeUnit.MINUTES.toMillis(5);
+
+    public static final long DEFAULT_LIVE_TTL = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Number of cached steps that are fetched again when a window is extended,
+     * since the newest rows may not have been consolidated yet.
+     */
+    private static final int OVERLAP_STEPS = 2;
+
+    private final MeasurementFetchStrategy m_delegate;
+
+    private final Cache<Key, Entry> m_cache;
+
+    private final ConcurrentMap<Key, CompletableFuture<Entry>> m_fetches = new ConcurrentHashMap<>();
+
+    private final long m_liveTtl;
+
+    private final LongSupplier m_clock;
+
+    private final Counter m_hits;
+
+    private final Counter m_coalesced;
+
+    private final Counter m_partialHits;
+
+    private final Counter m_misses;
+
+    /**
+     * Wraps the given strategy with a cache configured by the system properties,
+     * unless the cache is disabled.
+     *
+     * @param registry used to expose the statistics of the cache, may be null
+     */
+    public static MeasurementFetchStrategy wrap(final MeasurementFetchStrategy strategy, final MetricRegistry registry) {
+        final long maxBytes = Long.getLong(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES);
+        if (maxBytes <= 0 || strategy instanceof CachingFetchStrategy) {
+            return strategy;
+        }
+        return new CachingFetchStrategy(strategy, maxBytes, Long.getLong(TTL_PROPERTY, DEFAULT_TTL),
+                Long.getLong(LIVE_TTL_PROPERTY, DEFAULT_LIVE_TTL), registry, System::currentTimeMillis);
+    }
+
+    public CachingFetchStrategy(final MeasurementFetchStrategy delegate, final long maxBytes, final long ttl, final long liveTtl,
+            final MetricRegistry registry, final LongSupplier clock) {
+        m_delegate = Objects.requireNonNull(delegate);
+        m_cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Key key, Entry entry) -> entry.getWeight())
+                .expireAfterAccess(ttl, TimeUnit.MILLISECONDS)
+                .build();
+        m_liveTtl = liveTtl;
+        m_clock = Objects.requireNonNull(clock);
+
+        final MetricRegistry metrics = registry != null ? registry : new MetricRegistry();
+        m_hits = metrics.counter(MetricRegistry.name("measurements.cache.hits"));
+        m_coalesced = metrics.counter(MetricRegistry.name("measurements.cache.coalesced"));
+        m_partialHits = metrics.counter(MetricRegistry.name("measurements.cache.partial"));
+        m_misses = metrics.counter(MetricRegistry.name("measurements.cache.misses"));
+        metrics.register(MetricRegistry.name("measurements.cache.size"),
+                new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        return m_cache.size();
+                    }
+                });
+        metrics.register(MetricRegistry.name("measurements.cache.hitrate"),
+                new Gauge<Double>() {
+                    @Override
+                    public Double getValue() {
+                        return getHitRate();
+                    }
+                });
+    }
+
+    /**
+     * Ratio of the requests that were answered without fetching any rows.
+     */
+    public double getHitRate() {
+        final long hits = m_hits.getCount() + m_coalesced.getCount();
+        final long total = hits + m_partialHits.getCount() + m_misses.getCount();
+        return total == 0 ? 1.0 : (double) hits / total;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FetchResults fetch(final long start, final long end, final long step, final int maxrows,
+                              final Long interval, final Long heartbeat,
+                              final List<Source> sources, final boolean relaxed) throws Exception {
+        // Widen the window to the buckets of the requested resolution that contain its
+        // start and its end, so that it covers the windows of all the requests that share the entry
+        final long bucket = Math.max(1L, Math.max(step, maxrows > 0 ? (end - start) / maxrows : 0L));
+        final long fetchStart = Math.floorDiv(start, bucket) * bucket;
+        final long fetchEnd = Math.floorDiv(end, bucket) * bucket + bucket;
+        if (end <= start) {
+            return m_delegate.fetch(start, end, step, maxrows, interval, heartbeat, sources, relaxed);
+        }
+
+        final long now = m_clock.getAsLong();
+        final boolean live = end > now - bucket;
+        final Key key = new Key(sources, step, maxrows, interval, heartbeat, relaxed, live,
+                live ? fetchEnd - fetchStart : fetchStart, live ? 0L : fetchEnd);
+
+        while (true) {
+            final Entry cached = m_cache.getIfPresent(key);
+            if (cached != null && cached.covers(fetchStart, fetchEnd, now)) {
+                m_hits.inc();
+                return cached.slice(start, end);
+            }
+
+            final CompletableFuture<Entry> fetch = new CompletableFuture<>();
+            final CompletableFuture<Entry> pending = m_fetches.putIfAbsent(key, fetch);
+            if (pending != null) {
+                // Wait for the identical request that is already in flight
+                final Entry entry = await(pending);
+                if (entry == null) {
+                    m_coalesced.inc();
+                    return null;
+                } else if (entry.covers(fetchStart, fetchEnd, now)) {
+                    m_coalesced.inc();
+                    return entry.slice(start, end);
+                }
+                continue;
+            }
+
+            try {
+                final Entry entry = load(key, cached, fetchStart, fetchEnd, now, step, maxrows, interval, heartbeat, sources, relaxed);
+                fetch.complete(entry);
+                return entry == null ? null : entry.slice(start, end);
+            } catch (Exception e) {
+                fetch.completeExceptionally(e);
+                throw e;
+            } finally {
+                m_fetches.remove(key, fetch);
+            }
+        }
+    }
+
+    private Entry load(final Key key, final Entry cached, final long start, final long end, final long now,
+                       final long step, final int maxrows, final Long interval, final Long heartbeat,
+                       final List<Source> sources, final boolean relaxed) throws Exception {
+        if (key.m_live && cached != null) {
+            final Entry extended = cached.extend(start, end, now, maxrows, interval, heartbeat, sources, relaxed);
+            if (extended != null) {
+                m_partialHits.inc();
+                m_cache.put(key, extended);
+                return extended;
+            }
+        }
+
+        m_misses.inc();
+        final FetchResults results = m_delegate.fetch(start, end, step, maxrows, interval, heartbeat, sources, relaxed);
+        if (results == null) {
+            m_cache.invalidate(key);
+            return null;
+        }
+
+        final Entry entry = new Entry(key.m_live, start, end, now, results, heartbeat);
+        m_cache.put(key, entry);
+        return entry;
+    }
+
+    private static Entry await(final CompletableFuture<Entry> pending) throws Exception {
+        try {
+            return pending.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Index of the first timestamp that is > the given value.
+     */
+    private static int upperBound(final long[] timestamps, final long timestamp) {
+        int index = Arrays.binarySearch(timestamps, timestamp);
+        if (index < 0) {
+            return -(index + 1);
+        }
+        while (index < timestamps.length - 1 && timestamps[index + 1] == timestamp) {
+            index++;
+        }
+        return index + 1;
+    }
+
+    /**
+     * Index of the first timestamp that is >= the given value.
+     */
+    private static int lowerBound(final long[] timestamps, final long timestamp) {
+        int index = Arrays.binarySearch(timestamps, timestamp);
+        if (index < 0) {
+            return -(index + 1);
+        }
+        while (index > 0 && timestamps[index - 1] == timestamp) {
+            index--;
+        }
+        return index;
+    }
+
+    private static class Key {
+        private final String m_sources;
+        private final long m_step;
+        private final int m_maxrows;
+        private final Long m_interval;
+        private final Long m_heartbeat;
+        private final boolean m_relaxed;
+        private final boolean m_live;
+        private final long m_start;
+        private final long m_end;
+
+        /**
+         * @param start the widened start of the window, or its length for live windows
+         * @param end the widened end of the window, or 0 for live windows
+         */
+        private Key(final List<Source> sources, final long step, final int maxrows, final Long interval, final Long heartbeat,
+                final boolean relaxed, final boolean live, final long start, final long end) {
+            // The order of the sources doesn't change the results, and the sources may
+            // be modified by the fetch, so we key on a snapshot of their fields
+            m_sources = sources.stream()
+                    .map(s -> Arrays.asList(s.getLabel(), s.getResourceId(), s.getAttribute(), s.getFallbackAttribute(),
+                            s.getDataSource(), s.getAggregation()).toString())
+                    .sorted(Comparator.naturalOrder())
+                    .collect(Collectors.joining(","));
+            m_step = step;
+            m_maxrows = maxrows;
+            m_interval = interval;
+            m_heartbeat = heartbeat;
+            m_relaxed = relaxed;
+            m_live = live;
+            m_start = start;
+            m_end = end;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return m_step == other.m_step
+                    && m_maxrows == other.m_maxrows
+                    && m_relaxed == other.m_relaxed
+                    && m_live == other.m_live
+                    && m_start == other.m_start
+                    && m_end == other.m_end
+                    && Objects.equals(m_interval, other.m_interval)
+                    && Objects.equals(m_heartbeat, other.m_heartbeat)
+                    && m_sources.equals(other.m_sources);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(m_sources, m_step, m_maxrows, m_interval, m_heartbeat, m_relaxed, m_live, m_start, m_end);
+        }
+    }
+
+    private class Entry {
+        private final boolean m_live;
+        /**
+         * True if the newest row may have changed since the entry was fetched.
+         */
+        private final boolean m_unsettled;
+        /**
+         * Widened start of the fetched window.
+         */
+        private final long m_start;
+        /**
+         * Widened end of the fetched window.
+         */
+        private final long m_end;
+        private final long m_fetchedAt;
+        private final FetchResults m_results;
+
+        private Entry(final boolean live, final long start, final long end, final long fetchedAt, final FetchResults results,
+                final Long heartbeat) {
+            m_live = live;
+            // The row of the step that contains the end of the window is only final once
+            // the step is over and its last update, which may come a heartbeat late, is in
+            final long step = results.getStep();
+            final long endOfLastRow = step > 0 ? -Math.floorDiv(-end, step) * step : end;
+            m_unsettled = live || endOfLastRow + (heartbeat != null ? heartbeat : 0L) > fetchedAt;
+            m_start = start;
+            m_end = end;
+            m_fetchedAt = fetchedAt;
+            m_results = results;
+        }
+
+        private int getWeight() {
+            final long rows = m_results.getTimestamps().length;
+            final long weight = 128L + rows * Long.BYTES * (1 + m_results.getColumns().size()) + 64L * m_results.getConstants().size();
+            return (int) Math.min(weight, Integer.MAX_VALUE);
+        }
+
+        /**
+         * Returns true if the entry holds every row of the given widened window.
+         * Entries of historical windows always do, unless they were fetched before
+         * their newest row was final and have expired. Entries of live windows only
+         * do until a new step begins or they expire.
+         */
+        private boolean covers(final long start, final long end, final long now) {
+            if (!m_live) {
+                return !m_unsettled || now - m_fetchedAt < m_liveTtl;
+            } else if (now - m_fetchedAt >= m_liveTtl || start < m_start) {
+                return false;
+            }
+            final long step = m_results.getStep();
+            return m_end == end || (step > 0 && Math.floorDiv(end, step) == Math.floorDiv(m_end, step));
+        }
+
+        /**
+         * Fetches the newest steps of the window and appends them to the cached rows.
+         *
+         * @return null if the rows can't be stitched together, in which case the whole window should be fetched
+         */
+        private Entry extend(final long start, final long end, final long now, final int maxrows, final Long interval,
+                final Long heartbeat, final List<Source> sources, final boolean relaxed) throws Exception {
+            final long[] timestamps = m_results.getTimestamps();
+            final long step = m_results.getStep();
+            if (timestamps.length < 1 || step <= 0 || end < m_end) {
+                return null;
+            }
+            // The window starts with the step that contains its start, as in slice()
+            final long first = Math.floorDiv(start, step) * step;
+            if (first > timestamps[timestamps.length - 1]) {
+                return null;
+            }
+
+            final FetchResults tail = m_delegate.fetch(timestamps[timestamps.length - 1] - OVERLAP_STEPS * step, end, step,
+                    maxrows, interval, heartbeat, sources, relaxed);
+            if (tail == null || tail.getStep() != step || !tail.getColumns().keySet().equals(m_results.getColumns().keySet())) {
+                LOG.debug("Fetching the whole window since the newest rows don't match the cached rows.");
+                return null;
+            }
+            final long[] tailTimestamps = tail.getTimestamps();
+            if (tailTimestamps.length < 1 || tailTimestamps[0] < timestamps[0]
+                    || tailTimestamps[0] > timestamps[timestamps.length - 1] + step
+                    || Math.floorMod(tailTimestamps[0] - timestamps[0], step) != 0) {
+                LOG.debug("Fetching the whole window since the newest rows aren't aligned with the cached rows.");
+                return null;
+            }
+
+            // Keep the cached rows that are still in the window and weren't fetched again
+            final int from = lowerBound(timestamps, first);
+            final int numCachedRows = Math.max(0, lowerBound(timestamps, tailTimestamps[0]) - from);
+            final int tailFrom = lowerBound(tailTimestamps, first);
+            final int numTailRows = tailTimestamps.length - tailFrom;
+            final int numRows = numCachedRows + numTailRows;
+
+            final long[] stitchedTimestamps = new long[numRows];
+            System.arraycopy(timestamps, from, stitchedTimestamps, 0, numCachedRows);
+            System.arraycopy(tailTimestamps, tailFrom, stitchedTimestamps, numCachedRows, numTailRows);
+            final Map<String, double[]> stitchedColumns = Maps.newHashMapWithExpectedSize(tail.getColumns().size());
+            for (final Map.Entry<String, double[]> column : tail.getColumns().entrySet()) {
+                final double[] values = new double[numRows];
+                System.arraycopy(m_results.getColumns().get(column.getKey()), from, values, 0, numCachedRows);
+                System.arraycopy(column.getValue(), tailFrom, values, numCachedRows, numTailRows);
+                stitchedColumns.put(column.getKey(), values);
+            }
+
+            return new Entry(true, start, end, now, new FetchResults(stitchedTimestamps, stitchedColumns, step, tail.getConstants()), heartbeat);
+        }
+
+        /**
+         * Returns a copy of the rows that belong to the given window, since the callers
+         * modify the results. Like the RRD fetches, the window includes the steps that
+         * contain its start and its end.
+         */
+        private FetchResults slice(final long start, final long end) {
+            final long[] timestamps = m_results.getTimestamps();
+            final long step = m_results.getStep();
+            final int from = lowerBound(timestamps, step > 0 ? Math.floorDiv(start, step) * step : start);
+            final int to = Math.max(from, upperBound(timestamps, step > 0 ? -Math.floorDiv(-end, step) * step : end));
+            final Map<String, double[]> columns = Maps.newHashMapWithExpectedSize(m_results.getColumns().size());
+            for (final Map.Entry<String, double[]> column : m_results.getColumns().entrySet()) {
+                columns.put(column.getKey(), Arrays.copyOfRange(column.getValue(), from, to));
+            }
+            return new FetchResults(Arrays.copyOfRange(timestamps, from, to), columns,
+                    m_results.getStep(), Maps.newHashMap(m_results.getConstants()));
+        }
+    }
+}
@@ -40,6 +40,7 @@ import org.opennms.netmgt.measurements.model.Source;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.RowSortedTable;
 
@@ -53,7 +54,15 @@ public class DefaultMeasurementsService implements MeasurementsService {
 
     @Autowired
     public DefaultMeasurementsService(MeasurementFetchStrategy fetchStrategy, ExpressionEngine expressionEngine, FilterEngine filterEngine) {
-        this.fetchStrategy = Preconditions.checkNotNull(fetchStrategy);
+        this(fetchStrategy, expressionEngine, filterEngine, null);
+    }
+
+    /**
+     * @param metrics used to expose the statistics of the fetch cache, may be null
+     */
+    public DefaultMeasurementsService(MeasurementFetchStrategy fetchStrategy, ExpressionEngine expressionEngine, FilterEngine filterEngine, MetricRegistry metrics) {
+        // Identical requests from many viewers are answered from a cache of the fetch results
+        this.fetchStrategy = CachingFetchStrategy.wrap(Preconditions.checkNotNull(fetchStrategy), metrics);
         this.expressionEngine = Preconditions.checkNotNull(expressionEngine);
         this.filterEngine = Preconditions.checkNotNull(filterEngine);
     }
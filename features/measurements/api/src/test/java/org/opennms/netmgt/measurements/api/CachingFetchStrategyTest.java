@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.api;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.measurements.model.Source;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class CachingFetchStrategyTest {
+
+    private static final long STEP = TimeUnit.MINUTES.toMillis(5);
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private static final long NOW = 1500000000000L;
+
+    private final AtomicLong m_now = new AtomicLong(NOW);
+
+    /**
+     * Step of the rows that are returned, which may be coarser than the requested step.
+     */
+    private long m_step = STEP;
+
+    private final List<long[]> m_windows = Lists.newCopyOnWriteArrayList();
+
+    private final List<Source> m_sources = Lists.newArrayList(new Source("x", "node[1].nodeSnmp[]", "x", null, false),
+            new Source("y", "node[1].nodeSnmp[]", "y", null, false));
+
+    private MeasurementFetchStrategy m_delegate;
+
+    private CachingFetchStrategy m_cache;
+
+    private MetricRegistry m_metrics;
+
+    /**
+     * Like the RRD fetches, generates one row per step from the step that contains the
+     * start of the window up to the one that contains its end, or the current time.
+     */
+    private FetchResults generate(long start, long end) {
+        m_windows.add(new long[] { start, end });
+        final long last = Math.min((end + m_step - 1) / m_step * m_step, m_now.get() / m_step * m_step);
+        final List<Long> timestamps = Lists.newArrayList();
+        for (long t = start / m_step * m_step; t <= last; t += m_step) {
+            timestamps.add(t);
+        }
+        final long[] ts = new long[timestamps.size()];
+        final double[] x = new double[ts.length];
+        final double[] y = new double[ts.length];
+        for (int i = 0; i < ts.length; i++) {
+            ts[i] = timestamps.get(i);
+            x[i] = ts[i] / m_step;
+            // The newest row isn't consolidated yet
+            y[i] = ts[i] == m_now.get() / m_step * m_step ? Double.NaN : -x[i];
+        }
+        final Map<String, double[]> columns = Maps.newHashMap();
+        columns.put("x", x);
+        columns.put("y", y);
+        final Map<String, Object> constants = Maps.newHashMap();
+        constants.put("x.ifSpeed", 100d);
+        return new FetchResults(ts, columns, m_step, constants);
+    }
+
+    @Before
+    public void setUp() {
+        m_delegate = (start, end, step, maxrows, interval, heartbeat, sources, relaxed) -> generate(start, end);
+        m_metrics = new MetricRegistry();
+        m_cache = new CachingFetchStrategy((start, end, step, maxrows, interval, heartbeat, sources, relaxed) ->
+                m_delegate.fetch(start, end, step, maxrows, interval, heartbeat, sources, relaxed),
+                1024L * 1024L, TimeUnit.MINUTES.toMillis(5), TimeUnit.SECONDS.toMillis(30), m_metrics, m_now::get);
+    }
+
+    @Test
+    public void canReuseResultsOfTheSameTimeBucket() throws Exception {
+        final long start = NOW - 7 * DAY;
+        final long end = NOW - 6 * DAY;
+
+        final FetchResults first = m_cache.fetch(start, end, STEP, 0, null, null, m_sources, false);
+        // The callers are free to modify the results
+        first.getColumns().remove("x");
+        first.getColumns().get("y")[0] = 42d;
+
+        final FetchResults second = m_cache.fetch(start + 1000, end + 2000, STEP, 0, null, null, Lists.reverse(m_sources), false);
+        assertEquals(1, m_windows.size());
+        assertSameResults(generate(start + 1000, end + 2000), second);
+        assertEquals(1L, m_metrics.counter("measurements.cache.hits").getCount());
+        assertEquals(0.5d, m_cache.getHitRate(), 0.0001d);
+        m_windows.clear();
+
+        // Different windows and parameters aren't shared
+        m_cache.fetch(start + STEP, end + STEP, STEP, 0, null, null, m_sources, false);
+        m_cache.fetch(start, end, STEP, 0, null, null, m_sources, true);
+        m_cache.fetch(start, end, STEP, 0, null, null, m_sources.subList(0, 1), false);
+        assertEquals(3, m_windows.size());
+    }
+
+    @Test
+    public void canAnswerUnalignedWindowsWithTheRowsOfTheirOwnWindow() throws Exception {
+        // 100 rows per day gives buckets that aren't multiples of the step
+        final int maxrows = 100;
+        final long start = NOW - 7 * DAY + 250000;
+        final long end = NOW - 6 * DAY + 280000;
+
+        FetchResults results = m_cache.fetch(start, end, STEP, maxrows, null, null, m_sources, false);
+        assertSameResults(generate(start, end), results);
+        // The widened window was fetched
+        assertTrue(m_windows.get(0)[0] < start);
+        assertTrue(m_windows.get(0)[1] > end);
+        m_windows.clear();
+
+        // A later window in the same buckets is answered with its own rows
+        results = m_cache.fetch(start + STEP, end + STEP, STEP, maxrows, null, null, m_sources, false);
+        assertEquals(0, m_windows.size());
+        assertEquals(1L, m_metrics.counter("measurements.cache.hits").getCount());
+        assertSameResults(generate(start + STEP, end + STEP), results);
+    }
+
+    @Test
+    public void canCoalesceConcurrentRequests() throws Exception {
+        final CountDownLatch fetching = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger numFetches = new AtomicInteger();
+        m_delegate = (start, end, step, maxrows, interval, heartbeat, sources, relaxed) -> {
+            numFetches.incrementAndGet();
+            fetching.countDown();
+            release.await();
+            return generate(start, end);
+        };
+
+        final int numRequests = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(numRequests);
+        try {
+            final List<Future<FetchResults>> futures = Lists.newArrayList();
+            for (int i = 0; i < numRequests; i++) {
+                futures.add(executor.submit(() -> m_cache.fetch(NOW - DAY, NOW, STEP, 0, null, null, m_sources, false)));
+            }
+            assertTrue(fetching.await(10, TimeUnit.SECONDS));
+            // Give the other requests a chance to queue up behind the first one
+            Thread.sleep(100);
+            release.countDown();
+
+            final FetchResults expected = generate(NOW - DAY, NOW);
+            for (Future<FetchResults> future : futures) {
+                assertSameResults(expected, future.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, numFetches.get());
+        assertEquals(numRequests - 1, m_metrics.counter("measurements.cache.hits").getCount()
+                + m_metrics.counter("measurements.cache.coalesced").getCount());
+    }
+
+    @Test
+    public void canFetchTheNewestStepsOfLiveWindows() throws Exception {
+        FetchResults results = m_cache.fetch(NOW - DAY, NOW, STEP, 0, null, null, m_sources, false);
+        assertSameResults(generate(NOW - DAY, NOW), results);
+        m_windows.clear();
+
+        // Served from the cache until a new step begins
+        m_now.addAndGet(STEP / 20);
+        m_cache.fetch(NOW - DAY + STEP / 20, NOW + STEP / 20, STEP, 0, null, null, m_sources, false);
+        assertEquals(0, m_windows.size());
+
+        for (int i = 1; i <= 5; i++) {
+            final long now = NOW + i * STEP + STEP / 2;
+            m_now.set(now);
+            results = m_cache.fetch(now - DAY, now, STEP, 0, null, null, m_sources, false);
+
+            // Only the newest steps were fetched, and they replaced the unconsolidated rows
+            assertEquals(1, m_windows.size());
+            assertEquals(NOW + (i - 3) * STEP, m_windows.get(0)[0]);
+            assertSameResults(generate(now / STEP * STEP - DAY, now / STEP * STEP), results);
+            m_windows.clear();
+        }
+        assertEquals(5L, m_metrics.counter("measurements.cache.partial").getCount());
+
+        // Refreshed once the entry is older than the live TTL
+        m_now.addAndGet(TimeUnit.SECONDS.toMillis(30));
+        m_cache.fetch(m_now.get() - DAY, m_now.get(), STEP, 0, null, null, m_sources, false);
+        assertEquals(1, m_windows.size());
+    }
+
+    @Test
+    public void canRefreshWindowsThatEndBeforeTheNewestRowIsFinal() throws Exception {
+        // The window ends 10 minutes ago, in the same row of the consolidated data as the current time
+        m_step = TimeUnit.HOURS.toMillis(1);
+        final long hour = NOW / m_step * m_step;
+        final long start = hour - 7 * DAY;
+        final long end = hour + TimeUnit.MINUTES.toMillis(20);
+        m_now.set(hour + TimeUnit.MINUTES.toMillis(30));
+
+        FetchResults results = m_cache.fetch(start, end, STEP, 0, null, null, m_sources, false);
+        assertTrue(Double.isNaN(getY(results, hour)));
+        m_windows.clear();
+
+        // Served from the cache until the entry is older than the live TTL
+        m_now.addAndGet(TimeUnit.SECONDS.toMillis(20));
+        m_cache.fetch(start, end, STEP, 0, null, null, m_sources, false);
+        assertEquals(0, m_windows.size());
+
+        // The row has been consolidated in the meantime
+        m_now.set(hour + TimeUnit.MINUTES.toMillis(70));
+        results = m_cache.fetch(start, end, STEP, 0, null, null, m_sources, false);
+        assertEquals(1, m_windows.size());
+        assertSameResults(generate(start, end), results);
+        assertEquals(-hour / m_step, getY(results, hour), 0.0d);
+        m_windows.clear();
+
+        // Once fetched after the row was final, the entry is kept
+        m_now.addAndGet(TimeUnit.MINUTES.toMillis(5));
+        m_cache.fetch(start, end, STEP, 0, null, null, m_sources, false);
+        assertEquals(0, m_windows.size());
+    }
+
+    @Test
+    public void doesNotCacheMissingResources() throws Exception {
+        m_delegate = (start, end, step, maxrows, interval, heartbeat, sources, relaxed) -> {
+            m_windows.add(new long[] { start, end });
+            return null;
+        };
+        assertNull(m_cache.fetch(NOW - DAY, NOW, STEP, 0, null, null, m_sources, false));
+        assertNull(m_cache.fetch(NOW - DAY, NOW, STEP, 0, null, null, m_sources, false));
+        assertEquals(2, m_windows.size());
+    }
+
+    @Test
+    public void evictsEntriesWhenFull() throws Exception {
+        m_cache = new CachingFetchStrategy(m_delegate, 64L * 1024L, TimeUnit.MINUTES.toMillis(5),
+                TimeUnit.SECONDS.toMillis(30), m_metrics = new MetricRegistry(), m_now::get);
+        for (int i = 0; i < 100; i++) {
+            m_cache.fetch(NOW - (i + 2) * DAY, NOW - (i + 1) * DAY, STEP, 0, null, null, m_sources, false);
+        }
+        // Each entry holds 290 rows of 3 longs, so less than 10 of them fit
+        final long size = (Long) m_metrics.getGauges().get("measurements.cache.size").getValue();
+        assertTrue("size: " + size, size > 0 && size < 10);
+    }
+
+    private static double getY(FetchResults results, long timestamp) {
+        return results.getColumns().get("y")[Arrays.binarySearch(results.getTimestamps(), timestamp)];
+    }
+
+    private static void assertSameResults(FetchResults expected, FetchResults actual) {
+        assertArrayEquals(expected.getTimestamps(), actual.getTimestamps());
+        assertEquals(expected.getStep(), actual.getStep());
+        assertEquals(expected.getConstants(), actual.getConstants());
+        assertEquals(expected.getColumns().keySet(), actual.getColumns().keySet());
+        for (String label : expected.getColumns().keySet()) {
+            assertArrayEquals(expected.getColumns().get(label), actual.getColumns().get(label), 0.0d);
+        }
+    }
+}
@@ -0,0 +1,955 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+import org.apache.commons.jexl2.introspection.Uberspect;
+import org.apache.commons.jexl2.parser.ASTAdditiveNode;
+import org.apache.commons.jexl2.parser.ASTAndNode;
+import org.apache.commons.jexl2.parser.ASTDivNode;
+import org.apache.commons.jexl2.parser.ASTEQNode;
+import org.apache.commons.jexl2.parser.ASTFalseNode;
+import org.apache.commons.jexl2.parser.ASTFunctionNode;
+import org.apache.commons.jexl2.parser.ASTGENode;
+import org.apache.commons.jexl2.parser.ASTGTNode;
+import org.apache.commons.jexl2.parser.ASTIdentifier;
+import org.apache.commons.jexl2.parser.ASTJexlScript;
+import org.apache.commons.jexl2.parser.ASTLENode;
+import org.apache.commons.jexl2.parser.ASTLTNode;
+import org.apache.commons.jexl2.parser.ASTModNode;
+import org.apache.commons.jexl2.parser.ASTMulNode;
+import org.apache.commons.jexl2.parser.ASTNENode;
+import org.apache.commons.jexl2.parser.ASTNotNode;
+import org.apache.commons.jexl2.parser.ASTNumberLiteral;
+import org.apache.commons.jexl2.parser.ASTOrNode;
+import org.apache.commons.jexl2.parser.ASTReference;
+import org.apache.commons.jexl2.parser.ASTReferenceExpression;
+import org.apache.commons.jexl2.parser.ASTTernaryNode;
+import org.apache.commons.jexl2.parser.ASTTrueNode;
+import org.apache.commons.jexl2.parser.ASTUnaryMinusNode;
+import org.apache.commons.jexl2.parser.JexlNode;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Compiles parsed JEXL expressions into trees of column operations that
+ * evaluate every row of a {@link org.opennms.netmgt.measurements.api.FetchResults}
+ * in a single pass over primitive arrays.
+ *
+ * The compiled operations reproduce the semantics of {@link org.apache.commons.jexl2.JexlArithmetic}
+ * in lenient mode: NaN compares equal to NaN and lower than any other number,
+ * division and modulo by zero yield 0, integer operands use integer arithmetic
+ * and {@code math:} functions resolve to the same {@link Math} overloads.
+ *
+ * Constructs whose result could differ from JEXL, or which JEXL would only
+ * resolve at runtime, are rejected with an {@link UnsupportedExpressionException}
+ * so that the caller can evaluate the whole request with JEXL instead.
+ */
+final class ColumnarExpressionCompiler {
+
+    /**
+     * Thrown when an expression cannot be evaluated column by column.
+     */
+    static class UnsupportedExpressionException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedExpressionException(final String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private enum Type {
+        DOUBLE, LONG, BOOLEAN
+    }
+
+    /**
+     * Functions in {@link Math} and {@link StrictMath} that only have a
+     * double overload, so that any numeric arguments are widened to double.
+     */
+    private static final Map<String, DoubleUnaryOperator> UNARY_FUNCTIONS = ImmutableMap.<String, DoubleUnaryOperator>builder()
+            .put("math:sin", Math::sin).put("strictmath:sin", StrictMath::sin)
+            .put("math:cos", Math::cos).put("strictmath:cos", StrictMath::cos)
+            .put("math:tan", Math::tan).put("strictmath:tan", StrictMath::tan)
+            .put("math:asin", Math::asin).put("strictmath:asin", StrictMath::asin)
+            .put("math:acos", Math::acos).put("strictmath:acos", StrictMath::acos)
+            .put("math:atan", Math::atan).put("strictmath:atan", StrictMath::atan)
+            .put("math:sinh", Math::sinh).put("strictmath:sinh", StrictMath::sinh)
+            .put("math:cosh", Math::cosh).put("strictmath:cosh", StrictMath::cosh)
+            .put("math:tanh", Math::tanh).put("strictmath:tanh", StrictMath::tanh)
+            .put("math:exp", Math::exp).put("strictmath:exp", StrictMath::exp)
+            .put("math:expm1", Math::expm1).put("strictmath:expm1", StrictMath::expm1)
+            .put("math:log", Math::log).put("strictmath:log", StrictMath::log)
+            .put("math:log10", Math::log10).put("strictmath:log10", StrictMath::log10)
+            .put("math:log1p", Math::log1p).put("strictmath:log1p", StrictMath::log1p)
+            .put("math:sqrt", Math::sqrt).put("strictmath:sqrt", StrictMath::sqrt)
+            .put("math:cbrt", Math::cbrt).put("strictmath:cbrt", StrictMath::cbrt)
+            .put("math:floor", Math::floor).put("strictmath:floor", StrictMath::floor)
+            .put("math:ceil", Math::ceil).put("strictmath:ceil", StrictMath::ceil)
+            .put("math:rint", Math::rint).put("strictmath:rint", StrictMath::rint)
+            .put("math:toDegrees", Math::toDegrees).put("strictmath:toDegrees", StrictMath::toDegrees)
+            .put("math:toRadians", Math::toRadians).put("strictmath:toRadians", StrictMath::toRadians)
+            .build();
+
+    private static final Map<String, DoubleBinaryOperator> BINARY_FUNCTIONS = ImmutableMap.<String, DoubleBinaryOperator>builder()
+            .put("math:atan2", Math::atan2).put("strictmath:atan2", StrictMath::atan2)
+            .put("math:pow", Math::pow).put("strictmath:pow", StrictMath::pow)
+            .put("math:hypot", Math::hypot).put("strictmath:hypot", StrictMath::hypot)
+            .put("math:IEEEremainder", Math::IEEEremainder).put("strictmath:IEEEremainder", StrictMath::IEEEremainder)
+            .build();
+
+    /**
+     * Overloaded functions, which only resolve to their double overload
+     * when at least one of the arguments is a {@link Double}.
+     */
+    private static final Map<String, DoubleUnaryOperator> OVERLOADED_UNARY_FUNCTIONS = ImmutableMap.<String, DoubleUnaryOperator>builder()
+            .put("math:abs", Math::abs).put("strictmath:abs", StrictMath::abs)
+            .put("math:signum", Math::signum).put("strictmath:signum", StrictMath::signum)
+            .build();
+
+    private static final Map<String, DoubleBinaryOperator> OVERLOADED_BINARY_FUNCTIONS = ImmutableMap.<String, DoubleBinaryOperator>builder()
+            .put("math:min", Math::min).put("strictmath:min", StrictMath::min)
+            .put("math:max", Math::max).put("strictmath:max", StrictMath::max)
+            .build();
+
+    private static final Set<String> BUILTINS = ImmutableSet.of("__inf", "__neg_inf", "NaN", "__diff_time");
+
+    private final Uberspect m_uberspect;
+    private final int m_rows;
+    private final long[] m_timestamps;
+    private final Map<String, double[]> m_columns;
+    private final Map<String, Object> m_constants;
+    private final double m_diffTime;
+    private final Map<String, double[]> m_previousResults;
+    private final Set<String> m_pendingLabels;
+
+    /**
+     * @param uberspect used to detect dotted names that JEXL would resolve as bean properties
+     * @param timestamps timestamps of the rows
+     * @param columns values of the sources
+     * @param constants constants retrieved by the fetch operation
+     * @param previousResults results of the expressions that were already evaluated, by label
+     * @param pendingLabels labels of the expressions that were not evaluated yet, including the current one
+     */
+    ColumnarExpressionCompiler(final Uberspect uberspect, final long[] timestamps, final Map<String, double[]> columns,
+            final Map<String, Object> constants, final Map<String, double[]> previousResults, final Set<String> pendingLabels) {
+        m_uberspect = uberspect;
+        m_rows = timestamps.length;
+        m_timestamps = timestamps;
+        m_columns = columns;
+        m_constants = constants;
+        m_diffTime = m_rows < 1 ? 0d : timestamps[m_rows-1] - timestamps[0];
+        m_previousResults = previousResults;
+        m_pendingLabels = pendingLabels;
+    }
+
+    /**
+     * Compiles and evaluates the given script.
+     *
+     * @return a new array holding the value of the expression for every row
+     */
+    double[] evaluate(final ASTJexlScript script) throws UnsupportedExpressionException {
+        if (script.jjtGetNumChildren() != 1) {
+            throw new UnsupportedExpressionException("expected a single expression");
+        }
+        final Column root = compile(script.jjtGetChild(0), false);
+        if (root.m_type == Type.BOOLEAN) {
+            throw new UnsupportedExpressionException("expression does not return a number");
+        }
+        final double[] values = asDoubles(root);
+        // Never hand out the arrays of the sources, or of other expressions
+        return root instanceof DoubleColumn ? values.clone() : values;
+    }
+
+    /**
+     * @param asArgument true if the value of the node may be passed as is to a
+     *        {@link Math} function, which widens {@link Float} literals instead of
+     *        parsing their string representation like {@link org.apache.commons.jexl2.JexlArithmetic#toDouble(Object)}
+     */
+    private Column compile(final JexlNode node, final boolean asArgument) throws UnsupportedExpressionException {
+        if (node instanceof ASTReference) {
+            return compileReference(node, asArgument);
+        } else if (node instanceof ASTReferenceExpression) {
+            if (node.jjtGetNumChildren() != 1) {
+                throw unsupported(node);
+            }
+            return compile(node.jjtGetChild(0), asArgument);
+        } else if (node instanceof ASTIdentifier) {
+            return resolve(node.image);
+        } else if (node instanceof ASTNumberLiteral) {
+            return literal(((ASTNumberLiteral) node).getLiteral(), asArgument);
+        } else if (node instanceof ASTTrueNode) {
+            return new BooleanConstant(true);
+        } else if (node instanceof ASTFalseNode) {
+            return new BooleanConstant(false);
+        } else if (node instanceof ASTAdditiveNode) {
+            Column result = compile(node.jjtGetChild(0), false);
+            for (int i = 1; i + 1 < node.jjtGetNumChildren(); i += 2) {
+                final Operator operator = "-".equals(node.jjtGetChild(i).image) ? Operator.SUBTRACT : Operator.ADD;
+                result = arithmetic(operator, result, compile(node.jjtGetChild(i + 1), false));
+            }
+            return result;
+        } else if (node instanceof ASTMulNode) {
+            return arithmetic(Operator.MULTIPLY, compile(node.jjtGetChild(0), false), compile(node.jjtGetChild(1), false));
+        } else if (node instanceof ASTDivNode) {
+            return arithmetic(Operator.DIVIDE, compile(node.jjtGetChild(0), false), compile(node.jjtGetChild(1), false));
+        } else if (node instanceof ASTModNode) {
+            return arithmetic(Operator.MODULO, compile(node.jjtGetChild(0), false), compile(node.jjtGetChild(1), false));
+        } else if (node instanceof ASTUnaryMinusNode) {
+            return negate(compile(node.jjtGetChild(0), asArgument));
+        } else if (node instanceof ASTEQNode) {
+            return comparison(Comparison.EQ, node);
+        } else if (node instanceof ASTNENode) {
+            return comparison(Comparison.NE, node);
+        } else if (node instanceof ASTLTNode) {
+            return comparison(Comparison.LT, node);
+        } else if (node instanceof ASTLENode) {
+            return comparison(Comparison.LE, node);
+        } else if (node instanceof ASTGTNode) {
+            return comparison(Comparison.GT, node);
+        } else if (node instanceof ASTGENode) {
+            return comparison(Comparison.GE, node);
+        } else if (node instanceof ASTAndNode) {
+            return new Logical(true, compile(node.jjtGetChild(0), false), compile(node.jjtGetChild(1), false));
+        } else if (node instanceof ASTOrNode) {
+            return new Logical(false, compile(node.jjtGetChild(0), false), compile(node.jjtGetChild(1), false));
+        } else if (node instanceof ASTNotNode) {
+            return new Not(compile(node.jjtGetChild(0), false));
+        } else if (node instanceof ASTTernaryNode) {
+            if (node.jjtGetNumChildren() == 3) {
+                return conditional(compile(node.jjtGetChild(0), false),
+                        compile(node.jjtGetChild(1), asArgument), compile(node.jjtGetChild(2), asArgument));
+            }
+            // Elvis operator, the condition is also the value
+            final Column condition = compile(node.jjtGetChild(0), asArgument);
+            return conditional(condition, condition, compile(node.jjtGetChild(1), asArgument));
+        } else if (node instanceof ASTFunctionNode) {
+            return function(node);
+        }
+        throw unsupported(node);
+    }
+
+    private Column compileReference(final JexlNode node, final boolean asArgument) throws UnsupportedExpressionException {
+        if (node.jjtGetNumChildren() == 1) {
+            return compile(node.jjtGetChild(0), asArgument);
+        }
+        if (node.jjtGetNumChildren() != 2 || !(node.jjtGetChild(0) instanceof ASTIdentifier) || !(node.jjtGetChild(1) instanceof ASTIdentifier)) {
+            throw unsupported(node);
+        }
+        // JEXL only falls back to the dotted variable name ('ant' variable) when
+        // the first part is unknown, or has no property with the name of the second part
+        final String first = node.jjtGetChild(0).image;
+        final String second = node.jjtGetChild(1).image;
+        final Object value = sample(first);
+        if (value == null ? sample(second) != null : m_uberspect.getPropertyGet(value, second, null) != null) {
+            throw new UnsupportedExpressionException("'" + first + "." + second + "' is not a variable");
+        }
+        return resolve(first + "." + second);
+    }
+
+    /**
+     * Returns an object of the same type as the value JEXL would bind
+     * to the given name, or null if the name is undefined.
+     */
+    private Object sample(final String name) throws UnsupportedExpressionException {
+        if (m_columns.containsKey(name)) {
+            return Double.valueOf(0d);
+        } else if ("timestamp".equals(name)) {
+            return Long.valueOf(0L);
+        } else if (m_previousResults.containsKey(name)) {
+            return Double.valueOf(0d);
+        } else if (m_pendingLabels.contains(name)) {
+            throw new UnsupportedExpressionException("'" + name + "' refers to the value of the previous row");
+        } else if (BUILTINS.contains(name)) {
+            return Double.valueOf(0d);
+        }
+        return m_constants.get(name);
+    }
+
+    /**
+     * Resolves the given name in the same order as the values are
+     * overwritten in the context of {@link JEXLExpressionEngine}.
+     */
+    private Column resolve(final String name) throws UnsupportedExpressionException {
+        if (m_columns.containsKey(name)) {
+            return column(name, m_columns.get(name));
+        } else if ("timestamp".equals(name)) {
+            return new LongColumn(m_timestamps);
+        } else if (m_previousResults.containsKey(name)) {
+            return column(name, m_previousResults.get(name));
+        } else if (m_pendingLabels.contains(name)) {
+            throw new UnsupportedExpressionException("'" + name + "' refers to the value of the previous row");
+        } else if ("__inf".equals(name)) {
+            return new DoubleConstant(Double.POSITIVE_INFINITY, false);
+        } else if ("__neg_inf".equals(name)) {
+            return new DoubleConstant(Double.NEGATIVE_INFINITY, false);
+        } else if ("NaN".equals(name)) {
+            return new DoubleConstant(Double.NaN, false);
+        } else if ("__diff_time".equals(name)) {
+            return new DoubleConstant(m_diffTime, false);
+        }
+
+        final Object constant = m_constants.get(name);
+        if (constant instanceof Float) {
+            throw new UnsupportedExpressionException("'" + name + "' is a float");
+        } else if (constant instanceof Boolean) {
+            return new BooleanConstant((Boolean) constant);
+        } else if (constant instanceof Number) {
+            return literal((Number) constant, false);
+        } else if (constant == null) {
+            throw new UnsupportedExpressionException("'" + name + "' is undefined");
+        }
+        throw new UnsupportedExpressionException("'" + name + "' is not a number");
+    }
+
+    private Column column(final String name, final double[] values) throws UnsupportedExpressionException {
+        if (values == null || values.length < m_rows) {
+            throw new UnsupportedExpressionException("'" + name + "' does not have a value for every row");
+        }
+        return new DoubleColumn(values);
+    }
+
+    private Column literal(final Number value, final boolean asArgument) throws UnsupportedExpressionException {
+        if (value instanceof Integer || value instanceof Long) {
+            return new LongConstant(value.longValue());
+        } else if (value instanceof Double) {
+            return new DoubleConstant(value.doubleValue(), false);
+        } else if (value instanceof Float) {
+            return new DoubleConstant(asArgument ? value.doubleValue() : Double.parseDouble(value.toString()), true);
+        }
+        throw new UnsupportedExpressionException("unsupported literal " + value.getClass().getSimpleName());
+    }
+
+    private Column negate(final Column operand) throws UnsupportedExpressionException {
+        if (operand.m_type == Type.BOOLEAN) {
+            throw new UnsupportedExpressionException("cannot negate a boolean");
+        } else if (operand.m_mayBeInteger) {
+            throw new UnsupportedExpressionException("operand may mix integer and floating point values");
+        } else if (operand instanceof DoubleConstant) {
+            return new DoubleConstant(-((DoubleConstant) operand).m_value, operand.m_mayBeFloat);
+        } else if (operand instanceof LongConstant && !isNegationOverflow(((LongConstant) operand).m_value)) {
+            return new LongConstant(-((LongConstant) operand).m_value);
+        }
+        return new Negation(operand);
+    }
+
+    /**
+     * JEXL negates integers without widening them, so we can't tell whether
+     * the negation of {@link Integer#MIN_VALUE} overflows.
+     */
+    private static boolean isNegationOverflow(final long value) {
+        return value == Integer.MIN_VALUE || value == Long.MIN_VALUE;
+    }
+
+    private Column arithmetic(final Operator operator, final Column left, final Column right) throws UnsupportedExpressionException {
+        return new Arithmetic(operator, left, right, numericType(left, right));
+    }
+
+    /**
+     * Determines whether JEXL applies integer or floating point arithmetic
+     * to the operands, which must be the same for every row.
+     */
+    private static Type numericType(final Column left, final Column right) throws UnsupportedExpressionException {
+        if (left.m_type == Type.BOOLEAN || right.m_type == Type.BOOLEAN) {
+            throw new UnsupportedExpressionException("arithmetic on a boolean");
+        } else if (left.m_type == Type.LONG && right.m_type == Type.LONG) {
+            return Type.LONG;
+        } else if (left.isFloatingPoint() || right.isFloatingPoint()) {
+            return Type.DOUBLE;
+        }
+        throw new UnsupportedExpressionException("operands may mix integer and floating point values");
+    }
+
+    private Column comparison(final Comparison comparison, final JexlNode node) throws UnsupportedExpressionException {
+        final Column left = compile(node.jjtGetChild(0), false);
+        final Column right = compile(node.jjtGetChild(1), false);
+        if ((comparison == Comparison.EQ || comparison == Comparison.NE)
+                && (left.m_type == Type.BOOLEAN || right.m_type == Type.BOOLEAN)) {
+            return new Compare(comparison, left, right, Type.BOOLEAN);
+        }
+        return new Compare(comparison, left, right, numericType(left, right));
+    }
+
+    private Column conditional(final Column condition, final Column whenTrue, final Column whenFalse) throws UnsupportedExpressionException {
+        final boolean mayBeFloat = whenTrue.m_mayBeFloat || whenFalse.m_mayBeFloat;
+        if (whenTrue.m_type == whenFalse.m_type) {
+            return new Conditional(condition, whenTrue, whenFalse, whenTrue.m_type, mayBeFloat,
+                    whenTrue.m_mayBeInteger || whenFalse.m_mayBeInteger);
+        } else if (whenTrue.m_type == Type.BOOLEAN || whenFalse.m_type == Type.BOOLEAN) {
+            throw new UnsupportedExpressionException("conditional mixes booleans and numbers");
+        }
+        // Stored as doubles, but the values of the integer branch remain integers for JEXL
+        return new Conditional(condition, whenTrue, whenFalse, Type.DOUBLE, mayBeFloat, true);
+    }
+
+    private Column function(final JexlNode node) throws UnsupportedExpressionException {
+        final int numArgs = node.jjtGetNumChildren() - 2;
+        final String name = node.jjtGetChild(0).image + ":" + node.jjtGetChild(1).image;
+        final Column[] args = new Column[numArgs];
+        boolean hasDoubleArg = false;
+        for (int i = 0; i < numArgs; i++) {
+            args[i] = compile(node.jjtGetChild(i + 2), true);
+            if (args[i].m_type == Type.BOOLEAN) {
+                throw new UnsupportedExpressionException("boolean argument to " + name);
+            }
+            hasDoubleArg |= args[i].isDouble();
+        }
+
+        if (numArgs == 1 && UNARY_FUNCTIONS.containsKey(name)) {
+            return new UnaryFunction(UNARY_FUNCTIONS.get(name), args[0]);
+        } else if (numArgs == 2 && BINARY_FUNCTIONS.containsKey(name)) {
+            return new BinaryFunction(BINARY_FUNCTIONS.get(name), args[0], args[1]);
+        } else if (hasDoubleArg && numArgs == 1 && OVERLOADED_UNARY_FUNCTIONS.containsKey(name)) {
+            return new UnaryFunction(OVERLOADED_UNARY_FUNCTIONS.get(name), args[0]);
+        } else if (hasDoubleArg && numArgs == 2 && OVERLOADED_BINARY_FUNCTIONS.containsKey(name)) {
+            return new BinaryFunction(OVERLOADED_BINARY_FUNCTIONS.get(name), args[0], args[1]);
+        }
+        throw new UnsupportedExpressionException("unsupported function " + name + " with " + numArgs + " argument(s)");
+    }
+
+    private static UnsupportedExpressionException unsupported(final JexlNode node) {
+        return new UnsupportedExpressionException("unsupported construct " + node.getClass().getSimpleName());
+    }
+
+    /**
+     * Same ordering as {@link org.apache.commons.jexl2.JexlArithmetic}: NaN is
+     * equal to NaN, and lower than any other number.
+     */
+    private static int compare(final double left, final double right) {
+        if (Double.isNaN(left)) {
+            return Double.isNaN(right) ? 0 : -1;
+        } else if (Double.isNaN(right)) {
+            return 1;
+        }
+        return left < right ? -1 : (left > right ? 1 : 0);
+    }
+
+    private static UnsupportedExpressionException overflow() {
+        return new UnsupportedExpressionException("integer arithmetic overflows or divides by zero");
+    }
+
+    private double[] asDoubles(final Column column) throws UnsupportedExpressionException {
+        if (column.m_type == Type.DOUBLE) {
+            return column.doubles();
+        }
+        final long[] values = column.longs();
+        final double[] result = new double[m_rows];
+        for (int i = 0; i < m_rows; i++) {
+            result[i] = values[i];
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@link org.apache.commons.jexl2.JexlArithmetic#toBoolean(Object)}.
+     */
+    private boolean[] asBooleans(final Column column) throws UnsupportedExpressionException {
+        final boolean[] result;
+        switch (column.m_type) {
+        case BOOLEAN:
+            return column.booleans();
+        case LONG:
+            final long[] longs = column.longs();
+            result = new boolean[m_rows];
+            for (int i = 0; i < m_rows; i++) {
+                result[i] = longs[i] != 0L;
+            }
+            return result;
+        default:
+            final double[] doubles = column.doubles();
+            result = new boolean[m_rows];
+            for (int i = 0; i < m_rows; i++) {
+                result[i] = doubles[i] != 0d && !Double.isNaN(doubles[i]);
+            }
+            return result;
+        }
+    }
+
+    private enum Operator {
+        ADD, SUBTRACT, MULTIPLY, DIVIDE, MODULO
+    }
+
+    private enum Comparison {
+        EQ, NE, LT, LE, GT, GE;
+
+        boolean test(final int result) {
+            switch (this) {
+            case EQ: return result == 0;
+            case NE: return result != 0;
+            case LT: return result < 0;
+            case LE: return result <= 0;
+            case GT: return result > 0;
+            default: return result >= 0;
+            }
+        }
+    }
+
+    /**
+     * A compiled node, which yields one value per row.
+     */
+    private static abstract class Column {
+        private final Type m_type;
+        /**
+         * The values may be {@link Float}s, which JEXL passes to the
+         * float overloads of the {@link Math} functions.
+         */
+        private final boolean m_mayBeFloat;
+        /**
+         * The values are stored as doubles, but some may be integers for JEXL.
+         */
+        private final boolean m_mayBeInteger;
+
+        protected Column(final Type type, final boolean mayBeFloat, final boolean mayBeInteger) {
+            m_type = type;
+            m_mayBeFloat = mayBeFloat;
+            m_mayBeInteger = mayBeInteger;
+        }
+
+        /**
+         * JEXL applies floating point arithmetic to these values.
+         */
+        protected boolean isFloatingPoint() {
+            return m_type == Type.DOUBLE && !m_mayBeInteger;
+        }
+
+        /**
+         * All of the values are {@link Double}s for JEXL.
+         */
+        protected boolean isDouble() {
+            return isFloatingPoint() && !m_mayBeFloat;
+        }
+
+        protected double[] doubles() throws UnsupportedExpressionException {
+            throw new IllegalStateException();
+        }
+
+        protected long[] longs() throws UnsupportedExpressionException {
+            throw new IllegalStateException();
+        }
+
+        protected boolean[] booleans() throws UnsupportedExpressionException {
+            throw new IllegalStateException();
+        }
+    }
+
+    private static class DoubleColumn extends Column {
+        private final double[] m_values;
+
+        private DoubleColumn(final double[] values) {
+            super(Type.DOUBLE, false, false);
+            m_values = values;
+        }
+
+        @Override
+        protected double[] doubles() {
+            return m_values;
+        }
+    }
+
+    private static class LongColumn extends Column {
+        private final long[] m_values;
+
+        private LongColumn(final long[] values) {
+            super(Type.LONG, false, false);
+            m_values = values;
+        }
+
+        @Override
+        protected long[] longs() {
+            return m_values;
+        }
+    }
+
+    private class DoubleConstant extends Column {
+        private final double m_value;
+
+        private DoubleConstant(final double value, final boolean isFloat) {
+            super(Type.DOUBLE, isFloat, false);
+            m_value = value;
+        }
+
+        @Override
+        protected double[] doubles() {
+            final double[] result = new double[m_rows];
+            Arrays.fill(result, m_value);
+            return result;
+        }
+    }
+
+    private class LongConstant extends Column {
+        private final long m_value;
+
+        private LongConstant(final long value) {
+            super(Type.LONG, false, false);
+            m_value = value;
+        }
+
+        @Override
+        protected long[] longs() {
+            final long[] result = new long[m_rows];
+            Arrays.fill(result, m_value);
+            return result;
+        }
+    }
+
+    private class BooleanConstant extends Column {
+        private final boolean m_value;
+
+        private BooleanConstant(final boolean value) {
+            super(Type.BOOLEAN, false, false);
+            m_value = value;
+        }
+
+        @Override
+        protected boolean[] booleans() {
+            final boolean[] result = new boolean[m_rows];
+            Arrays.fill(result, m_value);
+            return result;
+        }
+    }
+
+    private class Negation extends Column {
+        private final Column m_operand;
+
+        private Negation(final Column operand) {
+            super(operand.m_type, operand.m_mayBeFloat, operand.m_mayBeInteger);
+            m_operand = operand;
+        }
+
+        @Override
+        protected double[] doubles() throws UnsupportedExpressionException {
+            final double[] values = m_operand.doubles();
+            final double[] result = new double[m_rows];
+            for (int i = 0; i < m_rows; i++) {
+                result[i] = -values[i];
+            }
+            return result;
+        }
+
+        @Override
+        protected long[] longs() throws UnsupportedExpressionException {
+            final long[] values = m_operand.longs();
+            final long[] result = new long[m_rows];
+            for (int i = 0; i < m_rows; i++) {
+                if (isNegationOverflow(values[i])) {
+                    throw overflow();
+                }
+                result[i] = -values[i];
+            }
+            return result;
+        }
+    }
+
+    private class Arithmetic extends Column {
+        private final Operator m_operator;
+        private final Column m_left;
+        private final Column m_right;
+
+        private Arithmetic(final Operator operator, final Column left, final Column right, final Type type) {
+            super(type, false, false);
+            m_operator = operator;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        protected double[] doubles() throws UnsupportedExpressionException {
+            final double[] left = asDoubles(m_left);
+            final double[] right = asDoubles(m_right);
+            final double[] result = new double[m_rows];
+            switch (m_operator) {
+            case ADD:
+                for (int i = 0; i < m_rows; i++) {
+                    result[i] = left[i] + right[i];
+                }
+                break;
+            case SUBTRACT:
+                for (int i = 0; i < m_rows; i++) {
+                    result[i] = left[i] - right[i];
+                }
+                break;
+            case MULTIPLY:
+                for (int i = 0; i < m_rows; i++) {
+                    result[i] = left[i] * right[i];
+                }
+                break;
+            case DIVIDE:
+                for (int i = 0; i < m_rows; i++) {
+                    result[i] = right[i] == 0d ? 0d : left[i] / right[i];
+                }
+                break;
+            case MODULO:
+                for (int i = 0; i < m_rows; i++) {
+                    result[i] = right[i] == 0d ? 0d : left[i] % right[i];
+                }
+                break;
+            }
+            return result;
+        }
+
+        @Override
+        protected long[] longs() throws UnsupportedExpressionException {
+            final long[] left = m_left.longs();
+            final long[] right = m_right.longs();
+            final long[] result = new long[m_rows];
+            try {
+                switch (m_operator) {
+                case ADD:
+                    for (int i = 0; i < m_rows; i++) {
+                        result[i] = Math.addExact(left[i], right[i]);
+                    }
+                    break;
+                case SUBTRACT:
+                    for (int i = 0; i < m_rows; i++) {
+                        result[i] = Math.subtractExact(left[i], right[i]);
+                    }
+                    break;
+                case MULTIPLY:
+                    for (int i = 0; i < m_rows; i++) {
+                        result[i] = Math.multiplyExact(left[i], right[i]);
+                    }
+                    break;
+                case DIVIDE:
+                    // JEXL returns a double when dividing by zero
+                    for (int i = 0; i < m_rows; i++) {
+                        if (right[i] == 0L || (left[i] == Long.MIN_VALUE && right[i] == -1L)) {
+                            throw overflow();
+                        }
+                        result[i] = left[i] / right[i];
+                    }
+                    break;
+                case MODULO:
+                    // BigInteger.mod() rejects moduli that aren't positive
+                    for (int i = 0; i < m_rows; i++) {
+                        if (right[i] <= 0L) {
+                            throw overflow();
+                        }
+                        result[i] = Math.floorMod(left[i], right[i]);
+                    }
+                    break;
+                }
+            } catch (ArithmeticException e) {
+                throw overflow();
+            }
+            return result;
+        }
+    }
+
+    private class Compare extends Column {
+        private final Comparison m_comparison;
+        private final Column m_left;
+        private final Column m_right;
+        private final Type m_operandType;
+
+        private Compare(final Comparison comparison, final Column left, final Column right, final Type operandType) {
+            super(Type.BOOLEAN, false, false);
+            m_comparison = comparison;
+            m_left = left;
+            m_right = right;
+            m_operandType = operandType;
+        }
+
+        @Override
+        protected boolean[] booleans() throws UnsupportedExpressionException {
+            final boolean[] result = new boolean[m_rows];
+            switch (m_operandType) {
+            case BOOLEAN:
+                final boolean[] leftBooleans = asBooleans(m_left);
+                final boolean[] rightBooleans = asBooleans(m_right);
+                for (int i = 0; i < m_rows; i++) {
+                    result[i] = m_comparison.test(leftBooleans[i] == rightBooleans[i] ? 0 : 1);
+                }
+                break;
+            case LONG:
+                final long[] leftLongs = m_left.longs();
+                final long[] rightLongs = m_right.longs();
+                for (int i = 0; i < m_rows; i++) {
+                    result[i] = m_comparison.test(Long.compare(leftLongs[i], rightLongs[i]));
+                }
+                break;
+            default:
+                final double[] leftDoubles = asDoubles(m_left);
+                final double[] rightDoubles = asDoubles(m_right);
+                for (int i = 0; i < m_rows; i++) {
+                    result[i] = m_comparison.test(compare(leftDoubles[i], rightDoubles[i]));
+                }
+                break;
+            }
+            return result;
+        }
+    }
+
+    private class Logical extends Column {
+        private final boolean m_and;
+        private final Column m_left;
+        private final Column m_right;
+
+        private Logical(final boolean and, final Column left, final Column right) {
+            super(Type.BOOLEAN, false, false);
+            m_and = and;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        protected boolean[] booleans() throws UnsupportedExpressionException {
+            final boolean[] left = asBooleans(m_left);
+            final boolean[] right = asBooleans(m_right);
+            final boolean[] result = new boolean[m_rows];
+            for (int i = 0; i < m_rows; i++) {
+                result[i] = m_and ? left[i] && right[i] : left[i] || right[i];
+            }
+            return result;
+        }
+    }
+
+    private class Not extends Column {
+        private final Column m_operand;
+
+        private Not(final Column operand) {
+            super(Type.BOOLEAN, false, false);
+            m_operand = operand;
+        }
+
+        @Override
+        protected boolean[] booleans() throws UnsupportedExpressionException {
+            final boolean[] values = asBooleans(m_operand);
+            final boolean[] result = new boolean[m_rows];
+            for (int i = 0; i < m_rows; i++) {
+                result[i] = !values[i];
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Both branches are evaluated for every row, which is safe since
+     * none of the compiled operations have side effects.
+     */
+    private class Conditional extends Column {
+        private final Column m_condition;
+        private final Column m_whenTrue;
+        private final Column m_whenFalse;
+
+        private Conditional(final Column condition, final Column whenTrue, final Column whenFalse, final Type type,
+                final boolean mayBeFloat, final boolean mayBeInteger) {
+            super(type, mayBeFloat, mayBeInteger);
+            m_condition = condition;
+            m_whenTrue = whenTrue;
+            m_whenFalse = whenFalse;
+        }
+
+        @Override
+        protected double[] doubles() throws UnsupportedExpressionException {
+            final boolean[] condition = asBooleans(m_condition);
+            final double[] whenTrue = asDoubles(m_whenTrue);
+            final double[] whenFalse = asDoubles(m_whenFalse);
+            final double[] result = new double[m_rows];
+            for (int i = 0; i < m_rows; i++) {
+                result[i] = condition[i] ? whenTrue[i] : whenFalse[i];
+            }
+            return result;
+        }
+
+        @Override
+        protected long[] longs() throws UnsupportedExpressionException {
+            final boolean[] condition = asBooleans(m_condition);
+            final long[] whenTrue = m_whenTrue.longs();
+            final long[] whenFalse = m_whenFalse.longs();
+            final long[] result = new long[m_rows];
+            for (int i = 0; i < m_rows; i++) {
+                result[i] = condition[i] ? whenTrue[i] : whenFalse[i];
+            }
+            return result;
+        }
+
+        @Override
+        protected boolean[] booleans() throws UnsupportedExpressionException {
+            final boolean[] condition = asBooleans(m_condition);
+            final boolean[] whenTrue = m_whenTrue.booleans();
+            final boolean[] whenFalse = m_whenFalse.booleans();
+            final boolean[] result = new boolean[m_rows];
+            for (int i = 0; i < m_rows; i++) {
+                result[i] = condition[i] ? whenTrue[i] : whenFalse[i];
+            }
+            return result;
+        }
+    }
+
+    private class UnaryFunction extends Column {
+        private final DoubleUnaryOperator m_function;
+        private final Column m_argument;
+
+        private UnaryFunction(final DoubleUnaryOperator function, final Column argument) {
+            super(Type.DOUBLE, false, false);
+            m_function = function;
+            m_argument = argument;
+        }
+
+        @Override
+        protected double[] doubles() throws UnsupportedExpressionException {
+            final double[] values = asDoubles(m_argument);
+            final double[] result = new double[m_rows];
+            for (int i = 0; i < m_rows; i++) {
+                result[i] = m_function.applyAsDouble(values[i]);
+            }
+            return result;
+        }
+    }
+
+    private class BinaryFunction extends Column {
+        private final DoubleBinaryOperator m_function;
+        private final Column m_left;
+        private final Column m_right;
+
+        private BinaryFunction(final DoubleBinaryOperator function, final Column left, final Column right) {
+            super(Type.DOUBLE, false, false);
+            m_function = function;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        protected double[] doubles() throws UnsupportedExpressionException {
+            final double[] left = asDoubles(m_left);
+            final double[] right = asDoubles(m_right);
+            final double[] result = new double[m_rows];
+            for (int i = 0; i < m_rows; i++) {
+                result[i] = m_function.applyAsDouble(left[i], right[i]);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.jexl2.JexlEngine;
+import org.apache.commons.jexl2.JexlException;
+import org.apache.commons.jexl2.parser.ASTJexlScript;
+import org.opennms.netmgt.measurements.api.ExpressionEngine;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.impl.ColumnarExpressionCompiler.UnsupportedExpressionException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * An expression engine that evaluates the JEXL expressions one column at a time,
+ * instead of evaluating them with a new context for every row.
+ *
+ * Requests that use constructs which can't be evaluated this way, or whose
+ * result could differ from JEXL, are handed to the {@link JEXLExpressionEngine}
+ * in their entirety, so the results and the errors are always the same.
+ */
+@Component("expressionEngine")
+public class ColumnarExpressionEngine implements ExpressionEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ColumnarExpressionEngine.class);
+
+    private static final int PARSE_CACHE_SIZE = 256;
+
+    private final Parser m_parser = new Parser();
+
+    private final ExpressionEngine m_fallback = new JEXLExpressionEngine();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void applyExpressions(final QueryRequest request, final FetchResults results) throws ExpressionException {
+        Preconditions.checkNotNull(request, "request argument");
+        Preconditions.checkNotNull(results, "results argument");
+
+        final List<Expression> expressions = request.getExpressions();
+
+        // Don't do anything if there are no expressions
+        if (expressions.size() < 1) {
+            return;
+        }
+
+        final Map<String, double[]> values;
+        try {
+            values = evaluate(expressions, results);
+        } catch (UnsupportedExpressionException e) {
+            LOG.debug("Evaluating the expressions with JEXL: {}", e.getMessage());
+            m_fallback.applyExpressions(request, results);
+            return;
+        }
+
+        // Store the results, skipping the transient expressions
+        for (final Expression e : expressions) {
+            if (!e.getTransient()) {
+                results.getColumns().put(e.getLabel(), values.get(e.getLabel()));
+            }
+        }
+    }
+
+    /**
+     * Evaluates all of the expressions, without storing their results.
+     *
+     * @return the values of the expressions, by label
+     * @throws UnsupportedExpressionException if any of the expressions must be evaluated with JEXL
+     */
+    Map<String, double[]> evaluate(final List<Expression> expressions, final FetchResults results) throws UnsupportedExpressionException {
+        final Map<String, double[]> values = Maps.newHashMap();
+        final Set<String> pendingLabels = Sets.newHashSet();
+        for (final Expression e : expressions) {
+            if (!pendingLabels.add(e.getLabel())) {
+                throw new UnsupportedExpressionException("label '" + e.getLabel() + "' is used more than once");
+            }
+        }
+
+        final ColumnarExpressionCompiler compiler = new ColumnarExpressionCompiler(m_parser.getUberspect(),
+                results.getTimestamps(), results.getColumns(), results.getConstants(), values, pendingLabels);
+
+        // Evaluate every expression, in the same order as which they appeared in the query
+        for (final Expression e : expressions) {
+            final ASTJexlScript script;
+            try {
+                script = m_parser.parse(e.getExpression());
+            } catch (JexlException ex) {
+                throw new UnsupportedExpressionException("failed to parse expression label '" + e.getLabel() + "'");
+            }
+
+            try {
+                values.put(e.getLabel(), compiler.evaluate(script));
+            } catch (UnsupportedExpressionException ex) {
+                throw new UnsupportedExpressionException("expression label '" + e.getLabel() + "': " + ex.getMessage());
+            }
+            pendingLabels.remove(e.getLabel());
+        }
+        return values;
+    }
+
+    /**
+     * Exposes the syntax trees of the expressions, which are cached
+     * and shared across threads.
+     */
+    private static class Parser extends JexlEngine {
+        private Parser() {
+            setCache(PARSE_CACHE_SIZE);
+            setDebug(false);
+        }
+
+        private ASTJexlScript parse(final String expression) {
+            return parse(expression, null, null);
+        }
+    }
+}
@@ -0,0 +1,554 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.jrobin.core.RrdException;
+
+/**
+ * Reads the archives of an .rrd file written by rrdtool without going
+ * through rrdtool itself.
+ *
+ * rrdtool writes its C structures to disk as they are laid out in memory, so
+ * the format depends on the byte order, the size of a long and the alignment
+ * of doubles of the host that created the file. The layout is detected by
+ * looking for the float cookie in the header and by checking that the size
+ * of the file matches the one described by the header.
+ *
+ * {@link #fetch(String, long, long, long)} and {@link FetchData#reduce(String, long)}
+ * follow the rrd_fetch_fn() and reduce_data() functions of rrdtool so that
+ * the values, and the timestamps they are aligned on, match the ones
+ * returned by 'rrdtool fetch' and 'rrdtool xport'.
+ */
+public class RrdtoolFile implements Closeable {
+
+    private static final byte[] COOKIE = "RRD\0".getBytes(StandardCharsets.US_ASCII);
+
+    private static final double FLOAT_COOKIE = 8.642135E130;
+
+    private static final int DS_NAM_SIZE = 20;
+
+    private static final int DS_DEF_SIZE = 120;
+
+    private static final int CF_NAM_SIZE = 20;
+
+    private static final int PDP_PREP_SIZE = 112;
+
+    private static final int CDP_PREP_SIZE = 80;
+
+    private static final int PAR_SIZE = 80;
+
+    private static final int VALUE_SIZE = 8;
+
+    /**
+     * The layouts of the structures on the platforms rrdtool is built on:
+     * LP64, ILP32 with 8 byte aligned doubles (i.e. ARM), and ILP32 with
+     * 4 byte aligned doubles (i.e. x86).
+     */
+    private static final Layout[] LAYOUTS = new Layout[] {
+        new Layout(8, 8),
+        new Layout(4, 8),
+        new Layout(4, 4)
+    };
+
+    private static class Layout {
+        private final int m_longSize;
+        private final int m_statHeadSize;
+        private final int m_floatCookieOffset;
+        private final int m_dsCntOffset;
+        private final int m_rraDefSize;
+        private final int m_rowCntOffset;
+
+        private Layout(final int longSize, final int doubleAlignment) {
+            m_longSize = longSize;
+            // char cookie[4], char version[5], double float_cookie
+            m_floatCookieOffset = align(9, doubleAlignment);
+            // unsigned long ds_cnt, rra_cnt, pdp_step, unival par[10]
+            m_dsCntOffset = m_floatCookieOffset + 8;
+            m_statHeadSize = align(m_dsCntOffset + 3 * longSize, doubleAlignment) + PAR_SIZE;
+            // char cf_nam[20], unsigned long row_cnt, pdp_cnt, unival par[10]
+            m_rowCntOffset = align(CF_NAM_SIZE, longSize);
+            m_rraDefSize = align(m_rowCntOffset + 2 * longSize, doubleAlignment) + PAR_SIZE;
+        }
+
+        private static int align(final int offset, final int alignment) {
+            return (offset + alignment - 1) / alignment * alignment;
+        }
+    }
+
+    /**
+     * A round robin archive.
+     */
+    public static class Archive {
+        private final String m_consolidationFunction;
+        private final long m_rowCount;
+        private final long m_pdpCount;
+        private final long m_currentRow;
+        private final long m_offset;
+
+        private Archive(final String consolidationFunction, final long rowCount, final long pdpCount, final long currentRow, final long offset) {
+            m_consolidationFunction = consolidationFunction;
+            m_rowCount = rowCount;
+            m_pdpCount = pdpCount;
+            m_currentRow = currentRow;
+            m_offset = offset;
+        }
+
+        public String getConsolidationFunction() {
+            return m_consolidationFunction;
+        }
+
+        public long getRowCount() {
+            return m_rowCount;
+        }
+
+        public long getPdpCount() {
+            return m_pdpCount;
+        }
+    }
+
+    /**
+     * The values fetched from an archive, by data source. The first row holds
+     * the value for the interval ending at {@code start + step}, the last one
+     * the value for the interval ending at {@code end}.
+     */
+    public static class FetchData {
+        private final long m_start;
+        private final long m_end;
+        private final long m_step;
+        private final String[] m_dataSources;
+        private final double[][] m_values;
+
+        private FetchData(final long start, final long end, final long step, final String[] dataSources, final double[][] values) {
+            m_start = start;
+            m_end = end;
+            m_step = step;
+            m_dataSources = dataSources;
+            m_values = values;
+        }
+
+        public long getStart() {
+            return m_start;
+        }
+
+        public long getEnd() {
+            return m_end;
+        }
+
+        public long getStep() {
+            return m_step;
+        }
+
+        public int getRowCount() {
+            return (int) ((m_end - m_start) / m_step);
+        }
+
+        public int getDataSourceIndex(final String dataSource) {
+            for (int i = 0; i < m_dataSources.length; i++) {
+                if (m_dataSources[i].equals(dataSource)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        public double[] getValues(final int dataSourceIndex) {
+            return m_values[dataSourceIndex];
+        }
+
+        /**
+         * Returns the value of the row covering the interval ending after
+         * the given time, or NaN if the time falls outside of the rows.
+         */
+        public double getValue(final int dataSourceIndex, final long time) {
+            final double[] values = m_values[dataSourceIndex];
+            final long row = (long) Math.floor((double) (time - m_start) / m_step);
+            if (row < 0 || row >= values.length) {
+                return Double.NaN;
+            }
+            return values[(int) row];
+        }
+
+        /**
+         * Consolidates the rows so that there is one row every
+         * {@code step} seconds, rounded up to a multiple of the current
+         * step. The start and end are moved outwards to the new step, and
+         * the rows that only partially cover the new intervals are
+         * unknown.
+         */
+        public FetchData reduce(final String consolidationFunction, final long step) {
+            if (step <= m_step) {
+                return this;
+            }
+            final int reduceFactor = (int) Math.ceil((double) step / m_step);
+            final long newStep = m_step * reduceFactor;
+            final long startOffset = m_start % newStep;
+            final long endOffset = m_end % newStep;
+            final long newStart = m_start - startOffset;
+            final long newEnd = endOffset != 0 ? m_end - endOffset + newStep : m_end;
+
+            final double[][] values = new double[m_dataSources.length][(int) ((newEnd - newStart) / newStep)];
+            for (final double[] column : values) {
+                Arrays.fill(column, Double.NaN);
+            }
+
+            long rowCount = (m_end - m_start) / m_step;
+            int srcRow = 0;
+            int dstRow = 0;
+            if (startOffset != 0) {
+                // the first destination row only partially overlaps the source rows
+                final long skipRows = reduceFactor - startOffset / m_step;
+                srcRow += skipRows;
+                rowCount -= skipRows;
+                dstRow++;
+            }
+            if (endOffset != 0) {
+                // and so does the last one
+                rowCount -= endOffset / m_step;
+            }
+
+            for (; rowCount >= reduceFactor; rowCount -= reduceFactor, srcRow += reduceFactor, dstRow++) {
+                for (int ds = 0; ds < m_dataSources.length; ds++) {
+                    values[ds][dstRow] = consolidate(consolidationFunction, m_values[ds], srcRow, reduceFactor);
+                }
+            }
+            return new FetchData(newStart, newEnd, newStep, m_dataSources, values);
+        }
+
+        private static double consolidate(final String consolidationFunction, final double[] values, final int from, final int count) {
+            double value = Double.NaN;
+            int validValues = 0;
+            for (int i = from; i < from + count && i < values.length; i++) {
+                final double v = values[i];
+                if (Double.isNaN(v)) {
+                    continue;
+                }
+                validValues++;
+                if (Double.isNaN(value)) {
+                    value = v;
+                } else if ("MIN".equals(consolidationFunction)) {
+                    value = Math.min(value, v);
+                } else if ("MAX".equals(consolidationFunction) || "FAILURES".equals(consolidationFunction)) {
+                    value = Math.max(value, v);
+                } else if ("LAST".equals(consolidationFunction)) {
+                    value = v;
+                } else {
+                    value += v;
+                }
+            }
+            if (validValues == 0) {
+                return Double.NaN;
+            }
+            switch (consolidationFunction) {
+                case "MIN":
+                case "MAX":
+                case "LAST":
+                case "FAILURES":
+                    return value;
+                default:
+                    return value / validValues;
+            }
+        }
+    }
+
+    private final File m_file;
+
+    private final FileChannel m_channel;
+
+    private final ByteOrder m_byteOrder;
+
+    private final String m_version;
+
+    private final long m_pdpStep;
+
+    private final long m_lastUpdate;
+
+    private final String[] m_dataSources;
+
+    private final Archive[] m_archives;
+
+    /**
+     * Opens the file and reads its header. The values are only read when
+     * fetched.
+     */
+    public RrdtoolFile(final File file) throws IOException {
+        m_file = file;
+        m_channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            final long fileSize = m_channel.size();
+            final ByteBuffer statHead = read(0, (int) Math.min(fileSize, 128));
+            if (statHead.limit() < 16 || !Arrays.equals(COOKIE, Arrays.copyOf(statHead.array(), COOKIE.length))) {
+                throw new IOException("Not an RRD file: " + file);
+            }
+            m_version = new String(statHead.array(), 4, 4, StandardCharsets.US_ASCII);
+
+            Layout layout = null;
+            ByteOrder byteOrder = null;
+            for (final Layout candidate : LAYOUTS) {
+                for (final ByteOrder order : new ByteOrder[] { ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN }) {
+                    statHead.order(order);
+                    if (statHead.limit() >= candidate.m_statHeadSize
+                            && statHead.getDouble(candidate.m_floatCookieOffset) == FLOAT_COOKIE
+                            && getHeaderSize(statHead, candidate, fileSize) == fileSize) {
+                        layout = candidate;
+                        byteOrder = order;
+                        break;
+                    }
+                }
+                if (layout != null) {
+                    break;
+                }
+            }
+            if (layout == null) {
+                throw new IOException("Unsupported RRD file, it was either created on an incompatible platform or is truncated: " + file);
+            }
+            m_byteOrder = byteOrder;
+            statHead.order(byteOrder);
+
+            final int dsCount = (int) getUnsignedLong(statHead, layout.m_dsCntOffset, layout);
+            final int rraCount = (int) getUnsignedLong(statHead, layout.m_dsCntOffset + layout.m_longSize, layout);
+            m_pdpStep = getUnsignedLong(statHead, layout.m_dsCntOffset + 2 * layout.m_longSize, layout);
+
+            final int liveHeadSize = getLiveHeadSize(layout);
+            final int headerLength = layout.m_statHeadSize + dsCount * DS_DEF_SIZE + rraCount * layout.m_rraDefSize
+                    + liveHeadSize + dsCount * PDP_PREP_SIZE + rraCount * dsCount * CDP_PREP_SIZE + rraCount * layout.m_longSize;
+            final ByteBuffer header = read(0, headerLength).order(byteOrder);
+
+            int offset = layout.m_statHeadSize;
+            m_dataSources = new String[dsCount];
+            for (int i = 0; i < dsCount; i++) {
+                m_dataSources[i] = getString(header, offset, DS_NAM_SIZE);
+                offset += DS_DEF_SIZE;
+            }
+
+            final int rraDefOffset = offset;
+            offset += rraCount * layout.m_rraDefSize;
+            m_lastUpdate = getLong(header, offset, layout);
+            offset += liveHeadSize + dsCount * PDP_PREP_SIZE + rraCount * dsCount * CDP_PREP_SIZE;
+            final int rraPtrOffset = offset;
+
+            m_archives = new Archive[rraCount];
+            long rraOffset = headerLength;
+            for (int i = 0; i < rraCount; i++) {
+                final int rraDef = rraDefOffset + i * layout.m_rraDefSize;
+                final long rowCount = getUnsignedLong(header, rraDef + layout.m_rowCntOffset, layout);
+                final long pdpCount = getUnsignedLong(header, rraDef + layout.m_rowCntOffset + layout.m_longSize, layout);
+                final long currentRow = getUnsignedLong(header, rraPtrOffset + i * layout.m_longSize, layout);
+                m_archives[i] = new Archive(getString(header, rraDef, CF_NAM_SIZE), rowCount, pdpCount, currentRow, rraOffset);
+                rraOffset += rowCount * dsCount * VALUE_SIZE;
+            }
+        } catch (final IOException | RuntimeException e) {
+            m_channel.close();
+            throw e;
+        }
+    }
+
+    public String getVersion() {
+        return m_version;
+    }
+
+    public ByteOrder getByteOrder() {
+        return m_byteOrder;
+    }
+
+    public long getPdpStep() {
+        return m_pdpStep;
+    }
+
+    public long getLastUpdate() {
+        return m_lastUpdate;
+    }
+
+    public String[] getDataSources() {
+        return m_dataSources.clone();
+    }
+
+    public Archive[] getArchives() {
+        return m_archives.clone();
+    }
+
+    /**
+     * Fetches the values of all the data sources between the given times,
+     * in seconds, from the archive of the given consolidation function that
+     * best matches the range and the step.
+     *
+     * The archive covering the start whose step is the closest to the
+     * requested one is used, or the one covering most of the range when
+     * none of them reaches back to the start. The start and end are then
+     * aligned on the step of the archive.
+     */
+    public FetchData fetch(final String consolidationFunction, final long start, final long end, final long step) throws IOException, RrdException {
+        Archive bestFull = null;
+        Archive bestPart = null;
+        long bestFullStepDiff = 0;
+        long bestPartStepDiff = 0;
+        long bestMatch = 0;
+        for (final Archive archive : m_archives) {
+            if (!archive.getConsolidationFunction().equals(consolidationFunction)) {
+                continue;
+            }
+            final long archiveStep = m_pdpStep * archive.m_pdpCount;
+            final long calEnd = m_lastUpdate - m_lastUpdate % archiveStep;
+            final long calStart = calEnd - archiveStep * archive.m_rowCount;
+            final long stepDiff = Math.abs(step - archiveStep);
+            if (calStart <= start) {
+                if (bestFull == null || stepDiff < bestFullStepDiff) {
+                    bestFull = archive;
+                    bestFullStepDiff = stepDiff;
+                }
+            } else {
+                // this archive only partially covers the range
+                final long match = (end - start) - (calStart - start);
+                if (bestPart == null || bestMatch < match || (bestMatch == match && stepDiff < bestPartStepDiff)) {
+                    bestPart = archive;
+                    bestMatch = match;
+                    bestPartStepDiff = stepDiff;
+                }
+            }
+        }
+        final Archive archive = bestFull != null ? bestFull : bestPart;
+        if (archive == null) {
+            throw new RrdException("The RRD file " + m_file + " does not contain an RRA matching the " + consolidationFunction + " consolidation function.");
+        }
+
+        final long archiveStep = m_pdpStep * archive.m_pdpCount;
+        final long alignedStart = start - start % archiveStep;
+        final long alignedEnd = end + (archiveStep - end % archiveStep);
+        final int rows = (int) ((alignedEnd - alignedStart) / archiveStep);
+
+        final double[][] values = new double[m_dataSources.length][rows];
+        for (final double[] column : values) {
+            Arrays.fill(column, Double.NaN);
+        }
+
+        // rows are numbered from the oldest one in the archive
+        final long archiveEnd = m_lastUpdate - m_lastUpdate % archiveStep;
+        final long archiveStart = archiveEnd - archiveStep * (archive.m_rowCount - 1);
+        final long startOffset = (alignedStart + archiveStep - archiveStart) / archiveStep;
+        final long endOffset = (archiveEnd - alignedEnd) / archiveStep;
+
+        final long first = Math.max(startOffset, 0);
+        final long last = Math.min(archive.m_rowCount - endOffset, archive.m_rowCount);
+        if (first < last) {
+            // the rows are stored in a ring, starting after the current row
+            final long firstRow = (archive.m_currentRow + 1 + first) % archive.m_rowCount;
+            final long contiguousRows = Math.min(last - first, archive.m_rowCount - firstRow);
+            readRows(archive, firstRow, contiguousRows, values, (int) (first - startOffset));
+            if (contiguousRows < last - first) {
+                readRows(archive, 0, last - first - contiguousRows, values, (int) (first - startOffset + contiguousRows));
+            }
+        }
+        return new FetchData(alignedStart, alignedEnd, archiveStep, m_dataSources, values);
+    }
+
+    @Override
+    public void close() throws IOException {
+        m_channel.close();
+    }
+
+    private void readRows(final Archive archive, final long row, final long count, final double[][] values, final int index) throws IOException {
+        final int dsCount = m_dataSources.length;
+        final ByteBuffer buffer = read(archive.m_offset + row * dsCount * VALUE_SIZE, (int) (count * dsCount * VALUE_SIZE)).order(m_byteOrder);
+        for (int i = 0; i < count; i++) {
+            if (index + i < 0 || index + i >= values[0].length) {
+                continue;
+            }
+            for (int ds = 0; ds < dsCount; ds++) {
+                values[ds][index + i] = buffer.getDouble((i * dsCount + ds) * VALUE_SIZE);
+            }
+        }
+    }
+
+    private ByteBuffer read(final long position, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (m_channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of RRD file " + m_file);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private int getLiveHeadSize(final Layout layout) {
+        // 'time_t last_up' was followed by 'long last_up_usec' in version 3
+        return m_version.compareTo("0003") >= 0 ? 2 * layout.m_longSize : layout.m_longSize;
+    }
+
+    private long getHeaderSize(final ByteBuffer statHead, final Layout layout, final long fileSize) {
+        final long dsCount = getUnsignedLong(statHead, layout.m_dsCntOffset, layout);
+        final long rraCount = getUnsignedLong(statHead, layout.m_dsCntOffset + layout.m_longSize, layout);
+        if (dsCount <= 0 || rraCount <= 0 || dsCount > fileSize || rraCount > fileSize) {
+            return -1;
+        }
+        // the row counts are part of the header, don't read beyond the file if it isn't ours
+        final long rraDefsEnd = layout.m_statHeadSize + dsCount * DS_DEF_SIZE + rraCount * layout.m_rraDefSize;
+        if (rraDefsEnd > fileSize) {
+            return -1;
+        }
+        try {
+            final ByteBuffer rraDefs = read(layout.m_statHeadSize + dsCount * DS_DEF_SIZE, (int) (rraCount * layout.m_rraDefSize)).order(statHead.order());
+            long rows = 0;
+            for (int i = 0; i < rraCount; i++) {
+                rows += getUnsignedLong(rraDefs, i * layout.m_rraDefSize + layout.m_rowCntOffset, layout);
+            }
+            return rraDefsEnd + getLiveHeadSize(layout) + dsCount * PDP_PREP_SIZE + rraCount * dsCount * CDP_PREP_SIZE
+                    + rraCount * layout.m_longSize + rows * dsCount * VALUE_SIZE;
+        } catch (final IOException e) {
+            return -1;
+        }
+    }
+
+    private static long getLong(final ByteBuffer buffer, final int offset, final Layout layout) {
+        return layout.m_longSize == 8 ? buffer.getLong(offset) : buffer.getInt(offset);
+    }
+
+    private static long getUnsignedLong(final ByteBuffer buffer, final int offset, final Layout layout) {
+        return layout.m_longSize == 8 ? buffer.getLong(offset) : buffer.getInt(offset) & 0xffffffffL;
+    }
+
+    private static String getString(final ByteBuffer buffer, final int offset, final int size) {
+        int length = 0;
+        while (length < size && buffer.get(offset + length) != 0) {
+            length++;
+        }
+        return new String(buffer.array(), offset, length, StandardCharsets.US_ASCII);
+    }
+}
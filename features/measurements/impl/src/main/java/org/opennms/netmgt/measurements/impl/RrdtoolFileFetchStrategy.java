@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.jrobin.core.RrdException;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.impl.RrdtoolFile.FetchData;
+import org.opennms.netmgt.measurements.model.Source;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.math.LongMath;
+
+/**
+ * Used to fetch measurements from RRD files by reading them directly,
+ * instead of invoking 'rrdtool xport' via exec.
+ *
+ * The archives are selected, consolidated and aligned the same way
+ * rrdtool does when exporting the following definitions:
+ * <pre>
+ *   rrdtool xport --step &lt;step&gt; --start &lt;start&gt; --end &lt;end&gt; --maxrows &lt;maxrows&gt; \
+ *     DEF:1=&lt;rrdFile&gt;:&lt;ds&gt;:&lt;aggregation&gt; XPORT:1:1 ...
+ * </pre>
+ */
+public class RrdtoolFileFetchStrategy extends AbstractRrdBasedFetchStrategy {
+
+    /**
+     * Number of rows used by 'rrdtool xport' when --maxrows is not set.
+     */
+    public static final int DEFAULT_MAX_ROWS = 400;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected FetchResults fetchMeasurements(long start, long end, long step, int maxrows,
+            Map<Source, String> rrdsBySource, Map<String, Object> constants) throws RrdException {
+
+        final long startInSeconds = (long) Math.floor(start / 1000);
+        final long endInSeconds = (long) Math.floor(end / 1000);
+
+        long stepInSeconds = (long) Math.floor(step / 1000);
+        // The step must be strictly positive
+        if (stepInSeconds <= 0) {
+            stepInSeconds = 1;
+        }
+
+        if (endInSeconds < startInSeconds) {
+            throw new RrdException("The start time must be before the end time.");
+        }
+
+        // Limit the number of rows, like 'rrdtool xport' does
+        stepInSeconds = Math.max(stepInSeconds, (endInSeconds - startInSeconds) / (maxrows > 0 ? maxrows : DEFAULT_MAX_ROWS));
+
+        // Fetch the values of each file and consolidation function only once
+        final Map<String, FetchData> fetchDataByFileAndCf = Maps.newHashMap();
+        final List<Source> sources = Lists.newArrayListWithCapacity(rrdsBySource.size());
+        final List<FetchData> fetchDataBySource = Lists.newArrayListWithCapacity(rrdsBySource.size());
+        final List<Integer> dsIndexBySource = Lists.newArrayListWithCapacity(rrdsBySource.size());
+        long xportStep = 0;
+        for (final Map.Entry<Source, String> entry : rrdsBySource.entrySet()) {
+            final Source source = entry.getKey();
+            final String rrdFile = entry.getValue();
+            final String key = rrdFile + '\0' + source.getAggregation();
+
+            FetchData fetchData = fetchDataByFileAndCf.get(key);
+            if (fetchData == null) {
+                try (final RrdtoolFile rrd = new RrdtoolFile(new File(rrdFile))) {
+                    fetchData = rrd.fetch(source.getAggregation(), startInSeconds, endInSeconds, stepInSeconds);
+                } catch (IOException e) {
+                    throw new RrdException("An error occured while reading '" + rrdFile + "'.", e);
+                }
+                fetchData = fetchData.reduce(source.getAggregation(), stepInSeconds);
+                fetchDataByFileAndCf.put(key, fetchData);
+            }
+
+            final int dsIndex = fetchData.getDataSourceIndex(source.getEffectiveDataSource());
+            if (dsIndex < 0) {
+                throw new RrdException("No DS called '" + source.getEffectiveDataSource() + "' in '" + rrdFile + "'.");
+            }
+
+            sources.add(source);
+            fetchDataBySource.add(fetchData);
+            dsIndexBySource.add(dsIndex);
+            // Use a step that is common to all of the sources
+            xportStep = xportStep == 0 ? fetchData.getStep() : LongMath.gcd(xportStep, fetchData.getStep());
+        }
+        if (xportStep == 0) {
+            xportStep = stepInSeconds;
+        }
+
+        final long xportStart = startInSeconds - startInSeconds % xportStep;
+        final long xportEnd = endInSeconds - endInSeconds % xportStep + xportStep;
+        final int numRows = (int) ((xportEnd - xportStart) / xportStep);
+
+        // Each row holds the values for the interval ending at its timestamp
+        final long timestamps[] = new long[numRows];
+        for (int i = 0; i < numRows; i++) {
+            timestamps[i] = (xportStart + xportStep * (i + 1)) * 1000;
+        }
+
+        final Map<String, double[]> columns = Maps.newHashMapWithExpectedSize(sources.size());
+        for (int j = 0; j < sources.size(); j++) {
+            final FetchData fetchData = fetchDataBySource.get(j);
+            final int dsIndex = dsIndexBySource.get(j);
+            final double[] values = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                values[i] = fetchData.getValue(dsIndex, xportStart + xportStep * i);
+            }
+            columns.put(sources.get(j).getLabel(), values);
+        }
+
+        return new FetchResults(timestamps, columns, xportStep * 1000, constants);
+    }
+
+}
@@ -34,12 +34,22 @@ import org.opennms.netmgt.measurements.api.MeasurementFetchStrategyProvider;
 import org.opennms.netmgt.rrd.rrdtool.JniRrdStrategy;
 
 public class RrdtoolXportFetchStrategyProvider implements MeasurementFetchStrategyProvider {
+
+    /**
+     * When set to true, measurements are fetched by reading the RRD files
+     * directly instead of invoking 'rrdtool xport'.
+     */
+    public static final String READ_RRD_FILES_PROPERTY = "org.opennms.netmgt.measurements.rrdtool.readFiles";
+
     @Override
     public Class<? extends MeasurementFetchStrategy> getStrategyClass(String timeSeriesStrategyName, String rrdStrategyClass) {
         if(!TimeSeries.RRD_TIME_SERIES_STRATEGY_NAME.equalsIgnoreCase(timeSeriesStrategyName) ||
                 !JniRrdStrategy.class.getCanonicalName().equals(rrdStrategyClass)) {
             return null;
         }
+        if (Boolean.getBoolean(READ_RRD_FILES_PROPERTY)) {
+            return RrdtoolFileFetchStrategy.class;
+        }
         return RrdtoolXportFetchStrategy.class;
     }
 }
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opennms.netmgt.measurements.api.ExpressionEngine;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.impl.ColumnarExpressionCompiler.UnsupportedExpressionException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.opennms.netmgt.measurements.model.Source;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Verifies that the {@link ColumnarExpressionEngine} returns exactly the same
+ * values as the {@link JEXLExpressionEngine}, including NaNs, infinities and
+ * signed zeros.
+ */
+public class ColumnarExpressionEngineTest {
+
+    private static final double[] VALUES = new double[] {
+            0d, -0d, 1d, -1d, 0.5d, -2.5d, 3d, 100d, 1e15d,
+            Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY
+    };
+
+    /**
+     * Expressions that must be evaluated column by column.
+     */
+    private static final String[] COLUMNAR_EXPRESSIONS = new String[] {
+            "x * 5 + 7",
+            "A + B", "A - B", "A * B", "A / B", "A % B", "A - -B", "-A", "(A + B) * (A - B)",
+            "( ( (A == __inf) || (A == __neg_inf) || (B == __inf) || (B == __neg_inf) || (B < A) ) ? NaN : B )",
+            "math:min(A,B)", "math:max(A,B)", "math:max(A, 0)", "math:abs(A)", "math:signum(B)",
+            "( ( A == NaN ) ? B : ( ( B == NaN ) ? A : math:min(A,B) ) )",
+            "( ( A == NaN ) ? B : ( ( B == NaN ) ? A : math:max(A,B) ) )",
+            "( ( ( A == NaN ) && ( B == NaN ) ) ? NaN : ( ( A == NaN ) ? B : ( ( B == NaN ) ? A : ( A + B ) ) ) )",
+            "math:sin(A)", "math:cos(A)", "math:log(A)", "math:exp(A)", "math:sqrt(A)", "math:atan(A)",
+            "math:atan2(A,B)", "math:pow(A, 2)", "math:floor(A)", "strictmath:sin(A)", "strictmath:hypot(A, B)",
+            "timestamp / 125.0d", "timestamp / 1000 * 3", "timestamp % 7", "timestamp - 1", "-timestamp",
+            "speed / 0.62137", "speed * 2 - timestamp", "1 * __diff_time", "0.1 + A", "-0.62137", "0.62137",
+            "A == B ? 1 : 0", "A != B ? 1 : 0", "A < B ? 1 : 0", "A <= B ? 1 : 0", "A > B ? 1 : 0", "A >= B ? 1 : 0",
+            "(A > 0) == (B > 0) ? 1 : 0", "A >= B && B > 0 ? A : B", "!(A > 1) ? A : B", "!A ? 1 : 2",
+            "A ?: B", "A ?: 0.5", "A > 0 ? A : 0", "A > 0 ? 0.3 : -0.7", "A == NaN ? 0 : A", "timestamp > 5000 ? A : B",
+            "A > 0 ? 1 : 0.5", "math:max(A, 0.5)", "math:sin(-0.62137)", "-(A > 0 ? 0.3 : -0.7)", "timestamp * A",
+            "A.ifSpeed / 8"
+    };
+
+    /**
+     * Expressions that must be evaluated with JEXL.
+     */
+    private static final String[] JEXL_EXPRESSIONS = new String[] {
+            "(A > 0 ? A : 1) / 2", "math:round(A)", "math:max(1, 2)", "math:abs(0.5)", "undefined + 1",
+            "timestamp / 0", "y + 1", "A; B", "-(A > 0 ? A : 1)"
+    };
+
+    private final ColumnarExpressionEngine m_columnarEngine = new ColumnarExpressionEngine();
+
+    private final ExpressionEngine m_jexlEngine = new JEXLExpressionEngine();
+
+    @Test
+    public void canEvaluateColumnByColumn() throws ExpressionException, UnsupportedExpressionException {
+        for (final String expression : COLUMNAR_EXPRESSIONS) {
+            final List<Expression> expressions = Lists.newArrayList(new Expression("y", expression, false));
+            assertNotNull(expression, m_columnarEngine.evaluate(expressions, buildResults()).get("y"));
+            assertSameResults(expressions);
+        }
+    }
+
+    @Test
+    public void fallsBackToJexl() throws ExpressionException {
+        for (final String expression : JEXL_EXPRESSIONS) {
+            final List<Expression> expressions = Lists.newArrayList(new Expression("y", expression, false));
+            try {
+                m_columnarEngine.evaluate(expressions, buildResults());
+                fail("Expected '" + expression + "' to be evaluated with JEXL.");
+            } catch (UnsupportedExpressionException e) {
+                // Expected
+            }
+            assertSameResults(expressions);
+        }
+    }
+
+    @Test
+    public void canReferenceOtherExpressions() throws ExpressionException, UnsupportedExpressionException {
+        final List<Expression> expressions = Lists.newArrayList(
+                new Expression("sum", "A + B", true),
+                new Expression("total", "sum * 2", false),
+                new Expression("NaN", "total * 8", false),
+                new Expression("scaled", "NaN / 2", false));
+        final Map<String, double[]> values = m_columnarEngine.evaluate(expressions, buildResults());
+        assertEquals(4, values.size());
+
+        final FetchResults results = assertSameResults(expressions);
+        assertEquals(false, results.getColumns().containsKey("sum"));
+    }
+
+    @Test(expected=ExpressionException.class)
+    public void failsWhenExpressionHasInvalidSyntax() throws ExpressionException {
+        m_columnarEngine.applyExpressions(buildRequest(Lists.newArrayList(new Expression("y", "/", false))), buildResults());
+    }
+
+    @Test(expected=ExpressionException.class)
+    public void failsWhenExpressionDoesNotReturnADouble() throws ExpressionException {
+        m_columnarEngine.applyExpressions(buildRequest(Lists.newArrayList(new Expression("y", "A > B", false))), buildResults());
+    }
+
+    private FetchResults assertSameResults(final List<Expression> expressions) throws ExpressionException {
+        final FetchResults expected = buildResults();
+        m_jexlEngine.applyExpressions(buildRequest(expressions), expected);
+        final FetchResults actual = buildResults();
+        m_columnarEngine.applyExpressions(buildRequest(expressions), actual);
+
+        assertEquals(expected.getColumns().keySet(), actual.getColumns().keySet());
+        for (final Map.Entry<String, double[]> entry : expected.getColumns().entrySet()) {
+            final double[] expectedValues = entry.getValue();
+            final double[] actualValues = actual.getColumns().get(entry.getKey());
+            for (int i = 0; i < expectedValues.length; i++) {
+                if (Double.doubleToLongBits(expectedValues[i]) != Double.doubleToLongBits(actualValues[i])) {
+                    fail(String.format("%s: expected %s but got %s for row %d of '%s'", expressions, expectedValues[i],
+                            actualValues[i], i, entry.getKey()));
+                }
+            }
+        }
+        return actual;
+    }
+
+    private static QueryRequest buildRequest(final List<Expression> expressions) {
+        final QueryRequest request = new QueryRequest();
+        request.setSources(Lists.newArrayList(new Source("A", "resource", "A", null, false),
+                new Source("B", "resource", "B", null, false), new Source("x", "resource", "x", null, false)));
+        request.setExpressions(expressions);
+        return request;
+    }
+
+    /**
+     * Builds one row for every combination of the values of A and B.
+     */
+    private static FetchResults buildResults() {
+        final int N = VALUES.length * VALUES.length;
+        final long timestamps[] = new long[N];
+        final double a[] = new double[N];
+        final double b[] = new double[N];
+        final double x[] = new double[N];
+        for (int i = 0; i < N; i++) {
+            timestamps[i] = i * 1000;
+            a[i] = VALUES[i / VALUES.length];
+            b[i] = VALUES[i % VALUES.length];
+            x[i] = i;
+        }
+        final Map<String, double[]> columns = Maps.newHashMap();
+        columns.put("A", a);
+        columns.put("B", b);
+        columns.put("x", x);
+
+        final Map<String, Object> constants = Maps.newHashMap();
+        constants.put("speed", 65);
+        constants.put("A.ifSpeed", 100000000d);
+        constants.put("name", "eth0");
+        return new FetchResults(timestamps, columns, 1, constants);
+    }
+}
@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteOrder;
+import java.util.Map;
+
+import org.jrobin.core.Archive;
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdException;
+import org.junit.Test;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.impl.RrdtoolFile.FetchData;
+import org.opennms.netmgt.measurements.model.Source;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Verifies that the values read from an .rrd file created by rrdtool
+ * on x86_64 match the ones returned by 'rrdtool xport' and the ones of
+ * the same file converted to JRobin.
+ */
+public class RrdtoolFileFetchStrategyTest {
+
+    private static final File RRD_FILE = new File("src/test/resources/rrd/ifInOctets.rrd");
+
+    private static final File JRB_FILE = new File("src/test/resources/rrd/ifInOctets.jrb");
+
+    private final RrdtoolFileFetchStrategy m_strategy = new RrdtoolFileFetchStrategy();
+
+    @Test
+    public void canReadHeader() throws Exception {
+        try (RrdtoolFile rrd = new RrdtoolFile(RRD_FILE)) {
+            assertEquals("0003", rrd.getVersion());
+            assertEquals(ByteOrder.LITTLE_ENDIAN, rrd.getByteOrder());
+            assertEquals(300, rrd.getPdpStep());
+            assertEquals(1417047045L, rrd.getLastUpdate());
+            assertArrayEquals(new String[] { "ifInOctets" }, rrd.getDataSources());
+
+            final RrdtoolFile.Archive[] archives = rrd.getArchives();
+            assertEquals(5, archives.length);
+            assertEquals("AVERAGE", archives[1].getConsolidationFunction());
+            assertEquals(12, archives[1].getPdpCount());
+            assertEquals(1488, archives[1].getRowCount());
+            assertEquals("MIN", archives[4].getConsolidationFunction());
+            assertEquals(288, archives[4].getPdpCount());
+            assertEquals(366, archives[4].getRowCount());
+        }
+    }
+
+    @Test
+    public void canFetchLikeRrdtoolXport() throws Exception {
+        final Map<Source, String> rrdsBySource = Maps.newHashMap();
+        rrdsBySource.put(createSource("ifInOctetsAvg", "AVERAGE"), RRD_FILE.getAbsolutePath());
+        rrdsBySource.put(createSource("ifInOctetsMin", "MIN"), RRD_FILE.getAbsolutePath());
+        rrdsBySource.put(createSource("ifInOctetsMax", "MAX"), RRD_FILE.getAbsolutePath());
+
+        final FetchResults results = fetch(1414602000000L, 1417046400000L, 1000L, 700, rrdsBySource);
+
+        // rrdtool xport --step 1 --start 1414602000 --end 1417046400 --maxrows 700
+        //   DEF:1=ifInOctets.rrd:ifInOctets:AVERAGE XPORT:1:1 DEF:2=...:MIN XPORT:2:2 DEF:3=...:MAX XPORT:3:3
+        final long[] timestamps = results.getTimestamps();
+        final Map<String, double[]> columns = results.getColumns();
+        assertEquals(3600000L, results.getStep());
+        assertEquals(680, timestamps.length);
+        assertEquals(1414605600000L, timestamps[0]);
+        assertEquals(1417050000000L, timestamps[679]);
+
+        final int idx = 7;
+        assertEquals(1414630800000L, timestamps[idx]);
+        assertEquals(270.66140826873385, columns.get("ifInOctetsAvg")[idx], 0.0001);
+        assertEquals(259.54086378737543, columns.get("ifInOctetsMin")[idx], 0.0001);
+        assertEquals(67872.22455490529, columns.get("ifInOctetsMax")[idx], 0.0001);
+
+        // The last update was at 1417047045, the row ending after it is still unknown
+        assertTrue(Double.isNaN(columns.get("ifInOctetsAvg")[679]));
+    }
+
+    @Test
+    public void canConsolidateFinerArchives() throws Exception {
+        final long start = 1416960900L;
+        final long end = 1417046400L;
+
+        final Map<Source, String> rrdsBySource = Maps.newHashMap();
+        rrdsBySource.put(createSource("ifInOctets", "AVERAGE"), RRD_FILE.getAbsolutePath());
+        // The 5 minute archive covers the last day, 85500s / 50 rows is consolidated to a 30 minute step
+        final FetchResults results = fetch(start * 1000, end * 1000, 1000L, 50, rrdsBySource);
+        assertEquals(1800000L, results.getStep());
+
+        final long[] timestamps = results.getTimestamps();
+        final double[] values = results.getColumns().get("ifInOctets");
+        assertEquals((end - (start - start % 1800)) / 1800 + 1, timestamps.length);
+        assertEquals((start - start % 1800 + 1800) * 1000, timestamps[0]);
+
+        try (RrdtoolFile rrd = new RrdtoolFile(RRD_FILE)) {
+            final FetchData fiveMinutes = rrd.fetch("AVERAGE", start, end, 300);
+            assertEquals(300, fiveMinutes.getStep());
+
+            // The first row only partially covers the range and is left unknown
+            assertTrue(Double.isNaN(values[0]));
+            int known = 0;
+            for (int i = 1; i < timestamps.length - 1; i++) {
+                double sum = 0;
+                int count = 0;
+                for (long t = timestamps[i] / 1000 - 1800; t < timestamps[i] / 1000; t += 300) {
+                    final double value = fiveMinutes.getValue(0, t);
+                    if (!Double.isNaN(value)) {
+                        sum += value;
+                        count++;
+                    }
+                }
+                if (count == 0) {
+                    assertTrue(Double.isNaN(values[i]));
+                } else {
+                    assertEquals(sum / count, values[i], 0.000001);
+                    known++;
+                }
+            }
+            assertTrue(known > 40);
+        }
+    }
+
+    @Test
+    public void matchesJRobinArchives() throws Exception {
+        final RrdDb jrb = new RrdDb(JRB_FILE.getAbsolutePath(), true);
+        try (RrdtoolFile rrd = new RrdtoolFile(RRD_FILE)) {
+            assertEquals(jrb.getLastUpdateTime(), rrd.getLastUpdate());
+            for (int i = 0; i < jrb.getArcCount(); i++) {
+                final Archive archive = jrb.getArchive(i);
+                final long step = archive.getArcStep();
+                final org.jrobin.core.FetchData expected = jrb.createFetchRequest(archive.getConsolFun(),
+                        archive.getStartTime(), archive.getEndTime(), step).fetchData();
+                // rrdtool returns the rows ending after the start
+                final FetchData actual = rrd.fetch(archive.getConsolFun(), archive.getStartTime() - step, archive.getEndTime(), step);
+                assertEquals(step, actual.getStep());
+
+                final long[] timestamps = expected.getTimestamps();
+                final double[] values = expected.getValues(0);
+                for (int j = 0; j < timestamps.length; j++) {
+                    // The row ending at the timestamp
+                    // The JRB was converted from an 'rrdtool dump', which keeps 10 significant digits
+                    assertEquals(archive.getConsolFun() + " at " + timestamps[j], values[j], actual.getValue(0, timestamps[j] - step), Math.abs(values[j]) * 1e-9);
+                }
+            }
+        } finally {
+            jrb.close();
+        }
+    }
+
+    @Test(expected=RrdException.class)
+    public void failsOnMissingDataSource() throws Exception {
+        final Source source = createSource("ifInOctets", "AVERAGE");
+        source.setDataSource("ifOutOctets");
+        final Map<Source, String> rrdsBySource = Maps.newHashMap();
+        rrdsBySource.put(source, RRD_FILE.getAbsolutePath());
+        fetch(1414602000000L, 1417046400000L, 1000L, 700, rrdsBySource);
+    }
+
+    @Test(expected=RrdException.class)
+    public void failsOnMissingConsolidationFunction() throws Exception {
+        final Map<Source, String> rrdsBySource = Maps.newHashMap();
+        rrdsBySource.put(createSource("ifInOctets", "LAST"), RRD_FILE.getAbsolutePath());
+        fetch(1414602000000L, 1417046400000L, 1000L, 700, rrdsBySource);
+    }
+
+    private FetchResults fetch(long start, long end, long step, int maxrows, Map<Source, String> rrdsBySource) throws RrdException {
+        return m_strategy.fetchMeasurements(start, end, step, maxrows, rrdsBySource, Maps.<String, Object>newHashMap());
+    }
+
+    private static Source createSource(String label, String aggregation) {
+        final Source source = new Source();
+        source.setResourceId("node[1].interfaceSnmp[eth0-04013f75f101]");
+        source.setAttribute("ifInOctets");
+        source.setAggregation(aggregation);
+        source.setLabel(label);
+        return source;
+    }
+}
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link ServiceMonitor} which can poll services without holding on to
+ * the calling thread while waiting on the network.
+ *
+ * <P>
+ * The framework prefers {@link #pollAsync(MonitoredService, Map)} over
+ * {@link #poll(MonitoredService, Map)} for these monitors, so that the number
+ * of services that can be polled concurrently is no longer bounded by the
+ * size of the poller's thread pool.
+ * </P>
+ *
+ * <P>
+ * <STRONG>NOTE: </STRONG> The returned futures may be completed on a
+ * shared I/O thread. Callers must not block in the stages they chain
+ * on to them, and should switch to their own executor for any work
+ * that may block.
+ * </P>
+ */
+public interface AsyncServiceMonitor extends ServiceMonitor {
+
+    /**
+     * Polls the given service asynchronously.
+     *
+     * @param svc
+     *            Includes details about to the service being monitored.
+     * @param parameters
+     *            Includes the service parameters defined in <EM>poller-configuration.xml</EM> and those
+     *            returned by {@link #getRuntimeAttributes(MonitoredService, Map)}.
+     * @return a future which completes with the availability of the service,
+     *         or {@code null} if the service cannot be polled asynchronously with
+     *         the given parameters, in which case the caller should fall back to
+     *         {@link #poll(MonitoredService, Map)}.
+     */
+    public CompletableFuture<PollStatus> pollAsync(MonitoredService svc, Map<String, Object> parameters);
+
+}
@@ -30,10 +30,12 @@ package org.opennms.netmgt.poller.client.rpc;
 
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
 import java.util.function.Supplier;
 
 import org.opennms.core.rpc.xml.AbstractXmlRpcModule;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
 import org.opennms.netmgt.poller.PollStatus;
 import org.opennms.netmgt.poller.ServiceMonitor;
 import org.opennms.netmgt.poller.ServiceMonitorRegistry;
@@ -68,6 +70,13 @@ public class PollerClientRpcModule extends AbstractXmlRpcModule<PollerRequestDTO
             return CompletableFuture.completedFuture(new PollerResponseDTO(PollStatus.unknown("No monitor found with class name '" + className + "'.")));
         }
 
+        if (monitor instanceof AsyncServiceMonitor) {
+            final CompletableFuture<PollerResponseDTO> future = executeAsync((AsyncServiceMonitor)monitor, request);
+            if (future != null) {
+                return future;
+            }
+        }
+
         return CompletableFuture.supplyAsync(new Supplier<PollerResponseDTO>() {
             @Override
             public PollerResponseDTO get() {
@@ -83,6 +92,33 @@ public class PollerClientRpcModule extends AbstractXmlRpcModule<PollerRequestDTO
         }, executor);
     }
 
+    /**
+     * Polls the service without holding on to one of the executor's threads while waiting on the network.
+     *
+     * @return the future response, or {@code null} if the monitor can't poll the service asynchronously
+     */
+    private CompletableFuture<PollerResponseDTO> executeAsync(AsyncServiceMonitor monitor, PollerRequestDTO request) {
+        final CompletableFuture<PollStatus> future;
+        try {
+            future = monitor.pollAsync(request, request.getMonitorParameters());
+        } catch (RuntimeException e) {
+            return CompletableFuture.completedFuture(new PollerResponseDTO(PollStatus.unknown(e.getMessage())));
+        }
+        if (future == null) {
+            return null;
+        }
+
+        // The futures may be completed on the monitor's I/O thread, so hand the
+        // results back to the executor before the adaptors and callers process them
+        return future.handleAsync((pollStatus, t) -> {
+            if (t != null) {
+                final Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                pollStatus = PollStatus.unknown(cause.getMessage());
+            }
+            return new PollerResponseDTO(pollStatus);
+        }, executor);
+    }
+
     public void setServiceMonitorRegistry(ServiceMonitorRegistry serviceMonitorRegistry) {
         this.serviceMonitorRegistry = serviceMonitorRegistry;
     }
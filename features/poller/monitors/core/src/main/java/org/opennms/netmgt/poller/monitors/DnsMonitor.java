@@ -30,22 +30,28 @@ package org.opennms.netmgt.poller.monitors;
 
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.core.utils.ParameterMap;
 import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
 import org.opennms.netmgt.poller.Distributable;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.NetworkInterface;
 import org.opennms.netmgt.poller.NetworkInterfaceNotSupportedException;
 import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.monitors.support.NioEventLoop;
 import org.opennms.netmgt.poller.support.AbstractServiceMonitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -69,7 +75,7 @@ import org.xbill.DNS.Type;
  * @author <A HREF="http://www.opennms.org/">OpenNMS </A>
  */
 @Distributable
-final public class DnsMonitor extends AbstractServiceMonitor {
+final public class DnsMonitor extends AbstractServiceMonitor implements AsyncServiceMonitor {
     private static final Logger LOG = LoggerFactory.getLogger(DnsMonitor.class);
     /**
      * Default DNS port.
@@ -121,39 +127,14 @@ final public class DnsMonitor extends AbstractServiceMonitor {
      */
     @Override
     public PollStatus poll(MonitoredService svc, Map<String, Object> parameters) {
-        // get the parameters
-        //
-        TimeoutTracker timeoutTracker = new TimeoutTracker(parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT);
-        int port = ParameterMap.getKeyedInteger(parameters, "port", DEFAULT_PORT);
-
-        // Host to lookup?
-        //
-        String lookup = ParameterMap.getKeyedString(parameters, "lookup", null);
-        if (lookup == null || lookup.length() == 0) {
-            // Get hostname of local machine for future DNS lookups
-        	lookup = InetAddressUtils.getLocalHostAddressAsString();
-        	if (lookup == null) {
-        		throw new UnsupportedOperationException("Unable to look up local host address.");
-        	}
-        }
-
-        // What do we consider fatal?
-        //
-        final List<Integer> fatalCodes = new ArrayList<Integer>();
-        for (final int code : ParameterMap.getKeyedIntegerArray(parameters, "fatal-response-codes", DEFAULT_FATAL_RESP_CODES)) {
-            fatalCodes.add(code);
-        }
-        
-
-	int minAnswers = ParameterMap.getKeyedInteger(parameters, "min-answers", DEFAULT_MIN_ANSWERS);
-	int maxAnswers = ParameterMap.getKeyedInteger(parameters, "max-answers", DEFAULT_MAX_ANSWERS);
+        final DnsParameters dnsParameters = new DnsParameters(parameters);
 
         // get the address and DNS address request
         //
         final InetAddress addr = svc.getAddress();
 
         PollStatus serviceStatus = null;
-        serviceStatus = pollDNS(timeoutTracker, port, addr, lookup, fatalCodes, minAnswers, maxAnswers);
+        serviceStatus = pollDNS(dnsParameters.timeoutTracker, dnsParameters.port, addr, dnsParameters.lookup, dnsParameters.fatalCodes, dnsParameters.minAnswers, dnsParameters.maxAnswers);
 
         if (serviceStatus == null) {
             String reason = "Never received valid DNS response for address: " + addr;
@@ -168,6 +149,45 @@ final public class DnsMonitor extends AbstractServiceMonitor {
         return serviceStatus;
     }
 
+    /**
+     * The parameters shared by {@link #poll(MonitoredService, Map)} and
+     * {@link #pollAsync(MonitoredService, Map)}.
+     */
+    private static class DnsParameters {
+        private final TimeoutTracker timeoutTracker;
+        private final int port;
+        private final String lookup;
+        private final List<Integer> fatalCodes = new ArrayList<Integer>();
+        private final int minAnswers;
+        private final int maxAnswers;
+
+        private DnsParameters(Map<String, Object> parameters) {
+            timeoutTracker = new TimeoutTracker(parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT);
+            port = ParameterMap.getKeyedInteger(parameters, "port", DEFAULT_PORT);
+
+            // Host to lookup?
+            //
+            String lookup = ParameterMap.getKeyedString(parameters, "lookup", null);
+            if (lookup == null || lookup.length() == 0) {
+                // Get hostname of local machine for future DNS lookups
+                lookup = InetAddressUtils.getLocalHostAddressAsString();
+                if (lookup == null) {
+                    throw new UnsupportedOperationException("Unable to look up local host address.");
+                }
+            }
+            this.lookup = lookup;
+
+            // What do we consider fatal?
+            //
+            for (final int code : ParameterMap.getKeyedIntegerArray(parameters, "fatal-response-codes", DEFAULT_FATAL_RESP_CODES)) {
+                fatalCodes.add(code);
+            }
+
+            minAnswers = ParameterMap.getKeyedInteger(parameters, "min-answers", DEFAULT_MIN_ANSWERS);
+            maxAnswers = ParameterMap.getKeyedInteger(parameters, "max-answers", DEFAULT_MAX_ANSWERS);
+        }
+    }
+
     private PollStatus pollDNS(final TimeoutTracker timeoutTracker, final int port, final InetAddress address, final String lookup, final List<Integer> fatalCodes, int minAnswers, int maxAnswers) {
     	final String addr = InetAddressUtils.str(address);
         for (timeoutTracker.reset(); timeoutTracker.shouldRetry(); timeoutTracker.nextAttempt()) {
@@ -180,41 +200,12 @@ final public class DnsMonitor extends AbstractServiceMonitor {
                 resolver.setTimeout((timeout < 1 ? 1 : (int) timeout));
                 final Record question = Record.newRecord(name, Type.A, DClass.IN);
                 final Message query = Message.newQuery(question);
-                PollStatus status;
 
                 timeoutTracker.startAttempt();
                 final Message response = resolver.send(query);
                 double responseTime = timeoutTracker.elapsedTimeInMillis();
 
-                final Integer rcode = response.getHeader().getRcode();
-                LOG.debug("received response code: {}", rcode);
-
-                if (fatalCodes.contains(rcode)) {
-                    status = PollStatus.unavailable("Received an invalid DNS response for address: " + addr);
-                    LOG.debug(status.getReason());
-                    return status;
-                } else if (minAnswers != DEFAULT_MIN_ANSWERS || maxAnswers != DEFAULT_MAX_ANSWERS) {
-                    int numAnswers = response.getSectionArray(Section.ANSWER).length;
-                    boolean tooFewAnswers = numAnswers < minAnswers;
-                    boolean tooManyAnswers = numAnswers > maxAnswers;
-                    if (tooFewAnswers) {
-                        status = PollStatus.unavailable("Response contained only " + numAnswers + " answer(s), but at least " + minAnswers + " answers(s) are needed.");
-                        LOG.warn(status.getReason());
-                        return status;
-                    }
-                    if (tooManyAnswers) {
-                        status = PollStatus.unavailable("Response contained " + numAnswers + " answer(s), but " + maxAnswers + " or fewer answers(s) are needed.");
-                        LOG.warn(status.getReason());
-                        return status;
-                    }
-                    status = PollStatus.up(responseTime);
-                    LOG.debug("valid DNS response received with {} answer(s), responseTime = {}ms", numAnswers, responseTime);
-                    return status;
-                } else {
-                    status = PollStatus.up(responseTime);
-                    LOG.debug("valid DNS response received, responseTime = {}ms", responseTime);
-                    return status;
-                }
+                return checkResponse(response, responseTime, addr, fatalCodes, minAnswers, maxAnswers);
 
             } catch (final InterruptedIOException e) {
                 // No response received, retry without marking the poll failed. If we get this condition over and over until 
@@ -239,5 +230,119 @@ final public class DnsMonitor extends AbstractServiceMonitor {
         return PollStatus.unavailable(reason);
     }
 
+    private static PollStatus checkResponse(final Message response, final double responseTime, final String addr, final List<Integer> fatalCodes, int minAnswers, int maxAnswers) {
+        PollStatus status;
+        final Integer rcode = response.getHeader().getRcode();
+        LOG.debug("received response code: {}", rcode);
+
+        if (fatalCodes.contains(rcode)) {
+            status = PollStatus.unavailable("Received an invalid DNS response for address: " + addr);
+            LOG.debug(status.getReason());
+            return status;
+        } else if (minAnswers != DEFAULT_MIN_ANSWERS || maxAnswers != DEFAULT_MAX_ANSWERS) {
+            int numAnswers = response.getSectionArray(Section.ANSWER).length;
+            boolean tooFewAnswers = numAnswers < minAnswers;
+            boolean tooManyAnswers = numAnswers > maxAnswers;
+            if (tooFewAnswers) {
+                status = PollStatus.unavailable("Response contained only " + numAnswers + " answer(s), but at least " + minAnswers + " answers(s) are needed.");
+                LOG.warn(status.getReason());
+                return status;
+            }
+            if (tooManyAnswers) {
+                status = PollStatus.unavailable("Response contained " + numAnswers + " answer(s), but " + maxAnswers + " or fewer answers(s) are needed.");
+                LOG.warn(status.getReason());
+                return status;
+            }
+            status = PollStatus.up(responseTime);
+            LOG.debug("valid DNS response received with {} answer(s), responseTime = {}ms", numAnswers, responseTime);
+            return status;
+        } else {
+            status = PollStatus.up(responseTime);
+            LOG.debug("valid DNS response received, responseTime = {}ms", responseTime);
+            return status;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Sends the same query as {@link #poll(MonitoredService, Map)} over a non-blocking
+     * datagram channel. Responses that don't match the query are treated like timeouts.
+     */
+    @Override
+    public CompletableFuture<PollStatus> pollAsync(MonitoredService svc, Map<String, Object> parameters) {
+        final DnsParameters dnsParameters = new DnsParameters(parameters);
+
+        final Message query;
+        try {
+            query = Message.newQuery(Record.newRecord(Name.fromString(dnsParameters.lookup, Name.root), Type.A, DClass.IN));
+        } catch (final IOException e) {
+            final String reason = "IOException while polling address: " + InetAddressUtils.str(svc.getAddress()) + " " + e.getMessage();
+            LOG.debug(reason, e);
+            return CompletableFuture.completedFuture(PollStatus.unavailable(reason));
+        }
+
+        dnsParameters.timeoutTracker.reset();
+        return pollDNSAsync(NioEventLoop.getDefault(), dnsParameters.timeoutTracker, new InetSocketAddress(svc.getAddress(), dnsParameters.port), query,
+                dnsParameters.fatalCodes, dnsParameters.minAnswers, dnsParameters.maxAnswers);
+    }
+
+    private static CompletableFuture<PollStatus> pollDNSAsync(final NioEventLoop loop, final TimeoutTracker timeoutTracker, final InetSocketAddress address, final Message query, final List<Integer> fatalCodes, int minAnswers, int maxAnswers) {
+        final String addr = InetAddressUtils.str(address.getAddress());
+        if (!timeoutTracker.shouldRetry()) {
+            String reason = "Never received valid DNS response for address: " + addr;
+            LOG.debug(reason);
+            return CompletableFuture.completedFuture(PollStatus.unavailable(reason));
+        }
+
+        return loop.startAttempt(timeoutTracker)
+            .thenCompose(v -> loop.exchange(address, ByteBuffer.wrap(query.toWire()), timeoutTracker.getSoTimeout()))
+            .thenApply(buffer -> {
+                final double responseTime = timeoutTracker.elapsedTimeInMillis();
+                final byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                final Message response;
+                try {
+                    response = new Message(bytes);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (response.getHeader().getID() != query.getHeader().getID()) {
+                    throw new UncheckedIOException(new SocketTimeoutException("Received a response with an unexpected ID from " + addr));
+                }
+                return checkResponse(response, responseTime, addr, fatalCodes, minAnswers, maxAnswers);
+            })
+            .handle((status, t) -> {
+                if (t == null) {
+                    return CompletableFuture.completedFuture(status);
+                }
+                Throwable cause = NioEventLoop.unwrap(t);
+                if (cause instanceof UncheckedIOException) {
+                    cause = cause.getCause();
+                }
+                if (cause instanceof InterruptedIOException) {
+                    // No response received, retry without marking the poll failed
+                    timeoutTracker.nextAttempt();
+                    return pollDNSAsync(loop, timeoutTracker, address, query, fatalCodes, minAnswers, maxAnswers);
+                } else if (cause instanceof NoRouteToHostException) {
+                    String reason1 = "No route to host exception for address: " + addr;
+                    LOG.debug(reason1, cause);
+                    return CompletableFuture.completedFuture(PollStatus.unavailable(reason1));
+                } else if (cause instanceof ConnectException) {
+                    String reason1 = "Connection exception for address: " + addr;
+                    LOG.debug(reason1, cause);
+                    return CompletableFuture.completedFuture(PollStatus.unavailable(reason1));
+                } else if (cause instanceof IOException) {
+                    String reason1 = "IOException while polling address: " + addr + " " + cause.getMessage();
+                    LOG.debug(reason1, cause);
+                    return CompletableFuture.completedFuture(PollStatus.unavailable(reason1));
+                }
+                final CompletableFuture<PollStatus> failed = new CompletableFuture<>();
+                failed.completeExceptionally(cause);
+                return failed;
+            })
+            .thenCompose(status -> status);
+    }
+
 
 }
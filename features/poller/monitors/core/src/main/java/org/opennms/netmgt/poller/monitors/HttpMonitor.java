@@ -43,6 +43,7 @@ import java.net.SocketTimeoutException;
 import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
@@ -53,11 +54,14 @@ import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.core.utils.ParameterMap;
 import org.opennms.core.utils.SocketWrapper;
 import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
 import org.opennms.netmgt.poller.Distributable;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.NetworkInterface;
 import org.opennms.netmgt.poller.NetworkInterfaceNotSupportedException;
 import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.monitors.support.NioEventLoop;
+import org.opennms.netmgt.poller.monitors.support.NioTcpConnection;
 import org.opennms.netmgt.poller.support.AbstractServiceMonitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -73,7 +77,7 @@ import org.slf4j.LoggerFactory;
  * @author <a href="mailto:david@opennms.org">David Hustace</a>
  */
 @Distributable
-public class HttpMonitor extends AbstractServiceMonitor {
+public class HttpMonitor extends AbstractServiceMonitor implements AsyncServiceMonitor {
     
     public static final Logger LOG = LoggerFactory.getLogger(HttpMonitor.class);
     
@@ -211,6 +215,133 @@ public class HttpMonitor extends AbstractServiceMonitor {
 
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Performs the same checks as {@link #poll(MonitoredService, Map)} on non-blocking
+     * sockets. Subclasses that wrap the sockets, i.e. to add SSL, are polled synchronously.
+     */
+    @Override
+    public CompletableFuture<PollStatus> pollAsync(final MonitoredService svc, final Map<String, Object> parameters) {
+        if (getSocketWrapper().getClass() != DefaultSocketWrapper.class) {
+            return null;
+        }
+
+        final HttpMonitorClient httpClient = new HttpMonitorClient(svc.getNodeLabel(), svc.getAddress(), new TreeMap<String, Object>(parameters));
+        return pollPortAsync(NioEventLoop.getDefault(), svc, parameters, httpClient, 0)
+            .thenApply(v -> httpClient.determinePollStatusResponse());
+    }
+
+    private CompletableFuture<Void> pollPortAsync(final NioEventLoop loop, final MonitoredService svc, final Map<String, Object> parameters, final HttpMonitorClient httpClient, final int portIndex) {
+        final int[] ports = determinePorts(httpClient.getParameters());
+        if (portIndex >= ports.length || httpClient.getPollStatus() == PollStatus.SERVICE_AVAILABLE) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final int currentPort = ports[portIndex];
+        httpClient.setTimeoutTracker(new TimeoutTracker(parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT));
+        LOG.debug("Port = {}, Address = {}, {}", currentPort, svc.getAddress(), httpClient.getTimeoutTracker());
+
+        httpClient.setCurrentPort(currentPort);
+        final String serviceInfo = new StringBuilder(svc.getAddress().toString())
+        .append(":").append(svc.getSvcName()).append(":").append(currentPort)
+        .toString();
+
+        httpClient.getTimeoutTracker().reset();
+        return attemptAsync(loop, httpClient, serviceInfo).thenCompose(nextPort -> {
+            if (!nextPort) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return pollPortAsync(loop, svc, parameters, httpClient, portIndex + 1);
+        });
+    }
+
+    /**
+     * @return a future which completes with false if the remaining ports should not be tried
+     */
+    private CompletableFuture<Boolean> attemptAsync(final NioEventLoop loop, final HttpMonitorClient httpClient, final String serviceInfo) {
+        final TimeoutTracker tracker = httpClient.getTimeoutTracker();
+        if (!tracker.shouldRetry() || httpClient.getPollStatus() == PollStatus.SERVICE_AVAILABLE) {
+            return CompletableFuture.completedFuture(true);
+        }
+
+        return loop.startAttempt(tracker)
+            .thenCompose(v -> loop.connect(new InetSocketAddress(httpClient.m_addr, httpClient.getCurrentPort()), tracker.getConnectionTimeout()))
+            .thenCompose(connection -> {
+                LOG.debug("HttpMonitor: connected to host: {} on port: {}", httpClient.m_addr, httpClient.getCurrentPort());
+                httpClient.setPollStatus(PollStatus.SERVICE_UNRESPONSIVE);
+                return converseAsync(connection, httpClient).whenComplete((v, t) -> connection.close());
+            })
+            .handle((v, e) -> {
+                if (e != null) {
+                    final Throwable cause = NioEventLoop.unwrap(e);
+                    if (cause instanceof NoRouteToHostException) {
+                        LOG.warn("checkStatus: No route to host exception while polling {}", serviceInfo, cause);
+                        httpClient.setReason("No route to host exception");
+                        return CompletableFuture.completedFuture(false);
+                    } else if (cause instanceof SocketTimeoutException) {
+                        LOG.info("checkStatus: HTTP socket connection for service {} timed out with {}", serviceInfo, tracker.toString());
+                        httpClient.setReason("HTTP connection timeout");
+                    } else if (cause instanceof ConnectException) {
+                        LOG.warn("Connection exception for {}", serviceInfo, cause);
+                        httpClient.setReason("HTTP connection exception on port: "+httpClient.getCurrentPort()+": "+cause.getMessage());
+                    } else if (cause instanceof IOException) {
+                        String exceptionClass = cause.getClass().getSimpleName();
+                        LOG.warn("{} while polling {}", exceptionClass, serviceInfo, cause);
+                        httpClient.setReason("IOException while polling address: "+httpClient.m_addr+": "+cause.getMessage());
+                    } else {
+                        String exceptionClass = cause.getClass().getSimpleName();
+                        LOG.warn("Unexpected {} while polling {}", exceptionClass, serviceInfo, cause);
+                        httpClient.setReason("Unexpected exception while polling address: "+httpClient.m_addr+": "+cause.getMessage());
+                    }
+                }
+                tracker.nextAttempt();
+                return attemptAsync(loop, httpClient, serviceInfo);
+            })
+            .thenCompose(nextPort -> nextPort);
+    }
+
+    private CompletableFuture<Void> converseAsync(final NioTcpConnection connection, final HttpMonitorClient httpClient) {
+        final int timeout = httpClient.getTimeoutTracker().getSoTimeout();
+        httpClient.logHttpCommand();
+        return connection.write(httpClient.getHttpCommand(), timeout)
+            .thenCompose(v -> connection.readLine(timeout))
+            .thenCompose(line -> {
+                httpClient.setCurrentLine(line);
+                httpClient.processInitialResponse();
+                if (httpClient.isEndOfStream()) {
+                    return CompletableFuture.completedFuture(null);
+                }
+
+                httpClient.setResponseTime(httpClient.getTimeoutTracker().elapsedTimeInMillis());
+                logResponseTimes(httpClient.getResponseTime(), httpClient.getCurrentLine());
+
+                if (httpClient.getPollStatus() == PollStatus.SERVICE_AVAILABLE && StringUtils.isNotBlank(httpClient.getResponseText())) {
+                    httpClient.setPollStatus(PollStatus.SERVICE_UNAVAILABLE);
+                    return readMatchingAsync(connection, httpClient, timeout, true);
+                }
+                return CompletableFuture.completedFuture(null);
+            });
+    }
+
+    /**
+     * Reads the remaining lines of the response, looking for the response text.
+     */
+    private CompletableFuture<Void> readMatchingAsync(final NioTcpConnection connection, final HttpMonitorClient httpClient, final int timeout, final boolean firstLine) {
+        return connection.readLine(timeout).thenCompose(line -> {
+            httpClient.setCurrentLine(line);
+            httpClient.matchCurrentLine();
+            if (!httpClient.isEndOfStream()) {
+                return readMatchingAsync(connection, httpClient, timeout, false);
+            }
+            if (!firstLine && !httpClient.isResponseTextFound()) {
+                LOG.debug("Matching text: [{}] not found in body of HTTP response for {}:{}", httpClient.getResponseText(), httpClient.m_addr, httpClient.getCurrentPort());
+                httpClient.setReason("Matching text: ["+httpClient.getResponseText()+"] not found in body of HTTP response");
+            }
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
     private void logResponseTimes(Double responseTime, String line) {
         LOG.debug("poll: response= {}", line);
         LOG.debug("poll: responseTime= {}ms", responseTime);
@@ -512,7 +643,11 @@ public class HttpMonitor extends AbstractServiceMonitor {
         }
 
         public String readLine() throws IOException {
-            m_currentLine = m_lineRdr.readLine();
+            return setCurrentLine(m_lineRdr.readLine());
+        }
+
+        String setCurrentLine(final String line) {
+            m_currentLine = line;
             
             if (determineVerbosity(m_parameters) && HttpMonitor.LOG.isDebugEnabled()) {
                 HttpMonitor.LOG.debug("\t<<: {}", m_currentLine);
@@ -524,7 +659,10 @@ public class HttpMonitor extends AbstractServiceMonitor {
 
         public String readLinedMatching() throws IOException {
             readLine();
-            
+            return matchCurrentLine();
+        }
+
+        String matchCurrentLine() {
             if (m_responseText != null && m_currentLine != null && !m_responseTextFound) {
                 if (checkCurrentLineMatchesResponseText()) {
                     if (HttpMonitor.LOG.isDebugEnabled()) {
@@ -537,12 +675,24 @@ public class HttpMonitor extends AbstractServiceMonitor {
         }
 
         public void sendHttpCommand() throws IOException {
-            if (determineVerbosity(m_parameters) && HttpMonitor.LOG.isDebugEnabled()) {
-                HttpMonitor.LOG.debug("Sending HTTP command: {}", m_httpCmd);
-            }
+            logHttpCommand();
             m_httpSocket.getOutputStream().write(m_httpCmd.getBytes());
             m_lineRdr = new BufferedReader(new InputStreamReader(m_httpSocket.getInputStream()));
             readLine();
+            processInitialResponse();
+        }
+
+        void logHttpCommand() {
+            if (determineVerbosity(m_parameters) && HttpMonitor.LOG.isDebugEnabled()) {
+                HttpMonitor.LOG.debug("Sending HTTP command: {}", m_httpCmd);
+            }
+        }
+
+        String getHttpCommand() {
+            return m_httpCmd;
+        }
+
+        void processInitialResponse() {
             if (determineVerbosity(m_parameters)) {
                 HttpMonitor.LOG.debug("Server response: {}", m_currentLine);
             }
@@ -39,6 +39,7 @@ import java.net.NoRouteToHostException;
 import java.net.Socket;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -46,9 +47,12 @@ import org.apache.commons.net.io.CRLFLineReader;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.core.utils.ParameterMap;
 import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
 import org.opennms.netmgt.poller.Distributable;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.monitors.support.NioEventLoop;
+import org.opennms.netmgt.poller.monitors.support.NioTcpConnection;
 import org.opennms.netmgt.poller.support.AbstractServiceMonitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -65,7 +69,7 @@ import org.slf4j.LoggerFactory;
  * @author <A HREF="http://www.opennms.org/">OpenNMS </A>
  */
 @Distributable
-public final class SmtpMonitor extends AbstractServiceMonitor {
+public final class SmtpMonitor extends AbstractServiceMonitor implements AsyncServiceMonitor {
 
     public static final Logger LOG = LoggerFactory.getLogger(SmtpMonitor.class);
 
@@ -272,6 +276,151 @@ public final class SmtpMonitor extends AbstractServiceMonitor {
         return serviceStatus;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Performs the same conversation as {@link #poll(MonitoredService, Map)} on non-blocking
+     * sockets.
+     */
+    @Override
+    public CompletableFuture<PollStatus> pollAsync(MonitoredService svc, Map<String, Object> parameters) {
+        final TimeoutTracker tracker = new TimeoutTracker(parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT);
+
+        final int port = ParameterMap.getKeyedInteger(parameters, "port", DEFAULT_PORT);
+        final InetAddress ipAddr = svc.getAddress();
+        LOG.debug("pollAsync: address = {}, port = {}, {}", InetAddressUtils.str(ipAddr), port, tracker);
+
+        tracker.reset();
+        return pollAsync(NioEventLoop.getDefault(), tracker, new InetSocketAddress(ipAddr, port), PollStatus.unavailable());
+    }
+
+    private static CompletableFuture<PollStatus> pollAsync(final NioEventLoop loop, final TimeoutTracker tracker, final InetSocketAddress address, final PollStatus lastStatus) {
+        if (!tracker.shouldRetry()) {
+            return CompletableFuture.completedFuture(lastStatus);
+        }
+
+        final String hostAddress = InetAddressUtils.str(address.getAddress());
+        return loop.startAttempt(tracker)
+            .thenCompose(v -> loop.connect(address, tracker.getConnectionTimeout()))
+            .thenCompose(connection -> {
+                LOG.debug("SmtpMonitor: connected to host: {} on port: {}", address.getAddress(), address.getPort());
+                return converse(connection, tracker).whenComplete((status, t) -> connection.close());
+            })
+            .handle((status, t) -> {
+                if (t != null) {
+                    final Throwable cause = NioEventLoop.unwrap(t);
+                    if (cause instanceof NumberFormatException) {
+                        final String reason = "NumberFormatException while polling address " + hostAddress;
+                        LOG.debug(reason, cause);
+                        status = PollStatus.unavailable(reason);
+                    } else if (cause instanceof NoRouteToHostException) {
+                        final String reason = "No route to host exception for address " + hostAddress;
+                        LOG.debug(reason, cause);
+                        return CompletableFuture.completedFuture(PollStatus.unavailable(reason));
+                    } else if (cause instanceof InterruptedIOException) {
+                        final String reason = "Did not receive expected response within timeout " + tracker;
+                        LOG.debug(reason);
+                        status = PollStatus.unavailable(reason);
+                    } else if (cause instanceof ConnectException) {
+                        final String reason = "Unable to connect to address " + hostAddress;
+                        LOG.debug(reason, cause);
+                        status = PollStatus.unavailable(reason);
+                    } else if (cause instanceof IOException) {
+                        final String reason = "IOException while polling address " + hostAddress;
+                        LOG.debug(reason, cause);
+                        status = PollStatus.unavailable(reason);
+                    } else {
+                        final CompletableFuture<PollStatus> failed = new CompletableFuture<>();
+                        failed.completeExceptionally(cause);
+                        return failed;
+                    }
+                }
+                if (status.isAvailable()) {
+                    return CompletableFuture.completedFuture(status);
+                }
+                tracker.nextAttempt();
+                return pollAsync(loop, tracker, address, status);
+            })
+            .thenCompose(status -> status);
+    }
+
+    /**
+     * Checks the banner, and sends the HELO and QUIT commands.
+     */
+    private static CompletableFuture<PollStatus> converse(final NioTcpConnection connection, final TimeoutTracker tracker) {
+        final int timeout = tracker.getSoTimeout();
+        return readReply(connection, timeout).thenCompose(banner -> {
+            LOG.debug("poll: banner = {}", banner);
+            if (banner == null || banner.trim().isEmpty()) {
+                return CompletableFuture.completedFuture(PollStatus.unresponsive());
+            }
+            final int rc = Integer.parseInt(new StringTokenizer(banner).nextToken());
+            if (rc == 220) {
+                final String cmd = "HELO " + LOCALHOST_NAME + "\r\n";
+                return connection.write(cmd.getBytes(), timeout)
+                    .thenCompose(v -> readReply(connection, timeout))
+                    .thenCompose(response -> {
+                        final double responseTime = tracker.elapsedTimeInMillis();
+                        if (response == null) {
+                            return CompletableFuture.completedFuture(PollStatus.unresponsive());
+                        }
+                        if (Integer.parseInt(new StringTokenizer(response).nextToken()) != 250) {
+                            return CompletableFuture.completedFuture(PollStatus.unavailable());
+                        }
+                        return sendMessage(connection, timeout, "QUIT\r\n").thenApply(quit -> {
+                            if (Integer.parseInt(new StringTokenizer(quit).nextToken()) == 221) {
+                                return PollStatus.available(responseTime);
+                            }
+                            return PollStatus.unavailable();
+                        });
+                    });
+            } else if (rc == 554) {
+                return sendMessage(connection, timeout, "QUIT\r\n")
+                    .thenApply(response -> PollStatus.unavailable("Server rejecting transactions with 554"));
+            }
+            return CompletableFuture.completedFuture(PollStatus.unavailable());
+        });
+    }
+
+    private static CompletableFuture<String> sendMessage(final NioTcpConnection connection, final int timeout, final String command) {
+        final byte[] bytes;
+        try {
+            bytes = command.getBytes("ASCII");
+        } catch (IOException e) {
+            final CompletableFuture<String> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return connection.write(bytes, timeout)
+            .thenCompose(v -> readReply(connection, timeout))
+            .thenApply(response -> response == null ? "" : response);
+    }
+
+    /**
+     * Reads a reply, skipping to the last line of multiline replies, which
+     * starts with the return code followed by a space.
+     *
+     * @return the last line of the reply, or {@code null} if the stream ended before it
+     */
+    private static CompletableFuture<String> readReply(final NioTcpConnection connection, final int timeout) {
+        return connection.readLine(timeout).thenCompose(response -> {
+            if (response == null || !MULTILINE.matcher(response).find()) {
+                return CompletableFuture.completedFuture(response);
+            }
+            final Pattern endMultiline = Pattern.compile(response.substring(0, 3) + " ");
+            return readUntil(connection, timeout, endMultiline);
+        });
+    }
+
+    private static CompletableFuture<String> readUntil(final NioTcpConnection connection, final int timeout, final Pattern endMultiline) {
+        return connection.readLine(timeout).thenCompose(response -> {
+            if (response == null || endMultiline.matcher(response).find()) {
+                return CompletableFuture.completedFuture(response);
+            }
+            return readUntil(connection, timeout, endMultiline);
+        });
+    }
+
     private String sendMessage(Socket socket, BufferedReader rdr, String command) throws IOException {
         if (command != null && !"".equals(command)) {
             socket.getOutputStream().write(command.getBytes("ASCII"));
@@ -38,13 +38,16 @@ import java.net.InetSocketAddress;
 import java.net.NoRouteToHostException;
 import java.net.Socket;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.core.utils.ParameterMap;
 import org.opennms.core.utils.TimeoutTracker;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
 import org.opennms.netmgt.poller.Distributable;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.monitors.support.NioEventLoop;
 import org.opennms.netmgt.poller.support.AbstractServiceMonitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -61,7 +64,7 @@ import org.slf4j.LoggerFactory;
  * @author <A HREF="http://www.opennms.org/">OpenNMS </A>
  */
 @Distributable
-final public class TcpMonitor extends AbstractServiceMonitor {
+final public class TcpMonitor extends AbstractServiceMonitor implements AsyncServiceMonitor {
 
     public static final Logger LOG = LoggerFactory.getLogger(TcpMonitor.class);
 
@@ -162,21 +165,7 @@ final public class TcpMonitor extends AbstractServiceMonitor {
                 LOG.debug("poll: banner = {}", response);
                 LOG.debug("poll: responseTime= {}ms", responseTime);
 
-                //Could it be a regex?
-                if (strBannerMatch.charAt(0)=='~'){
-                  if (!response.matches(strBannerMatch.substring(1)))
-                    serviceStatus = PollStatus.unavailable("Banner does not match Regex '"+strBannerMatch+"'");
-                  else
-                    serviceStatus = PollStatus.available(responseTime);
-                }
-                else {
-                  if (response.indexOf(strBannerMatch) > -1) {
-                    serviceStatus = PollStatus.available(responseTime);
-                  }
-                  else {
-                    serviceStatus = PollStatus.unavailable("Banner: '"+response+"' does not contain match string '"+strBannerMatch+"'");
-                  }
-                }
+                serviceStatus = matchBanner(response, strBannerMatch, responseTime);
 
             } catch (NoRouteToHostException e) {
             	String reason = "No route to host exception for address " + hostAddress;
@@ -213,4 +202,105 @@ final public class TcpMonitor extends AbstractServiceMonitor {
         return serviceStatus;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Performs the same checks as {@link #poll(MonitoredService, Map)} on non-blocking
+     * sockets.
+     */
+    @Override
+    public CompletableFuture<PollStatus> pollAsync(MonitoredService svc, Map<String, Object> parameters) {
+        final TimeoutTracker tracker = new TimeoutTracker(parameters, DEFAULT_RETRY, DEFAULT_TIMEOUT);
+
+        final int port = ParameterMap.getKeyedInteger(parameters, PARAMETER_PORT, DEFAULT_PORT);
+        if (port == DEFAULT_PORT) {
+            throw new RuntimeException("TcpMonitor: required parameter 'port' is not present in supplied properties.");
+        }
+
+        final String strBannerMatch = ParameterMap.getKeyedString(parameters, PARAMETER_BANNER, null);
+        final InetAddress ipAddr = svc.getAddress();
+        LOG.debug("pollAsync: address = {}, port = {}, {}", InetAddressUtils.str(ipAddr), port, tracker);
+
+        tracker.reset();
+        return pollAsync(NioEventLoop.getDefault(), tracker, new InetSocketAddress(ipAddr, port), strBannerMatch, PollStatus.unavailable());
+    }
+
+    private static CompletableFuture<PollStatus> pollAsync(final NioEventLoop loop, final TimeoutTracker tracker, final InetSocketAddress address, final String strBannerMatch, final PollStatus lastStatus) {
+        if (!tracker.shouldRetry()) {
+            return CompletableFuture.completedFuture(lastStatus);
+        }
+
+        return loop.startAttempt(tracker)
+            .thenCompose(v -> loop.connect(address, tracker.getConnectionTimeout()))
+            .thenCompose(connection -> {
+                LOG.debug("TcpMonitor: connected to host: {} on port: {}", address.getAddress(), address.getPort());
+                if (strBannerMatch == null || strBannerMatch.length() == 0 || strBannerMatch.equals("*")) {
+                    connection.close();
+                    return CompletableFuture.completedFuture(PollStatus.available(tracker.elapsedTimeInMillis()));
+                }
+                return connection.readLine(tracker.getSoTimeout())
+                    .whenComplete((response, t) -> connection.close())
+                    .thenApply(response -> {
+                        if (response == null) {
+                            // We're connected, but didn't get a banner
+                            return PollStatus.unresponsive();
+                        }
+                        final double responseTime = tracker.elapsedTimeInMillis();
+                        LOG.debug("poll: banner = {}", response);
+                        LOG.debug("poll: responseTime= {}ms", responseTime);
+                        return matchBanner(response, strBannerMatch, responseTime);
+                    });
+            })
+            .handle((status, t) -> {
+                if (t != null) {
+                    final Throwable cause = NioEventLoop.unwrap(t);
+                    if (cause instanceof NoRouteToHostException) {
+                        final String reason = "No route to host exception for address " + InetAddressUtils.str(address.getAddress());
+                        LOG.debug(reason, cause);
+                        return CompletableFuture.completedFuture(PollStatus.unavailable(reason));
+                    } else if (cause instanceof InterruptedIOException) {
+                        final String reason = "did not connect to host with " + tracker;
+                        LOG.debug(reason);
+                        status = PollStatus.unavailable(reason);
+                    } else if (cause instanceof ConnectException) {
+                        final String reason = "Connection exception for address: " + address.getAddress();
+                        LOG.debug(reason, cause);
+                        status = PollStatus.unavailable(reason);
+                    } else if (cause instanceof IOException) {
+                        final String reason = "IOException while polling address: " + address.getAddress();
+                        LOG.debug(reason, cause);
+                        status = PollStatus.unavailable(reason);
+                    } else {
+                        final CompletableFuture<PollStatus> failed = new CompletableFuture<>();
+                        failed.completeExceptionally(cause);
+                        return failed;
+                    }
+                }
+                if (status.isAvailable()) {
+                    return CompletableFuture.completedFuture(status);
+                }
+                tracker.nextAttempt();
+                return pollAsync(loop, tracker, address, strBannerMatch, status);
+            })
+            .thenCompose(status -> status);
+    }
+
+    private static PollStatus matchBanner(final String response, final String strBannerMatch, final double responseTime) {
+        //Could it be a regex?
+        if (strBannerMatch.charAt(0)=='~'){
+          if (!response.matches(strBannerMatch.substring(1)))
+            return PollStatus.unavailable("Banner does not match Regex '"+strBannerMatch+"'");
+          else
+            return PollStatus.available(responseTime);
+        }
+        else {
+          if (response.indexOf(strBannerMatch) > -1) {
+            return PollStatus.available(responseTime);
+          }
+          else {
+            return PollStatus.unavailable("Banner: '"+response+"' does not contain match string '"+strBannerMatch+"'");
+          }
+        }
+    }
+
 }
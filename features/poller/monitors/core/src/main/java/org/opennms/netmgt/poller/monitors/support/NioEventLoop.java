@@ -0,0 +1,348 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.monitors.support;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.utils.TimeoutTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drives non-blocking socket conversations on a single selector thread.
+ *
+ * All of the channel operations, deadlines and handler callbacks run on the
+ * loop's thread, and the futures it hands out are completed there as well, so
+ * the stages chained on to them must not block.
+ *
+ * The default loop is shared by all of the asynchronous service monitors and is
+ * started on first use.
+ */
+public class NioEventLoop implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NioEventLoop.class);
+
+    private static NioEventLoop s_defaultLoop;
+
+    /**
+     * Receives the readiness events for the channels registered with the loop.
+     */
+    interface Handler {
+        void ready(SelectionKey key);
+    }
+
+    /**
+     * A task scheduled to run on the loop after a delay.
+     */
+    public static final class Deadline implements Comparable<Deadline> {
+        private final long m_timeNanos;
+        private final Runnable m_task;
+        private boolean m_cancelled = false;
+
+        private Deadline(long timeNanos, Runnable task) {
+            m_timeNanos = timeNanos;
+            m_task = task;
+        }
+
+        /**
+         * Must be called from the loop's thread.
+         */
+        public void cancel() {
+            m_cancelled = true;
+        }
+
+        @Override
+        public int compareTo(Deadline other) {
+            return Long.compare(m_timeNanos, other.m_timeNanos);
+        }
+    }
+
+    private final Selector m_selector;
+    private final Thread m_thread;
+    private final Queue<Runnable> m_tasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Deadline> m_deadlines = new PriorityQueue<>();
+    private volatile boolean m_running = true;
+
+    /**
+     * @return the loop shared by the asynchronous service monitors
+     */
+    public static synchronized NioEventLoop getDefault() {
+        if (s_defaultLoop == null || !s_defaultLoop.isRunning()) {
+            try {
+                s_defaultLoop = new NioEventLoop("NioEventLoop-Poller");
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to open a selector for the poller's event loop.", e);
+            }
+        }
+        return s_defaultLoop;
+    }
+
+    public NioEventLoop(final String name) throws IOException {
+        m_selector = Selector.open();
+        m_thread = new Thread(this, name);
+        m_thread.setDaemon(true);
+        m_thread.start();
+    }
+
+    public boolean isRunning() {
+        return m_running;
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == m_thread;
+    }
+
+    /**
+     * Runs the given task on the loop's thread.
+     */
+    public void execute(final Runnable task) {
+        if (!m_running) {
+            throw new IllegalStateException("The event loop " + m_thread.getName() + " was closed.");
+        }
+        m_tasks.add(task);
+        if (!inEventLoop()) {
+            m_selector.wakeup();
+        }
+    }
+
+    /**
+     * Schedules the given task on the loop's thread. Must be called from the loop's thread.
+     */
+    public Deadline schedule(final long delay, final TimeUnit unit, final Runnable task) {
+        final Deadline deadline = new Deadline(System.nanoTime() + unit.toNanos(delay), task);
+        m_deadlines.add(deadline);
+        return deadline;
+    }
+
+    /**
+     * @return a future which is completed on the loop's thread after the given delay
+     */
+    public CompletableFuture<Void> delay(final long delay, final TimeUnit unit) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        execute(() -> schedule(delay, unit, () -> future.complete(null)));
+        return future;
+    }
+
+    /**
+     * Starts the next attempt of the given tracker, waiting out the delay
+     * required by strict timeouts on the loop instead of sleeping.
+     *
+     * @return a future which completes once the attempt was started
+     */
+    public CompletableFuture<Void> startAttempt(final TimeoutTracker tracker) {
+        final long delay = tracker.getNextAttemptDelay(TimeUnit.NANOSECONDS);
+        if (delay <= 0) {
+            tracker.startAttempt();
+            return CompletableFuture.completedFuture(null);
+        }
+        return delay(delay, TimeUnit.NANOSECONDS).thenRun(tracker::startAttempt);
+    }
+
+    /**
+     * Opens a TCP connection to the given address.
+     *
+     * @param address the address to connect to
+     * @param timeout the connection timeout in milliseconds
+     * @return a future which completes with the connection, or with the exception
+     *         that prevented it from being established
+     */
+    public CompletableFuture<NioTcpConnection> connect(final InetSocketAddress address, final int timeout) {
+        final CompletableFuture<NioTcpConnection> future = new CompletableFuture<>();
+        execute(() -> NioTcpConnection.connect(this, address, timeout, future));
+        return future;
+    }
+
+    /**
+     * Sends a single datagram to the given address and waits for the first datagram
+     * that is received in return.
+     *
+     * @param address the address to send the request to
+     * @param request the contents of the request
+     * @param timeout how long to wait for the response in milliseconds
+     * @return a future which completes with the contents of the response
+     */
+    public CompletableFuture<ByteBuffer> exchange(final InetSocketAddress address, final ByteBuffer request, final int timeout) {
+        final CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+        execute(() -> {
+            DatagramChannel channel = null;
+            try {
+                channel = DatagramChannel.open();
+                channel.configureBlocking(false);
+                channel.connect(address);
+                channel.write(request);
+
+                final DatagramChannel ch = channel;
+                final Deadline deadline = schedule(timeout, TimeUnit.MILLISECONDS, () -> {
+                    closeQuietly(ch);
+                    future.completeExceptionally(new SocketTimeoutException("No response received from " + address + " within " + timeout + "ms"));
+                });
+                channel.register(m_selector, SelectionKey.OP_READ, (Handler)key -> {
+                    deadline.cancel();
+                    try {
+                        final ByteBuffer response = ByteBuffer.allocate(0xffff);
+                        ch.read(response);
+                        response.flip();
+                        future.complete(response);
+                    } catch (IOException e) {
+                        future.completeExceptionally(e);
+                    } finally {
+                        closeQuietly(ch);
+                    }
+                });
+            } catch (IOException e) {
+                closeQuietly(channel);
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    Selector getSelector() {
+        return m_selector;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (m_running) {
+                final long timeoutNanos = runDeadlines();
+                if (m_tasks.isEmpty()) {
+                    if (timeoutNanos < 0) {
+                        m_selector.select();
+                    } else {
+                        m_selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeoutNanos)));
+                    }
+                } else {
+                    m_selector.selectNow();
+                }
+
+                final Iterator<SelectionKey> it = m_selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    final SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        ((Handler)key.attachment()).ready(key);
+                    } catch (Throwable t) {
+                        LOG.warn("Unexpected error while handling {}", key.channel(), t);
+                    }
+                }
+
+                Runnable task;
+                while ((task = m_tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (Throwable t) {
+                        LOG.warn("Unexpected error while running {}", task, t);
+                    }
+                }
+            }
+        } catch (IOException|ClosedSelectorException e) {
+            LOG.error("The event loop {} failed.", m_thread.getName(), e);
+        } finally {
+            m_running = false;
+            for (SelectionKey key : m_selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(m_selector);
+        }
+    }
+
+    /**
+     * Runs the deadlines that have expired.
+     *
+     * @return the number of nanoseconds until the next deadline, or -1 if there are none
+     */
+    private long runDeadlines() {
+        final long now = System.nanoTime();
+        Deadline deadline;
+        while ((deadline = m_deadlines.peek()) != null) {
+            if (deadline.m_cancelled) {
+                m_deadlines.poll();
+            } else if (deadline.m_timeNanos - now <= 0) {
+                m_deadlines.poll();
+                try {
+                    deadline.m_task.run();
+                } catch (Throwable t) {
+                    LOG.warn("Unexpected error while running {}", deadline.m_task, t);
+                }
+            } else {
+                return deadline.m_timeNanos - now;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Stops the loop and closes all of the channels that are still registered.
+     */
+    public void close() {
+        m_running = false;
+        m_selector.wakeup();
+    }
+
+    /**
+     * @return the exception that caused the given stage to fail
+     */
+    public static Throwable unwrap(final Throwable t) {
+        Throwable cause = t;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    static void closeQuietly(final Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                LOG.debug("Error closing {}", closeable, e);
+            }
+        }
+    }
+}
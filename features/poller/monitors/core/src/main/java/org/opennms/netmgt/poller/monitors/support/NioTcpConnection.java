@@ -0,0 +1,294 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.monitors.support;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A non-blocking TCP connection managed by a {@link NioEventLoop}.
+ *
+ * The connection supports a single outstanding operation at a time, which
+ * is what the request/response conversations of the service monitors need.
+ * Lines are terminated by a line feed, and a trailing carriage return is
+ * stripped from them.
+ */
+public class NioTcpConnection implements NioEventLoop.Handler, AutoCloseable {
+
+    /**
+     * Lines longer than this are returned in pieces.
+     */
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private final NioEventLoop m_loop;
+    private final SocketChannel m_channel;
+    private final SelectionKey m_key;
+    private final Charset m_charset;
+
+    private final ByteBuffer m_readBuffer = ByteBuffer.allocate(8 * 1024);
+    private final ByteArrayOutputStream m_line = new ByteArrayOutputStream();
+    private boolean m_endOfStream = false;
+
+    private CompletableFuture<NioTcpConnection> m_connectFuture;
+    private CompletableFuture<String> m_readFuture;
+    private CompletableFuture<Void> m_writeFuture;
+    private ByteBuffer m_writeBuffer;
+    private NioEventLoop.Deadline m_deadline;
+
+    private NioTcpConnection(final NioEventLoop loop, final SocketChannel channel) throws ClosedChannelException {
+        m_loop = loop;
+        m_channel = channel;
+        m_key = channel.register(loop.getSelector(), 0, this);
+        m_charset = Charset.defaultCharset();
+    }
+
+    static void connect(final NioEventLoop loop, final InetSocketAddress address, final int timeout, final CompletableFuture<NioTcpConnection> future) {
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            final NioTcpConnection connection = new NioTcpConnection(loop, channel);
+            if (channel.connect(address)) {
+                future.complete(connection);
+            } else {
+                connection.m_connectFuture = future;
+                connection.await(SelectionKey.OP_CONNECT, timeout, "Connection to " + address);
+            }
+        } catch (IOException e) {
+            NioEventLoop.closeQuietly(channel);
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Reads the next line from the connection.
+     *
+     * @param timeout how long to wait for the line in milliseconds
+     * @return a future which completes with the line, or with {@code null}
+     *         if the end of the stream was reached
+     */
+    public CompletableFuture<String> readLine(final int timeout) {
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        m_loop.execute(() -> {
+            if (!m_channel.isOpen()) {
+                future.completeExceptionally(new ClosedChannelException());
+                return;
+            }
+            m_readFuture = future;
+            if (!completeRead()) {
+                await(SelectionKey.OP_READ, timeout, "Read from " + getRemoteAddress());
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Writes the given string to the connection.
+     *
+     * @param data the string to write, encoded with the same charset used to decode the lines
+     * @param timeout how long to wait for the data to be written in milliseconds
+     */
+    public CompletableFuture<Void> write(final String data, final int timeout) {
+        return write(data.getBytes(m_charset), timeout);
+    }
+
+    /**
+     * Writes the given bytes to the connection.
+     *
+     * @param data the bytes to write
+     * @param timeout how long to wait for the data to be written in milliseconds
+     */
+    public CompletableFuture<Void> write(final byte[] data, final int timeout) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        m_loop.execute(() -> {
+            m_writeFuture = future;
+            m_writeBuffer = ByteBuffer.wrap(data);
+            try {
+                if (!completeWrite()) {
+                    await(SelectionKey.OP_WRITE, timeout, "Write to " + getRemoteAddress());
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Closes the connection, failing any pending operation.
+     */
+    @Override
+    public void close() {
+        if (m_loop.inEventLoop()) {
+            doClose();
+        } else if (m_loop.isRunning()) {
+            m_loop.execute(this::doClose);
+        } else {
+            NioEventLoop.closeQuietly(m_channel);
+        }
+    }
+
+    private void doClose() {
+        NioEventLoop.closeQuietly(m_channel);
+        fail(new ClosedChannelException());
+    }
+
+    @Override
+    public void ready(final SelectionKey key) {
+        try {
+            if (m_connectFuture != null && key.isConnectable()) {
+                m_channel.finishConnect();
+                final CompletableFuture<NioTcpConnection> future = m_connectFuture;
+                clearPending();
+                future.complete(this);
+            } else if (m_readFuture != null && key.isReadable()) {
+                if (m_channel.read(m_readBuffer) < 0) {
+                    m_endOfStream = true;
+                }
+                if (completeRead()) {
+                    clearPending();
+                }
+            } else if (m_writeFuture != null && key.isWritable()) {
+                if (completeWrite()) {
+                    clearPending();
+                }
+            }
+        } catch (IOException e) {
+            NioEventLoop.closeQuietly(m_channel);
+            fail(e);
+        }
+    }
+
+    private String getRemoteAddress() {
+        try {
+            return String.valueOf(m_channel.getRemoteAddress());
+        } catch (IOException e) {
+            return "unconnected socket";
+        }
+    }
+
+    private void await(final int ops, final int timeout, final String operation) {
+        m_key.interestOps(ops);
+        m_deadline = m_loop.schedule(timeout, TimeUnit.MILLISECONDS, () -> {
+            m_deadline = null;
+            fail(new SocketTimeoutException(operation + " timed out after " + timeout + "ms"));
+        });
+    }
+
+    private void clearPending() {
+        if (m_deadline != null) {
+            m_deadline.cancel();
+            m_deadline = null;
+        }
+        if (m_key.isValid()) {
+            m_key.interestOps(0);
+        }
+        m_connectFuture = null;
+        m_readFuture = null;
+        m_writeFuture = null;
+        m_writeBuffer = null;
+    }
+
+    private void fail(final Throwable t) {
+        final CompletableFuture<?> connectFuture = m_connectFuture;
+        final CompletableFuture<?> readFuture = m_readFuture;
+        final CompletableFuture<?> writeFuture = m_writeFuture;
+        clearPending();
+        if (connectFuture != null) {
+            NioEventLoop.closeQuietly(m_channel);
+            connectFuture.completeExceptionally(t);
+        }
+        if (readFuture != null) {
+            readFuture.completeExceptionally(t);
+        }
+        if (writeFuture != null) {
+            writeFuture.completeExceptionally(t);
+        }
+    }
+
+    /**
+     * Completes the pending read if a full line, or the end of the stream is available.
+     */
+    private boolean completeRead() {
+        m_readBuffer.flip();
+        boolean found = false;
+        while (m_readBuffer.hasRemaining() && !found) {
+            final byte b = m_readBuffer.get();
+            if (b == '\n' || m_line.size() >= MAX_LINE_LENGTH) {
+                found = true;
+                if (b != '\n') {
+                    m_line.write(b);
+                }
+            } else {
+                m_line.write(b);
+            }
+        }
+        m_readBuffer.compact();
+
+        if (!found && !m_endOfStream) {
+            return false;
+        }
+
+        String line = null;
+        if (found || m_line.size() > 0) {
+            final byte[] bytes = m_line.toByteArray();
+            int length = bytes.length;
+            if (length > 0 && bytes[length - 1] == '\r') {
+                length--;
+            }
+            line = new String(bytes, 0, length, m_charset);
+            m_line.reset();
+        }
+        final CompletableFuture<String> future = m_readFuture;
+        m_readFuture = null;
+        future.complete(line);
+        return true;
+    }
+
+    private boolean completeWrite() throws IOException {
+        m_channel.write(m_writeBuffer);
+        if (m_writeBuffer.hasRemaining()) {
+            return false;
+        }
+        final CompletableFuture<Void> future = m_writeFuture;
+        m_writeFuture = null;
+        m_writeBuffer = null;
+        future.complete(null);
+        return true;
+    }
+}
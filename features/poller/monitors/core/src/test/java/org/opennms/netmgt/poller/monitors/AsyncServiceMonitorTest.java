@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller.monitors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
+import org.opennms.netmgt.poller.MonitoredService;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.mock.MonitorTestUtils;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Verifies the non-blocking implementations of the TCP based monitors against
+ * scripted servers on the loopback interface.
+ */
+public class AsyncServiceMonitorTest {
+
+    /**
+     * Answers a single connection.
+     */
+    private interface Script {
+        void run(BufferedReader in, OutputStream out) throws IOException;
+    }
+
+    private ServerSocket m_serverSocket;
+
+    private volatile Script m_script;
+
+    private MonitoredService m_svc;
+
+    private final Map<String, Object> m_parameters = new ConcurrentSkipListMap<String, Object>();
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging();
+        m_serverSocket = new ServerSocket(0, 1000, InetAddress.getLoopbackAddress());
+        m_svc = MonitorTestUtils.getMonitoredService(1, InetAddress.getLoopbackAddress(), "TEST");
+        m_parameters.put("port", Integer.toString(m_serverSocket.getLocalPort()));
+        m_parameters.put("retry", "0");
+        m_parameters.put("timeout", "1000");
+
+        final Thread thread = new Thread(() -> {
+            while (!m_serverSocket.isClosed()) {
+                try (final Socket socket = m_serverSocket.accept()) {
+                    socket.setSoTimeout(5000);
+                    m_script.run(new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII)), socket.getOutputStream());
+                } catch (IOException e) {
+                    // the client went away, or the test is over
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        m_serverSocket.close();
+    }
+
+    @Test
+    public void canMatchTcpBanners() throws Exception {
+        serve((in, out) -> write(out, "SSH-2.0-OpenSSH_7.4\r\n"));
+        m_parameters.put("banner", "OpenSSH");
+        assertEquals(PollStatus.SERVICE_AVAILABLE, poll(new TcpMonitor()).getStatusCode());
+
+        m_parameters.put("banner", "~^SSH-1.*");
+        final PollStatus status = poll(new TcpMonitor());
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertEquals("Banner does not match Regex '~^SSH-1.*'", status.getReason());
+    }
+
+    @Test
+    public void canTimeoutWaitingForTcpBanners() throws Exception {
+        // Accept the connection, but never send a banner
+        serve((in, out) -> in.readLine());
+        m_parameters.put("banner", "*");
+        assertEquals(PollStatus.SERVICE_AVAILABLE, poll(new TcpMonitor()).getStatusCode());
+
+        m_parameters.put("banner", "OpenSSH");
+        m_parameters.put("timeout", "200");
+        final PollStatus status = poll(new TcpMonitor());
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertTrue(status.getReason(), status.getReason().startsWith("did not connect to host"));
+    }
+
+    @Test
+    public void canDetectClosedTcpPorts() throws Exception {
+        m_serverSocket.close();
+        final PollStatus status = poll(new TcpMonitor());
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertNotNull(status.getReason());
+    }
+
+    @Test
+    public void canPollHttpServices() throws Exception {
+        serve((in, out) -> {
+            final String request = in.readLine();
+            while (!"".equals(in.readLine())) {
+                // skip the headers
+            }
+            if (request.startsWith("GET / ")) {
+                write(out, "HTTP/1.1 200 OK\r\nContent-Type: text/html\r\n\r\n<html>\r\n<body>Welcome to OpenNMS</body>\r\n</html>\r\n");
+            } else {
+                write(out, "HTTP/1.1 404 Not Found\r\n\r\n");
+            }
+        });
+
+        m_parameters.put("response-text", "~.*OpenNMS.*");
+        PollStatus status = poll(new HttpMonitor());
+        assertEquals(status.getReason(), PollStatus.SERVICE_AVAILABLE, status.getStatusCode());
+        assertNull(status.getReason());
+
+        m_parameters.put("response-text", "Horizon");
+        status = poll(new HttpMonitor());
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertTrue(status.getReason(), status.getReason().startsWith("Matching text: [Horizon] not found in body of HTTP response"));
+
+        m_parameters.remove("response-text");
+        m_parameters.put("url", "/missing");
+        status = poll(new HttpMonitor());
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertTrue(status.getReason(), status.getReason().startsWith("HTTP response value: 404. Expecting: 100-399."));
+    }
+
+    @Test
+    public void canPollSmtpServices() throws Exception {
+        serve((in, out) -> {
+            write(out, "220 mail.example.com ESMTP\r\n");
+            assertTrue(in.readLine().startsWith("HELO "));
+            write(out, "250-mail.example.com\r\n250-PIPELINING\r\n250 8BITMIME\r\n");
+            assertEquals("QUIT", in.readLine());
+            write(out, "221 Bye\r\n");
+        });
+        assertEquals(PollStatus.SERVICE_AVAILABLE, poll(new SmtpMonitor()).getStatusCode());
+
+        serve((in, out) -> {
+            write(out, "554 No SMTP service here\r\n");
+            assertEquals("QUIT", in.readLine());
+            write(out, "221 Bye\r\n");
+        });
+        final PollStatus status = poll(new SmtpMonitor());
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+        assertEquals("Server rejecting transactions with 554", status.getReason());
+    }
+
+    @Test
+    public void canPollManyServicesConcurrently() throws Exception {
+        // The connections are established by the backlog of a server socket which
+        // never accepts them, so none of them ever receives a banner
+        final ServerSocket serverSocket = new ServerSocket(0, 1000, InetAddress.getLoopbackAddress());
+        m_parameters.put("port", Integer.toString(serverSocket.getLocalPort()));
+        m_parameters.put("banner", "OpenSSH");
+        m_parameters.put("timeout", "500");
+
+        final long start = System.currentTimeMillis();
+        final List<CompletableFuture<PollStatus>> futures = Lists.newArrayList();
+        for (int i = 0; i < 500; i++) {
+            futures.add(new TcpMonitor().pollAsync(m_svc, m_parameters));
+        }
+        for (CompletableFuture<PollStatus> future : futures) {
+            assertEquals(PollStatus.SERVICE_UNAVAILABLE, future.get(10, TimeUnit.SECONDS).getStatusCode());
+        }
+        // Polling the services one at a time would take over 4 minutes
+        final long elapsed = System.currentTimeMillis() - start;
+        assertTrue("elapsed: " + elapsed + "ms", elapsed < 10000);
+        serverSocket.close();
+    }
+
+    private PollStatus poll(AsyncServiceMonitor monitor) throws Exception {
+        return monitor.pollAsync(m_svc, m_parameters).get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Answers the following connections with the given script.
+     */
+    private void serve(Script script) {
+        m_script = script;
+    }
+
+    private static void write(OutputStream out, String data) throws IOException {
+        out.write(data.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+}
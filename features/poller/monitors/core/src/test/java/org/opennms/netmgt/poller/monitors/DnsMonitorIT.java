@@ -174,6 +174,35 @@ public class DnsMonitorIT {
         assertEquals(PollStatus.SERVICE_AVAILABLE, status.getStatusCode());
     }
     
+    @Test
+    public void testAsyncResponses() throws Exception {
+        final Map<String, Object> m = new ConcurrentSkipListMap<String, Object>();
+
+        final DnsMonitor monitor = new DnsMonitor();
+        final MonitoredService svc = MonitorTestUtils.getMonitoredService(99, addr("127.0.0.1"), "DNS");
+
+        m.put("port", "9153");
+        m.put("retry", "1");
+        m.put("timeout", "3000");
+        m.put("lookup", "example.com");
+
+        PollStatus status = monitor.pollAsync(svc, m).get();
+        MockUtil.println("Reason: "+status.getReason());
+        assertEquals(PollStatus.SERVICE_AVAILABLE, status.getStatusCode());
+
+        m.put("lookup", "bogus.example.com");
+        m.put("fatal-response-codes", "3");
+        status = monitor.pollAsync(svc, m).get();
+        MockUtil.println("Reason: "+status.getReason());
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+
+        m.put("port", "9000");
+        m.put("timeout", "500");
+        status = monitor.pollAsync(svc, m).get();
+        MockUtil.println("Reason: "+status.getReason());
+        assertEquals(PollStatus.SERVICE_UNAVAILABLE, status.getStatusCode());
+    }
+
     @Test
     public void testTooFewAnswers() throws UnknownHostException {
         final Map<String, Object> m = new ConcurrentSkipListMap<String, Object>();
@@ -144,6 +144,17 @@ public interface EventConfDao {
      */
     Event findByEvent(org.opennms.netmgt.xml.event.Event matchingEvent);
 
+    /**
+     * Used by callers that build events from raw data to avoid decoding
+     * the parameters before {@link #findByEvent(org.opennms.netmgt.xml.event.Event)}
+     * when they can't affect the result.
+     *
+     * @return false if no event definition matches on varbinds
+     */
+    default boolean hasVarbindMasks() {
+        return true;
+    }
+
     /**
      * <p>getRootEvents</p>
      * 
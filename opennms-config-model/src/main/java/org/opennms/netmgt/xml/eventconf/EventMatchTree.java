@@ -0,0 +1,489 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.xml.eventconf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.opennms.netmgt.xml.eventconf.Events.EventCallback;
+
+/**
+ * An immutable decision tree over the &lt;mask&gt; elements and varbinds of
+ * every event definition in an {@link Events} hierarchy.
+ *
+ * Each level of the tree branches on one field (i.e. the enterprise id, the
+ * generic or specific type, a varbind, ...) using the exact values and
+ * the prefixes ('%' suffixed values) found in the masks. Definitions that
+ * do not constrain a field, or that use a regular expression for it, are
+ * placed in the 'any' branch of that level. The leaves contain the
+ * remaining candidates in priority order, which are verified using their
+ * original {@link EventMatcher}.
+ *
+ * A lookup returns the same definition as
+ * {@link Events#findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event)}:
+ * a definition with the same UEI if there is one, otherwise the first
+ * definition, in configuration order, whose mask matches.
+ */
+public final class EventMatchTree {
+
+    /**
+     * The maximum number of fields used to branch the tree.
+     */
+    public static final int DEFAULT_MAX_DEPTH = Integer.getInteger("org.opennms.eventconf.matchTree.maxDepth", 4);
+
+    /**
+     * Nodes with this many definitions, or fewer, are not split any further.
+     */
+    private static final int LEAF_SIZE = 2;
+
+    private static final String VARBIND_PREFIX = "varbind#";
+
+    private final Map<String, Event> m_eventsByUei;
+
+    private final List<String> m_fieldNames;
+
+    private final Field[] m_fields;
+
+    private final Node m_root;
+
+    private final int m_size;
+
+    private final boolean m_varbindMasks;
+
+    private EventMatchTree(Map<String, Event> eventsByUei, List<String> fieldNames, Field[] fields, Node root, int size, boolean varbindMasks) {
+        m_eventsByUei = eventsByUei;
+        m_fieldNames = fieldNames;
+        m_fields = fields;
+        m_root = root;
+        m_size = size;
+        m_varbindMasks = varbindMasks;
+    }
+
+    /**
+     * Compiles the given, already initialized, event configuration.
+     */
+    public static EventMatchTree build(Events events) {
+        return build(events, DEFAULT_MAX_DEPTH);
+    }
+
+    public static EventMatchTree build(Events events, int maxDepth) {
+        final List<Event> allEvents = events.forEachEvent(new ArrayList<Event>(), new EventCallback<List<Event>>() {
+            @Override
+            public List<Event> process(List<Event> accum, Event event) {
+                accum.add(event);
+                return accum;
+            }
+        });
+
+        // forEachEvent() visits the definitions in the same order as the
+        // event ordering, so the position in the list is the priority
+        final Map<String, Event> eventsByUei = new HashMap<>();
+        final List<Definition> definitions = new ArrayList<>(allEvents.size());
+        boolean varbindMasks = false;
+        for (int rank = 0; rank < allEvents.size(); rank++) {
+            final Event event = allEvents.get(rank);
+            if (event.getUei() != null) {
+                // Don't overwrite existing keys, first one wins
+                eventsByUei.putIfAbsent(event.getUei(), event);
+            }
+            // Definitions without a mask can only be matched by their UEI
+            if (event.getMask() != null && event.getMask().getMaskelements().size() > 0) {
+                definitions.add(new Definition(rank, event));
+            }
+            if (event.getMask() != null && event.getMask().getVarbinds().size() > 0) {
+                varbindMasks = true;
+            }
+        }
+
+        // Branch on the fields that are constrained by the most definitions first
+        final Map<String, Integer> fieldCounts = new HashMap<>();
+        for (final Definition definition : definitions) {
+            for (final Map.Entry<String, Constraint> entry : definition.constraints.entrySet()) {
+                if (!entry.getValue().isWildcard()) {
+                    fieldCounts.merge(entry.getKey(), 1, Integer::sum);
+                }
+            }
+        }
+        final List<String> fieldNames = new ArrayList<>(fieldCounts.keySet());
+        fieldNames.sort(Comparator.comparing((String f) -> fieldCounts.get(f)).reversed().thenComparing(Comparator.naturalOrder()));
+        while (fieldNames.size() > maxDepth) {
+            fieldNames.remove(fieldNames.size() - 1);
+        }
+
+        final Field[] fields = new Field[fieldNames.size()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = toField(fieldNames.get(i));
+        }
+
+        final Node root = Node.build(definitions, fieldNames, 0);
+        return new EventMatchTree(Collections.unmodifiableMap(eventsByUei), Collections.unmodifiableList(fieldNames), fields, root, allEvents.size(), varbindMasks);
+    }
+
+    public Event findFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+        // Attempt to match the event definition by UEI
+        final String ueiToMatch = matchingEvent.getUei();
+        if (ueiToMatch != null) {
+            final Event matchedEvent = m_eventsByUei.get(ueiToMatch);
+            if (matchedEvent != null) {
+                return matchedEvent;
+            }
+        }
+
+        if (m_root == null) {
+            return null;
+        }
+        final Search search = new Search(matchingEvent, m_fields);
+        m_root.search(search);
+        return search.bestEvent;
+    }
+
+    /**
+     * @return the fields used to branch the tree, from the root to the leaves
+     */
+    public List<String> getFieldNames() {
+        return m_fieldNames;
+    }
+
+    /**
+     * @return true if the mask of any definition matches on varbinds, false if
+     * the parameters of an event never affect which definition it matches
+     */
+    public boolean hasVarbindMasks() {
+        return m_varbindMasks;
+    }
+
+    /**
+     * @return the number of event definitions that were compiled
+     */
+    public int size() {
+        return m_size;
+    }
+
+    @Override
+    public String toString() {
+        return "EventMatchTree[size=" + m_size + ", fields=" + m_fieldNames + "]";
+    }
+
+    private static Field toField(String fieldName) {
+        if (fieldName.startsWith(VARBIND_PREFIX)) {
+            return EventMatchers.varbind(Integer.parseInt(fieldName.substring(VARBIND_PREFIX.length())));
+        }
+        return EventMatchers.field(fieldName);
+    }
+
+    /**
+     * The values a definition accepts for a single field.
+     */
+    private static class Constraint {
+        private final Set<String> exactValues = new LinkedHashSet<>();
+        private final Set<String> prefixes = new LinkedHashSet<>();
+        private boolean wildcard = false;
+
+        private Constraint(List<String> values) {
+            for (final String value : values) {
+                if (value == null) continue;
+                if (value.startsWith("~")) {
+                    // Regular expressions can't be indexed
+                    wildcard = true;
+                } else if (value.endsWith("%")) {
+                    prefixes.add(value.substring(0, value.length() - 1));
+                } else {
+                    exactValues.add(value);
+                }
+            }
+            if (exactValues.isEmpty() && prefixes.isEmpty()) {
+                wildcard = true;
+            }
+        }
+
+        private boolean isWildcard() {
+            return wildcard;
+        }
+    }
+
+    private static class Definition {
+        private final int rank;
+        private final Event event;
+        private final Map<String, Constraint> constraints = new HashMap<>();
+
+        private Definition(int rank, Event event) {
+            this.rank = rank;
+            this.event = event;
+
+            final Mask mask = event.getMask();
+            for (final Maskelement element : mask.getMaskelements()) {
+                // Additional elements for the same field are left to the matcher
+                constraints.putIfAbsent(element.getMename(), new Constraint(element.getMevalues()));
+            }
+            for (final Varbind varbind : mask.getVarbinds()) {
+                if (varbind.getVbnumber() != null) {
+                    constraints.putIfAbsent(VARBIND_PREFIX + varbind.getVbnumber(), new Constraint(varbind.getVbvalues()));
+                }
+            }
+        }
+    }
+
+    /**
+     * The per lookup state: the values of the branching fields, which are
+     * only extracted from the event when needed, and the best match so far.
+     */
+    private static class Search {
+        private final org.opennms.netmgt.xml.event.Event event;
+        private final Field[] fields;
+        private final String[] values;
+        private final boolean[] extracted;
+        private int bestRank = Integer.MAX_VALUE;
+        private Event bestEvent = null;
+
+        private Search(org.opennms.netmgt.xml.event.Event event, Field[] fields) {
+            this.event = event;
+            this.fields = fields;
+            this.values = new String[fields.length];
+            this.extracted = new boolean[fields.length];
+        }
+
+        private String getValue(int level) {
+            if (!extracted[level]) {
+                values[level] = fields[level].get(event);
+                extracted[level] = true;
+            }
+            return values[level];
+        }
+    }
+
+    private static abstract class Node {
+        /**
+         * The lowest rank of any definition below this node, used to skip
+         * branches that can't improve on the match we already have.
+         */
+        protected final int minRank;
+
+        protected Node(int minRank) {
+            this.minRank = minRank;
+        }
+
+        protected abstract void search(Search search);
+
+        private static Node build(List<Definition> definitions, List<String> fieldNames, int level) {
+            if (definitions.isEmpty()) {
+                return null;
+            }
+            if (level >= fieldNames.size() || definitions.size() <= LEAF_SIZE) {
+                return new Leaf(definitions);
+            }
+
+            final String fieldName = fieldNames.get(level);
+            final Map<String, List<Definition>> exact = new LinkedHashMap<>();
+            final Map<String, List<Definition>> prefixed = new TreeMap<>();
+            final List<Definition> any = new ArrayList<>();
+            for (final Definition definition : definitions) {
+                final Constraint constraint = definition.constraints.get(fieldName);
+                if (constraint == null || constraint.isWildcard()) {
+                    any.add(definition);
+                    continue;
+                }
+                for (final String value : constraint.exactValues) {
+                    exact.computeIfAbsent(value, k -> new ArrayList<>()).add(definition);
+                }
+                for (final String prefix : constraint.prefixes) {
+                    prefixed.computeIfAbsent(prefix, k -> new ArrayList<>()).add(definition);
+                }
+            }
+
+            // Every definition is in the same branch, so this field doesn't help
+            if (any.size() == definitions.size()) {
+                return build(definitions, fieldNames, level + 1);
+            }
+
+            final Map<String, Node> exactChildren = new HashMap<>();
+            for (final Map.Entry<String, List<Definition>> entry : exact.entrySet()) {
+                exactChildren.put(entry.getKey(), build(entry.getValue(), fieldNames, level + 1));
+            }
+            final Map<String, Node> prefixChildren = new TreeMap<>();
+            for (final Map.Entry<String, List<Definition>> entry : prefixed.entrySet()) {
+                prefixChildren.put(entry.getKey(), build(entry.getValue(), fieldNames, level + 1));
+            }
+            return new Branch(level, exactChildren, PrefixTrie.build(prefixChildren), build(any, fieldNames, level + 1));
+        }
+    }
+
+    private static class Branch extends Node {
+        private final int level;
+        private final Map<String, Node> exactChildren;
+        private final PrefixTrie prefixChildren;
+        private final Node anyChild;
+
+        private Branch(int level, Map<String, Node> exactChildren, PrefixTrie prefixChildren, Node anyChild) {
+            super(minRank(exactChildren.values(), prefixChildren, anyChild));
+            this.level = level;
+            this.exactChildren = exactChildren;
+            this.prefixChildren = prefixChildren;
+            this.anyChild = anyChild;
+        }
+
+        private static int minRank(Iterable<Node> nodes, PrefixTrie trie, Node any) {
+            int minRank = any == null ? Integer.MAX_VALUE : any.minRank;
+            for (final Node node : nodes) {
+                minRank = Math.min(minRank, node.minRank);
+            }
+            return trie == null ? minRank : Math.min(minRank, trie.minRank());
+        }
+
+        @Override
+        protected void search(Search search) {
+            if (minRank >= search.bestRank) {
+                return;
+            }
+            final String value = search.getValue(level);
+            if (value != null) {
+                final Node exactChild = exactChildren.get(value);
+                if (exactChild != null) {
+                    exactChild.search(search);
+                }
+                if (prefixChildren != null) {
+                    prefixChildren.search(value, search);
+                }
+            }
+            if (anyChild != null) {
+                anyChild.search(search);
+            }
+        }
+    }
+
+    private static class Leaf extends Node {
+        private final Definition[] definitions;
+
+        private Leaf(List<Definition> definitions) {
+            this(sortByRank(definitions));
+        }
+
+        private Leaf(Definition[] sorted) {
+            super(sorted[0].rank);
+            this.definitions = sorted;
+        }
+
+        private static Definition[] sortByRank(List<Definition> definitions) {
+            final Definition[] sorted = definitions.toArray(new Definition[definitions.size()]);
+            Arrays.sort(sorted, Comparator.comparingInt(d -> d.rank));
+            return sorted;
+        }
+
+        @Override
+        protected void search(Search search) {
+            for (final Definition definition : definitions) {
+                if (definition.rank >= search.bestRank) {
+                    return;
+                }
+                if (definition.event.matches(search.event)) {
+                    search.bestRank = definition.rank;
+                    search.bestEvent = definition.event;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * A character trie used to find the children for every prefix of a value
+     * without allocating any substrings.
+     */
+    private static class PrefixTrie {
+        private final char[] keys;
+        private final PrefixTrie[] children;
+        private final Node node;
+        private final int minRank;
+
+        private PrefixTrie(char[] keys, PrefixTrie[] children, Node node) {
+            this.keys = keys;
+            this.children = children;
+            this.node = node;
+            int min = node == null ? Integer.MAX_VALUE : node.minRank;
+            for (final PrefixTrie child : children) {
+                min = Math.min(min, child.minRank);
+            }
+            this.minRank = min;
+        }
+
+        private int minRank() {
+            return minRank;
+        }
+
+        private static PrefixTrie build(Map<String, Node> prefixes) {
+            return prefixes.isEmpty() ? null : build(new TreeMap<>(prefixes), 0);
+        }
+
+        private static PrefixTrie build(TreeMap<String, Node> prefixes, int depth) {
+            Node node = null;
+            final TreeMap<Character, TreeMap<String, Node>> byChar = new TreeMap<>();
+            for (final Map.Entry<String, Node> entry : prefixes.entrySet()) {
+                final String prefix = entry.getKey();
+                if (prefix.length() == depth) {
+                    node = entry.getValue();
+                } else {
+                    byChar.computeIfAbsent(prefix.charAt(depth), c -> new TreeMap<>()).put(prefix, entry.getValue());
+                }
+            }
+            final char[] keys = new char[byChar.size()];
+            final PrefixTrie[] children = new PrefixTrie[byChar.size()];
+            int i = 0;
+            for (final Map.Entry<Character, TreeMap<String, Node>> entry : byChar.entrySet()) {
+                keys[i] = entry.getKey();
+                children[i] = build(entry.getValue(), depth + 1);
+                i++;
+            }
+            return new PrefixTrie(keys, children, node);
+        }
+
+        private void search(String value, Search search) {
+            PrefixTrie trie = this;
+            for (int depth = 0; trie != null; depth++) {
+                if (trie.minRank >= search.bestRank) {
+                    return;
+                }
+                if (trie.node != null) {
+                    trie.node.search(search);
+                }
+                if (depth >= value.length()) {
+                    return;
+                }
+                final int index = Arrays.binarySearch(trie.keys, value.charAt(depth));
+                trie = index < 0 ? null : trie.children[index];
+            }
+        }
+    }
+}
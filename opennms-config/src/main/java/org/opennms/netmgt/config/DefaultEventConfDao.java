@@ -43,6 +43,7 @@ import org.opennms.core.xml.JaxbUtils;
 import org.opennms.netmgt.config.api.EventConfDao;
 import org.opennms.netmgt.xml.eventconf.Event;
 import org.opennms.netmgt.xml.eventconf.EventLabelComparator;
+import org.opennms.netmgt.xml.eventconf.EventMatchTree;
 import org.opennms.netmgt.xml.eventconf.EventMatchers;
 import org.opennms.netmgt.xml.eventconf.EventOrdering;
 import org.opennms.netmgt.xml.eventconf.Events;
@@ -70,6 +71,12 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 
 	private Partition m_partition;
 
+	/**
+	 * Compiled form of m_events used by findByEvent(), rebuilt whenever the
+	 * events are (re)initialized.
+	 */
+	private volatile EventMatchTree m_matchTree;
+
     /**
      * Used to keep track of the last modified time for the loaded event files.
      * See the reloadConfig() for details.
@@ -177,6 +184,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 	public void addEvent(Event event) {
 		m_events.addEvent(event);
 		m_events.initialize(m_partition, new EventOrdering());
+		m_matchTree = EventMatchTree.build(m_events);
 	}
 
 	@Override
@@ -189,6 +197,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 
 		programmaticEvents.addEvent(event);
 		m_events.initialize(m_partition, new EventOrdering());
+		m_matchTree = EventMatchTree.build(m_events);
 
 	}
 
@@ -203,6 +212,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 		} 
 
 		m_events.initialize(m_partition, new EventOrdering());
+		m_matchTree = EventMatchTree.build(m_events);
 
 		return true;
 
@@ -227,7 +237,12 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 
 	@Override
 	public Event findByEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
-		return m_events.findFirstMatchingEvent(matchingEvent);
+		return m_matchTree.findFirstMatchingEvent(matchingEvent);
+	}
+
+	@Override
+	public boolean hasVarbindMasks() {
+		return m_matchTree.hasVarbindMasks();
 	}
 
 	@Override
@@ -294,6 +309,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
             // Order the events for efficient searching
             events.initialize(m_partition, new EventOrdering());
 
+            m_matchTree = EventMatchTree.build(events);
             m_events = events;
         } catch (Exception e) {
             throw new DataRetrievalFailureException("Unabled to load " + m_configResource, e);
@@ -308,6 +324,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 			m_partition = new EnterpriseIdPartition();
 			events.initialize(m_partition, new EventOrdering());
 
+			m_matchTree = EventMatchTree.build(events);
 			m_events = events;
 		} catch (Exception e) {
 			throw new DataRetrievalFailureException("Unabled to load " + m_configResource, e);
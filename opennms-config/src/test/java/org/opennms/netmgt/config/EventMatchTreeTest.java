@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.netmgt.xml.event.Parm;
+import org.opennms.netmgt.xml.event.Snmp;
+import org.opennms.netmgt.xml.eventconf.Event;
+import org.opennms.netmgt.xml.eventconf.EventMatchTree;
+import org.opennms.netmgt.xml.eventconf.Events;
+import org.opennms.netmgt.xml.eventconf.Maskelement;
+import org.opennms.netmgt.xml.eventconf.Varbind;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * Verifies that the {@link EventMatchTree} finds the same event definitions
+ * as {@link Events#findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event)}
+ * for the default event configuration.
+ */
+public class EventMatchTreeTest {
+
+    private static final String UNKNOWN_UEI = "uei.opennms.org/test/EventMatchTreeTest/unknown";
+
+    private static DefaultEventConfDao s_eventConfDao;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        s_eventConfDao = new DefaultEventConfDao();
+        s_eventConfDao.setConfigResource(new FileSystemResource(ConfigurationTestUtils.getFileForConfigFile("eventconf.xml")));
+        s_eventConfDao.afterPropertiesSet();
+    }
+
+    @Test
+    public void matchesTheSameDefinitionsAsEvents() {
+        final Events events = s_eventConfDao.getRootEvents();
+        final EventMatchTree tree = EventMatchTree.build(events);
+        assertEquals(s_eventConfDao.getAllEvents().size(), tree.size());
+
+        final List<org.opennms.netmgt.xml.event.Event> matchingEvents = createMatchingEvents(s_eventConfDao);
+        assertTrue("Expected at least one event per definition with a mask, got " + matchingEvents.size() + " for " + tree, matchingEvents.size() > 1000);
+
+        int matched = 0;
+        for (final org.opennms.netmgt.xml.event.Event e : matchingEvents) {
+            final Event expected = events.findFirstMatchingEvent(e);
+            assertSame("Mismatch for " + e, expected, tree.findFirstMatchingEvent(e));
+            assertSame(expected, s_eventConfDao.findByEvent(e));
+            if (expected != null) {
+                matched++;
+            }
+        }
+        // Most of the generated events should match something
+        assertTrue(matched > matchingEvents.size() / 2);
+    }
+
+    @Test
+    public void matchesByUeiFirst() {
+        final EventMatchTree tree = EventMatchTree.build(s_eventConfDao.getRootEvents());
+        for (final Event definition : s_eventConfDao.getAllEvents()) {
+            final org.opennms.netmgt.xml.event.Event e = new org.opennms.netmgt.xml.event.Event();
+            e.setUei(definition.getUei());
+            assertSame(s_eventConfDao.getRootEvents().findFirstMatchingEvent(e), tree.findFirstMatchingEvent(e));
+        }
+    }
+
+    @Test
+    public void reportsVarbindMasks() {
+        assertTrue(s_eventConfDao.hasVarbindMasks());
+        assertFalse(EventMatchTree.build(new Events()).hasVarbindMasks());
+    }
+
+    /**
+     * Generates events from the masks of every event definition: one event
+     * that should match the definition, and variants with a different
+     * varbind or specific type that may only match other definitions.
+     */
+    protected static List<org.opennms.netmgt.xml.event.Event> createMatchingEvents(DefaultEventConfDao eventConfDao) {
+        final List<org.opennms.netmgt.xml.event.Event> matchingEvents = new ArrayList<>();
+        for (final Event definition : eventConfDao.getAllEvents()) {
+            if (definition.getMask() == null || definition.getMask().getMaskelements().isEmpty()) {
+                continue;
+            }
+            matchingEvents.add(createEvent(definition, false, false));
+            if (!definition.getMask().getVarbinds().isEmpty()) {
+                matchingEvents.add(createEvent(definition, true, false));
+            }
+            matchingEvents.add(createEvent(definition, false, true));
+        }
+        return matchingEvents;
+    }
+
+    private static org.opennms.netmgt.xml.event.Event createEvent(Event definition, boolean alterVarbinds, boolean alterSpecific) {
+        final org.opennms.netmgt.xml.event.Event e = new org.opennms.netmgt.xml.event.Event();
+        e.setUei(UNKNOWN_UEI);
+        e.setSource("EventMatchTreeTest");
+        final Snmp snmp = new Snmp();
+        e.setSnmp(snmp);
+
+        for (final Maskelement element : definition.getMask().getMaskelements()) {
+            final String value = toMatchingValue(element.getMevalues());
+            if (value == null) {
+                continue;
+            }
+            switch (element.getMename()) {
+            case Maskelement.TAG_UEI: e.setUei(value); break;
+            case Maskelement.TAG_SOURCE: e.setSource(value); break;
+            case Maskelement.TAG_HOST: e.setHost(value); break;
+            case Maskelement.TAG_SNMPHOST: e.setSnmphost(value); break;
+            case Maskelement.TAG_INTERFACE: e.setInterface(value); break;
+            case Maskelement.TAG_SERVICE: e.setService(value); break;
+            case Maskelement.TAG_SNMP_EID: snmp.setId(value); break;
+            case Maskelement.TAG_SNMP_COMMUNITY: snmp.setCommunity(value); break;
+            case Maskelement.TAG_NODEID:
+                if (value.matches("\\d+")) e.setNodeid(Long.valueOf(value));
+                break;
+            case Maskelement.TAG_SNMP_GENERIC:
+                if (value.matches("\\d+")) snmp.setGeneric(Integer.parseInt(value));
+                break;
+            case Maskelement.TAG_SNMP_SPECIFIC:
+                if (value.matches("\\d+")) snmp.setSpecific(Integer.parseInt(value) + (alterSpecific ? 1 : 0));
+                break;
+            default:
+                break;
+            }
+        }
+
+        for (final Varbind varbind : definition.getMask().getVarbinds()) {
+            if (varbind.getVbnumber() == null) {
+                continue;
+            }
+            final String value = alterVarbinds ? "EventMatchTreeTest" : toMatchingValue(varbind.getVbvalues());
+            while (e.getParmCollection().size() < varbind.getVbnumber()) {
+                e.addParm(new Parm("parm" + e.getParmCollection().size(), "EventMatchTreeTest"));
+            }
+            if (value != null) {
+                e.getParmCollection().set(varbind.getVbnumber() - 1, new Parm("parm" + varbind.getVbnumber(), value));
+            }
+        }
+        return e;
+    }
+
+    private static String toMatchingValue(List<String> values) {
+        for (final String value : values) {
+            if (value == null || value.startsWith("~")) {
+                continue;
+            }
+            return value.endsWith("%") ? value.substring(0, value.length() - 1) + "1" : value;
+        }
+        return null;
+    }
+}
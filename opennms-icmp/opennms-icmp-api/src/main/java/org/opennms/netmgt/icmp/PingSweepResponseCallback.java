@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.icmp;
+
+import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Forwards the results of a sweep to another callback, and tracks when every
+ * address of the sweep has been reported.
+ *
+ * Call {@link #expectCallback()} before each request is sent, and
+ * {@link #allRequestsSent()} once the last one has been sent. The future
+ * completes once the callback has been invoked for every request.
+ */
+public class PingSweepResponseCallback implements PingResponseCallback {
+
+    private final PingResponseCallback m_delegate;
+
+    // Starts at one, so the future cannot complete before all of the requests were sent
+    private final AtomicInteger m_pending = new AtomicInteger(1);
+
+    private final CompletableFuture<Void> m_future = new CompletableFuture<>();
+
+    public PingSweepResponseCallback(final PingResponseCallback delegate) {
+        m_delegate = delegate;
+    }
+
+    public void expectCallback() {
+        m_pending.incrementAndGet();
+    }
+
+    public void allRequestsSent() {
+        release();
+    }
+
+    public CompletableFuture<Void> getFuture() {
+        return m_future;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void handleResponse(final InetAddress address, final EchoPacket response) {
+        try {
+            m_delegate.handleResponse(address, response);
+        } finally {
+            release();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void handleTimeout(final InetAddress address, final EchoPacket request) {
+        try {
+            m_delegate.handleTimeout(address, request);
+        } finally {
+            release();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void handleError(final InetAddress address, final EchoPacket request, final Throwable t) {
+        try {
+            m_delegate.handleError(address, request, t);
+        } finally {
+            release();
+        }
+    }
+
+    private void release() {
+        if (m_pending.decrementAndGet() == 0) {
+            m_future.complete(null);
+        }
+    }
+}
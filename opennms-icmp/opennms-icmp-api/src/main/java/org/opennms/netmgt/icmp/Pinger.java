@@ -31,6 +31,9 @@ package org.opennms.netmgt.icmp;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.google.common.util.concurrent.RateLimiter;
 
 /**
  * <p>Pinger class.</p>
@@ -133,6 +136,37 @@ public interface Pinger {
          */
         public List<Number> parallelPing(InetAddress host, int count, long timeout, long pingInterval) throws Exception;
         
+        /**
+         * Ping every target, sending at most the given number of echo requests per
+         * second, including retries. The callback is invoked exactly once for every
+         * target.
+         *
+         * The default implementation sends the requests on the calling thread with
+         * {@link #ping(InetAddress, long, int, int, int, PingResponseCallback)} and
+         * returns once the last one has been sent.
+         *
+         * @param targets The addresses to ping, which are only iterated once.
+         * @param packetsPerSecond The maximum rate at which the requests are sent.
+         * @param packetSize The size in byte of the ICMP packets.
+         * @param cb The callback to call with the result of every target.
+         * @return a future that completes once every target has been reported to the callback.
+         */
+        public default CompletableFuture<Void> sweep(Iterable<PingTarget> targets, double packetsPerSecond, int packetSize, PingResponseCallback cb) throws Exception {
+            final PingSweepResponseCallback tracker = new PingSweepResponseCallback(cb);
+            final RateLimiter limiter = RateLimiter.create(packetsPerSecond);
+            for (final PingTarget target : targets) {
+                tracker.expectCallback();
+                limiter.acquire();
+                try {
+                    ping(target.getAddress(), target.getTimeout(), target.getRetries(), packetSize, 1, tracker);
+                } catch (final Exception e) {
+                    tracker.handleError(target.getAddress(), null, e);
+                }
+            }
+            tracker.allRequestsSent();
+            return tracker.getFuture();
+        }
+
 	public void setAllowFragmentation(final boolean allow) throws Exception;
 
 	public void setTrafficClass(final int tc) throws Exception;
@@ -30,9 +30,11 @@ package org.opennms.netmgt.icmp.best;
 
 import java.net.InetAddress;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.opennms.netmgt.icmp.NullPinger;
 import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.opennms.netmgt.icmp.PingTarget;
 import org.opennms.netmgt.icmp.Pinger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -79,6 +81,12 @@ public class BestMatchPinger implements Pinger {
         return m_pinger.parallelPing(host, count, timeout, pingInterval);
     }
 
+    @Override
+    public CompletableFuture<Void> sweep(final Iterable<PingTarget> targets, final double packetsPerSecond, final int packetSize, final PingResponseCallback cb) throws Exception {
+        initialize();
+        return m_pinger.sweep(targets, packetsPerSecond, packetSize, cb);
+    }
+
     @Override
     public List<Number> parallelPing(final InetAddress host, final int count, final long timeout, final long pingInterval, final int size) throws Exception {
         initialize();
@@ -29,6 +29,8 @@
 package org.opennms.netmgt.icmp.jna;
 
 import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
 import java.net.InetAddress;
 
 import org.opennms.netmgt.icmp.EchoPacket;
@@ -42,17 +44,20 @@ import org.slf4j.LoggerFactory;
 /**
  * @author brozow
  */
-public class JnaIcmpMessenger implements Messenger<JnaPingRequest, JnaPingReply>, PingReplyListener {
+public class JnaIcmpMessenger implements Messenger<JnaPingRequest, JnaPingReply>, PingReplyListener, JnaSweepEngine.EchoSender {
 	
 	
 	private static final Logger LOG = LoggerFactory
 			.getLogger(JnaIcmpMessenger.class);
 	
+	private final int m_pingerId;
 	private V4Pinger m_v4;
 	private V6Pinger m_v6;
     private ReplyHandler<JnaPingReply> m_callback = null;
+    private volatile JnaSweepEngine m_sweepEngine = null;
 
 	public JnaIcmpMessenger(final int pingerId) throws Exception {
+	    m_pingerId = pingerId;
 	    Throwable error = null;
 	    try {
 	        m_v4 = new V4Pinger(pingerId);
@@ -107,9 +112,34 @@ public class JnaIcmpMessenger implements Messenger<JnaPingRequest, JnaPingReply>
 
         @Override
 	public void onPingReply(final InetAddress address, final EchoPacket packet) {
+        if (JnaSweepEngine.isSweepPacket(packet)) {
+            final JnaSweepEngine sweepEngine = m_sweepEngine;
+            if (sweepEngine != null) {
+                sweepEngine.onPingReply(address, packet);
+            }
+            return;
+        }
         m_callback.handleReply(new JnaPingReply(address, packet));
 	}
 
+        /**
+         * Sets the engine that receives the replies to the requests it sent.
+         */
+        public void setSweepEngine(final JnaSweepEngine sweepEngine) {
+            m_sweepEngine = sweepEngine;
+        }
+
+        @Override
+        public void send(final InetAddress address, final int sequenceNumber, final long threadId, final int packetSize) throws Exception {
+            if (address instanceof Inet4Address && m_v4 != null) {
+                m_v4.ping((Inet4Address)address, m_pingerId, sequenceNumber, threadId, 1, 0, packetSize);
+            } else if (address instanceof Inet6Address && m_v6 != null) {
+                m_v6.ping((Inet6Address)address, m_pingerId, sequenceNumber, threadId, 1, 0, packetSize);
+            } else {
+                throw new IcmpMessengerIOException("No pinger found that can handle " + address);
+            }
+        }
+
         public void setTrafficClass(int tc) throws IOException {
             if (m_v4 != null) m_v4.getPingSocket().setTrafficClass(tc);
             if (m_v6 != null) m_v6.getPingSocket().setTrafficClass(tc);
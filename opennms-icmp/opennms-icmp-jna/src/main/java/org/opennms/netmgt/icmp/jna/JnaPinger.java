@@ -37,10 +37,13 @@ import java.net.InetAddress;
 import java.security.SecureRandom;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 import org.opennms.core.logging.Logging;
+import org.opennms.netmgt.icmp.LogPrefixPreservingPingResponseCallback;
 import org.opennms.netmgt.icmp.ParallelPingResponseCallback;
 import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.opennms.netmgt.icmp.PingTarget;
 import org.opennms.netmgt.icmp.Pinger;
 import org.opennms.netmgt.icmp.SinglePingResponseCallback;
 import org.opennms.protocols.rt.IDBasedRequestLocator;
@@ -48,6 +51,9 @@ import org.opennms.protocols.rt.RequestTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+
 
 /**
  * Main
@@ -57,10 +63,31 @@ import org.slf4j.LoggerFactory;
 public class JnaPinger implements Pinger {
     private static final Logger LOG = LoggerFactory.getLogger(JnaPinger.class);
 
+    /**
+     * Set to false to send the requests of sweeps and of {@link #ping(InetAddress, long, int, int)}
+     * through the request tracker, one at a time.
+     */
+    public static final String SWEEP_ENGINE_PROPERTY = "org.opennms.netmgt.icmp.jna.sweepEngine";
+
+    /**
+     * The maximum number of requests that the sweep engine of a pinger keeps in flight.
+     */
+    public static final String SWEEP_WINDOW_PROPERTY = "org.opennms.netmgt.icmp.jna.sweepWindow";
+
+    public static final int DEFAULT_SWEEP_WINDOW = 8192;
+
+    private static final MetricRegistry s_metrics = new MetricRegistry();
+
+    static {
+        // The metrics are shared by the pingers of every traffic class
+        JmxReporter.forRegistry(s_metrics).inDomain("org.opennms.netmgt.icmp.jna").build().start();
+    }
+
     private final int m_pingerId = new SecureRandom().nextInt(Short.MAX_VALUE);
 
     private RequestTracker<JnaPingRequest, JnaPingReply> m_pingTracker;
     private JnaIcmpMessenger m_messenger;
+    private JnaSweepEngine m_sweepEngine;
 
     /**
      * Initializes this singleton
@@ -76,6 +103,11 @@ public class JnaPinger implements Pinger {
                 }
             });
             m_pingTracker.start();
+            if (Boolean.parseBoolean(System.getProperty(SWEEP_ENGINE_PROPERTY, "true"))) {
+                m_sweepEngine = new JnaSweepEngine(m_pingerId, m_messenger, Integer.getInteger(SWEEP_WINDOW_PROPERTY, DEFAULT_SWEEP_WINDOW), s_metrics);
+                m_messenger.setSweepEngine(m_sweepEngine);
+                m_sweepEngine.start();
+            }
         } catch (final IOException e) {
             final String errorMessage = e.getMessage().toLowerCase();
             if (errorMessage.contains("permission denied") || errorMessage.contains("operation not permitted")) {
@@ -169,8 +201,13 @@ public class JnaPinger implements Pinger {
      */
     @Override
     public Number ping(final InetAddress host, final long timeout, final int retries, final int packetsize) throws Exception {
+        initialize();
         final SinglePingResponseCallback cb = new SinglePingResponseCallback(host);
-        ping(host, timeout, retries, packetsize, 1, cb);
+        if (m_sweepEngine != null) {
+            m_sweepEngine.ping(new PingTarget(host, timeout, retries), packetsize, new LogPrefixPreservingPingResponseCallback(cb));
+        } else {
+            ping(host, timeout, retries, packetsize, 1, cb);
+        }
         cb.waitFor();
         cb.rethrowError();
         return cb.getResponseTime();
@@ -257,6 +294,19 @@ public class JnaPinger implements Pinger {
         return parallelPing(host, count, timeout, pingInterval, DEFAULT_PACKET_SIZE);
     }
 
+    /**
+     * Pings the targets with the sweep engine, which keeps many requests in
+     * flight without one thread or tracked request per address.
+     */
+    @Override
+    public CompletableFuture<Void> sweep(final Iterable<PingTarget> targets, final double packetsPerSecond, final int packetSize, final PingResponseCallback cb) throws Exception {
+        initialize();
+        if (m_sweepEngine == null) {
+            return Pinger.super.sweep(targets, packetsPerSecond, packetSize, cb);
+        }
+        return m_sweepEngine.sweep(targets, packetsPerSecond, packetSize, new LogPrefixPreservingPingResponseCallback(cb));
+    }
+
     @Override
     public void setAllowFragmentation(boolean allow) throws Exception {
         initialize();
@@ -0,0 +1,520 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.icmp.jna;
+
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.opennms.core.logging.Logging;
+import org.opennms.netmgt.icmp.EchoPacket;
+import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.opennms.netmgt.icmp.PingSweepResponseCallback;
+import org.opennms.netmgt.icmp.PingTarget;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Sends echo requests for many addresses at once on the sockets of a
+ * {@link JnaIcmpMessenger}, without going through a request tracker.
+ *
+ * A single thread paces the requests of every sweep and expires the ones that
+ * were not answered. Requests in flight are kept in a table indexed by their
+ * sequence number, so up to 65536 of them can be outstanding for the
+ * identifier of the pinger. The thread id carried in the payload of the
+ * requests is unique for every request, and must match for a reply to be
+ * accepted, so late replies to a request whose sequence number was reused are
+ * ignored.
+ *
+ * @see JnaPinger#sweep(Iterable, double, int, PingResponseCallback)
+ */
+public class JnaSweepEngine implements PingReplyListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JnaSweepEngine.class);
+
+    /**
+     * Tags the thread ids of the requests sent by the engine, so that their
+     * replies can be told apart from the ones of the request tracker, whose
+     * thread ids count up from 1.
+     */
+    private static final long THREAD_ID_TAG = 0x5357L << 48;
+
+    private static final long THREAD_ID_MASK = (1L << 48) - 1;
+
+    /**
+     * The number of distinct ICMP sequence numbers.
+     */
+    public static final int MAX_WINDOW = 1 << 16;
+
+    /**
+     * Replies to requests sent this long ago can still be read from the socket
+     * when the engine falls behind, so they are sent at once.
+     */
+    private static final long MAX_BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * The number of requests that are sent for a sweep before moving on to the
+     * next one.
+     */
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * Sends a single echo request on behalf of the engine.
+     */
+    public interface EchoSender {
+        void send(InetAddress address, int sequenceNumber, long threadId, int packetSize) throws Exception;
+    }
+
+    private final int m_identifier;
+    private final EchoSender m_sender;
+    private final int m_window;
+
+    private final AtomicReferenceArray<Probe> m_inFlight = new AtomicReferenceArray<>(MAX_WINDOW);
+    private final DelayQueue<Probe> m_timeouts = new DelayQueue<>();
+    private final Queue<Sweep> m_submitted = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger m_inFlightRequests = new AtomicInteger();
+
+    // only used by the engine's thread
+    private final List<Sweep> m_sweeps = new ArrayList<>();
+    private int m_nextSequenceNumber = 0;
+    private long m_nextThreadId = 1;
+
+    private final Thread m_thread;
+    private volatile boolean m_stopped = false;
+    private volatile boolean m_waitingForWindow = false;
+
+    private final Meter m_sent;
+    private final Counter m_inFlightCount;
+    private final Counter m_replies;
+    private final Counter m_lateReplies;
+    private final Counter m_retries;
+    private final Counter m_timedOut;
+    private final Counter m_errors;
+    private final Counter m_rateLimited;
+    private final Counter m_windowFull;
+
+    /**
+     * @param identifier the identifier of the pinger, which is set in the requests by the sender
+     * @param sender sends the requests
+     * @param window the maximum number of requests in flight
+     * @param metrics the registry used to track the requests, which may be shared by several engines
+     */
+    public JnaSweepEngine(final int identifier, final EchoSender sender, final int window, final MetricRegistry metrics) {
+        if (window < 1 || window > MAX_WINDOW) {
+            throw new IllegalArgumentException("The window must be between 1 and " + MAX_WINDOW + ": " + window);
+        }
+        m_identifier = identifier;
+        m_sender = sender;
+        m_window = window;
+
+        m_sent = metrics.meter(MetricRegistry.name("icmp.sweep.sent"));
+        m_inFlightCount = metrics.counter(MetricRegistry.name("icmp.sweep.in-flight"));
+        m_replies = metrics.counter(MetricRegistry.name("icmp.sweep.replies"));
+        m_lateReplies = metrics.counter(MetricRegistry.name("icmp.sweep.late-replies"));
+        m_retries = metrics.counter(MetricRegistry.name("icmp.sweep.retries"));
+        m_timedOut = metrics.counter(MetricRegistry.name("icmp.sweep.timeouts"));
+        m_errors = metrics.counter(MetricRegistry.name("icmp.sweep.errors"));
+        m_rateLimited = metrics.counter(MetricRegistry.name("icmp.sweep.rate-limited"));
+        m_windowFull = metrics.counter(MetricRegistry.name("icmp.sweep.window-full"));
+
+        m_thread = new Thread(this::run, "JNA-ICMP-Sweep-" + identifier);
+        m_thread.setDaemon(true);
+    }
+
+    /**
+     * Identifies the replies to the requests sent by an engine.
+     *
+     * @param packet an echo reply
+     * @return whether the reply belongs to a request sent by an engine
+     */
+    public static boolean isSweepPacket(final EchoPacket packet) {
+        return (packet.getThreadId() & ~THREAD_ID_MASK) == THREAD_ID_TAG;
+    }
+
+    public void start() {
+        m_thread.start();
+    }
+
+    public void stop() {
+        m_stopped = true;
+        LockSupport.unpark(m_thread);
+    }
+
+    /**
+     * Pings every target, sending at most {@code packetsPerSecond} requests per
+     * second for this sweep, or as fast as the window allows when it is not
+     * positive. Retries count against the rate.
+     *
+     * @return a future that completes once every target has been reported to the callback
+     */
+    public CompletableFuture<Void> sweep(final Iterable<PingTarget> targets, final double packetsPerSecond, final int packetSize, final PingResponseCallback cb) {
+        final Sweep sweep = new Sweep(targets.iterator(), packetsPerSecond, packetSize, cb);
+        m_submitted.add(sweep);
+        LockSupport.unpark(m_thread);
+        return sweep.m_callback.getFuture();
+    }
+
+    /**
+     * Pings a single target, without any pacing.
+     */
+    public CompletableFuture<Void> ping(final PingTarget target, final int packetSize, final PingResponseCallback cb) {
+        return sweep(Collections.singletonList(target), 0, packetSize, cb);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void onPingReply(final InetAddress address, final EchoPacket packet) {
+        final int sequenceNumber = packet.getSequenceNumber() & (MAX_WINDOW - 1);
+        final Probe probe = m_inFlight.get(sequenceNumber);
+        if (probe == null || probe.m_threadId != packet.getThreadId() || !probe.getAddress().equals(address)) {
+            m_lateReplies.inc();
+            return;
+        }
+        if (release(probe)) {
+            m_replies.inc();
+            probe.m_sweep.m_callback.handleResponse(address, packet);
+        } else {
+            m_lateReplies.inc();
+        }
+    }
+
+    /**
+     * Removes the probe from the requests in flight.
+     *
+     * @return false if the probe was already answered, or expired
+     */
+    private boolean release(final Probe probe) {
+        if (!m_inFlight.compareAndSet(probe.m_sequenceNumber, probe, null)) {
+            return false;
+        }
+        m_inFlightRequests.decrementAndGet();
+        m_inFlightCount.dec();
+        if (m_waitingForWindow) {
+            m_waitingForWindow = false;
+            LockSupport.unpark(m_thread);
+        }
+        return true;
+    }
+
+    private void run() {
+        Logging.putPrefix("icmp");
+        while (!m_stopped) {
+            try {
+                expireProbes();
+
+                Sweep sweep;
+                while ((sweep = m_submitted.poll()) != null) {
+                    m_sweeps.add(sweep);
+                }
+
+                long parkNanos = sendRequests();
+                final Probe next = m_timeouts.peek();
+                if (next != null) {
+                    parkNanos = Math.min(parkNanos, next.getDelay(TimeUnit.NANOSECONDS));
+                }
+                if (parkNanos > 0 && m_submitted.isEmpty()) {
+                    LockSupport.parkNanos(this, Math.min(parkNanos, MAX_PARK_NANOS));
+                }
+            } catch (final Throwable t) {
+                LOG.error("Unexpected error while sweeping", t);
+            }
+        }
+    }
+
+    private void expireProbes() {
+        Probe probe;
+        while ((probe = m_timeouts.poll()) != null) {
+            if (!release(probe)) {
+                continue;
+            }
+            if (probe.m_retries > 0) {
+                m_retries.inc();
+                probe.m_sweep.m_retryQueue.add(probe);
+            } else {
+                m_timedOut.inc();
+                probe.m_sweep.m_callback.handleTimeout(probe.getAddress(), probe);
+            }
+        }
+    }
+
+    /**
+     * Sends the requests that are due, taking turns between the sweeps.
+     *
+     * @return how long to wait before more requests are due
+     */
+    private long sendRequests() {
+        long parkNanos = Long.MAX_VALUE;
+        boolean sent = true;
+        while (sent) {
+            sent = false;
+            for (final Iterator<Sweep> it = m_sweeps.iterator(); it.hasNext();) {
+                final Sweep sweep = it.next();
+                if (sweep.m_callback.getFuture().isDone()) {
+                    it.remove();
+                    continue;
+                }
+                for (int i = 0; i < BATCH_SIZE && sweep.hasNext(); i++) {
+                    if (isWindowFull()) {
+                        m_windowFull.inc();
+                        return parkNanos;
+                    }
+                    final long now = System.nanoTime();
+                    final long delay = sweep.delay(now);
+                    if (delay > 0) {
+                        m_rateLimited.inc();
+                        parkNanos = Math.min(parkNanos, delay);
+                        break;
+                    }
+                    send(sweep, sweep.next(), now);
+                    sent = true;
+                }
+            }
+        }
+        return parkNanos;
+    }
+
+    private boolean isWindowFull() {
+        if (m_inFlightRequests.get() < m_window) {
+            return false;
+        }
+        // wait for a reply, or a request to expire, and check again in case
+        // the last reply arrived before we asked to be woken up
+        m_waitingForWindow = true;
+        if (m_inFlightRequests.get() < m_window) {
+            m_waitingForWindow = false;
+            return false;
+        }
+        return true;
+    }
+
+    private void send(final Sweep sweep, final Probe previous, final long now) {
+        final int sequenceNumber = nextFreeSequenceNumber();
+        final long threadId = THREAD_ID_TAG | (m_nextThreadId++ & THREAD_ID_MASK);
+        // a request that was already sent is being retried
+        final int retries = previous.m_sequenceNumber < 0 ? previous.m_retries : previous.m_retries - 1;
+        final Probe probe = new Probe(sweep, previous.m_target, retries, sequenceNumber, threadId,
+                now, now + TimeUnit.MILLISECONDS.toNanos(previous.m_target.getTimeout()));
+
+        m_inFlight.set(sequenceNumber, probe);
+        m_inFlightRequests.incrementAndGet();
+        m_inFlightCount.inc();
+        m_timeouts.add(probe);
+        try {
+            m_sender.send(probe.getAddress(), sequenceNumber, threadId, sweep.m_packetSize);
+            m_sent.mark();
+        } catch (final Throwable t) {
+            if (release(probe)) {
+                m_errors.inc();
+                sweep.m_callback.handleError(probe.getAddress(), probe, t);
+            }
+        }
+    }
+
+    private int nextFreeSequenceNumber() {
+        // there is at least one free slot, since the window is not full
+        while (m_inFlight.get(m_nextSequenceNumber) != null) {
+            m_nextSequenceNumber = (m_nextSequenceNumber + 1) & (MAX_WINDOW - 1);
+        }
+        final int sequenceNumber = m_nextSequenceNumber;
+        m_nextSequenceNumber = (m_nextSequenceNumber + 1) & (MAX_WINDOW - 1);
+        return sequenceNumber;
+    }
+
+    private class Sweep {
+        private final Iterator<PingTarget> m_targets;
+        private final long m_intervalNanos;
+        private final int m_packetSize;
+        private final PingSweepResponseCallback m_callback;
+
+        // only used by the engine's thread
+        private final Queue<Probe> m_retryQueue = new ArrayDeque<>();
+        private long m_nextSendNanos = Long.MIN_VALUE;
+        private boolean m_exhausted = false;
+
+        private Sweep(final Iterator<PingTarget> targets, final double packetsPerSecond, final int packetSize, final PingResponseCallback cb) {
+            m_targets = targets;
+            m_intervalNanos = packetsPerSecond > 0 ? (long)(TimeUnit.SECONDS.toNanos(1) / packetsPerSecond) : 0;
+            m_packetSize = packetSize;
+            m_callback = new PingSweepResponseCallback(cb);
+        }
+
+        private boolean hasNext() {
+            if (!m_retryQueue.isEmpty()) {
+                return true;
+            }
+            if (!m_exhausted) {
+                final boolean hasNext;
+                try {
+                    hasNext = m_targets.hasNext();
+                } catch (final RuntimeException e) {
+                    LOG.error("Failed to retrieve the next address to sweep. The remaining addresses will be skipped.", e);
+                    return done();
+                }
+                if (hasNext) {
+                    return true;
+                }
+                return done();
+            }
+            return false;
+        }
+
+        private boolean done() {
+            m_exhausted = true;
+            m_callback.allRequestsSent();
+            return false;
+        }
+
+        /**
+         * @return the attempt to make next, either a retry or a new target
+         */
+        private Probe next() {
+            final Probe retry = m_retryQueue.poll();
+            if (retry != null) {
+                return retry;
+            }
+            final PingTarget target = m_targets.next();
+            m_callback.expectCallback();
+            return new Probe(this, target, target.getRetries(), -1, 0, 0, 0);
+        }
+
+        /**
+         * @return how long to wait before sending the next request, and
+         * reserve the slot if it can be sent now
+         */
+        private long delay(final long now) {
+            if (m_intervalNanos == 0) {
+                return 0;
+            }
+            if (m_nextSendNanos != Long.MIN_VALUE && now < m_nextSendNanos) {
+                return m_nextSendNanos - now;
+            }
+            final long start = m_nextSendNanos == Long.MIN_VALUE ? now : Math.max(m_nextSendNanos, now - MAX_BURST_NANOS);
+            m_nextSendNanos = start + m_intervalNanos;
+            return 0;
+        }
+    }
+
+    /**
+     * A single request, or a target that has not been sent yet if the sequence
+     * number is negative.
+     */
+    private class Probe implements Delayed, EchoPacket {
+        private final Sweep m_sweep;
+        private final PingTarget m_target;
+        private final int m_retries;
+        private final int m_sequenceNumber;
+        private final long m_threadId;
+        private final long m_sentTimeNanos;
+        private final long m_expirationNanos;
+
+        private Probe(final Sweep sweep, final PingTarget target, final int retries, final int sequenceNumber, final long threadId, final long sentTimeNanos, final long expirationNanos) {
+            m_sweep = sweep;
+            m_target = target;
+            m_retries = retries;
+            m_sequenceNumber = sequenceNumber;
+            m_threadId = threadId;
+            m_sentTimeNanos = sentTimeNanos;
+            m_expirationNanos = expirationNanos;
+        }
+
+        private InetAddress getAddress() {
+            return m_target.getAddress();
+        }
+
+        @Override
+        public long getDelay(final TimeUnit unit) {
+            return unit.convert(m_expirationNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(final Delayed other) {
+            return Long.compare(m_expirationNanos, ((Probe)other).m_expirationNanos);
+        }
+
+        @Override
+        public boolean isEchoReply() {
+            return false;
+        }
+
+        @Override
+        public int getIdentifier() {
+            return m_identifier;
+        }
+
+        @Override
+        public int getSequenceNumber() {
+            return m_sequenceNumber;
+        }
+
+        @Override
+        public long getThreadId() {
+            return m_threadId;
+        }
+
+        @Override
+        public long getReceivedTimeNanos() {
+            // probes are only passed to the callbacks when no reply was received
+            return 0;
+        }
+
+        @Override
+        public long getSentTimeNanos() {
+            return m_sentTimeNanos;
+        }
+
+        @Override
+        public double elapsedTime(final TimeUnit timeUnit) {
+            // there is no round trip without a reply, the same as for the unanswered requests of the other pingers
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Probe[" + m_target + ", seqNum = " + m_sequenceNumber + ", tId = " + m_threadId + ", retries left = " + m_retries + "]";
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.icmp.jna;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.icmp.EchoPacket;
+import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.opennms.netmgt.icmp.PingTarget;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Drives a {@link JnaSweepEngine} with a sender that answers the requests of
+ * some of the addresses, instead of using ICMP sockets.
+ */
+public class JnaSweepEngineTest {
+
+    private static final int IDENTIFIER = 1234;
+
+    private final ExecutorService m_replier = Executors.newSingleThreadExecutor();
+
+    private final MetricRegistry m_metrics = new MetricRegistry();
+
+    private final AtomicInteger m_sent = new AtomicInteger();
+
+    private final AtomicInteger m_inFlight = new AtomicInteger();
+
+    private final AtomicInteger m_maxInFlight = new AtomicInteger();
+
+    private final Set<InetAddress> m_up = Sets.newConcurrentHashSet();
+
+    private volatile boolean m_replyWithWrongThreadId = false;
+
+    private JnaSweepEngine m_engine;
+
+    @Before
+    public void setUp() {
+        m_engine = createEngine(JnaSweepEngine.MAX_WINDOW);
+    }
+
+    @After
+    public void tearDown() {
+        m_engine.stop();
+        m_replier.shutdownNow();
+    }
+
+    @Test
+    public void canSweepRanges() throws Exception {
+        final List<PingTarget> targets = Lists.newArrayList();
+        for (int i = 0; i < 1000; i++) {
+            final InetAddress address = InetAddress.getByAddress(new byte[] { 10, 0, (byte)(i / 256), (byte)(i % 256) });
+            if (i % 2 == 0) {
+                m_up.add(address);
+            }
+            targets.add(new PingTarget(address, 50, 1));
+        }
+
+        final Results results = new Results();
+        m_engine.sweep(targets, 0, 64, results).get(10, TimeUnit.SECONDS);
+
+        assertEquals(500, results.m_responses.size());
+        assertEquals(m_up, results.m_responses);
+        assertEquals(500, results.m_timeouts.get());
+        assertEquals(0, results.m_errors.get());
+        // one request per address, and one retry for each of the ones that are down
+        assertEquals(1500, m_sent.get());
+        assertEquals(500, m_metrics.counter("icmp.sweep.retries").getCount());
+        assertEquals(500, m_metrics.counter("icmp.sweep.timeouts").getCount());
+        assertEquals(0, m_metrics.counter("icmp.sweep.in-flight").getCount());
+    }
+
+    @Test
+    public void canPaceRequests() throws Exception {
+        final List<PingTarget> targets = Lists.newArrayList();
+        for (int i = 0; i < 50; i++) {
+            final InetAddress address = InetAddress.getByAddress(new byte[] { 10, 0, 0, (byte)i });
+            m_up.add(address);
+            targets.add(new PingTarget(address, 1000, 0));
+        }
+
+        final long start = System.nanoTime();
+        final Results results = new Results();
+        m_engine.sweep(targets, 100, 64, results).get(10, TimeUnit.SECONDS);
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(50, results.m_responses.size());
+        // 50 requests at 100 per second are sent over at least 490ms
+        assertTrue("elapsed: " + elapsed + "ms", elapsed >= 450);
+        assertTrue(m_metrics.counter("icmp.sweep.rate-limited").getCount() > 0);
+    }
+
+    @Test
+    public void canLimitRequestsInFlight() throws Exception {
+        m_engine.stop();
+        m_engine = createEngine(16);
+
+        final List<PingTarget> targets = Lists.newArrayList();
+        for (int i = 0; i < 64; i++) {
+            targets.add(new PingTarget(InetAddress.getByAddress(new byte[] { 10, 0, 0, (byte)i }), 50, 0));
+        }
+
+        final Results results = new Results();
+        m_engine.sweep(targets, 0, 64, results).get(10, TimeUnit.SECONDS);
+
+        assertEquals(64, results.m_timeouts.get());
+        assertEquals(16, m_maxInFlight.get());
+        assertTrue(m_metrics.counter("icmp.sweep.window-full").getCount() > 0);
+    }
+
+    @Test
+    public void canIgnoreLateReplies() throws Exception {
+        final InetAddress address = InetAddress.getByAddress(new byte[] { 10, 0, 0, 1 });
+        m_up.add(address);
+        m_replyWithWrongThreadId = true;
+
+        final Results results = new Results();
+        m_engine.ping(new PingTarget(address, 50, 0), 64, results).get(10, TimeUnit.SECONDS);
+
+        assertEquals(0, results.m_responses.size());
+        assertEquals(1, results.m_timeouts.get());
+        assertEquals(1, m_metrics.counter("icmp.sweep.late-replies").getCount());
+    }
+
+    @Test
+    public void canRunSeveralSweepsAtOnce() throws Exception {
+        final List<CompletableFuture<Void>> futures = Lists.newArrayList();
+        final List<Results> results = Lists.newArrayList();
+        for (int s = 0; s < 10; s++) {
+            final List<PingTarget> targets = Lists.newArrayList();
+            for (int i = 0; i < 100; i++) {
+                final InetAddress address = InetAddress.getByAddress(new byte[] { 10, (byte)s, 0, (byte)i });
+                m_up.add(address);
+                targets.add(new PingTarget(address, 1000, 0));
+            }
+            final Results result = new Results();
+            results.add(result);
+            futures.add(m_engine.sweep(targets, 0, 64, result));
+        }
+        for (int s = 0; s < 10; s++) {
+            futures.get(s).get(10, TimeUnit.SECONDS);
+            assertEquals(100, results.get(s).m_responses.size());
+        }
+    }
+
+    @Test
+    public void canReportSendErrors() throws Exception {
+        m_engine.stop();
+        m_engine = new JnaSweepEngine(IDENTIFIER, (address, sequenceNumber, threadId, packetSize) -> {
+            throw new IllegalStateException("No route to host");
+        }, 16, m_metrics);
+        m_engine.start();
+
+        final Results results = new Results();
+        m_engine.ping(new PingTarget(InetAddress.getByAddress(new byte[] { 10, 0, 0, 1 }), 50, 2), 64, results).get(10, TimeUnit.SECONDS);
+        assertEquals(1, results.m_errors.get());
+        assertEquals(0, results.m_timeouts.get());
+    }
+
+    @Test
+    public void canReportTheSendTimeOfTimedOutRequests() throws Exception {
+        final long start = System.nanoTime();
+        final Results results = new Results();
+        m_engine.ping(new PingTarget(InetAddress.getByAddress(new byte[] { 10, 0, 0, 1 }), 50, 1), 64, results).get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, results.m_timeouts.get());
+        final EchoPacket request = results.m_lastTimedOut;
+        // the retry is sent once the first request timed out
+        assertTrue(request.getSentTimeNanos() >= start + TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(request.getSentTimeNanos() <= System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(0, request.getReceivedTimeNanos());
+        assertEquals(0, request.elapsedTime(TimeUnit.MILLISECONDS), 0);
+    }
+
+    @Test
+    public void canIdentifySweepPackets() {
+        assertTrue(JnaSweepEngine.isSweepPacket(new Reply(0, 0x5357L << 48 | 42)));
+        assertFalse(JnaSweepEngine.isSweepPacket(new Reply(0, 42)));
+    }
+
+    private JnaSweepEngine createEngine(final int window) {
+        final JnaSweepEngine engine = new JnaSweepEngine(IDENTIFIER, (address, sequenceNumber, threadId, packetSize) -> {
+            m_sent.incrementAndGet();
+            final int inFlight = m_inFlight.incrementAndGet();
+            m_maxInFlight.accumulateAndGet(inFlight, Math::max);
+            if (m_up.contains(address)) {
+                final long replyThreadId = m_replyWithWrongThreadId ? threadId + 1 : threadId;
+                m_replier.execute(() -> {
+                    m_inFlight.decrementAndGet();
+                    m_engine.onPingReply(address, new Reply(sequenceNumber, replyThreadId));
+                });
+            }
+        }, window, m_metrics);
+        engine.start();
+        return engine;
+    }
+
+    private class Results implements PingResponseCallback {
+        private final Set<InetAddress> m_responses = Sets.newConcurrentHashSet();
+        private final AtomicInteger m_timeouts = new AtomicInteger();
+        private final AtomicInteger m_errors = new AtomicInteger();
+        private volatile EchoPacket m_lastTimedOut;
+
+        @Override
+        public void handleResponse(final InetAddress address, final EchoPacket response) {
+            assertTrue("duplicate response for " + address, m_responses.add(address));
+        }
+
+        @Override
+        public void handleTimeout(final InetAddress address, final EchoPacket request) {
+            m_inFlight.decrementAndGet();
+            m_timeouts.incrementAndGet();
+            m_lastTimedOut = request;
+        }
+
+        @Override
+        public void handleError(final InetAddress address, final EchoPacket request, final Throwable t) {
+            m_errors.incrementAndGet();
+        }
+    }
+
+    private static class Reply implements EchoPacket {
+        private final int m_sequenceNumber;
+        private final long m_threadId;
+
+        private Reply(final int sequenceNumber, final long threadId) {
+            m_sequenceNumber = sequenceNumber;
+            m_threadId = threadId;
+        }
+
+        @Override
+        public boolean isEchoReply() {
+            return true;
+        }
+
+        @Override
+        public int getIdentifier() {
+            return IDENTIFIER;
+        }
+
+        @Override
+        public int getSequenceNumber() {
+            return m_sequenceNumber;
+        }
+
+        @Override
+        public long getThreadId() {
+            return m_threadId;
+        }
+
+        @Override
+        public long getReceivedTimeNanos() {
+            return 0;
+        }
+
+        @Override
+        public long getSentTimeNanos() {
+            return 0;
+        }
+
+        @Override
+        public double elapsedTime(final TimeUnit timeUnit) {
+            return 0;
+        }
+    }
+}
@@ -32,14 +32,17 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Deque;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.opennms.core.logging.Logging;
 import org.slf4j.Logger;
@@ -74,21 +77,26 @@ import org.slf4j.LoggerFactory;
  * updates are put at the lowest priority and are only written when the highest
  * priority updates have been written
  *
+ * Files are hashed onto one shard per write thread. Each shard owns the
+ * pending operations of its files and the queues of files with significant
+ * and insignificant work, so a file is only ever written by a single thread
+ * and enqueuing never contends on a monitor shared by all the threads.
+ *
  * This implementation delegates all the actual writing to another RrdStrategy
  * implementation.
  *
  * System properties effecting the operation:
  *
  * org.opennms.rrd.queuing.writethreads: (default 2) The number of rrd write
- * threads that process the queue
+ * threads (and shards) that process the queue
  *
  * org.opennms.rrd.queuing.queueCreates: (default false) indicates whether rrd
  * file creates should be queued or processed synchronously
  *
  * org.opennms.rrd.queuing.maxInsigUpdateSeconds: (default 0) the number of
- * seconds over which all files with significant updates only should be promoted
- * onto the significant less. This is to ensure they don't stay unprocessed
- * forever. Zero means not promotion.
+ * seconds after which files with insignificant updates only are written ahead
+ * of the files with significant updates. This is to ensure they don't stay
+ * unprocessed forever. Zero means not promotion.
  *
  * org.opennms.rrd.queuing.modulus: (default 10000) the number of updates the
  * get enqueued between statistics output
@@ -96,6 +104,11 @@ import org.slf4j.LoggerFactory;
  * org.opennms.rrd.queuing.category: (default "queued") the log routing prefix
  * to place the statistics output in
  *
+ * org.opennms.rrd.queuing.journalDirectory: (default none) the directory in
+ * which each shard keeps an append-only journal of its pending updates. The
+ * updates left in the journals are replayed when the strategy is next used
+ * after a crash. Creates are not journaled.
+ *
  *
  *
  * TODO: Promote files when ZeroUpdate operations can't be merged. This may be a
@@ -109,7 +122,7 @@ import org.slf4j.LoggerFactory;
  * @author ranger
  * @version $Id: $
  */
-public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.CreateOperation,String>, Runnable {
+public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.CreateOperation,String> {
 
     private Logger m_log = LoggerFactory.getLogger(QueuingRrdStrategy.class);
 
@@ -157,6 +170,8 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
     private long m_writeThreadExitDelay;
 
+    private String m_journalDirectory;
+
     /**
      * <p>getWriteThreads</p>
      *
@@ -357,41 +372,52 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         m_writeThreadExitDelay = writeThreadExitDelay;
     }
 
-    LinkedList<String> filesWithSignificantWork = new LinkedList<String>();
-
-    LinkedList<String> filesWithInsignificantWork = new LinkedList<String>();
-
-    Map<String, LinkedList<Operation>> pendingFileOperations = new HashMap<String, LinkedList<Operation>>();
+    /**
+     * <p>getJournalDirectory</p>
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    public String getJournalDirectory() {
+        return m_journalDirectory;
+    }
 
-    Map<Thread, String> fileAssignments = new HashMap<Thread, String>();
+    /**
+     * <p>setJournalDirectory</p>
+     *
+     * @param journalDirectory the directory of the journals, or an empty
+     * string to disable journaling
+     */
+    public void setJournalDirectory(final String journalDirectory) {
+        m_journalDirectory = journalDirectory;
+    }
 
-    Set<String> reservedFiles = new HashSet<String>();
+    private volatile Shard[] m_shards;
 
-    private long m_totalOperationsPending = 0;
+    private final AtomicLong m_totalOperationsPending = new AtomicLong();
 
-    private long m_enqueuedOperations = 0;
+    private final AtomicLong m_enqueuedOperations = new AtomicLong();
 
-    private long m_dequeuedOperations = 0;
+    private final AtomicLong m_dequeuedOperations = new AtomicLong();
 
-    private long m_significantOpsEnqueued = 0;
+    private final AtomicLong m_significantOpsEnqueued = new AtomicLong();
 
-    private long m_significantOpsDequeued = 0;
+    private final AtomicLong m_significantOpsDequeued = new AtomicLong();
 
-    private long m_significantOpsCompleted = 0;
+    private final AtomicLong m_significantOpsCompleted = new AtomicLong();
 
-    private long m_dequeuedItems = 0;
+    private final AtomicLong m_dequeuedItems = new AtomicLong();
 
-    private long m_createsCompleted = 0;
+    private final AtomicLong m_createsCompleted = new AtomicLong();
 
-    private long m_updatesCompleted = 0;
+    private final AtomicLong m_updatesCompleted = new AtomicLong();
 
-    private long m_errors = 0;
+    private final AtomicLong m_errors = new AtomicLong();
 
-    int threadsRunning = 0;
+    private final AtomicLong m_promotionCount = new AtomicLong();
 
-    private long m_startTime = 0;
+    private final AtomicLong m_totalQueueTime = new AtomicLong();
 
-    private long m_promotionCount = 0;
+    private volatile long m_startTime = 0;
 
     long lastLap = System.currentTimeMillis();
 
@@ -451,6 +477,14 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             pendingOperations.add(this);
         }
 
+        /**
+         * Returns the update to write to the journal, or null if the
+         * operation cannot be journaled.
+         */
+        String getJournalEntry() {
+            return null;
+        }
+
         abstract Object process(Object rrd) throws Exception;
 
     }
@@ -477,7 +511,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             m_delegate.createFile(getData());
 
             // keep stats
-            setCreatesCompleted(getCreatesCompleted() + 1);
+            m_createsCompleted.incrementAndGet();
 
             // return the file
             return rrd;
@@ -516,8 +550,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             }
 
             // keep stats
-            setUpdatesCompleted(getUpdatesCompleted() + 1);
-            if (getUpdatesCompleted() % m_modulus == 0) {
+            if (m_updatesCompleted.incrementAndGet() % m_modulus == 0) {
                 logStats();
             }
             // return the open rrd for further processing
@@ -525,6 +558,11 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
         }
 
+        @Override
+        String getJournalEntry() {
+            return (String) getData();
+        }
+
     }
 
     /**
@@ -563,14 +601,18 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                 ts += getInterval();
 
                 // keep stats
-                setUpdatesCompleted(getUpdatesCompleted() + 1);
-                if (getUpdatesCompleted() % m_modulus == 0) {
+                if (m_updatesCompleted.incrementAndGet() % m_modulus == 0) {
                     logStats();
                 }
             }
             return rrd;
         }
 
+        @Override
+        String getJournalEntry() {
+            return getFirstTimeStamp() + ":0";
+        }
+
         @Override
         public int getCount() {
             return count;
@@ -673,257 +715,415 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
     //
     // Queue management functions.
     //
-    // TODO: Put this all in a class of its own. This is really ugly.
-    //
 
     /**
-     * Add an operation to the queue.
-     *
-     * @param op a {@link org.opennms.netmgt.rrd.QueuingRrdStrategy.Operation} object.
+     * The operations enqueued for a single file. Producers add to it until the
+     * write thread takes it, after which the next operation for the file
+     * starts a new one.
      */
-    private void addOperation(final Operation op) {
-        synchronized (this) {
-            if (queueIsFull()) {
-                m_log.error("RRD Data Queue is Full!! Discarding operation for file {}", op.getFileName());
-                return;
-            }
+    static class PendingFile {
+        final String fileName;
+        final LinkedList<Operation> operations = new LinkedList<Operation>();
+        long enqueueTime;
+        boolean significant;
+        boolean taken;
 
-            if (op.isSignificant() && sigQueueIsFull()) {
-                m_log.error("RRD Data Significant Queue is Full!! Discarding operation for file {}", op.getFileName());
-                return;
-            }
+        PendingFile(final String fileName) {
+            this.fileName = fileName;
+        }
+    }
 
-            if (!op.isSignificant() && inSigQueueIsFull()) {
-                m_log.error("RRD Insignificant Data Queue is Full!! Discarding operation for file {}", op.getFileName());
-                return;
-            }
+    /**
+     * A partition of the files with its own pending operations, queues and
+     * write thread.
+     */
+    class Shard implements Runnable {
+        private final int m_index;
 
-            storeAssignment(op);
+        private final Map<String, PendingFile> m_pendingFiles = new ConcurrentHashMap<String, PendingFile>();
 
-            setTotalOperationsPending(getTotalOperationsPending() + 1);
-            setEnqueuedOperations(getEnqueuedOperations() + 1);
-            if (op.isSignificant())
-                setSignificantOpsEnqueued(getSignificantOpsEnqueued() + 1);
-            notifyAll();
-            ensureThreadsStarted();
-        }
-    }
+        private final Deque<PendingFile> m_significantFiles = new ConcurrentLinkedDeque<PendingFile>();
 
+        private final Deque<PendingFile> m_insignificantFiles = new ConcurrentLinkedDeque<PendingFile>();
 
-    private boolean queueIsFull() {
-        if (m_queueHighWaterMark <= 0)
-            return false;
-        else
-            return getTotalOperationsPending() >= m_queueHighWaterMark;
-    }
+        /**
+         * The number of operations that have been enqueued but not written
+         * yet, the journal can only be truncated when this drops to 0.
+         */
+        private final AtomicLong m_unwritten = new AtomicLong();
 
-    private boolean sigQueueIsFull() {
-        if (m_sigHighWaterMark <= 0)
-            return false;
-        else
-            return getTotalOperationsPending() >= m_sigHighWaterMark;
-    }
+        private final AtomicBoolean m_running = new AtomicBoolean(false);
 
-    private boolean inSigQueueIsFull() {
-        if (m_inSigHighWaterMark <= 0)
-            return false;
-        else
-            return getTotalOperationsPending() >= m_inSigHighWaterMark;
-    }
+        private final RrdJournal m_journal;
 
-    /**
-     * Ensure that we have threads started to process the queue.
-     */
-    private synchronized void ensureThreadsStarted() {
-        if (threadsRunning < m_writeThreads) {
-            threadsRunning++;
-            new Thread(this, this.getClass().getSimpleName() + "-" + threadsRunning).start();
-        }
-    }
+        private volatile Thread m_writer;
 
-    /**
-     * Get the operations for the next file that should be worked on.
-     *
-     * @return a linkedList of operations to be processed all for the same file.
-     */
-    private LinkedList<Operation> getNext() {
-        LinkedList<Operation> ops = null;
-        synchronized (this) {
+        private volatile boolean m_idle;
 
-            // turn in our previous assignment
-            completeAssignment();
+        Shard(final int index, final RrdJournal journal) {
+            m_index = index;
+            m_journal = journal;
+        }
 
-            String newAssignment;
-            // wait until there is work to do
-            while ((newAssignment = selectNewAssignment()) == null) {
+        /**
+         * Enqueues the operation on the pending list of its file.
+         */
+        void add(final Operation op) {
+            m_unwritten.addAndGet(op.getCount());
+            final String journalEntry = m_journal == null ? null : op.getJournalEntry();
+            if (journalEntry != null) {
                 try {
-                    wait();
-                } catch (InterruptedException e) {
+                    m_journal.append(op.getFileName(), journalEntry);
+                } catch (final IOException e) {
+                    m_log.error("Unable to journal update for file {}", op.getFileName(), e);
                 }
             }
 
-            // initialize start time for stats
-            if (getStartTime() == 0)
-                setStartTime(System.currentTimeMillis());
-
-            // reserve the assignment and take work items
-            ops = takeAssignment(newAssignment);
-
-            // keep stats
-            if (ops != null) {
-                for(Operation op : ops) {
-                    setTotalOperationsPending(getTotalOperationsPending()-op.getCount());
-                    setDequeuedOperations(getDequeuedOperations() + op.getCount());
-                    if (op.isSignificant()) {
-                        setSignificantOpsDequeued(getSignificantOpsDequeued() + op.getCount());
+            for (;;) {
+                final PendingFile pending = m_pendingFiles.computeIfAbsent(op.getFileName(), PendingFile::new);
+                synchronized (pending) {
+                    if (pending.taken) {
+                        // the write thread got to it first
+                        continue;
+                    }
+                    final boolean first = pending.operations.isEmpty();
+                    op.addToPendingList(pending.operations);
+                    if (first) {
+                        // add the file to the correct queue based on what type of work we
+                        // are adding.  (if we aren't prioritizing then every file is counted as
+                        // signficant
+                        pending.enqueueTime = System.currentTimeMillis();
+                        pending.significant = !m_prioritizeSignificantUpdates || op.isSignificant();
+                        (pending.significant ? m_significantFiles : m_insignificantFiles).offer(pending);
+                    } else if (!pending.significant && op.isSignificant()) {
+                        // promote the file to the significant queue if this is the first
+                        // significant operation, the stale entry in the insignificant
+                        // queue is skipped once the file has been taken
+                        pending.significant = true;
+                        m_significantFiles.offer(pending);
                     }
                 }
-                setDequeuedItems(getDequeuedItems() + 1);
+                break;
             }
-        }
 
-        return ops;
+            ensureStarted();
+            if (m_idle) {
+                final Thread writer = m_writer;
+                if (writer != null) {
+                    LockSupport.unpark(writer);
+                }
+            }
+        }
 
-    }
+        /**
+         * Moves the pending operations of the file ahead of all the others.
+         */
+        void promote(final String fileName) {
+            final PendingFile pending = m_pendingFiles.get(fileName);
+            if (pending == null) {
+                return;
+            }
+            synchronized (pending) {
+                if (!pending.taken) {
+                    pending.significant = true;
+                    m_significantFiles.offerFirst(pending);
+                }
+            }
+        }
 
-    /**
-     * We need to track which files are being processed by which threads so that
-     * we don't try to process updates for the same file on more than one
-     * thread.
-     */
-    private synchronized void storeAssignment(Operation op) {
-        // look and see if there a pending ops list for this file
-        LinkedList<Operation> pendingOperations = pendingFileOperations.get(op.getFileName());
+        /**
+         * Takes the operations of the next file that should be worked on.
+         * Only called by the write thread of the shard.
+         */
+        private PendingFile take() {
+            PendingFile pending;
+            while ((pending = poll()) != null) {
+                synchronized (pending) {
+                    if (pending.taken) {
+                        // already taken from the other queue
+                        continue;
+                    }
+                    pending.taken = true;
+                    m_pendingFiles.remove(pending.fileName, pending);
+                }
+                return pending;
+            }
+            return null;
+        }
 
-        // if not then we create an ops list for the file and add the file to
-        // the work items list
-        if (pendingOperations == null) {
-            pendingOperations = new LinkedList<Operation>();
-            pendingFileOperations.put(op.getFileName(), pendingOperations);
+        private PendingFile poll() {
+            // files with insignificant work that have waited too long go first
+            if (m_maxInsigUpdateSeconds > 0) {
+                final PendingFile oldest = m_insignificantFiles.peek();
+                if (oldest != null && System.currentTimeMillis() - oldest.enqueueTime > m_maxInsigUpdateSeconds * 1000) {
+                    m_promotionCount.incrementAndGet();
+                    return m_insignificantFiles.poll();
+                }
+            }
+            final PendingFile pending = m_significantFiles.poll();
+            return pending != null ? pending : m_insignificantFiles.poll();
+        }
 
-            // add the file to the correct list based on what type of work we
-            // are adding.  (if we aren't prioritizing then every file is counted as
-            // signficant
-            if (!m_prioritizeSignificantUpdates || op.isSignificant())
-                filesWithSignificantWork.addLast(op.getFileName());
-            else
-                filesWithInsignificantWork.addLast(op.getFileName());
-        } else if (m_prioritizeSignificantUpdates && op.isSignificant() && hasOnlyInsignificant(pendingOperations)) {
-            // only do this when we are prioritizing as this bumps files from inSig
-            // up to insig
-            // promote the file to the significant list if this is the first
-            // significant
-            filesWithSignificantWork.addLast(op.getFileName());
+        private boolean isEmpty() {
+            return m_significantFiles.isEmpty() && m_insignificantFiles.isEmpty();
         }
 
-        promoteAgedFiles();
+        /**
+         * Ensure that we have a thread started to process the queue.
+         */
+        private void ensureStarted() {
+            if (m_running.compareAndSet(false, true)) {
+                final Thread writer = new Thread(this, QueuingRrdStrategy.this.getClass().getSimpleName() + "-" + (m_index + 1));
+                m_writer = writer;
+                writer.start();
+            }
+        }
 
-        op.addToPendingList(pendingOperations);
-    }
+        private void truncateJournal() {
+            if (m_journal == null) {
+                return;
+            }
+            // producers count their operation before they append it, so
+            // nothing appended can be pending when this is 0
+            synchronized (m_journal) {
+                if (m_unwritten.get() == 0) {
+                    try {
+                        m_journal.truncate();
+                    } catch (final IOException e) {
+                        m_log.error("Unable to truncate journal {}", m_journal.getFile(), e);
+                    }
+                }
+            }
+        }
 
-    /**
-     * Ensure that files with insignificant changes are getting promoted if
-     * necessary
-     *
-     */
-    private synchronized void promoteAgedFiles() {
+        @Override
+        public void run() {
+            try {
+                long waitStart = -1L;
+                for (;;) {
+                    final PendingFile pending = take();
+                    if (pending != null) {
+                        waitStart = -1L;
+                        processPendingOperations(pending);
+                        m_unwritten.addAndGet(-countOperations(pending.operations));
+                        continue;
+                    }
 
-        // no need to do this is we aren't prioritizing
-        if (!m_prioritizeSignificantUpdates) return;
+                    truncateJournal();
+                    final long now = System.currentTimeMillis();
+                    if (waitStart < 0) {
+                        waitStart = now;
+                    } else if (now - waitStart >= m_writeThreadExitDelay) {
+                        break;
+                    }
+                    m_idle = true;
+                    if (isEmpty()) {
+                        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(m_writeThreadSleepTime));
+                    }
+                    m_idle = false;
+                }
+            } finally {
+                m_writer = null;
+                m_running.set(false);
+                // work may have been added after we decided to exit
+                if (!isEmpty()) {
+                    ensureStarted();
+                }
+            }
+        }
 
-        // the num seconds to update files is 0 then use unfair prioritization
-        if (m_maxInsigUpdateSeconds == 0 || filesWithInsignificantWork.isEmpty())
-            return;
+        int getFilesWithSignificantWork() {
+            return m_significantFiles.size();
+        }
 
-        // calculate the elapsed time we first queued updates
-        long now = System.currentTimeMillis();
-        long elapsedMillis = Math.max(now - getStartTime(), 1);
-
-        // calculate the milliseconds between promotions necessary to age
-        // insignificant files into
-        // the significant queue
-        double millisPerPromotion = ((m_maxInsigUpdateSeconds * 1000.0) / filesWithInsignificantWork.size());
-
-        // calculate the number of millis since start until the next file needs
-        // to be promotoed
-        long nextPromotionMillis = (long) (millisPerPromotion * getPromotionCount());
-
-        // if more time has elapsed than the next promotion time then promote a
-        // file
-        if (elapsedMillis > nextPromotionMillis) {
-            String file = filesWithInsignificantWork.removeFirst();
-            filesWithSignificantWork.addFirst(file);
-            setPromotionCount(getPromotionCount() + 1);
+        int getFilesWithInsignificantWork() {
+            return m_insignificantFiles.size();
         }
 
+        long getOldestEnqueueTime() {
+            long oldest = Long.MAX_VALUE;
+            final PendingFile significant = m_significantFiles.peek();
+            if (significant != null) {
+                oldest = significant.enqueueTime;
+            }
+            final PendingFile insignificant = m_insignificantFiles.peek();
+            if (insignificant != null) {
+                oldest = Math.min(oldest, insignificant.enqueueTime);
+            }
+            return oldest;
+        }
     }
 
-    /** {@inheritDoc} */
-    @Override
-    public synchronized void promoteEnqueuedFiles(Collection<String> rrdFiles) {
-        filesWithSignificantWork.addAll(0, rrdFiles);
-        m_delegate.promoteEnqueuedFiles(rrdFiles);
+    private static long countOperations(final List<Operation> ops) {
+        long count = 0;
+        for (final Operation op : ops) {
+            count += op.getCount();
+        }
+        return count;
     }
 
     /**
-     * Return true if and only if all the operations in the list are
-     * insignificant
+     * Returns the shards, creating them and replaying the journals the
+     * first time they are needed.
      */
-    private boolean hasOnlyInsignificant(List<Operation> pendingOps) {
-        for(Operation op : pendingOps) {
-            if (op.isSignificant()) {
-                return false;
+    private Shard[] getShards() {
+        Shard[] shards = m_shards;
+        if (shards == null) {
+            synchronized (this) {
+                shards = m_shards;
+                if (shards == null) {
+                    shards = createShards();
+                    m_shards = shards;
+                    replayJournals();
+                }
             }
         }
-        return true;
+        return shards;
     }
 
-    /**
-     * register the file that the currentThread is be working on. This enables
-     * us to ensure that another thread doesn't try to work on operations for
-     * that file.  Note: this is not synchronized as it is called from getNext which
-     * is thread safe
-     */
-    private LinkedList<Operation> takeAssignment(String newAssignment) {
+    private Shard[] createShards() {
+        final File journalDirectory = getJournalDirectoryFile();
+        final Shard[] shards = new Shard[Math.max(1, m_writeThreads)];
+        for (int i = 0; i < shards.length; i++) {
+            final RrdJournal journal = journalDirectory == null ? null : new RrdJournal(new File(journalDirectory, JOURNAL_PREFIX + i + JOURNAL_SUFFIX));
+            shards[i] = new Shard(i, journal);
+        }
+        return shards;
+    }
+
+    private Shard getShard(final String fileName) {
+        return getShard(getShards(), fileName);
+    }
+
+    private static Shard getShard(final Shard[] shards, final String fileName) {
+        final int h = fileName.hashCode();
+        return shards[((h ^ (h >>> 16)) & Integer.MAX_VALUE) % shards.length];
+    }
+
+    private static final String JOURNAL_PREFIX = "rrd-queue-";
 
-        // make the file as reserved by the current thread
-        fileAssignments.put(Thread.currentThread(), newAssignment);
-        reservedFiles.add(newAssignment);
+    private static final String JOURNAL_SUFFIX = ".journal";
 
-        // get the assignments work list and return it
-        return pendingFileOperations.remove(newAssignment);
+    private static final String REPLAY_SUFFIX = ".replay";
+
+    private File getJournalDirectoryFile() {
+        if (m_journalDirectory == null || m_journalDirectory.trim().isEmpty()) {
+            return null;
+        }
+        final File directory = new File(m_journalDirectory.trim());
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            m_log.error("Unable to create the rrd queue journal directory {}, journaling is disabled", directory);
+            return null;
+        }
+        return directory;
     }
 
     /**
-     * Return the name of the next file with available work
+     * Re-enqueues the updates left in the journals by a previous run. The old
+     * journals are renamed first and only removed once their updates have been
+     * journaled again, which also redistributes them if the number of write
+     * threads changed.
      */
-    private String selectNewAssignment() {
-        for (Iterator<String> it = filesWithSignificantWork.iterator(); it.hasNext();) {
-            String fn = it.next();
-            if (!reservedFiles.contains(fn)) {
-                it.remove();
-                return fn;
+    private void replayJournals() {
+        final File directory = getJournalDirectoryFile();
+        if (directory == null) {
+            return;
+        }
+
+        final File[] journals = directory.listFiles((dir, name) -> name.startsWith(JOURNAL_PREFIX) && name.endsWith(JOURNAL_SUFFIX));
+        if (journals != null) {
+            for (final File journal : journals) {
+                final File replay = new File(directory, journal.getName() + REPLAY_SUFFIX);
+                if (!replay.exists() && !journal.renameTo(replay)) {
+                    m_log.error("Unable to rename journal {} for replay", journal);
+                }
             }
         }
-        for (Iterator<String> it = filesWithInsignificantWork.iterator(); it.hasNext();) {
-            String fn = it.next();
-            if (!reservedFiles.contains(fn)) {
-                it.remove();
-                return fn;
+
+        final File[] replays = directory.listFiles((dir, name) -> name.startsWith(JOURNAL_PREFIX) && name.endsWith(REPLAY_SUFFIX));
+        if (replays == null) {
+            return;
+        }
+        for (final File replay : replays) {
+            try {
+                final List<String[]> records = RrdJournal.read(replay);
+                m_log.info("Replaying {} updates from journal {}", records.size(), replay);
+                for (final String[] record : records) {
+                    addOperation(makeUpdateOperation(record[0], "", record[1]));
+                }
+                if (!replay.delete()) {
+                    m_log.warn("Unable to delete replayed journal {}", replay);
+                }
+            } catch (final IOException e) {
+                m_log.error("Unable to replay journal {}", replay, e);
             }
         }
-        return null;
     }
 
     /**
-     * Record that fact that the current thread has finished process operations
-     * for its current assignment
+     * Add an operation to the queue.
+     *
+     * @param op a {@link org.opennms.netmgt.rrd.QueuingRrdStrategy.Operation} object.
      */
-    private synchronized void completeAssignment() {
-        // remove any existing reservation of the current thread
-        String previousAssignment = fileAssignments.remove(Thread.currentThread());
-        if (previousAssignment != null)
-            reservedFiles.remove(previousAssignment);
+    private void addOperation(final Operation op) {
+        if (queueIsFull()) {
+            m_log.error("RRD Data Queue is Full!! Discarding operation for file {}", op.getFileName());
+            return;
+        }
+
+        if (op.isSignificant() && sigQueueIsFull()) {
+            m_log.error("RRD Data Significant Queue is Full!! Discarding operation for file {}", op.getFileName());
+            return;
+        }
+
+        if (!op.isSignificant() && inSigQueueIsFull()) {
+            m_log.error("RRD Insignificant Data Queue is Full!! Discarding operation for file {}", op.getFileName());
+            return;
+        }
+
+        // initialize start time for stats
+        if (m_startTime == 0) {
+            m_startTime = System.currentTimeMillis();
+        }
+
+        m_totalOperationsPending.incrementAndGet();
+        m_enqueuedOperations.incrementAndGet();
+        if (op.isSignificant()) {
+            m_significantOpsEnqueued.incrementAndGet();
+        }
+
+        getShard(op.getFileName()).add(op);
+    }
+
+
+    private boolean queueIsFull() {
+        if (m_queueHighWaterMark <= 0)
+            return false;
+        else
+            return getTotalOperationsPending() >= m_queueHighWaterMark;
+    }
+
+    private boolean sigQueueIsFull() {
+        if (m_sigHighWaterMark <= 0)
+            return false;
+        else
+            return getTotalOperationsPending() >= m_sigHighWaterMark;
+    }
+
+    private boolean inSigQueueIsFull() {
+        if (m_inSigHighWaterMark <= 0)
+            return false;
+        else
+            return getTotalOperationsPending() >= m_inSigHighWaterMark;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void promoteEnqueuedFiles(Collection<String> rrdFiles) {
+        for (final String rrdFile : rrdFiles) {
+            getShard(rrdFile).promote(rrdFile);
+        }
+        m_delegate.promoteEnqueuedFiles(rrdFiles);
     }
 
     /**
@@ -1054,60 +1254,34 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
     //
 
     /**
-     * <p>run</p>
+     * Actually process the operations be calling the underlying delegate
+     * strategy
      */
-    @Override
-    public void run() {
-        try {
-
-            long waitStart = -1L;
-            long delayed = 0;
-            while (delayed < m_writeThreadExitDelay) {
-                if (getTotalOperationsPending() > 0) {
-                    delayed = 0;
-                    waitStart = -1L;
-                    processPendingOperations();
-                } else {
-                    if (waitStart < 0) {
-                        waitStart = System.currentTimeMillis();
-                    }
-                    try {
-                        Thread.sleep(m_writeThreadSleepTime);
-                    } catch (InterruptedException e) {
-                    }
-                    long now = System.currentTimeMillis();
-                    delayed = now - waitStart;
-                }
+    private void processPendingOperations(final PendingFile pending) {
+        final List<Operation> ops = pending.operations;
 
-            }
-        } finally {
-            synchronized (this) {
-                threadsRunning--;
-                completeAssignment();
+        // keep stats
+        final long count = countOperations(ops);
+        m_totalOperationsPending.addAndGet(-count);
+        m_dequeuedOperations.addAndGet(count);
+        for (final Operation op : ops) {
+            if (op.isSignificant()) {
+                m_significantOpsDequeued.addAndGet(op.getCount());
             }
         }
-    }
+        m_dequeuedItems.incrementAndGet();
+        m_totalQueueTime.addAndGet(System.currentTimeMillis() - pending.enqueueTime);
 
-    /**
-     * Actually process the operations be calling the underlying delegate
-     * strategy
-     */
-    private void processPendingOperations() {
         Logging.withPrefix(m_category, new Runnable() {
             @Override public void run() {
                 Object rrd = null;
                 String fileName = null;
-
                 try {
-                    final LinkedList<Operation> ops = getNext();
-                    if (ops == null) {
-                        return;
-                    }
                     // update stats correctly we update them even if an exception occurs
                     // while we are processing
                     for (final Operation op : ops) {
                         if (op.isSignificant()) {
-                            setSignificantOpsCompleted(getSignificantOpsCompleted() + 1);
+                            m_significantOpsCompleted.incrementAndGet();
                         }
 
                     }
@@ -1117,7 +1291,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                         rrd = op.process(rrd);
                     }
                 } catch (final Throwable e) {
-                    setErrors(getErrors() + 1);
+                    m_errors.incrementAndGet();
                     logLapTime("Error updating file " + fileName + ": " + e.getMessage());
                     m_log.debug("Error updating file {}: {}", fileName, e.getMessage(), e);
                 } finally {
@@ -1135,7 +1309,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             try {
                 m_delegate.closeFile(rrd);
             } catch (final Throwable e) {
-                setErrors(getErrors() + 1);
+                m_errors.incrementAndGet();
                 logLapTime("Error closing rrd " + rrd + ": " + e.getMessage());
                 m_log.debug("Error closing rrd {}: {}", rrd, e.getMessage(), e);
             }
@@ -1181,8 +1355,9 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
         String stats = "\nQS:\t" + "totalOperationsPending=" + getTotalOperationsPending() +
                 ", significantOpsPending=" + (getSignificantOpsEnqueued() - getSignificantOpsCompleted()) +
-                ", filesWithSignificantWork=" + filesWithSignificantWork.size() +
-                ", filesWithInsignificantWork=" + filesWithInsignificantWork.size()
+                ", filesWithSignificantWork=" + getFilesWithSignificantWork() +
+                ", filesWithInsignificantWork=" + getFilesWithInsignificantWork() +
+                ", oldestPendingAge=" + getOldestPendingAge()
 
                 + "\nQS:\t" + ", createsCompleted=" + getCreatesCompleted() +
                 ", updatesCompleted=" + getUpdatesCompleted() +
@@ -1297,7 +1472,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getTotalOperationsPending() {
-        return m_totalOperationsPending;
+        return m_totalOperationsPending.get();
     }
 
     /**
@@ -1306,7 +1481,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param totalOperationsPending a long.
      */
     public void setTotalOperationsPending(long totalOperationsPending) {
-        m_totalOperationsPending = totalOperationsPending;
+        m_totalOperationsPending.set(totalOperationsPending);
     }
 
     /**
@@ -1315,7 +1490,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getCreatesCompleted() {
-        return m_createsCompleted;
+        return m_createsCompleted.get();
     }
 
     /**
@@ -1324,7 +1499,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param createsCompleted a long.
      */
     public void setCreatesCompleted(long createsCompleted) {
-        m_createsCompleted = createsCompleted;
+        m_createsCompleted.set(createsCompleted);
     }
 
     /**
@@ -1333,7 +1508,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getUpdatesCompleted() {
-        return m_updatesCompleted;
+        return m_updatesCompleted.get();
     }
 
     /**
@@ -1342,7 +1517,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param updatesCompleted a long.
      */
     public void setUpdatesCompleted(long updatesCompleted) {
-        m_updatesCompleted = updatesCompleted;
+        m_updatesCompleted.set(updatesCompleted);
     }
 
     /**
@@ -1351,7 +1526,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getErrors() {
-        return m_errors;
+        return m_errors.get();
     }
 
     /**
@@ -1360,7 +1535,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param errors a long.
      */
     public void setErrors(long errors) {
-        m_errors = errors;
+        m_errors.set(errors);
     }
 
     /**
@@ -1369,7 +1544,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getPromotionCount() {
-        return m_promotionCount;
+        return m_promotionCount.get();
     }
 
     /**
@@ -1378,7 +1553,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param promotionCount a long.
      */
     public void setPromotionCount(long promotionCount) {
-        m_promotionCount = promotionCount;
+        m_promotionCount.set(promotionCount);
     }
 
     /**
@@ -1387,7 +1562,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getSignificantOpsEnqueued() {
-        return m_significantOpsEnqueued;
+        return m_significantOpsEnqueued.get();
     }
 
     /**
@@ -1396,7 +1571,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param significantOpsEnqueued a long.
      */
     public void setSignificantOpsEnqueued(long significantOpsEnqueued) {
-        m_significantOpsEnqueued = significantOpsEnqueued;
+        m_significantOpsEnqueued.set(significantOpsEnqueued);
     }
 
     /**
@@ -1405,7 +1580,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getSignificantOpsDequeued() {
-        return m_significantOpsDequeued;
+        return m_significantOpsDequeued.get();
     }
 
     /**
@@ -1414,7 +1589,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param significantOpsDequeued a long.
      */
     public void setSignificantOpsDequeued(long significantOpsDequeued) {
-        m_significantOpsDequeued = significantOpsDequeued;
+        m_significantOpsDequeued.set(significantOpsDequeued);
     }
 
     /**
@@ -1423,7 +1598,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getEnqueuedOperations() {
-        return m_enqueuedOperations;
+        return m_enqueuedOperations.get();
     }
 
     /**
@@ -1432,7 +1607,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param enqueuedOperations a long.
      */
     public void setEnqueuedOperations(long enqueuedOperations) {
-        m_enqueuedOperations = enqueuedOperations;
+        m_enqueuedOperations.set(enqueuedOperations);
     }
 
     /**
@@ -1441,7 +1616,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getDequeuedOperations() {
-        return m_dequeuedOperations;
+        return m_dequeuedOperations.get();
     }
 
     /**
@@ -1450,7 +1625,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param dequeuedOperations a long.
      */
     public void setDequeuedOperations(long dequeuedOperations) {
-        m_dequeuedOperations = dequeuedOperations;
+        m_dequeuedOperations.set(dequeuedOperations);
     }
 
     /**
@@ -1459,7 +1634,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getDequeuedItems() {
-        return m_dequeuedItems;
+        return m_dequeuedItems.get();
     }
 
     /**
@@ -1468,7 +1643,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param dequeuedItems a long.
      */
     public void setDequeuedItems(long dequeuedItems) {
-        m_dequeuedItems = dequeuedItems;
+        m_dequeuedItems.set(dequeuedItems);
     }
 
     /**
@@ -1477,7 +1652,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getSignificantOpsCompleted() {
-        return m_significantOpsCompleted;
+        return m_significantOpsCompleted.get();
     }
 
     /**
@@ -1486,7 +1661,66 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param significantOpsCompleted a long.
      */
     public void setSignificantOpsCompleted(long significantOpsCompleted) {
-        m_significantOpsCompleted = significantOpsCompleted;
+        m_significantOpsCompleted.set(significantOpsCompleted);
+    }
+
+    /**
+     * <p>getFilesWithSignificantWork</p>
+     *
+     * @return the number of files queued with significant work
+     */
+    public long getFilesWithSignificantWork() {
+        long files = 0;
+        final Shard[] shards = m_shards;
+        if (shards != null) {
+            for (final Shard shard : shards) {
+                files += shard.getFilesWithSignificantWork();
+            }
+        }
+        return files;
+    }
+
+    /**
+     * <p>getFilesWithInsignificantWork</p>
+     *
+     * @return the number of files queued with insignificant work only
+     */
+    public long getFilesWithInsignificantWork() {
+        long files = 0;
+        final Shard[] shards = m_shards;
+        if (shards != null) {
+            for (final Shard shard : shards) {
+                files += shard.getFilesWithInsignificantWork();
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Returns how long the oldest file at the head of the queues has been
+     * waiting to be written.
+     *
+     * @return the age in milliseconds, or 0 if nothing is pending
+     */
+    public long getOldestPendingAge() {
+        long oldest = Long.MAX_VALUE;
+        final Shard[] shards = m_shards;
+        if (shards != null) {
+            for (final Shard shard : shards) {
+                oldest = Math.min(oldest, shard.getOldestEnqueueTime());
+            }
+        }
+        return oldest == Long.MAX_VALUE ? 0 : Math.max(0, System.currentTimeMillis() - oldest);
+    }
+
+    /**
+     * Returns the sum of the time every dequeued item spent in the queue.
+     * Divided by {@link #getDequeuedItems()} this gives the average queue age.
+     *
+     * @return the total time in milliseconds
+     */
+    public long getTotalQueueTime() {
+        return m_totalQueueTime.get();
     }
 
     /**
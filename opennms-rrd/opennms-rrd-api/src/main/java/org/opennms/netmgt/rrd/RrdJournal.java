@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only journal of the updates enqueued by the {@link QueuingRrdStrategy}.
+ *
+ * Every update is appended (and flushed to the operating system) before it is
+ * enqueued, and the journal is truncated once everything that was appended
+ * has been written to the rrd files. After a crash the records left in the
+ * journal are the updates that never made it to disk.
+ *
+ * Each record is the file name and the update string, both written with
+ * {@link DataOutputStream#writeUTF(String)}.
+ */
+class RrdJournal {
+
+    private final File m_file;
+
+    private FileOutputStream m_fileOut;
+
+    private DataOutputStream m_out;
+
+    private boolean m_dirty = false;
+
+    RrdJournal(final File file) {
+        m_file = file;
+    }
+
+    File getFile() {
+        return m_file;
+    }
+
+    /**
+     * Appends an update to the journal.
+     */
+    synchronized void append(final String fileName, final String update) throws IOException {
+        if (m_out == null) {
+            m_fileOut = new FileOutputStream(m_file, true);
+            m_out = new DataOutputStream(new BufferedOutputStream(m_fileOut));
+        }
+        m_out.writeUTF(fileName);
+        m_out.writeUTF(update);
+        m_out.flush();
+        m_dirty = true;
+    }
+
+    /**
+     * Discards every record in the journal. The caller is responsible for
+     * ensuring that all of them have been written.
+     */
+    synchronized void truncate() throws IOException {
+        if (m_dirty) {
+            m_fileOut.getChannel().truncate(0);
+            m_dirty = false;
+        }
+    }
+
+    synchronized void close() throws IOException {
+        if (m_out != null) {
+            m_out.close();
+            m_out = null;
+            m_fileOut = null;
+        }
+    }
+
+    /**
+     * Reads the records of a journal file. A truncated record at the end of
+     * the file, left behind by a crash in the middle of an append, is ignored.
+     *
+     * @return the file name and update of each record
+     */
+    static List<String[]> read(final File file) throws IOException {
+        final List<String[]> records = new ArrayList<String[]>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            for (;;) {
+                final String fileName = in.readUTF();
+                final String update = in.readUTF();
+                records.add(new String[] { fileName, update });
+            }
+        } catch (final EOFException e) {
+            // end of the journal
+        }
+        return records;
+    }
+}
@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class QueuingRrdStrategyTest {
+
+    @Rule
+    public TemporaryFolder m_tempFolder = new TemporaryFolder();
+
+    /**
+     * Records the updates written to each file and whether a file was ever
+     * written by two threads at the same time.
+     */
+    private static class RecordingRrdStrategy extends NullRrdStrategy {
+        private final Map<String, List<String>> m_updates = new ConcurrentHashMap<>();
+        private final Set<String> m_filesInUse = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private final AtomicBoolean m_concurrentWrite = new AtomicBoolean(false);
+
+        @Override
+        public Object openFile(final String fileName) {
+            if (!m_filesInUse.add(fileName)) {
+                m_concurrentWrite.set(true);
+            }
+            return fileName;
+        }
+
+        @Override
+        public void updateFile(final Object rrd, final String owner, final String data) {
+            m_updates.computeIfAbsent((String)rrd, f -> Collections.synchronizedList(new ArrayList<String>())).add(data);
+        }
+
+        @Override
+        public void closeFile(final Object rrd) {
+            m_filesInUse.remove(rrd);
+        }
+
+        private List<String> getUpdates(final String fileName) {
+            final List<String> updates = m_updates.get(fileName);
+            return updates == null ? Collections.<String>emptyList() : updates;
+        }
+    }
+
+    private static QueuingRrdStrategy createStrategy(final RrdStrategy<Object, Object> delegate, final int writeThreads) {
+        final QueuingRrdStrategy strategy = new QueuingRrdStrategy(delegate);
+        strategy.setWriteThreads(writeThreads);
+        strategy.setModulus(10000);
+        strategy.setWriteThreadSleepTime(5);
+        strategy.setWriteThreadExitDelay(60000);
+        return strategy;
+    }
+
+    private static void waitForPending(final QueuingRrdStrategy strategy) throws InterruptedException {
+        while (strategy.getTotalOperationsPending() > 0 || strategy.getDequeuedOperations() < strategy.getEnqueuedOperations()) {
+            Thread.sleep(5);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void writesEveryFileInOrderOnASingleThread() throws Exception {
+        final RecordingRrdStrategy delegate = new RecordingRrdStrategy();
+        final QueuingRrdStrategy strategy = createStrategy(delegate, 4);
+
+        final int files = 100;
+        final int updates = 50;
+        final List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < 4; p++) {
+            final int producer = p;
+            producers.add(new Thread(() -> {
+                for (int u = 1; u <= updates; u++) {
+                    for (int f = producer; f < files; f += 4) {
+                        try {
+                            strategy.updateFile("file" + f, "test", u + ":" + u);
+                        } catch (final Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+            }));
+        }
+        for (final Thread producer : producers) {
+            producer.start();
+        }
+        for (final Thread producer : producers) {
+            producer.join();
+        }
+
+        while (strategy.getUpdatesCompleted() < files * updates) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, strategy.getErrors());
+        assertFalse("a file was written by two threads at once", delegate.m_concurrentWrite.get());
+        for (int f = 0; f < files; f++) {
+            final List<String> written = delegate.getUpdates("file" + f);
+            assertEquals(updates, written.size());
+            for (int u = 1; u <= updates; u++) {
+                assertEquals(u + ":" + u, written.get(u - 1));
+            }
+        }
+        assertEquals(files * updates, strategy.getEnqueuedOperations());
+        assertEquals(files * updates, strategy.getDequeuedOperations());
+    }
+
+    @Test(timeout = 30000)
+    public void replaysUnwrittenUpdatesFromTheJournal() throws Exception {
+        final File journalDirectory = m_tempFolder.newFolder("journal");
+
+        // the first strategy gets stuck writing the first file, leaving the
+        // rest of its queue unwritten like a crash would
+        final CountDownLatch stuck = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final QueuingRrdStrategy crashed = createStrategy(new NullRrdStrategy() {
+            @Override
+            public void updateFile(final Object rrd, final String owner, final String data) {
+                stuck.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, 1);
+        crashed.setJournalDirectory(journalDirectory.getAbsolutePath());
+        try {
+            crashed.updateFile("a", "test", "1:1");
+            stuck.await();
+            crashed.updateFile("a", "test", "2:2");
+            crashed.updateFile("b", "test", "1:0");
+            crashed.updateFile("b", "test", "2:0");
+            crashed.updateFile("c", "test", "1:3.5");
+
+            final RecordingRrdStrategy delegate = new RecordingRrdStrategy();
+            final QueuingRrdStrategy restarted = createStrategy(delegate, 2);
+            restarted.setJournalDirectory(journalDirectory.getAbsolutePath());
+            restarted.updateFile("d", "test", "1:1");
+
+            waitForPending(restarted);
+            while (restarted.getUpdatesCompleted() < 6) {
+                Thread.sleep(5);
+            }
+            assertEquals(Arrays.asList("1:1", "2:2"), delegate.getUpdates("a"));
+            assertEquals(Arrays.asList("1:0", "2:0"), delegate.getUpdates("b"));
+            assertEquals(Arrays.asList("1:3.5"), delegate.getUpdates("c"));
+            assertEquals(Arrays.asList("1:1"), delegate.getUpdates("d"));
+
+            final String[] replays = journalDirectory.list((dir, name) -> name.endsWith(".replay"));
+            assertEquals(0, replays.length);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void truncatesTheJournalOnceEverythingIsWritten() throws Exception {
+        final File journalDirectory = m_tempFolder.newFolder("journal");
+        final QueuingRrdStrategy strategy = createStrategy(new RecordingRrdStrategy(), 1);
+        strategy.setJournalDirectory(journalDirectory.getAbsolutePath());
+
+        for (int i = 1; i <= 10; i++) {
+            strategy.updateFile("file", "test", i + ":" + i);
+        }
+        waitForPending(strategy);
+
+        final File journal = new File(journalDirectory, "rrd-queue-0.journal");
+        assertTrue(journal.exists());
+        while (journal.length() > 0) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, strategy.getOldestPendingAge());
+    }
+}
@@ -65,6 +65,14 @@ import org.slf4j.LoggerFactory;
  * FILE mode (NIO is too memory consuming for the large number of files that we
  * open)
  *
+ * When org.jrobin.core.RrdBackendFactory is set to MMAP the files are written
+ * through an {@link RrdMappedBackendFactory} instead: up to
+ * org.opennms.rrd.jrobin.maxOpenFiles recently updated files are kept open
+ * and memory-mapped, so the updates for a file only touch its mapped pages,
+ * and the modified pages are forced to disk every
+ * org.opennms.rrd.jrobin.syncPeriod seconds. Reads and graphs keep going
+ * through the FILE backend, which sees the mapped pages through the page cache.
+ *
  * @author ranger
  * @version $Id: $
  */
@@ -72,6 +80,9 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     private static final Logger LOG = LoggerFactory.getLogger(JRobinRrdStrategy.class);
     private static final String BACKEND_FACTORY_PROPERTY = "org.jrobin.core.RrdBackendFactory";
     private static final String DEFAULT_BACKEND_FACTORY = "FILE";
+    private static final String MAX_OPEN_FILES_PROPERTY = "org.opennms.rrd.jrobin.maxOpenFiles";
+    private static final String DEFAULT_MAX_OPEN_FILES = "1024";
+    private static final String SYNC_PERIOD_PROPERTY = "org.opennms.rrd.jrobin.syncPeriod";
 
     /*
      * Ensure that we only initialize certain things *once* per
@@ -81,6 +92,10 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
 
     private Properties m_configurationProperties;
 
+    private RrdMappedBackendFactory m_mappedFactory;
+
+    private RrdDbCache m_openFiles;
+
     /**
      * An extremely simple Plottable for holding static datasources that
      * can't be represented with an SDEF -- currently used only for PERCENT
@@ -123,13 +138,18 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     @Override
     public void setConfigurationProperties(final Properties configurationParameters) {
         m_configurationProperties = configurationParameters;
+        String factory = null;
+        if (m_configurationProperties == null) {
+            factory = DEFAULT_BACKEND_FACTORY;
+        } else {
+            factory = (String)m_configurationProperties.get(BACKEND_FACTORY_PROPERTY);
+        }
+        if (RrdMappedBackendFactory.NAME.equalsIgnoreCase(factory)) {
+            configureMappedFiles();
+            // only the writes go through the mapped files
+            factory = DEFAULT_BACKEND_FACTORY;
+        }
         if(!s_initialized) {
-            String factory = null;
-            if (m_configurationProperties == null) {
-                factory = DEFAULT_BACKEND_FACTORY;
-            } else {
-                factory = (String)m_configurationProperties.get(BACKEND_FACTORY_PROPERTY);
-            }
             try {
                 RrdDb.setDefaultFactory(factory);
                 s_initialized=true;
@@ -139,15 +159,34 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         }
     }
 
+    private void configureMappedFiles() {
+        final int maxOpenFiles = Integer.parseInt(m_configurationProperties.getProperty(MAX_OPEN_FILES_PROPERTY, DEFAULT_MAX_OPEN_FILES).trim());
+        final int syncPeriod = Integer.parseInt(m_configurationProperties.getProperty(SYNC_PERIOD_PROPERTY, Integer.toString(RrdMappedBackendFactory.DEFAULT_SYNC_PERIOD)).trim());
+
+        if (m_openFiles != null) {
+            m_openFiles.close();
+        }
+        if (m_mappedFactory == null) {
+            m_mappedFactory = new RrdMappedBackendFactory();
+        }
+        m_mappedFactory.setSyncPeriod(syncPeriod);
+        m_openFiles = new RrdDbCache(m_mappedFactory, maxOpenFiles);
+        LOG.info("Keeping up to {} RRD files memory-mapped, syncing them every {} seconds", maxOpenFiles, syncPeriod);
+    }
+
     /**
-     * Closes the JRobin RrdDb.
+     * Closes the JRobin RrdDb, or hands it back to the open files when they
+     * are memory-mapped.
      *
      * @param rrdFile a {@link org.jrobin.core.RrdDb} object.
      * @throws java.lang.Exception if any.
      */
     @Override
     public void closeFile(final RrdDb rrdFile) throws Exception {
-        rrdFile.close();
+        final RrdDbCache openFiles = m_openFiles;
+        if (openFiles == null || !openFiles.release(rrdFile)) {
+            rrdFile.close();
+        }
     }
 
     /** {@inheritDoc} */
@@ -202,6 +241,9 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         }
         LOG.info("createRRD: creating RRD file {}", rrdDef.getPath());
 
+        if (m_openFiles != null) {
+            m_openFiles.invalidate(rrdDef.getPath());
+        }
         RrdDb rrd = new RrdDb(rrdDef);
         rrd.close();
     }
@@ -213,6 +255,10 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
      */
     @Override
     public RrdDb openFile(final String fileName) throws Exception {
+        final RrdDbCache openFiles = m_openFiles;
+        if (openFiles != null) {
+            return openFiles.acquire(fileName);
+        }
         return new RrdDb(fileName);
     }
 
@@ -867,7 +913,15 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
      */
     @Override
     public String getStats() {
-        return "";
+        final RrdDbCache openFiles = m_openFiles;
+        if (openFiles == null) {
+            return "";
+        }
+        return "openFiles=" + openFiles.getOpenFiles() +
+                ", hits=" + openFiles.getHits() +
+                ", misses=" + openFiles.getMisses() +
+                ", evictions=" + openFiles.getEvictions() +
+                ", dirtyFiles=" + m_mappedFactory.getDirtyFiles();
     }
 
     /*
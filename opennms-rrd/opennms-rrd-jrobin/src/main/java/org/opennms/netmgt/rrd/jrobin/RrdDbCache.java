@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jrobin.core.RrdBackendFactory;
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the most recently updated RRD files open, and therefore mapped when
+ * used with the {@link RrdMappedBackendFactory}, so that consecutive batches
+ * of updates for a hot file don't have to reopen and re-read it.
+ *
+ * Files are acquired and released like with the {@link org.jrobin.core.RrdDbPool}.
+ * When more than {@code maxOpenFiles} are open the least recently used files
+ * that are not in use are closed.
+ */
+class RrdDbCache {
+    private static final Logger LOG = LoggerFactory.getLogger(RrdDbCache.class);
+
+    private static class Entry {
+        private final RrdDb m_rrdDb;
+        private int m_references = 0;
+
+        private Entry(final RrdDb rrdDb) {
+            m_rrdDb = rrdDb;
+        }
+    }
+
+    private final RrdBackendFactory m_factory;
+
+    private final int m_maxOpenFiles;
+
+    /**
+     * The open files by path, in access order.
+     */
+    private final LinkedHashMap<String, Entry> m_entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private final Map<RrdDb, Entry> m_entriesByDb = new IdentityHashMap<RrdDb, Entry>();
+
+    private long m_hits = 0;
+
+    private long m_misses = 0;
+
+    private long m_evictions = 0;
+
+    RrdDbCache(final RrdBackendFactory factory, final int maxOpenFiles) {
+        m_factory = factory;
+        m_maxOpenFiles = maxOpenFiles;
+    }
+
+    /**
+     * Returns the open file for the path, opening it if necessary.
+     */
+    RrdDb acquire(final String path) throws IOException, RrdException {
+        synchronized (this) {
+            final Entry entry = m_entries.get(path);
+            if (entry != null) {
+                if (new File(path).exists()) {
+                    m_hits++;
+                    entry.m_references++;
+                    return entry.m_rrdDb;
+                }
+                // the file was removed behind our back, don't keep writing to it
+                LOG.debug("RRD file {} no longer exists, closing it", path);
+                remove(path);
+            }
+            m_misses++;
+        }
+
+        final RrdDb rrdDb = new RrdDb(path, m_factory);
+        final List<RrdDb> evicted;
+        synchronized (this) {
+            final Entry existing = m_entries.get(path);
+            if (existing != null) {
+                // another thread opened it in the meantime
+                existing.m_references++;
+                closeQuietly(rrdDb);
+                return existing.m_rrdDb;
+            }
+            final Entry entry = new Entry(rrdDb);
+            entry.m_references++;
+            m_entries.put(path, entry);
+            m_entriesByDb.put(rrdDb, entry);
+            evicted = evict();
+        }
+        for (final RrdDb victim : evicted) {
+            closeQuietly(victim);
+        }
+        return rrdDb;
+    }
+
+    /**
+     * Hands back a file returned by {@link #acquire(String)}. Returns false if
+     * the file is not managed by the cache.
+     */
+    boolean release(final RrdDb rrdDb) {
+        final List<RrdDb> evicted;
+        synchronized (this) {
+            final Entry entry = m_entriesByDb.get(rrdDb);
+            if (entry == null) {
+                return false;
+            }
+            entry.m_references--;
+            evicted = evict();
+        }
+        for (final RrdDb victim : evicted) {
+            closeQuietly(victim);
+        }
+        return true;
+    }
+
+    /**
+     * Closes the file for the path, if it is open, so that it will be
+     * reopened by the next {@link #acquire(String)}.
+     */
+    void invalidate(final String path) {
+        final RrdDb rrdDb;
+        synchronized (this) {
+            rrdDb = remove(path);
+        }
+        if (rrdDb != null) {
+            closeQuietly(rrdDb);
+        }
+    }
+
+    /**
+     * Closes all of the files that are not in use.
+     */
+    void close() {
+        final List<RrdDb> closed = new ArrayList<RrdDb>();
+        synchronized (this) {
+            for (final Iterator<Entry> it = m_entries.values().iterator(); it.hasNext();) {
+                final Entry entry = it.next();
+                if (entry.m_references <= 0) {
+                    it.remove();
+                    m_entriesByDb.remove(entry.m_rrdDb);
+                    closed.add(entry.m_rrdDb);
+                }
+            }
+        }
+        for (final RrdDb rrdDb : closed) {
+            closeQuietly(rrdDb);
+        }
+    }
+
+    synchronized int getOpenFiles() {
+        return m_entries.size();
+    }
+
+    synchronized long getHits() {
+        return m_hits;
+    }
+
+    synchronized long getMisses() {
+        return m_misses;
+    }
+
+    synchronized long getEvictions() {
+        return m_evictions;
+    }
+
+    private RrdDb remove(final String path) {
+        final Entry entry = m_entries.remove(path);
+        if (entry == null) {
+            return null;
+        }
+        m_entriesByDb.remove(entry.m_rrdDb);
+        // files that are in use are closed when they are released
+        return entry.m_references <= 0 ? entry.m_rrdDb : null;
+    }
+
+    /**
+     * Removes the least recently used files that are not in use until we are
+     * back under the limit. Must be called with the lock held, the returned
+     * files must be closed by the caller.
+     */
+    private List<RrdDb> evict() {
+        if (m_entries.size() <= m_maxOpenFiles) {
+            return Collections.emptyList();
+        }
+        final List<RrdDb> evicted = new ArrayList<RrdDb>();
+        for (final Iterator<Entry> it = m_entries.values().iterator(); it.hasNext() && m_entries.size() > m_maxOpenFiles;) {
+            final Entry entry = it.next();
+            if (entry.m_references <= 0) {
+                it.remove();
+                m_entriesByDb.remove(entry.m_rrdDb);
+                evicted.add(entry.m_rrdDb);
+                m_evictions++;
+            }
+        }
+        return evicted;
+    }
+
+    private static void closeQuietly(final RrdDb rrdDb) {
+        try {
+            rrdDb.close();
+        } catch (final IOException e) {
+            LOG.warn("Failed to close RRD file {}", rrdDb.getPath(), e);
+        }
+    }
+}
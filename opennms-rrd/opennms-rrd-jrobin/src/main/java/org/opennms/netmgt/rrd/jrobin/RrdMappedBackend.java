@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.jrobin.core.RrdFileBackend;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JRobin backend that maps the whole RRD file into memory. Reads and writes
+ * only touch the mapped pages; the dirty pages are forced to disk by the
+ * {@link RrdMappedBackendFactory} on its sync cadence and when the backend
+ * is closed.
+ *
+ * Unlike the NIO backend shipped with JRobin this does not schedule a timer
+ * task per file, so thousands of files can be kept open at once.
+ */
+class RrdMappedBackend extends RrdFileBackend {
+    private static final Logger LOG = LoggerFactory.getLogger(RrdMappedBackend.class);
+
+    private final RrdMappedBackendFactory m_factory;
+
+    private MappedByteBuffer m_buffer;
+
+    private boolean m_dirty = false;
+
+    RrdMappedBackend(final String path, final boolean readOnly, final RrdMappedBackendFactory factory) throws IOException {
+        super(path, readOnly);
+        m_factory = factory;
+        try {
+            map();
+        } catch (final IOException e) {
+            super.close();
+            throw e;
+        }
+    }
+
+    private void map() throws IOException {
+        final long length = getLength();
+        if (length > 0) {
+            m_buffer = file.getChannel().map(readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, 0, length);
+        }
+    }
+
+    private void unmap() {
+        if (m_buffer == null) {
+            return;
+        }
+        // The mapping is otherwise only released when the buffer is garbage
+        // collected, which can hold on to a lot of address space
+        try {
+            final Method cleanerMethod = m_buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            final Object cleaner = cleanerMethod.invoke(m_buffer);
+            if (cleaner != null) {
+                final Method clean = cleaner.getClass().getMethod("clean");
+                clean.setAccessible(true);
+                clean.invoke(cleaner);
+            }
+        } catch (final Exception e) {
+            LOG.debug("Unable to unmap {}, leaving it to the garbage collector", getPath(), e);
+        }
+        m_buffer = null;
+    }
+
+    @Override
+    protected synchronized void setLength(final long length) throws IOException {
+        unmap();
+        super.setLength(length);
+        map();
+    }
+
+    @Override
+    protected synchronized void write(final long offset, final byte[] b) throws IOException {
+        if (m_buffer == null) {
+            super.write(offset, b);
+            return;
+        }
+        m_buffer.position((int) offset);
+        m_buffer.put(b);
+        if (!m_dirty) {
+            m_dirty = true;
+            m_factory.markDirty(this);
+        }
+    }
+
+    @Override
+    protected synchronized void read(final long offset, final byte[] b) throws IOException {
+        if (m_buffer == null) {
+            super.read(offset, b);
+            return;
+        }
+        m_buffer.position((int) offset);
+        m_buffer.get(b);
+    }
+
+    /**
+     * Forces the modified pages to disk.
+     */
+    synchronized void sync() {
+        if (m_dirty && m_buffer != null) {
+            m_buffer.force();
+        }
+        m_dirty = false;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        sync();
+        unmap();
+        m_factory.closed(this);
+        super.close();
+    }
+}
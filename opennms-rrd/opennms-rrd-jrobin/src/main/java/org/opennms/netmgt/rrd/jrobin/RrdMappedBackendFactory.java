@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.jrobin.core.RrdBackend;
+import org.jrobin.core.RrdFileBackendFactory;
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+
+/**
+ * Creates {@link RrdMappedBackend}s and forces their modified pages to disk
+ * every {@code syncPeriod} seconds from a single thread.
+ */
+public class RrdMappedBackendFactory extends RrdFileBackendFactory {
+
+    public static final String NAME = "MMAP";
+
+    public static final int DEFAULT_SYNC_PERIOD = 300;
+
+    private final Set<RrdMappedBackend> m_dirty = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService m_syncExecutor;
+
+    private ScheduledFuture<?> m_syncFuture;
+
+    private int m_syncPeriod = DEFAULT_SYNC_PERIOD;
+
+    /**
+     * <p>getSyncPeriod</p>
+     *
+     * @return the number of seconds between two syncs.
+     */
+    public synchronized int getSyncPeriod() {
+        return m_syncPeriod;
+    }
+
+    /**
+     * <p>setSyncPeriod</p>
+     *
+     * @param syncPeriod the number of seconds between two syncs, or 0 to only
+     * sync when the files are closed.
+     */
+    public synchronized void setSyncPeriod(final int syncPeriod) {
+        m_syncPeriod = syncPeriod;
+        if (m_syncFuture != null) {
+            m_syncFuture.cancel(false);
+            m_syncFuture = null;
+        }
+        if (syncPeriod > 0) {
+            if (m_syncExecutor == null) {
+                m_syncExecutor = Executors.newSingleThreadScheduledExecutor(new LogPreservingThreadFactory("JRobinMappedSync", 1));
+            }
+            m_syncFuture = m_syncExecutor.scheduleWithFixedDelay(this::sync, syncPeriod, syncPeriod, TimeUnit.SECONDS);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected RrdBackend open(final String path, final boolean readOnly) throws IOException {
+        return new RrdMappedBackend(path, readOnly, this);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getFactoryName() {
+        return NAME;
+    }
+
+    /**
+     * Forces the modified pages of every open file to disk.
+     */
+    public void sync() {
+        for (final RrdMappedBackend backend : m_dirty) {
+            m_dirty.remove(backend);
+            backend.sync();
+        }
+    }
+
+    /**
+     * <p>getDirtyFiles</p>
+     *
+     * @return the number of open files with pages that have not been synced.
+     */
+    public int getDirtyFiles() {
+        return m_dirty.size();
+    }
+
+    void markDirty(final RrdMappedBackend backend) {
+        m_dirty.add(backend);
+    }
+
+    void closed(final RrdMappedBackend backend) {
+        m_dirty.remove(backend);
+    }
+}
@@ -31,6 +31,8 @@ package org.opennms.netmgt.rrd.jrobin;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -38,6 +40,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.Properties;
 
 import org.jrobin.core.RrdDb;
 import org.jrobin.core.RrdDef;
@@ -518,9 +521,54 @@ public class JRobinRrdStrategyTest {
         assertNotNull("graph details object", graphDetails);
     }
 
+    @Test
+    public void testMappedUpdates() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("org.jrobin.core.RrdBackendFactory", "MMAP");
+        props.setProperty("org.opennms.rrd.jrobin.maxOpenFiles", "1");
+        props.setProperty("org.opennms.rrd.jrobin.syncPeriod", "0");
+        m_strategy.setConfigurationProperties(props);
+
+        File rrdFile = createRrdFile();
+        long start = (System.currentTimeMillis() / 1000L) / 300L * 300L;
+
+        RrdDb first = m_strategy.openFile(rrdFile.getAbsolutePath());
+        m_strategy.updateFile(first, "test", start + ":1");
+        m_strategy.closeFile(first);
+
+        // the file stays open between batches of updates
+        RrdDb second = m_strategy.openFile(rrdFile.getAbsolutePath());
+        assertSame(first, second);
+        m_strategy.updateFile(second, "test", (start + 300) + ":2");
+        m_strategy.updateFile(second, "test", (start + 600) + ":3");
+        m_strategy.closeFile(second);
+
+        // readers going through the FILE backend see the mapped pages
+        RrdDb reader = new RrdDb(rrdFile.getAbsolutePath(), true);
+        try {
+            assertEquals(start + 600, reader.getLastUpdateTime());
+            assertEquals(3.0, reader.getLastDatasourceValue("bar"), 0.0);
+        } finally {
+            reader.close();
+        }
+
+        // opening another file evicts the least recently used one
+        File otherFile = createRrdFile("other");
+        RrdDb other = m_strategy.openFile(otherFile.getAbsolutePath());
+        m_strategy.closeFile(other);
+        assertTrue(first.isClosed());
+
+        RrdDb reopened = m_strategy.openFile(rrdFile.getAbsolutePath());
+        assertNotSame(first, reopened);
+        assertEquals(start + 600, reopened.getLastUpdateTime());
+        m_strategy.closeFile(reopened);
+    }
+
     public File createRrdFile() throws Exception {
-        String rrdFileBase = "foo";
+        return createRrdFile("foo");
+    }
 
+    public File createRrdFile(String rrdFileBase) throws Exception {
         m_fileAnticipator.initialize();
         String rrdExtension = m_strategy.getDefaultFileExtension();
         
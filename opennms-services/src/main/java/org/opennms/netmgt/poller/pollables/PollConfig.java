@@ -28,6 +28,8 @@
 
 package org.opennms.netmgt.poller.pollables;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.opennms.netmgt.poller.PollStatus;
 import org.opennms.netmgt.scheduler.Timer;
 
@@ -47,6 +49,16 @@ public interface PollConfig extends Timer {
      */
     public PollStatus poll();
 
+    /**
+     * Polls the service without waiting for the result.
+     *
+     * @return a future which completes with the status of the service, or {@code null}
+     *         if the service can only be polled synchronously with {@link #poll()}
+     */
+    public default CompletableFuture<PollStatus> pollAsync() {
+        return null;
+    }
+
     /**
      * <p>getCurrentTime</p>
      *
@@ -219,6 +219,19 @@ public abstract class PollableElement {
         getLockRoot().releaseTreeLock();
     }
 
+    /**
+     * Runs the task while holding the tree lock and returns once it has run.
+     * If the lock is busy, the task is run by the thread holding it before the
+     * lock is released, or by this thread once it gets the lock if that takes
+     * longer than the timeout.
+     *
+     * @param r a {@link java.lang.Runnable} object.
+     * @param timeout a long.
+     */
+    public void submitWithTreeLock(Runnable r, long timeout) {
+        getLockRoot().submitWithTreeLock(r, timeout);
+    }
+
     /**
      * <p>withTreeLock</p>
      *
@@ -223,12 +223,24 @@ public class PollableInterface extends PollableContainer {
     /** {@inheritDoc} */
     @Override
     protected PollStatus poll(PollableElement elem) {
-        PollableService critSvc = getCriticalService();
-        if (getStatus().isUp() || critSvc == null || elem == critSvc)
+        if (isPolledWith(elem))
             return super.poll(elem);
     
         return PollStatus.down();
     }
+
+    /**
+     * Tells whether {@link #poll(PollableElement)} polls the given element,
+     * rather than reporting the interface as down because its critical service
+     * is down.
+     *
+     * @param elem a {@link org.opennms.netmgt.poller.pollables.PollableElement} object.
+     * @return a boolean.
+     */
+    boolean isPolledWith(PollableElement elem) {
+        PollableService critSvc = getCriticalService();
+        return getStatus().isUp() || critSvc == null || elem == critSvc;
+    }
     
     /** {@inheritDoc} */
     @Override
@@ -321,6 +321,12 @@ public class PollableNetwork extends PollableContainer {
     public void releaseTreeLock() {
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public void submitWithTreeLock(Runnable r, long timeout) {
+        r.run();
+    }
+
     /** {@inheritDoc} */
     @Override
     public PollEvent extrapolateCause() {
@@ -32,6 +32,12 @@ import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,54 +53,167 @@ import org.opennms.netmgt.xml.event.Event;
 public class PollableNode extends PollableContainer {
     private static final Logger LOG = LoggerFactory.getLogger(PollableNode.class);
 
+    /**
+     * A task handed to the {@link Lock} that is run exactly once, either by
+     * the thread holding the lock or by the thread that submitted it.
+     */
+    private static class PendingTask {
+        private final Runnable m_task;
+        private final AtomicBoolean m_claimed = new AtomicBoolean(false);
+        private final CountDownLatch m_done = new CountDownLatch(1);
+        private volatile RuntimeException m_exception;
+
+        public PendingTask(Runnable task) {
+            m_task = task;
+        }
+
+        public boolean claim() {
+            return m_claimed.compareAndSet(false, true);
+        }
+
+        public void run() {
+            try {
+                m_task.run();
+            } catch (RuntimeException e) {
+                m_exception = e;
+            } finally {
+                m_done.countDown();
+            }
+        }
+
+        public void rethrow() {
+            if (m_exception != null) {
+                throw m_exception;
+            }
+        }
+    }
+
     /**
      * Represents a Lock 
      *
+     * The lock is reentrant. Short tasks that should not wait for the lock can
+     * be handed to it with {@link #submit(Runnable, long)}, in which case they
+     * are run by the thread that currently holds the lock right before the lock
+     * is released.
+     *
      * @author brozow
      */
     public class Lock {
-        private Thread m_owner = null;
-        private int m_obtainCount = 0;
+        private final ReentrantLock m_lock = new ReentrantLock();
+        private final Queue<PendingTask> m_pending = new ConcurrentLinkedQueue<>();
         
-        public synchronized void obtain() {
-            
-            if (m_owner != Thread.currentThread()) {
+        public void obtain() {
+            if (!m_lock.isHeldByCurrentThread()) {
                 LOG.debug("Trying to obtain lock for {}", PollableNode.this);
-                while (m_owner != null) {
-                    try { wait();} catch (InterruptedException e) { throw new ThreadInterrupted("Lock for "+PollableNode.this+" is unavailable", e);}
-                }
-                m_owner = Thread.currentThread();
+                try { m_lock.lockInterruptibly(); } catch (InterruptedException e) { throw new ThreadInterrupted("Lock for "+PollableNode.this+" is unavailable", e);}
                 LOG.debug("Obtained lock for {}", PollableNode.this);
+            } else {
+                m_lock.lock();
             }
-            m_obtainCount++;
         }
         
-        public synchronized void obtain(long timeout) {
-            
-            if (m_owner != Thread.currentThread()) {
+        public void obtain(long timeout) {
+            if (timeout == 0) {
+                obtain();
+            } else if (!m_lock.isHeldByCurrentThread()) {
                 LOG.debug("Trying to obtain lock for {}", PollableNode.this);
-                long now = System.currentTimeMillis();
-                long endTime = (timeout == 0 ? Long.MAX_VALUE : now+timeout);
-                while (m_owner != null) {
-                    try { wait(endTime-now);} catch (InterruptedException e) { throw new ThreadInterrupted("Lock for "+PollableNode.this+" is unavailable", e);}
-                    now = System.currentTimeMillis();
-                    if (m_owner != null && now >= endTime) {
+                try {
+                    if (!m_lock.tryLock(timeout, TimeUnit.MILLISECONDS)) {
                         throw new LockUnavailable("Unable to obtain lock for "+PollableNode.this+" before timeout");
                     }
-                }
-                m_owner = Thread.currentThread();
+                } catch (InterruptedException e) { throw new ThreadInterrupted("Lock for "+PollableNode.this+" is unavailable", e);}
                 LOG.debug("Obtained lock for {}", PollableNode.this);
+            } else {
+                m_lock.lock();
             }
-            m_obtainCount++;
         }
         
-        public synchronized void release() {
-            if (m_owner == Thread.currentThread()) {
-                m_obtainCount--;
-                if (m_obtainCount == 0) {
+        public void release() {
+            if (m_lock.isHeldByCurrentThread()) {
+                if (m_lock.getHoldCount() == 1) {
                     LOG.debug("Releasing lock for {}", PollableNode.this);
-                    m_owner = null;
-                    notifyAll();
+                    m_lock.unlock();
+                    runPending();
+                } else {
+                    m_lock.unlock();
+                }
+            }
+        }
+
+        /**
+         * Runs the task while holding the lock and returns once it has run.
+         *
+         * If the lock is held by another thread, the task is queued and run by
+         * that thread right before it releases the lock. If this has not
+         * happened within the given timeout, the task is taken back and run
+         * once this thread has obtained the lock itself.
+         *
+         * @param r the task to run, which must not block
+         * @param timeout how long to wait, in milliseconds, for the lock holder to run the task
+         */
+        public void submit(Runnable r, long timeout) {
+            final PendingTask task = new PendingTask(r);
+            m_pending.add(task);
+            runPending();
+
+            boolean done;
+            try {
+                done = task.m_done.await(timeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                if (task.claim()) {
+                    m_pending.remove(task);
+                    throw new ThreadInterrupted("Lock for "+PollableNode.this+" is unavailable", e);
+                }
+                Thread.currentThread().interrupt();
+                done = false;
+            }
+
+            if (!done) {
+                if (task.claim()) {
+                    m_pending.remove(task);
+                    LOG.debug("Lock for {} is still busy after {}ms, waiting for it", PollableNode.this, timeout);
+                    obtain();
+                    try {
+                        r.run();
+                        return;
+                    } finally {
+                        release();
+                    }
+                }
+                // the lock holder is already running the task
+                awaitUninterruptibly(task);
+            }
+            task.rethrow();
+        }
+
+        private void awaitUninterruptibly(PendingTask task) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    task.m_done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void runPending() {
+            // tasks queued while we are draining are either picked up by us,
+            // or by the thread that queued them once we have released the lock
+            while (!m_pending.isEmpty() && m_lock.tryLock()) {
+                try {
+                    PendingTask task;
+                    while ((task = m_pending.poll()) != null) {
+                        if (task.claim()) {
+                            task.run();
+                        }
+                    }
+                } finally {
+                    m_lock.unlock();
                 }
             }
         }
@@ -102,8 +221,8 @@ public class PollableNode extends PollableContainer {
         /**
          * @return
          */
-        public synchronized boolean isLockAvailable() {
-            return m_owner == null;
+        public boolean isLockAvailable() {
+            return !m_lock.isLocked();
         }
 
     }
@@ -319,6 +438,12 @@ public class PollableNode extends PollableContainer {
     public void releaseTreeLock() {
         m_lock.release();
     }
+
+    /** {@inheritDoc} */
+    @Override
+    public void submitWithTreeLock(Runnable r, long timeout) {
+        m_lock.submit(r, timeout);
+    }
     
     /** {@inheritDoc} */
     @Override
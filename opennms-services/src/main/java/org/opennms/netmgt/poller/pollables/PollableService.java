@@ -31,13 +31,13 @@ package org.opennms.netmgt.poller.pollables;
 import java.net.InetAddress;
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.opennms.core.logging.Logging;
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.PollStatus;
-import org.opennms.netmgt.scheduler.PostponeNecessary;
-import org.opennms.netmgt.scheduler.ReadyRunnable;
+import org.opennms.netmgt.scheduler.AsyncReadyRunnable;
 import org.opennms.netmgt.scheduler.Schedule;
 import org.opennms.netmgt.xml.event.Event;
 import org.slf4j.Logger;
@@ -48,18 +48,39 @@ import org.slf4j.LoggerFactory;
  *
  * @author <a href="mailto:brozow@opennms.org">Mathew Brozowski</a>
  */
-public class PollableService extends PollableElement implements ReadyRunnable, MonitoredService {
+public class PollableService extends PollableElement implements AsyncReadyRunnable, MonitoredService {
     
     private static final Logger LOG = LoggerFactory.getLogger(PollableService.class);
 
+    /**
+     * How long, in milliseconds, a scheduled poll lets the thread holding the
+     * node's lock process its status change before waiting for the lock itself.
+     */
+    private static final long STATUS_CHANGE_TIMEOUT = 500;
+
     private final class PollRunner implements Runnable {
     	
     	private volatile PollStatus m_pollStatus;
+    	private final PollStatus m_polledStatus;
+
+    	private PollRunner(PollStatus polledStatus) {
+    	    m_polledStatus = polledStatus;
+    	}
+
             @Override
 		public void run() {
-		    doPoll();
-		    getNode().processStatusChange(new Date());
-		    m_pollStatus = getStatus();
+		    // may run on the thread of another service's poll
+		    final Map<String, String> mdc = Logging.getCopyOfContextMap();
+		    try {
+		        putThreadContext();
+		        m_pendingStatus = m_polledStatus;
+		        doPoll();
+		        m_pendingStatus = null;
+		        getNode().processStatusChange(new Date());
+		        m_pollStatus = getStatus();
+		    } finally {
+		        Logging.setContextMap(mdc);
+		    }
 		}
 		public PollStatus getPollStatus() {
 			return m_pollStatus;
@@ -70,6 +91,11 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
 
     private volatile PollConfig m_pollConfig;
     private volatile PollStatus m_oldStatus;
+    /**
+     * Status returned by an asynchronous poll, which is used in place of polling the service
+     * when the results are processed.
+     */
+    private volatile PollStatus m_pendingStatus;
     private volatile Schedule m_schedule;
     private volatile long m_statusChangeTime = 0L;
     /**
@@ -187,7 +213,12 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
      */
     @Override
     public PollStatus poll() {
-        PollStatus newStatus = m_pollConfig.poll();
+        PollStatus newStatus = m_pendingStatus;
+        if (newStatus != null) {
+            m_pendingStatus = null;
+        } else {
+            newStatus = m_pollConfig.poll();
+        }
         if (!newStatus.isUnknown()) { 
             updateStatus(newStatus);
         }
@@ -376,7 +407,23 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
      */
     @Override
     public void run() {
-        doRun(500);
+        doRun(false, null);
+    }
+
+    /**
+     * Polls the service without holding on to the scheduler's thread when the
+     * service's monitor supports it. The results are processed by the returned
+     * completion, in the same way as {@link #run()} does.
+     *
+     * @return the future completion, or {@code null} if the service must be polled by {@link #run()}
+     */
+    @Override
+    public CompletableFuture<Runnable> runAsync() {
+        final CompletableFuture<PollStatus> future = m_pollConfig.pollAsync();
+        if (future == null) {
+            return null;
+        }
+        return future.thenApply(status -> () -> doRun(false, status));
     }
     
     /**
@@ -385,31 +432,50 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
      * @return a {@link org.opennms.netmgt.poller.PollStatus} object.
      */
     public PollStatus doRun() {
-    	return doRun(0);
+    	return doRun(true, null);
+    }
+
+    private void putThreadContext() {
+        Logging.putThreadContext("service", m_svcName);
+        Logging.putThreadContext("ipAddress", getIpAddr());
+        Logging.putThreadContext("nodeId", Integer.toString(getNodeId()));
+        Logging.putThreadContext("nodeLabel", getNodeLabel());
     }
 
-    private PollStatus doRun(int timeout) {
+    private PollStatus doRun(boolean waitForLock, PollStatus polledStatus) {
         final Map<String, String> mdc = Logging.getCopyOfContextMap();
         try {
-            Logging.putThreadContext("service", m_svcName);
-            Logging.putThreadContext("ipAddress", getIpAddr());
-            Logging.putThreadContext("nodeId", Integer.toString(getNodeId()));
-            Logging.putThreadContext("nodeLabel", getNodeLabel());
+            putThreadContext();
             long startDate = System.currentTimeMillis();
             LOG.debug("Start Scheduled Poll of service {}", this);
             PollStatus status;
             if (getContext().isNodeProcessingEnabled()) {
-                PollRunner r = new PollRunner();
-                try {
-                    withTreeLock(r, timeout);
-                } catch (LockUnavailable e) {
-                    LOG.info("Postponing poll for {}", this, e);
-                    throw new PostponeNecessary("LockUnavailable postpone poll");
+                // Poll the service before taking the node's lock so that the
+                // services of a node are polled concurrently. The lock is only
+                // held while the status is propagated up the tree.
+                if (polledStatus == null && getInterface().isPolledWith(this)) {
+                    polledStatus = m_pollConfig.poll();
+                }
+                if (waitForLock) {
+                    PollRunner r = new PollRunner(polledStatus);
+                    withTreeLock(r);
+                    status = r.getPollStatus();
+                } else {
+                    // Hand the status change over to the thread holding the lock
+                    // rather than waiting for it, or postponing the poll. It may be
+                    // run on another thread, so it must never call the monitor.
+                    if (polledStatus == null) {
+                        polledStatus = PollStatus.unknown("Not polled while the interface is down");
+                    }
+                    PollRunner r = new PollRunner(polledStatus);
+                    submitWithTreeLock(r, STATUS_CHANGE_TIMEOUT);
+                    status = r.getPollStatus();
                 }
-                status = r.getPollStatus();
             }
             else {
+                m_pendingStatus = polledStatus;
                 doPoll();
+                m_pendingStatus = null;
                 processStatusChange(new Date());
                 status = getStatus();
             }
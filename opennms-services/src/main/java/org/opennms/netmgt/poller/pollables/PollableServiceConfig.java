@@ -30,7 +30,9 @@ package org.opennms.netmgt.poller.pollables;
 
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import org.opennms.core.rpc.api.RequestRejectedException;
@@ -43,6 +45,7 @@ import org.opennms.netmgt.config.poller.Package;
 import org.opennms.netmgt.config.poller.Parameter;
 import org.opennms.netmgt.config.poller.Service;
 import org.opennms.netmgt.dao.api.ResourceStorageDao;
+import org.opennms.netmgt.poller.AsyncServiceMonitor;
 import org.opennms.netmgt.poller.LocationAwarePollerClient;
 import org.opennms.netmgt.poller.PollStatus;
 import org.opennms.netmgt.poller.ServiceMonitor;
@@ -115,6 +118,37 @@ public class PollableServiceConfig implements PollConfig, ScheduleInterval {
      */
     @Override
     public PollStatus poll() {
+        try {
+            return execute().get();
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while invoking the poll for {}."
+                    + " Marking the service as UNKNOWN.", m_service);
+            return PollStatus.unknown("Interrupted while invoking the poll for"+m_service+". "+e);
+        } catch (ExecutionException e) {
+            return toPollStatus(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Only the services monitored by an {@link AsyncServiceMonitor} are polled asynchronously,
+     * the others keep holding on to the scheduler's thread for the duration of the poll.
+     */
+    @Override
+    public CompletableFuture<PollStatus> pollAsync() {
+        if (!(m_serviceMonitor instanceof AsyncServiceMonitor)) {
+            return null;
+        }
+        return execute();
+    }
+
+    /**
+     * Polls the service through the {@link LocationAwarePollerClient}.
+     *
+     * @return a future which always completes normally, with the status of the service
+     */
+    private CompletableFuture<PollStatus> execute() {
         try {
             final String packageName = getPackageName();
             // Use the service's configured interval as the TTL for this request
@@ -122,7 +156,7 @@ public class PollableServiceConfig implements PollConfig, ScheduleInterval {
             LOG.debug("Polling {} with TTL {} using pkg {}",
                     m_service, ttlInMs, packageName);
 
-            PollStatus result = m_locationAwarePollerClient.poll()
+            return m_locationAwarePollerClient.poll()
                 .withService(m_service)
                 .withMonitor(m_serviceMonitor)
                 .withTimeToLive(ttlInMs)
@@ -130,27 +164,32 @@ public class PollableServiceConfig implements PollConfig, ScheduleInterval {
                 .withAdaptor(m_latencyStoringServiceMonitorAdaptor)
                 .withAdaptor(m_invertedStatusServiceMonitorAdaptor)
                 .execute()
-                .get().getPollStatus();
-            LOG.debug("Finish polling {} using pkg {} result = {}", m_service, packageName, result);
-            return result;
-        } catch (InterruptedException e) {
-            LOG.warn("Interrupted while invoking the poll for {}."
-                    + " Marking the service as UNKNOWN.", m_service);
-            return PollStatus.unknown("Interrupted while invoking the poll for"+m_service+". "+e);
+                .handle((response, e) -> {
+                    if (e != null) {
+                        return toPollStatus(e);
+                    }
+                    final PollStatus result = response.getPollStatus();
+                    LOG.debug("Finish polling {} using pkg {} result = {}", m_service, packageName, result);
+                    return result;
+                });
         } catch (Throwable e) {
-            final Throwable cause = e.getCause();
-            if (cause != null && cause instanceof RequestTimedOutException) {
-                LOG.warn("No response was received when remotely invoking the poll for {}."
-                        + " Marking the service as UNKNOWN.", m_service);
-                return PollStatus.unknown(String.format("No response received for %s. %s", m_service, cause));
-            } else if (cause != null && cause instanceof RequestRejectedException) {
-                LOG.warn("The request to remotely invoke the poll for {} was rejected."
-                        + " Marking the service as UNKNOWN.", m_service);
-                return PollStatus.unknown(String.format("Remote poll request rejected for %s. %s", m_service, cause));
-            }
-            LOG.error("Unexpected exception while polling {}. Marking service as DOWN", m_service, e);
-            return PollStatus.down("Unexpected exception while polling "+m_service+". "+e);
+            return CompletableFuture.completedFuture(toPollStatus(e));
+        }
+    }
+
+    private PollStatus toPollStatus(Throwable e) {
+        final Throwable cause = e.getCause();
+        if (cause != null && cause instanceof RequestTimedOutException) {
+            LOG.warn("No response was received when remotely invoking the poll for {}."
+                    + " Marking the service as UNKNOWN.", m_service);
+            return PollStatus.unknown(String.format("No response received for %s. %s", m_service, cause));
+        } else if (cause != null && cause instanceof RequestRejectedException) {
+            LOG.warn("The request to remotely invoke the poll for {} was rejected."
+                    + " Marking the service as UNKNOWN.", m_service);
+            return PollStatus.unknown(String.format("Remote poll request rejected for %s. %s", m_service, cause));
         }
+        LOG.error("Unexpected exception while polling {}. Marking service as DOWN", m_service, e);
+        return PollStatus.down("Unexpected exception while polling "+m_service+". "+e);
     }
 
     /**
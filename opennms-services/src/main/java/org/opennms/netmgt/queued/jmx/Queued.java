@@ -247,5 +247,32 @@ public class Queued extends AbstractSpringContextJmxServiceDaemon<org.opennms.ne
         }
     }
 
+    /**
+     * <p>getOldestPendingAge</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getOldestPendingAge() {
+        if (getStatsStatus()) {
+            return getRrdStrategy().getOldestPendingAge();
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * <p>getTotalQueueTime</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getTotalQueueTime() {
+        if (getStatsStatus()) {
+            return getRrdStrategy().getTotalQueueTime();
+        } else {
+            return 0;
+        }
+    }
 
 }
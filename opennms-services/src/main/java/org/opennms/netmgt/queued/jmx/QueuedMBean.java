@@ -115,5 +115,17 @@ public interface QueuedMBean extends BaseOnmsMBean {
 	 * @return a long.
 	 */
 	public long getStartTime();
+	/**
+	 * <p>getOldestPendingAge</p>
+	 *
+	 * @return the age in milliseconds of the oldest pending file.
+	 */
+	public long getOldestPendingAge();
+	/**
+	 * <p>getTotalQueueTime</p>
+	 *
+	 * @return the milliseconds spent in the queue by all the dequeued items.
+	 */
+	public long getTotalQueueTime();
 
 }
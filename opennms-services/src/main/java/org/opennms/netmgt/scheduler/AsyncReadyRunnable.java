@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link ReadyRunnable} whose work waits on an asynchronous operation.
+ *
+ * A {@link Schedule} calls {@link #runAsync()} instead of {@link #run()}, and
+ * runs the completion the returned future yields on the scheduler's threads,
+ * so that none of them are held while the operation is outstanding. The
+ * completion may throw {@link PostponeNecessary} to be retried later on.
+ *
+ * Runnables that can't always run asynchronously return {@code null} from
+ * {@link #runAsync()}, in which case {@link #run()} is called instead.
+ */
+public interface AsyncReadyRunnable extends ReadyRunnable {
+
+    /**
+     * Starts the asynchronous part of the work.
+     *
+     * @return a future which completes with the rest of the work, or {@code null}
+     *         if the work should be done synchronously by {@link #run()}
+     */
+    public CompletableFuture<Runnable> runAsync();
+}
@@ -29,6 +29,7 @@
 package org.opennms.netmgt.scheduler;
 
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -82,6 +83,9 @@ public class Schedule {
             }
             
             if (!m_interval.scheduledSuspension()) {
+                if (m_schedulable instanceof AsyncReadyRunnable && runAsync((AsyncReadyRunnable)m_schedulable)) {
+                    return;
+                }
                 try {
                     Schedule.this.run();
                 } catch (PostponeNecessary e) {
@@ -90,8 +94,40 @@ public class Schedule {
                     return;
                 }
             }
-                
 
+            reschedule();
+        }
+
+        /**
+         * @return false if the runnable must be run synchronously instead
+         */
+        private boolean runAsync(AsyncReadyRunnable schedulable) {
+            final CompletableFuture<Runnable> future;
+            try {
+                future = schedulable.runAsync();
+            } catch (PostponeNecessary e) {
+                m_timer.schedule(random.nextInt(10)*1000+5000, this);
+                return true;
+            }
+
+            if (future == null) {
+                return false;
+            } else if (future.isDone() && !future.isCompletedExceptionally()) {
+                new CompletionEntry(this, future.join()).run();
+                return true;
+            }
+            future.whenComplete((completion, t) -> {
+                if (t != null) {
+                    LOG.warn("Asynchronous run of {} failed.", m_schedulable, t);
+                    reschedule();
+                } else {
+                    m_timer.schedule(0, new CompletionEntry(this, completion));
+                }
+            });
+            return true;
+        }
+
+        private void reschedule() {
             // if it is expired by the current run then don't reschedule
             if (isExpired()) {
                 LOG.debug("Schedule {} expired.  No need to reschedule.", this);
@@ -108,6 +144,43 @@ public class Schedule {
         public String toString() { return "ScheduleEntry[expCode="+m_expirationCode+"] for "+m_schedulable; }
     }
 
+    /**
+     * Runs the completion of an {@link AsyncReadyRunnable} and schedules the next run.
+     */
+    class CompletionEntry implements ReadyRunnable {
+        private final ScheduleEntry m_entry;
+        private final Runnable m_completion;
+
+        public CompletionEntry(ScheduleEntry entry, Runnable completion) {
+            m_entry = entry;
+            m_completion = completion;
+        }
+
+        @Override
+        public boolean isReady() {
+            return m_entry.isExpired() || m_schedulable.isReady();
+        }
+
+        @Override
+        public void run() {
+            if (m_entry.isExpired()) {
+                LOG.debug("Schedule {} expired.  Discarding the completion.", m_entry);
+                return;
+            }
+
+            try {
+                m_completion.run();
+            } catch (PostponeNecessary e) {
+                m_timer.schedule(random.nextInt(10)*1000+5000, this);
+                return;
+            }
+            m_entry.reschedule();
+        }
+
+        @Override
+        public String toString() { return "CompletionEntry for "+m_entry; }
+    }
+
     /**
      * <p>Constructor for Schedule.</p>
      *
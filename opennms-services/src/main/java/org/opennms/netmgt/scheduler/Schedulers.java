@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.scheduler;
+
+import java.util.concurrent.ExecutorService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the {@link Scheduler} used by the daemons.
+ *
+ * The implementation is selected with the {@code org.opennms.netmgt.scheduler.type}
+ * system property, which can be overridden for a single daemon with
+ * {@code org.opennms.netmgt.scheduler.<parent>.type} (i.e.
+ * {@code org.opennms.netmgt.scheduler.Collectd.type}). Valid values are
+ * {@code legacy} (the default) and {@code wheel}.
+ *
+ * The {@link TimingWheelScheduler} is tuned with the {@code tickMillis},
+ * {@code wheelBits}, {@code levels}, {@code readyRecheckMillis} and
+ * {@code maxJitter} properties under the same prefixes.
+ */
+public final class Schedulers {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Schedulers.class);
+
+    public static final String PROPERTY_PREFIX = "org.opennms.netmgt.scheduler.";
+
+    public static final String TYPE_LEGACY = "legacy";
+
+    public static final String TYPE_WHEEL = "wheel";
+
+    private Schedulers() {}
+
+    /**
+     * Creates a scheduler for the given daemon.
+     *
+     * @param parent
+     *            the name of the daemon, used for the threads and to look up
+     *            the daemon specific properties
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     * @return a new, unstarted {@link Scheduler}
+     */
+    public static Scheduler create(final String parent, final int maxSize) {
+        final String type = getProperty(parent, "type", TYPE_LEGACY);
+        if (TYPE_WHEEL.equalsIgnoreCase(type)) {
+            final long tickMillis = getLong(parent, "tickMillis", TimingWheelScheduler.DEFAULT_TICK_MILLIS);
+            final int wheelBits = (int)getLong(parent, "wheelBits", TimingWheelScheduler.DEFAULT_WHEEL_BITS);
+            final int levels = (int)getLong(parent, "levels", TimingWheelScheduler.DEFAULT_LEVELS);
+            final long readyRecheckMillis = getLong(parent, "readyRecheckMillis", TimingWheelScheduler.DEFAULT_READY_RECHECK_MILLIS);
+            final long maxJitter = getLong(parent, "maxJitter", 0);
+            LOG.info("Using a timing wheel scheduler for {} with tickMillis={}, wheelBits={}, levels={}, maxJitter={}", parent, tickMillis, wheelBits, levels, maxJitter);
+            return new TimingWheelScheduler(parent, maxSize, tickMillis, wheelBits, levels, readyRecheckMillis, maxJitter);
+        } else if (!TYPE_LEGACY.equalsIgnoreCase(type)) {
+            LOG.warn("Unknown scheduler type '{}' for {}, using {}", type, parent, TYPE_LEGACY);
+        }
+        return new LegacyScheduler(parent, maxSize);
+    }
+
+    /**
+     * Returns the thread pool of the given scheduler, if it has one.
+     *
+     * @param scheduler a {@link Scheduler} object.
+     * @return the {@link ExecutorService} running the tasks, or {@code null}
+     */
+    public static ExecutorService getRunner(final Scheduler scheduler) {
+        if (scheduler instanceof LegacyScheduler) {
+            return ((LegacyScheduler)scheduler).getRunner();
+        } else if (scheduler instanceof TimingWheelScheduler) {
+            return ((TimingWheelScheduler)scheduler).getRunner();
+        }
+        return null;
+    }
+
+    private static String getProperty(final String parent, final String name, final String defaultValue) {
+        final String value = System.getProperty(PROPERTY_PREFIX + parent + "." + name);
+        if (value != null) {
+            return value.trim();
+        }
+        return System.getProperty(PROPERTY_PREFIX + name, defaultValue).trim();
+    }
+
+    private static long getLong(final String parent, final String name, final long defaultValue) {
+        final String value = getProperty(parent, name, Long.toString(defaultValue));
+        try {
+            return Long.parseLong(value);
+        } catch (final NumberFormatException e) {
+            LOG.warn("Invalid value '{}' for scheduler property {} of {}, using {}", value, name, parent, defaultValue);
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,458 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.scheduler;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.fiber.PausableFiber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link Scheduler} backed by a hierarchical timing wheel.
+ *
+ * Each level of the wheel has {@code 2^wheelBits} buckets and every bucket of
+ * a level spans a full rotation of the level below it, so inserting and
+ * expiring an entry are both O(1) regardless of how many entries are
+ * scheduled. Entries that are further away than the wheel can represent are
+ * parked in the top level and re-inserted whenever their bucket cascades.
+ *
+ * Callers never take a lock: {@link #schedule(long, ReadyRunnable)} only
+ * pushes the entry onto a lock-free inbox which the worker thread drains on
+ * every tick. The wheel itself is only ever touched by the worker thread.
+ *
+ * Entries that are due but not {@link ReadyRunnable#isReady() ready} are
+ * checked again after {@code readyRecheckMillis}, which mirrors the once per
+ * second polling of {@link LegacyScheduler}.
+ *
+ * When {@code maxJitter} is set, entries scheduled with an interval of 0 are
+ * delayed by a random amount between 0 and {@code maxJitter} milliseconds.
+ * The daemons schedule every service with an interval of 0 when they start
+ * so this spreads the first run, and hence all of the following ones, over
+ * the jitter window instead of firing them all on the same tick.
+ */
+public class TimingWheelScheduler implements Runnable, PausableFiber, Scheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimingWheelScheduler.class);
+
+    public static final long DEFAULT_TICK_MILLIS = 100;
+
+    public static final int DEFAULT_WHEEL_BITS = 9;
+
+    public static final int DEFAULT_LEVELS = 4;
+
+    public static final long DEFAULT_READY_RECHECK_MILLIS = 1000;
+
+    private static final class Timeout {
+        private final ReadyRunnable m_runnable;
+        private long m_deadlineTick;
+        private Timeout m_next;
+
+        private Timeout(final ReadyRunnable runnable, final long deadlineTick) {
+            m_runnable = runnable;
+            m_deadlineTick = deadlineTick;
+        }
+    }
+
+    private final String m_parent;
+
+    private final ExecutorService m_runner;
+
+    private final long m_tickNanos;
+
+    private final int m_wheelBits;
+
+    private final int m_levels;
+
+    private final long m_mask;
+
+    private final long m_span;
+
+    private final long m_readyRecheckTicks;
+
+    private final long m_maxJitter;
+
+    /**
+     * Entries submitted by {@link #schedule(long, ReadyRunnable)} that have
+     * not been placed on the wheel yet.
+     */
+    private final Queue<Timeout> m_inbox = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The buckets of the wheel, indexed by level and then by slot. Only
+     * accessed by the worker thread.
+     */
+    private final Timeout[][] m_wheel;
+
+    private final AtomicInteger m_scheduled = new AtomicInteger();
+
+    private final long m_startNanos = System.nanoTime();
+
+    /**
+     * The last tick that has been expired. Only written by the worker thread.
+     */
+    private volatile long m_currentTick = 0;
+
+    private volatile int m_status;
+
+    private volatile Thread m_worker;
+
+    private volatile long m_numTasksExecuted = 0;
+
+    /**
+     * Constructs a new instance of the scheduler using the default tick and
+     * wheel size and no jitter.
+     *
+     * @param parent
+     *            String prepended to the names of the pool threads
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize) {
+        this(parent, maxSize, DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_BITS, DEFAULT_LEVELS, DEFAULT_READY_RECHECK_MILLIS, 0);
+    }
+
+    /**
+     * Constructs a new instance of the scheduler.
+     *
+     * @param parent
+     *            String prepended to the names of the pool threads
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     * @param tickMillis
+     *            The resolution of the wheel in milliseconds.
+     * @param wheelBits
+     *            Each level of the wheel has 2^wheelBits buckets.
+     * @param levels
+     *            The number of levels in the wheel.
+     * @param readyRecheckMillis
+     *            How long to wait before checking a due entry that was not
+     *            ready again.
+     * @param maxJitter
+     *            The maximum delay in milliseconds added to entries scheduled
+     *            with an interval of 0, or 0 to run them right away.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize, final long tickMillis, final int wheelBits, final int levels, final long readyRecheckMillis, final long maxJitter) {
+        Assert.isTrue(tickMillis > 0, "tickMillis must be positive");
+        Assert.isTrue(wheelBits > 0 && levels > 0 && wheelBits * levels < 63, "wheelBits * levels must be between 1 and 62");
+        Assert.isTrue(maxJitter >= 0, "maxJitter must not be negative");
+
+        m_parent = parent;
+        m_runner = Executors.newFixedThreadPool(maxSize, new LogPreservingThreadFactory(parent, maxSize));
+        m_tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        m_wheelBits = wheelBits;
+        m_levels = levels;
+        m_mask = (1L << wheelBits) - 1;
+        m_span = 1L << (wheelBits * levels);
+        m_readyRecheckTicks = Math.max(1, readyRecheckMillis / tickMillis);
+        m_maxJitter = maxJitter;
+        m_wheel = new Timeout[levels][1 << wheelBits];
+        m_status = START_PENDING;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void schedule(final long interval, final ReadyRunnable runnable) {
+        long delay = interval;
+        if (delay <= 0 && m_maxJitter > 0) {
+            delay = ThreadLocalRandom.current().nextLong(m_maxJitter + 1);
+        }
+        final long deadline = System.nanoTime() - m_startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay));
+        // Round up so that entries never run before their interval has elapsed
+        final long deadlineTick = (deadline + m_tickNanos - 1) / m_tickNanos;
+
+        LOG.debug("schedule: Adding ready runnable {} at interval {}", runnable, interval);
+        m_inbox.add(new Timeout(runnable, deadlineTick));
+        m_scheduled.incrementAndGet();
+    }
+
+    /**
+     * <p>getCurrentTime</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getCurrentTime() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * <p>start</p>
+     */
+    @Override
+    public synchronized void start() {
+        Assert.state(m_worker == null, "The fiber has already run or is running");
+
+        m_worker = new Thread(this, getName());
+        m_worker.start();
+        m_status = STARTING;
+
+        LOG.info("start: scheduler started");
+    }
+
+    /**
+     * <p>stop</p>
+     */
+    @Override
+    public synchronized void stop() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+
+        m_status = STOP_PENDING;
+        m_worker.interrupt();
+        m_runner.shutdown();
+
+        LOG.info("stop: scheduler stopped");
+    }
+
+    /**
+     * <p>pause</p>
+     */
+    @Override
+    public synchronized void pause() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == PAUSED) {
+            return;
+        }
+
+        m_status = PAUSE_PENDING;
+        notifyAll();
+    }
+
+    /**
+     * <p>resume</p>
+     */
+    @Override
+    public synchronized void resume() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == RUNNING) {
+            return;
+        }
+
+        m_status = RESUME_PENDING;
+        notifyAll();
+    }
+
+    /**
+     * <p>getStatus</p>
+     *
+     * @return a int.
+     */
+    @Override
+    public synchronized int getStatus() {
+        if (m_worker != null && m_worker.isAlive() == false) {
+            m_status = STOPPED;
+        }
+        return m_status;
+    }
+
+    /**
+     * Returns the name of this fiber.
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String getName() {
+        return m_parent + "-TimingWheelScheduler";
+    }
+
+    /**
+     * Returns total number of elements currently scheduled.
+     *
+     * @return the number of entries waiting on the wheel or in the inbox
+     */
+    public int getScheduled() {
+        return m_scheduled.get();
+    }
+
+    /**
+     * Returns the pool of threads that are used to executed the runnable
+     * instances scheduled by the class' instance.
+     *
+     * @return thread pool
+     */
+    public ExecutorService getRunner() {
+        return m_runner;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getNumTasksExecuted() {
+        return m_numTasksExecuted;
+    }
+
+    /**
+     * The main method of the scheduler. Every tick the inbox is drained onto
+     * the wheel and the buckets that have come due are expired.
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            m_status = RUNNING;
+        }
+
+        LOG.debug("run: scheduler running");
+
+        try {
+            for (;;) {
+                synchronized (this) {
+                    if (m_status != RUNNING && m_status != PAUSED && m_status != PAUSE_PENDING && m_status != RESUME_PENDING) {
+                        LOG.debug("run: status = {}, time to exit", m_status);
+                        break;
+                    }
+
+                    while (m_status == PAUSE_PENDING || m_status == PAUSED) {
+                        if (m_status == PAUSE_PENDING) {
+                            LOG.debug("run: pausing.");
+                        }
+                        m_status = PAUSED;
+                        wait();
+                    }
+
+                    if (m_status == RESUME_PENDING) {
+                        LOG.debug("run: resuming.");
+                        m_status = RUNNING;
+                    }
+                }
+
+                final long elapsed = System.nanoTime() - m_startNanos;
+                advance(elapsed / m_tickNanos);
+
+                final long sleep = m_tickNanos - elapsed % m_tickNanos;
+                synchronized (this) {
+                    if (m_status == RUNNING) {
+                        TimeUnit.NANOSECONDS.timedWait(this, sleep);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.debug("run: interrupted");
+        }
+
+        LOG.debug("run: scheduler exiting, state = STOPPED");
+        synchronized (this) {
+            m_status = STOPPED;
+        }
+    }
+
+    /**
+     * Moves the wheel forward to the given tick, expiring every entry whose
+     * deadline has been reached along the way.
+     */
+    void advance(final long targetTick) {
+        drainInbox();
+        while (m_currentTick < targetTick) {
+            final long tick = m_currentTick + 1;
+            m_currentTick = tick;
+            // Cascade the higher levels whose bucket boundary we just crossed
+            for (int level = 1; level < m_levels; level++) {
+                if ((tick & ((1L << (m_wheelBits * level)) - 1)) != 0) {
+                    break;
+                }
+                expireBucket(level, (int)((tick >>> (m_wheelBits * level)) & m_mask));
+            }
+            expireBucket(0, (int)(tick & m_mask));
+        }
+    }
+
+    private void drainInbox() {
+        Timeout timeout;
+        while ((timeout = m_inbox.poll()) != null) {
+            place(timeout);
+        }
+    }
+
+    private void expireBucket(final int level, final int slot) {
+        Timeout timeout = m_wheel[level][slot];
+        m_wheel[level][slot] = null;
+        while (timeout != null) {
+            final Timeout next = timeout.m_next;
+            timeout.m_next = null;
+            place(timeout);
+            timeout = next;
+        }
+    }
+
+    /**
+     * Places the entry in the bucket matching its deadline, or runs it when
+     * the deadline has already been reached.
+     */
+    private void place(final Timeout timeout) {
+        final long ticks = timeout.m_deadlineTick - m_currentTick;
+        if (ticks <= 0) {
+            expire(timeout);
+            return;
+        }
+
+        // Entries beyond the reach of the wheel wait in the top level
+        final long slotTick = ticks < m_span ? timeout.m_deadlineTick : m_currentTick + m_span - 1;
+        int level = 0;
+        while (level < m_levels - 1 && (slotTick - m_currentTick) >>> (m_wheelBits * (level + 1)) != 0) {
+            level++;
+        }
+        final int slot = (int)((slotTick >>> (m_wheelBits * level)) & m_mask);
+        timeout.m_next = m_wheel[level][slot];
+        m_wheel[level][slot] = timeout;
+    }
+
+    private void expire(final Timeout timeout) {
+        final ReadyRunnable runnable = timeout.m_runnable;
+        if (!runnable.isReady()) {
+            timeout.m_deadlineTick = m_currentTick + m_readyRecheckTicks;
+            place(timeout);
+            return;
+        }
+
+        LOG.debug("run: found ready runnable {}", runnable);
+        m_scheduled.decrementAndGet();
+        try {
+            m_runner.execute(runnable);
+        } catch (RejectedExecutionException e) {
+            if (m_runner.isShutdown()) {
+                LOG.debug("run: runner is shut down, dropping {}", runnable);
+                return;
+            }
+            throw e;
+        }
+        ++m_numTasksExecuted;
+    }
+}
@@ -42,9 +42,12 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 
 import javax.sql.DataSource;
 
@@ -76,10 +79,14 @@ import org.opennms.netmgt.mock.MockVisitor;
 import org.opennms.netmgt.mock.MockVisitorAdapter;
 import org.opennms.netmgt.mock.OutageAnticipator;
 import org.opennms.netmgt.poller.LocationAwarePollerClient;
+import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.poller.ServiceMonitor;
 import org.opennms.netmgt.poller.mock.MockPollContext;
 import org.opennms.netmgt.poller.mock.MockScheduler;
 import org.opennms.netmgt.poller.mock.MockTimer;
+import org.opennms.netmgt.poller.support.AbstractServiceMonitor;
+import org.opennms.netmgt.poller.support.DefaultServiceMonitorRegistry;
 import org.opennms.netmgt.scheduler.Schedule;
 import org.opennms.netmgt.scheduler.ScheduleTimer;
 import org.opennms.netmgt.xml.event.Event;
@@ -156,6 +163,9 @@ public class PollablesIT {
     @Autowired
     private LocationAwarePollerClient m_locationAwarePollerClient;
 
+    @Autowired
+    private DefaultServiceMonitorRegistry m_serviceMonitorRegistry;
+
     private int m_lockCount = 0;
 
 
@@ -2440,6 +2450,191 @@ public class PollablesIT {
 
     }
 
+    @Test
+    public void testSubmitWithTreeLock() throws Exception {
+        final Thread[] ranOn = new Thread[1];
+        final Runnable r = new Runnable() {
+            @Override
+            public void run() {
+                m_lockCount++;
+                assertEquals(1, m_lockCount);
+                ranOn[0] = Thread.currentThread();
+                m_lockCount--;
+            }
+        };
+
+        // when the lock is available the task runs right away
+        pNode1.submitWithTreeLock(r, 1000);
+        assertSame(Thread.currentThread(), ranOn[0]);
+        assertTrue(pNode1.isTreeLockAvailable());
+
+        // the task is handed to the thread holding the lock, and submit returns once it has run
+        Thread lockHolder = holdTreeLock(pNode1, 500);
+        long start = System.currentTimeMillis();
+        pNode1.submitWithTreeLock(r, 5000);
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertSame(lockHolder, ranOn[0]);
+        lockHolder.join();
+
+        // when the lock holder takes too long the task is run once this thread gets the lock
+        lockHolder = holdTreeLock(pNode1, 1500);
+        start = System.currentTimeMillis();
+        pNode1.submitWithTreeLock(r, 200);
+        assertTrue(System.currentTimeMillis() - start >= 1000);
+        assertSame(Thread.currentThread(), ranOn[0]);
+        lockHolder.join();
+        assertTrue(pNode1.isTreeLockAvailable());
+    }
+
+    @Test(timeout=30000)
+    public void testPollWaitsForDeferredStatusChange() throws Exception {
+        mDot1.bringDown();
+        anticipateDown(mDot1);
+
+        // the status change is run by the thread holding the lock when it releases it
+        Thread lockHolder = holdTreeLock(pNode1, 300);
+        pDot1Icmp.run();
+        assertDown(pDot1Icmp);
+        assertDown(pDot1);
+        lockHolder.join();
+
+        verifyAnticipated();
+    }
+
+    @Test(timeout=30000)
+    public void testPollWaitsForLockAfterStatusChangeTimeout() throws Exception {
+        mNode1.bringDown();
+        anticipateDown(mNode1);
+
+        // the lock is held for longer than the poll lets the lock holder process its status
+        Thread lockHolder = holdTreeLock(pNode1, 2000);
+        long start = System.currentTimeMillis();
+        pDot1Icmp.run();
+        assertTrue(System.currentTimeMillis() - start >= 1000);
+        assertDown(pDot1Icmp);
+        assertDown(pNode1);
+        lockHolder.join();
+
+        verifyAnticipated();
+    }
+
+    /**
+     * Starts a thread that holds the tree lock of the element for the given
+     * number of milliseconds, and returns once it has obtained the lock.
+     */
+    private Thread holdTreeLock(final PollableElement elem, final long millis) throws InterruptedException {
+        final CountDownLatch locked = new CountDownLatch(1);
+        final Thread lockHolder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                elem.withTreeLock(new Runnable() {
+                    @Override
+                    public void run() {
+                        locked.countDown();
+                        try { Thread.sleep(millis); } catch (InterruptedException e) {}
+                    }
+                });
+            }
+        });
+        lockHolder.start();
+        locked.await();
+        return lockHolder;
+    }
+
+    @Test(timeout=30000)
+    public void testBlockedMonitorDoesNotDelayInterfaceDown() throws Exception {
+        mDot1.bringDown();
+        anticipateDown(mDot1);
+
+        pollWhileSmtpIsBlocked(pDot1Icmp);
+
+        assertDown(pDot1);
+        assertUp(pNode1);
+    }
+
+    @Test(timeout=30000)
+    public void testBlockedMonitorDoesNotDelayNodeDown() throws Exception {
+        mNode1.bringDown();
+        anticipateDown(mNode1);
+
+        pollWhileSmtpIsBlocked(pDot1Icmp);
+
+        assertDown(pNode1);
+    }
+
+    /**
+     * Polls the given service while the scheduled poll of SMTP on 192.168.1.1
+     * hangs in its monitor, and verifies the anticipated events and outages.
+     */
+    private void pollWhileSmtpIsBlocked(PollableService svc) throws Exception {
+        final ServiceMonitor smtpMonitor = m_pollerConfig.getServiceMonitor("SMTP");
+        final BlockingMonitor blockingMonitor = new BlockingMonitor(smtpMonitor);
+        final Map<String, String> props = Collections.singletonMap("type", BlockingMonitor.class.getCanonicalName());
+        m_serviceMonitorRegistry.onBind(blockingMonitor, props);
+        m_pollerConfig.getServiceMonitors().put("SMTP", blockingMonitor);
+        try {
+            pDot1Smtp.setPollConfig(new PollableServiceConfig(pDot1Smtp, m_pollerConfig, m_pollerConfig,
+                    findPackageForService(m_pollerConfig, "192.168.1.1", "SMTP"), m_scheduler,
+                    m_persisterFactory, m_resourceStorageDao, m_locationAwarePollerClient));
+        } finally {
+            m_pollerConfig.getServiceMonitors().put("SMTP", smtpMonitor);
+        }
+
+        final Thread blocked = new Thread(pDot1Smtp);
+        try {
+            blocked.start();
+            blockingMonitor.m_polling.await();
+
+            // the other service of the node completes its poll while SMTP is still being polled
+            svc.run();
+            assertTrue(blocked.isAlive());
+            assertDown(svc);
+            verifyAnticipated();
+
+            // SMTP finishes its poll once its monitor returns, without any further events
+            blockingMonitor.m_release.countDown();
+            blocked.join();
+            assertDown(pDot1);
+            verifyAnticipated();
+        } finally {
+            blockingMonitor.m_release.countDown();
+            m_serviceMonitorRegistry.onUnbind(blockingMonitor, props);
+        }
+    }
+
+    /**
+     * Holds on to the thread polling the service until it is released, and
+     * then polls the service with the given monitor.
+     *
+     * The poller invokes the monitor over RPC, which looks the monitor up by
+     * its class name, so this has to be a named class.
+     */
+    public static class BlockingMonitor extends AbstractServiceMonitor {
+        private final ServiceMonitor m_delegate;
+        private final CountDownLatch m_polling = new CountDownLatch(1);
+        private final CountDownLatch m_release = new CountDownLatch(1);
+
+        public BlockingMonitor(ServiceMonitor delegate) {
+            m_delegate = delegate;
+        }
+
+        @Override
+        public PollStatus poll(MonitoredService monSvc, Map<String, Object> parameters) {
+            m_polling.countDown();
+            try {
+                m_release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return m_delegate.poll(monSvc, parameters);
+        }
+
+        @Override
+        public Map<String, Object> getRuntimeAttributes(MonitoredService monSvc, Map<String, Object> parameters) {
+            return m_delegate.getRuntimeAttributes(monSvc, parameters);
+        }
+    }
+
     /**
      * @param i
      */
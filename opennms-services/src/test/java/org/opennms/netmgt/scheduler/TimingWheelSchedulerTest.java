@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.core.fiber.Fiber;
+
+public class TimingWheelSchedulerTest {
+
+    private TimingWheelScheduler m_scheduler;
+
+    private static class TimedRunnable implements ReadyRunnable {
+        private final long m_scheduledAt = System.nanoTime();
+        private final CountDownLatch m_latch;
+        private volatile long m_ranAt = -1;
+
+        private TimedRunnable(final CountDownLatch latch) {
+            m_latch = latch;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void run() {
+            m_ranAt = System.nanoTime();
+            m_latch.countDown();
+        }
+
+        private long getDelayMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(m_ranAt - m_scheduledAt);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (m_scheduler != null && m_scheduler.getStatus() != Fiber.STOPPED) {
+            m_scheduler.stop();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void runsEntriesOnAllLevelsAfterTheirInterval() throws Exception {
+        // 4 buckets per level and 2 levels only cover 16 ticks (160ms), so
+        // the longer intervals have to cascade or wait in the top level
+        m_scheduler = new TimingWheelScheduler("Test", 4, 10, 2, 2, 10, 0);
+        m_scheduler.start();
+
+        final long[] intervals = { 0, 5, 20, 45, 130, 170, 400, 900 };
+        final CountDownLatch latch = new CountDownLatch(intervals.length);
+        final List<TimedRunnable> runnables = new ArrayList<>();
+        for (final long interval : intervals) {
+            final TimedRunnable runnable = new TimedRunnable(latch);
+            runnables.add(runnable);
+            m_scheduler.schedule(interval, runnable);
+        }
+
+        latch.await();
+        for (int i = 0; i < intervals.length; i++) {
+            final long delay = runnables.get(i).getDelayMillis();
+            assertTrue("entry with interval " + intervals[i] + " ran after " + delay + "ms", delay >= intervals[i]);
+        }
+        // The count is updated after the runnables have been handed off, so poll for it
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (m_scheduler.getNumTasksExecuted() < intervals.length && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(intervals.length, m_scheduler.getNumTasksExecuted());
+        assertEquals(0, m_scheduler.getScheduled());
+    }
+
+    @Test(timeout = 10000)
+    public void rechecksEntriesThatAreNotReady() throws Exception {
+        m_scheduler = new TimingWheelScheduler("Test", 1, 10, 4, 2, 20, 0);
+        m_scheduler.start();
+
+        final AtomicBoolean ready = new AtomicBoolean(false);
+        final AtomicInteger checks = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+        m_scheduler.schedule(0, new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                checks.incrementAndGet();
+                return ready.get();
+            }
+
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+
+        while (checks.get() < 3) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, latch.getCount());
+        assertEquals(1, m_scheduler.getScheduled());
+
+        ready.set(true);
+        latch.await();
+        assertEquals(0, m_scheduler.getScheduled());
+    }
+
+    @Test(timeout = 10000)
+    public void spreadsInitialSchedulesWithJitter() throws Exception {
+        m_scheduler = new TimingWheelScheduler("Test", 4, 10, 6, 2, 10, 500);
+        m_scheduler.start();
+
+        final CountDownLatch latch = new CountDownLatch(50);
+        final List<TimedRunnable> runnables = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            final TimedRunnable runnable = new TimedRunnable(latch);
+            runnables.add(runnable);
+            m_scheduler.schedule(0, runnable);
+        }
+        latch.await();
+
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (final TimedRunnable runnable : runnables) {
+            min = Math.min(min, runnable.m_ranAt);
+            max = Math.max(max, runnable.m_ranAt);
+        }
+        assertTrue("runs were not spread", TimeUnit.NANOSECONDS.toMillis(max - min) >= 100);
+    }
+
+    @Test(timeout = 10000)
+    public void doesNotRunWhilePaused() throws Exception {
+        m_scheduler = new TimingWheelScheduler("Test", 1, 10, 4, 2, 10, 0);
+        m_scheduler.start();
+        while (m_scheduler.getStatus() != Fiber.RUNNING) {
+            Thread.sleep(10);
+        }
+
+        m_scheduler.pause();
+        final CountDownLatch latch = new CountDownLatch(1);
+        m_scheduler.schedule(20, new TimedRunnable(latch));
+        assertEquals(false, latch.await(200, TimeUnit.MILLISECONDS));
+
+        m_scheduler.resume();
+        latch.await();
+
+        m_scheduler.stop();
+        while (m_scheduler.getStatus() != Fiber.STOPPED) {
+            Thread.sleep(10);
+        }
+    }
+}
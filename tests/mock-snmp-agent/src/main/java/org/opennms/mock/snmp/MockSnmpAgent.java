@@ -38,8 +38,10 @@ import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.UnknownHostException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -134,6 +136,7 @@ public class MockSnmpAgent extends BaseAgent implements Runnable {
     private AtomicReference<List<ManagedObject>> m_moList = new AtomicReference<List<ManagedObject>>();
     private AtomicReference<MockSnmpMOLoader> m_moLoader = new AtomicReference<MockSnmpMOLoader>();
     private AtomicReference<IOException> m_failure = new AtomicReference<IOException>();
+    private List<UsmUser> m_usmUsers = new CopyOnWriteArrayList<UsmUser>();
 
     private static File BOOT_COUNT_FILE;
 
@@ -154,7 +157,15 @@ public class MockSnmpAgent extends BaseAgent implements Runnable {
     }
 
     public MockSnmpAgent(final File confFile, final URL moFile) {
-        super(BOOT_COUNT_FILE, confFile, new CommandProcessor(new OctetString(MPv3.createLocalEngineID(new OctetString("MOCKAGENT")))));
+        this(confFile, moFile, new OctetString(MPv3.createLocalEngineID(new OctetString("MOCKAGENT"))));
+    }
+
+    /**
+     * Creates the mock agent with the given engine ID, so that SNMPv3 managers
+     * can tell several agents apart.
+     */
+    public MockSnmpAgent(final File confFile, final URL moFile, final OctetString engineId) {
+        super(BOOT_COUNT_FILE, confFile, new CommandProcessor(engineId));
         m_moLoader.set(new PropertiesBackedManagedObject());
         m_moFile.set(moFile);
         agent.setWorkerPool(ThreadPool.create("RequestPool", 4));
@@ -177,6 +188,15 @@ public class MockSnmpAgent extends BaseAgent implements Runnable {
     }
     
     public static MockSnmpAgent createAgentAndRun(URL moFile, String bindAddress) throws InterruptedException {
+        return createAgentAndRun(moFile, bindAddress, new OctetString(MPv3.createLocalEngineID(new OctetString("MOCKAGENT"))));
+    }
+
+    /**
+     * Creates and runs a mock agent with the given engine ID, which also accepts the
+     * given SNMPv3 users. A user with the security name of one of the default users
+     * replaces that user, and keeps its access rights.
+     */
+    public static MockSnmpAgent createAgentAndRun(URL moFile, String bindAddress, OctetString engineId, UsmUser... usmUsers) throws InterruptedException {
         setupLogging();
         try {
             InputStream in = moFile.openStream();
@@ -189,7 +209,9 @@ public class MockSnmpAgent extends BaseAgent implements Runnable {
             throw new RuntimeException("Got IOException while checking for existence of mock object file: " + e, e);
         }
 
-        final MockSnmpAgent agent = new MockSnmpAgent(new File("/dev/null"), moFile, bindAddress);
+        final MockSnmpAgent agent = new MockSnmpAgent(new File("/dev/null"), moFile, engineId);
+        agent.m_address.set(bindAddress);
+        agent.m_usmUsers.addAll(Arrays.asList(usmUsers));
         Thread thread = new Thread(agent, agent.getClass().getSimpleName() + '-' + agent.hashCode());
         thread.start();
 
@@ -633,6 +655,9 @@ public class MockSnmpAgent extends BaseAgent implements Runnable {
                            null,
                            null);
         usm.addUser(user.getSecurityName(), usm.getLocalEngineID(), user);
+        for (final UsmUser usmUser : m_usmUsers) {
+            usm.addUser(usmUser.getSecurityName(), usm.getLocalEngineID(), usmUser);
+        }
     }
 
     /** {@inheritDoc} */